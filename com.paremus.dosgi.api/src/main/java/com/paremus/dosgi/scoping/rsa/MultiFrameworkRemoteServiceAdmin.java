@@ -88,4 +88,15 @@ public interface MultiFrameworkRemoteServiceAdmin extends RemoteServiceAdmin {
 	 * across all frameworks
 	 */
 	Collection<ImportReference> getAllImportedEndpoints();
+	
+	/**
+	 * Create a batch which can be used to send many calls to an imported
+	 * service in a single message
+	 * 
+	 * @param importedService - a service object imported by this {@link RemoteServiceAdmin}
+	 * @return A new, empty, batch for the imported service
+	 * @throws IllegalArgumentException if the service was not imported by this 
+	 * {@link RemoteServiceAdmin}
+	 */
+	<T> RemoteCallBatch<T> createBatch(T importedService);
 }
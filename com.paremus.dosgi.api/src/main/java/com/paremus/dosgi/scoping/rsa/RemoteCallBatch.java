@@ -0,0 +1,57 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.api
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.scoping.rsa;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * A batch of calls to a single imported remote service. Calls are recorded 
+ * using {@link #call(Function)} and are then sent to the remote service in a 
+ * single message when {@link #send()} is called. This is much more efficient
+ * than making many individual remote calls.
+ * <p>
+ * Only methods with synchronous arguments and return values may be batched.
+ *
+ * @param <T> The type of the remote service
+ */
+@ProviderType
+public interface RemoteCallBatch<T> {
+
+	/**
+	 * Record a call to be made as part of this batch. The supplied function 
+	 * must call exactly one method on the service object that it is passed.
+	 * The value returned by the function is ignored.
+	 * 
+	 * @param call - a function which calls the remote service
+	 * @return A future which will be completed with the result of the remote call
+	 * @throws IllegalArgumentException if the function does not call exactly one 
+	 * method, or the method called cannot be batched
+	 */
+	<R> CompletableFuture<R> call(Function<? super T, R> call);
+	
+	/**
+	 * Send all of the calls recorded since the last time this method was called.
+	 * The batch may then be used to record more calls.
+	 */
+	void send();
+	
+	/**
+	 * @return the number of calls recorded and waiting to be sent
+	 */
+	int size();
+}
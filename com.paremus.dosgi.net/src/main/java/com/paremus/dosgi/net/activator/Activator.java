@@ -42,6 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.paremus.dosgi.net.config.Config;
+import com.paremus.dosgi.net.impl.SerializerRegistry;
 import com.paremus.license.License;
 
 import io.netty.buffer.ByteBufAllocator;
@@ -82,6 +83,8 @@ public class Activator implements BundleActivator {
 	
 	private int clientWorkQueueMaxLength;
 	
+	private SerializerRegistry serializers;
+	
 	private ManagedServiceFactoryImpl msf;
 
 	private ServiceRegistration<ManagedServiceFactory> msfReg;
@@ -110,6 +113,9 @@ public class Activator implements BundleActivator {
 			thread.setDaemon(true);
 			return thread;
 		}, 100, MILLISECONDS, 16384);
+		
+		serializers = new SerializerRegistry(context);
+		serializers.open();
 
 		Dictionary<String, Object> rawConfig = null;
 		
@@ -219,7 +225,7 @@ public class Activator implements BundleActivator {
 				});
 			}
 
-			if(serverWorkers == null || serverWorkers.executorCount() != cfg.server_io_threads() ||
+			if(serverWorkers == null || serverWorkers.executorCount() != cfg.server_worker_threads() ||
 					serverWorkQueueMaxLength != cfg.server_task_queue_depth()) {
 				toUnregister = toUnregister == null ? msfReg : toUnregister;
 				toDestroy = toDestroy == null ? msf : toDestroy;
@@ -231,7 +237,7 @@ public class Activator implements BundleActivator {
 
 				AtomicInteger ioThreadId = new AtomicInteger(1); 
 				
-				serverWorkers = new RSAExecutorGroup(cfg.server_io_threads(), r -> {
+				serverWorkers = new RSAExecutorGroup(cfg.server_worker_threads(), r -> {
 					String name = (cfg.share_io_threads() ? 
 							"Paremus RSA Server Worker " :
 							"Paremus RSA Worker ") + ioThreadId.getAndIncrement();
@@ -264,7 +270,7 @@ public class Activator implements BundleActivator {
 
 				AtomicInteger ioThreadId = new AtomicInteger(1); 
 				
-				clientWorkers = new RSAExecutorGroup(cfg.client_io_threads(), r -> {
+				clientWorkers = new RSAExecutorGroup(cfg.client_worker_threads(), r -> {
 					String name = "Paremus RSA Client Worker " + ioThreadId.getAndIncrement();
 					Thread thread = new FastThreadLocalThread(r, name);
 					thread.setDaemon(true);
@@ -273,7 +279,8 @@ public class Activator implements BundleActivator {
 			}
 
 			if(msf == null) {
-				msf = new ManagedServiceFactoryImpl(context, timer, serverIo, clientIo, serverWorkers, clientWorkers, allocator);
+				msf = new ManagedServiceFactoryImpl(context, timer, serverIo, clientIo, serverWorkers, clientWorkers, 
+						allocator, serializers);
 				toRegister = msf;
 			}
 			
@@ -369,6 +376,7 @@ public class Activator implements BundleActivator {
 			Thread.currentThread().interrupt();
 		}
 		
+		serializers.close();
 		timer.stop();
 	}
 	
@@ -48,6 +48,7 @@ import org.slf4j.LoggerFactory;
 
 import com.paremus.dosgi.net.config.TransportConfig;
 import com.paremus.dosgi.net.impl.RemoteServiceAdminFactoryImpl;
+import com.paremus.dosgi.net.impl.SerializerRegistry;
 import com.paremus.dosgi.scoping.rsa.MultiFrameworkRemoteServiceAdmin;
 import com.paremus.netty.tls.ParemusNettyTLS;
 
@@ -74,6 +75,8 @@ public class ManagedServiceFactoryImpl implements ManagedServiceFactory {
 	
 	private final ByteBufAllocator allocator;
 	
+	private final SerializerRegistry serializers;
+	
 	private final ConcurrentHashMap<String, ServiceTracker<ParemusNettyTLS, ParemusNettyTLS>> trackers = new ConcurrentHashMap<>();
 	
 	private final ConcurrentHashMap<String, RemoteServiceAdminFactoryImpl> rsas = new ConcurrentHashMap<>();
@@ -84,7 +87,8 @@ public class ManagedServiceFactoryImpl implements ManagedServiceFactory {
 	private volatile boolean open = true;
 	
 	public ManagedServiceFactoryImpl(BundleContext context, Timer timer, EventLoopGroup serverIo, EventLoopGroup clientIo,
-			EventExecutorGroup serverWorkers, EventExecutorGroup clientWorkers, ByteBufAllocator allocator) {
+			EventExecutorGroup serverWorkers, EventExecutorGroup clientWorkers, ByteBufAllocator allocator,
+			SerializerRegistry serializers) {
 		this.context = context;
 		this.timer = timer;
 		this.serverIo = serverIo;
@@ -92,6 +96,7 @@ public class ManagedServiceFactoryImpl implements ManagedServiceFactory {
 		this.serverWorkers = serverWorkers;
 		this.clientWorkers = clientWorkers;
 		this.allocator = allocator;
+		this.serializers = serializers;
 	}
 
 	@Override
@@ -154,7 +159,7 @@ public class ManagedServiceFactoryImpl implements ManagedServiceFactory {
 					RemoteServiceAdminFactoryImpl newRSA;
 					try {
 						newRSA = new RemoteServiceAdminFactoryImpl(config, esf, allocator, serverIo, 
-								clientIo, serverWorkers, clientWorkers, timer);
+								clientIo, serverWorkers, clientWorkers, timer, serializers);
 					} catch (IllegalArgumentException iae) {
 						logger.error("The RSA could not be created with encoding scheme {}", reference, iae);
 						return false;
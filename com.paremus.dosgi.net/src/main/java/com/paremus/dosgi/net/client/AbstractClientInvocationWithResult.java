@@ -17,26 +17,68 @@ package com.paremus.dosgi.net.client;
 import java.util.UUID;
 
 import com.paremus.dosgi.net.message.AbstractPayloadMessage;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.message.BufferSizePredictor;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
 public abstract class AbstractClientInvocationWithResult extends AbstractPayloadMessage<ClientMessageType> {
 	
+	private EventExecutor decodeExecutor;
+	
 	public AbstractClientInvocationWithResult(ClientMessageType calltype, UUID serviceId, int callId, 
 			Serializer serializer) {
 		super(calltype, serviceId, callId, serializer);
 	}
+	
+	public AbstractClientInvocationWithResult(ClientMessageType calltype, UUID serviceId, int callId, 
+			Serializer serializer, BufferSizePredictor sizePredictor) {
+		super(calltype, serviceId, callId, serializer, sizePredictor);
+	}
 
+	/**
+	 * Get the executor used to deserialize the responses to this invocation. The
+	 * same executor is returned every time, so that responses are processed in the
+	 * order that they were received. Must only be called by the channel's IO thread.
+	 * 
+	 * @param workers the group to choose an executor from
+	 * @return the executor
+	 */
+	final EventExecutor getDecodeExecutor(EventExecutorGroup workers) {
+		if(decodeExecutor == null) {
+			decodeExecutor = workers.next();
+		}
+		return decodeExecutor;
+	}
+	
 	public abstract long getTimeout();
 	
 	public abstract void fail(Throwable e);
 	
-	public abstract void fail(ByteBuf o) throws Exception;
+	public final void fail(ByteBuf o) throws Exception {
+		fail(null, o);
+	}
+
+	public final void data(ByteBuf o) throws Exception {
+		data(null, o);
+	}
+
+	/**
+	 * @param channel the channel the failure was read from, used to find session state
+	 * @param o the serialized failure
+	 */
+	public abstract void fail(Channel channel, ByteBuf o) throws Exception;
 
-	public abstract void data(ByteBuf o) throws Exception;
+	/**
+	 * @param channel the channel the data was read from, used to find session state
+	 * @param o the serialized data
+	 */
+	public abstract void data(Channel channel, ByteBuf o) throws Exception;
 	
 	public abstract void addCompletionListener(GenericFutureListener<Future<Object>> listener);
 
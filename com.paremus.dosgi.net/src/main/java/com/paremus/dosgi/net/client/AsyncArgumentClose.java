@@ -0,0 +1,43 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.client;
+
+import static com.paremus.dosgi.net.client.ClientMessageType.ASYNC_ARG_CLOSE;
+
+import com.paremus.dosgi.net.message.AbstractRSAMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelPromise;
+
+public class AsyncArgumentClose extends AbstractRSAMessage<ClientMessageType> {
+
+	private final int parameterIndex; 
+	
+	public AsyncArgumentClose(ClientInvocation invocation, int i) {
+		super(ASYNC_ARG_CLOSE, invocation.getServiceId(), invocation.getCallId());
+		this.parameterIndex = i;
+	}
+
+	public int getParameterIndex() {
+		return parameterIndex;
+	}
+
+	@Override
+	public void write(ByteBuf buffer, ChannelPromise promise) {
+		writeHeader(buffer);
+		buffer.writeByte(parameterIndex);
+		writeLength(buffer);
+	}
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import org.osgi.framework.ServiceException;
 
 import com.paremus.dosgi.net.message.AbstractPayloadMessage;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelPromise;
@@ -61,7 +62,7 @@ public class AsyncArgumentCompletion extends AbstractPayloadMessage<ClientMessag
 	public void write(ByteBuf buffer, ChannelPromise promise) throws IOException {
 		writeHeader(buffer);
 		buffer.writeByte(parameterIndex);
-		getSerializer().serializeReturn(buffer, result);
+		SessionSerializer.serializeReturn(getSerializer(), buffer, result, promise.channel());
 		writeLength(buffer);
 		
 		promise.addListener(f -> {
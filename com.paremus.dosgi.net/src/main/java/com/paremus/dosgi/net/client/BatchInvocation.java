@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.client;
+
+import static com.paremus.dosgi.net.client.ClientMessageType.BATCH;
+import static org.osgi.framework.ServiceException.REMOTE;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.ServiceException;
+
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * A group of {@link ClientInvocation}s on a single service which are sent
+ * to the remote node as one message. The batch is complete when all of the
+ * invocations in it have completed.
+ */
+public class BatchInvocation extends AbstractClientInvocationWithResult {
+	
+	/**
+	 * The largest number of invocations that will be sent in a single batch
+	 */
+	public static final int MAX_BATCH_SIZE = 1024;
+	
+	private final IntObjectMap<ClientInvocation> invocations;
+	
+	private final Promise<Object> completion = ImmediateEventExecutor.INSTANCE.newPromise();
+	
+	public BatchInvocation(UUID serviceId, int callId, Serializer serializer, 
+			List<ClientInvocation> invocations) {
+		super(BATCH, serviceId, callId, serializer);
+		
+		if(invocations.isEmpty() || invocations.size() > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("A batch must contain between 1 and " + MAX_BATCH_SIZE + 
+					" invocations but contained " + invocations.size());
+		}
+		
+		this.invocations = new IntObjectHashMap<>(invocations.size());
+		AtomicInteger remaining = new AtomicInteger(invocations.size());
+		for(ClientInvocation ci : invocations) {
+			this.invocations.put(ci.getCallId(), ci);
+			ci.getResult().addListener(f -> {
+					if(remaining.decrementAndGet() == 0) {
+						completion.trySuccess(null);
+					}
+				});
+		}
+	}
+
+	public ClientInvocation getInvocation(int callId) {
+		return invocations.get(callId);
+	}
+
+	@Override
+	public long getTimeout() {
+		return invocations.values().stream()
+				.mapToLong(ClientInvocation::getTimeout)
+				.max().orElse(-1);
+	}
+
+	@Override
+	public void fail(Throwable e) {
+		invocations.values().forEach(ci -> ci.fail(e));
+	}
+
+	@Override
+	public void fail(Channel channel, ByteBuf b) throws Exception {
+		Throwable o;
+		try {
+			o = (Throwable) SessionSerializer.deserializeReturn(getSerializer(), b, channel);
+		} catch (Exception e) {
+			o = new ServiceException(
+					"Failed to deserialize the remote return value", ServiceException.REMOTE, e);
+		}
+		
+		fail(o);
+	}
+
+	@Override
+	public void data(Channel channel, ByteBuf b) throws Exception {
+		fail(new ServiceException("The remote service " + getServiceId() + 
+				" sent an individual response to a batch of calls", REMOTE));
+	}
+
+	@Override
+	public void addCompletionListener(GenericFutureListener<Future<Object>> listener) {
+		completion.addListener(listener);
+	}
+
+	@Override
+	public void write(ByteBuf buffer, ChannelPromise promise) throws IOException {
+		writeHeader(buffer);
+		buffer.writeShort(invocations.size());
+		
+		for(ClientInvocation ci : invocations.values()) {
+			buffer.writeInt(ci.getCallId());
+			
+			// Create space for the entry length
+			int entryLengthStart = buffer.writerIndex();
+			buffer.writerIndex(entryLengthStart + 4);
+			
+			buffer.writeShort(ci.getMethodId());
+			SessionSerializer.serializeArgs(getSerializer(), buffer, ci.getArgs(), promise.channel());
+			
+			buffer.setInt(entryLengthStart, buffer.writerIndex() - entryLengthStart - 4);
+		}
+		
+		writeLength(buffer);
+		
+		promise.addListener(f -> {
+				if(f.isSuccess()) {
+					Channel channel = ((ChannelPromise)f).channel();
+					// Each call in the batch may be cancelled individually
+					for(ClientInvocation ci : invocations.values()) {
+						ci.getResult().addListener(r -> {
+								if(r.isCancelled()) {
+									channel.writeAndFlush(new InvocationCancellation(
+										getServiceId(), ci.getCallId(), true), channel.voidPromise());
+								}
+							});
+					}
+				} else {
+					fail(new SendFailedException("Unable to invoke the remote service " +
+							getServiceId() + " due to a communications failure", f.cause()));
+				}
+			});
+	}
+}
@@ -22,9 +22,11 @@ import java.util.function.Consumer;
 
 import org.osgi.framework.ServiceException;
 
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelPromise;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
@@ -38,15 +40,28 @@ public class BeginStreamingInvocation extends AbstractClientInvocationWithResult
 
 	private final Future<?> close;
 
+	private final int initialCredit;
 	
 	public BeginStreamingInvocation(UUID serviceId, int callId, Serializer serializer, 
 			EventExecutor executor, Consumer<Object> dataConsumer, 
 			Consumer<Exception> closeConsumer, Future<?> close) {
+		this(serviceId, callId, serializer, executor, dataConsumer, closeConsumer, close, 0);
+	}
+	
+	/**
+	 * @param initialCredit The number of data events that the server may send before
+	 * it receives a {@link ClientCredit}. A value of zero opens the stream using time 
+	 * based back pressure.
+	 */
+	public BeginStreamingInvocation(UUID serviceId, int callId, Serializer serializer, 
+			EventExecutor executor, Consumer<Object> dataConsumer, 
+			Consumer<Exception> closeConsumer, Future<?> close, int initialCredit) {
 		super(STREAMING_RESPONSE_OPEN, serviceId, callId, serializer);
 		this.executor = executor;
 		this.dataConsumer = dataConsumer;
 		this.closeConsumer = closeConsumer;
 		this.close = close;
+		this.initialCredit = initialCredit;
 	}
 
 	public Consumer<Object> getDataConsumer() {
@@ -88,11 +103,11 @@ public class BeginStreamingInvocation extends AbstractClientInvocationWithResult
 	}
 
 	@Override
-	public void fail(ByteBuf b) throws Exception {
+	public void fail(Channel channel, ByteBuf b) throws Exception {
 		
 		Throwable o;
 		try {
-			o = (Throwable) getSerializer().deserializeReturn(b);
+			o = (Throwable) SessionSerializer.deserializeReturn(getSerializer(), b, channel);
 		} catch (Exception e) {
 			o = new ServiceException(
 					"Failed to deserialize the remote exception value", ServiceException.REMOTE, e);
@@ -102,9 +117,9 @@ public class BeginStreamingInvocation extends AbstractClientInvocationWithResult
 	}
 	
 	@Override
-	public void data(ByteBuf b) throws Exception {
+	public void data(Channel channel, ByteBuf b) throws Exception {
 		try {
-			internalData(getSerializer().deserializeReturn(b));
+			internalData(SessionSerializer.deserializeReturn(getSerializer(), b, channel));
 		} catch (Exception e) {
 			internalError(new ServiceException(
 					"Failed to deserialize the remote return value", ServiceException.REMOTE, e));
@@ -133,6 +148,9 @@ public class BeginStreamingInvocation extends AbstractClientInvocationWithResult
 	@Override
 	public void write(ByteBuf buffer, ChannelPromise promise) {
 		writeHeader(buffer);
+		if(initialCredit > 0) {
+			buffer.writeInt(initialCredit);
+		}
 		writeLength(buffer);
 		promise.addListener(f -> {
 				if(!f.isSuccess()) {
@@ -0,0 +1,284 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.client;
+
+import static org.osgi.framework.ServiceException.REMOTE;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.osgi.framework.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker protecting the callers of a single imported service.
+ * <p>
+ * The breaker records the outcome of the most recent calls in a fixed size window. If
+ * the proportion of those calls which failed with a communications failure (a timeout, a
+ * failed send, server overload or a closed connection) reaches the failure threshold then
+ * the breaker opens, and calls are rejected immediately rather than waiting for the remote
+ * service. Once the open period has passed the breaker becomes half open and allows a small
+ * number of probe calls through. If the probes all succeed the breaker closes, otherwise it opens again.
+ * <p>
+ * Failures thrown by the remote service implementation are application failures, not
+ * communications failures, and so count as successful calls. The same is true of
+ * serialization failures.
+ */
+public class CircuitBreaker {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+	
+	private final String name;
+
+	private volatile State state = State.CLOSED;
+	
+	/** Guarded by this */
+	private boolean enabled;
+	/** Guarded by this */
+	private double failureThreshold;
+	/** Guarded by this */
+	private int minimumCalls;
+	/** Guarded by this */
+	private long openNanos;
+	/** Guarded by this */
+	private int probes;
+	
+	/** Guarded by this */
+	private boolean[] window = new boolean[0];
+	/** Guarded by this */
+	private int windowPosition;
+	/** Guarded by this */
+	private int recordedCalls;
+	/** Guarded by this */
+	private int recordedFailures;
+
+	/** Guarded by this */
+	private long openUntil;
+	/** Guarded by this */
+	private int probesStarted;
+	/** Guarded by this */
+	private int probesSucceeded;
+
+	/**
+	 * Create a circuit breaker
+	 * 
+	 * @param name A name used when logging changes of state
+	 * @param enabled false if the breaker should never open
+	 * @param failureThreshold the proportion of failed calls which causes the breaker to open
+	 * @param minimumCalls the number of calls which must be recorded before the breaker may open
+	 * @param windowSize the number of recent calls to consider
+	 * @param openMillis how long the breaker stays open before allowing probe calls
+	 * @param probes the number of successful probe calls needed to close the breaker
+	 */
+	public CircuitBreaker(String name, boolean enabled, double failureThreshold, int minimumCalls, 
+			int windowSize, long openMillis, int probes) {
+		this.name = name;
+		update(enabled, failureThreshold, minimumCalls, windowSize, openMillis, probes);
+	}
+	
+	/**
+	 * @return a circuit breaker which never opens
+	 */
+	public static CircuitBreaker disabled() {
+		return new CircuitBreaker("disabled", false, 1.0d, 1, 1, 0, 1);
+	}
+
+	/**
+	 * Change the configuration of this breaker. If the window size changes then
+	 * the previously recorded calls are discarded.
+	 */
+	public synchronized void update(boolean enabled, double failureThreshold, int minimumCalls, 
+			int windowSize, long openMillis, int probes) {
+		if(failureThreshold <= 0 || failureThreshold > 1) {
+			throw new IllegalArgumentException("The failure threshold must be greater than 0 and at most 1, not " 
+					+ failureThreshold);
+		}
+		if(windowSize < 1 || minimumCalls < 1 || probes < 1 || openMillis < 0) {
+			throw new IllegalArgumentException("The circuit breaker configuration is invalid");
+		}
+		this.enabled = enabled;
+		this.failureThreshold = failureThreshold;
+		this.minimumCalls = Math.min(minimumCalls, windowSize);
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+		this.probes = probes;
+		
+		if(window.length != windowSize) {
+			window = new boolean[windowSize];
+			windowPosition = 0;
+			recordedCalls = 0;
+			recordedFailures = 0;
+		}
+		
+		if(!enabled && state != State.CLOSED) {
+			close();
+		}
+	}
+	
+	/**
+	 * Attempt to start a call which will have a result
+	 * 
+	 * @return true if the call may proceed, in which case exactly one of 
+	 * {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()} must later be called
+	 */
+	public boolean tryAcquire() {
+		if(state == State.CLOSED) {
+			return true;
+		}
+		synchronized (this) {
+			switch(state) {
+				case CLOSED:
+					return true;
+				case OPEN:
+					if(System.nanoTime() - openUntil < 0) {
+						return false;
+					}
+					state = State.HALF_OPEN;
+					probesStarted = 0;
+					probesSucceeded = 0;
+					LOG.info("The circuit breaker for {} is half open and will allow {} probe calls", name, probes);
+					// Fall through to take a probe permit
+				case HALF_OPEN:
+					if(probesStarted < probes) {
+						probesStarted++;
+						return true;
+					}
+					return false;
+				default:
+					throw new IllegalStateException("Unknown state " + state);
+			}
+		}
+	}
+	
+	/**
+	 * Check whether a call with no result may proceed. No outcome should 
+	 * be recorded for the call.
+	 * 
+	 * @return false if the breaker is open
+	 */
+	public boolean isCallPermitted() {
+		if(state == State.OPEN) {
+			synchronized (this) {
+				return state != State.OPEN || System.nanoTime() - openUntil >= 0;
+			}
+		}
+		return true;
+	}
+	
+	public synchronized void onSuccess() {
+		if(state == State.HALF_OPEN) {
+			if(++probesSucceeded >= probes) {
+				close();
+			}
+		} else if(state == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	public synchronized void onFailure() {
+		if(state == State.HALF_OPEN) {
+			open();
+		} else if(state == State.CLOSED) {
+			record(true);
+		}
+	}
+
+	/**
+	 * Complete a call whose outcome says nothing about the health of the 
+	 * remote service, for example because it was cancelled by the caller
+	 */
+	public synchronized void onIgnored() {
+		if(state == State.HALF_OPEN && probesStarted > probesSucceeded) {
+			probesStarted--;
+		}
+	}
+	
+	/**
+	 * Record the outcome of a call
+	 * 
+	 * @param success whether the call succeeded
+	 * @param failure the failure, or null for a successful call
+	 */
+	public void onComplete(boolean success, Throwable failure) {
+		if(success) {
+			onSuccess();
+		} else if (isCommunicationsFailure(failure)) {
+			onFailure();
+		} else if (failure instanceof java.util.concurrent.CancellationException) {
+			onIgnored();
+		} else {
+			// The remote service threw an exception, but it was reachable
+			onSuccess();
+		}
+	}
+
+	/**
+	 * Only failures of the link to the remote node count against the breaker. Remote 
+	 * exceptions, and failures to serialize or deserialize values, show that the
+	 * remote service was reachable.
+	 */
+	private static boolean isCommunicationsFailure(Throwable t) {
+		if(t instanceof SendFailedException) {
+			return true;
+		} else if(!(t instanceof ServiceException) || ((ServiceException) t).getType() != REMOTE) {
+			return false;
+		}
+		Throwable cause = t.getCause();
+		return cause instanceof TimeoutException || cause instanceof ServerOverloadedException || 
+				cause instanceof ClosedChannelException;
+	}
+	
+	private void record(boolean failure) {
+		if(recordedCalls == window.length) {
+			if(window[windowPosition]) {
+				recordedFailures--;
+			}
+		} else {
+			recordedCalls++;
+		}
+		window[windowPosition] = failure;
+		if(failure) {
+			recordedFailures++;
+		}
+		windowPosition = (windowPosition + 1) % window.length;
+		
+		if(enabled && recordedFailures > 0 && recordedCalls >= minimumCalls && 
+				recordedFailures >= failureThreshold * recordedCalls) {
+			open();
+		}
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openUntil = System.nanoTime() + openNanos;
+		LOG.warn("The circuit breaker for {} has opened and will reject calls for {} milliseconds", 
+				name, TimeUnit.NANOSECONDS.toMillis(openNanos));
+	}
+	
+	private void close() {
+		state = State.CLOSED;
+		windowPosition = 0;
+		recordedCalls = 0;
+		recordedFailures = 0;
+		LOG.info("The circuit breaker for {} has closed", name);
+	}
+
+	public State getState() {
+		return state;
+	}
+}
@@ -0,0 +1,24 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.client;
+
+public class CircuitBreakerOpenException extends Exception {
+
+	private static final long serialVersionUID = -3385725407012687413L;
+
+	public CircuitBreakerOpenException() {
+		super("The circuit breaker for the remote service is open");
+	}
+}
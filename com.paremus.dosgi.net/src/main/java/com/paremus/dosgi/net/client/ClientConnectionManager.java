@@ -21,6 +21,7 @@ import static org.osgi.framework.ServiceException.REMOTE;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
+import java.nio.channels.ClosedChannelException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
@@ -76,6 +77,7 @@ public class ClientConnectionManager {
 
 	private final EventExecutorGroup clientWorkers;
 	private final Timer timer;
+	private final ResponseDecoding responseDecoding;
 	
 	boolean closed;
 
@@ -86,6 +88,7 @@ public class ClientConnectionManager {
 		this.allocator = allocator;
 		this.clientWorkers = clientWorkers;
 		this.timer = timer;
+		this.responseDecoding = config.client_response_decoding();
 		
 		this.clientIo = clientIo;
 		
@@ -250,8 +253,7 @@ public class ClientConnectionManager {
 			Throwable failure = x.cause();
 			clientWorkers.execute(() -> {
 				String message = "The connection to the remote node " + toUse.remoteAddress() + " was lost";
-				failAll(toUse, failure == null ? new ServiceException(message, REMOTE) : 
-					new ServiceException(message, REMOTE, failure));
+				failAll(toUse, connectionLost(message, failure));
 			});
 		});
 		
@@ -262,7 +264,8 @@ public class ClientConnectionManager {
 		ChannelFuture future = null;
 		try {
 			future = f.apply(ch -> {
-				ClientResponseHandler clientResponseHandler = new ClientResponseHandler(this, timer);
+				ClientResponseHandler clientResponseHandler = new ClientResponseHandler(this, timer, 
+						responseDecoding == ResponseDecoding.WORKER ? clientWorkers : null);
 						ch.pipeline().addLast(ImmediateEventExecutor.INSTANCE, clientResponseHandler);
 						ch.pipeline().addLast(ImmediateEventExecutor.INSTANCE, new ClientRequestSerializer(clientResponseHandler));
 			        }, remoteAddress);
@@ -277,8 +280,7 @@ public class ClientConnectionManager {
 							.ifPresent(s -> s.stream().forEach(ir -> {
 									Throwable failure = x.cause();
 									String message = "The connection to the remote node " + remoteAddress + " was lost";
-									ir.asyncFail(failure == null ? new ServiceException(message, REMOTE) : 
-														new ServiceException(message, REMOTE, failure));
+									ir.asyncFail(connectionLost(message, failure));
 								}));
 					});
 				
@@ -321,6 +323,14 @@ public class ClientConnectionManager {
 					.forEach(ir -> ir.asyncFail(t)));
 	}
 
+	private static ServiceException connectionLost(String message, Throwable failure) {
+		ClosedChannelException closed = new ClosedChannelException();
+		if(failure != null) {
+			closed.initCause(failure);
+		}
+		return new ServiceException(message, REMOTE, closed);
+	}
+
 	public void addImportRegistration(ImportRegistrationImpl ir) {
 		String failure = null;
 		Channel channel = ir.getChannel();
@@ -398,4 +408,12 @@ public class ClientConnectionManager {
 				.flatMap(s -> s.filter(ir -> serviceId.equals(ir.getId())).findFirst())
 				.ifPresent(ir -> ir.asyncFail(se)));
 	}
+
+	public void notifyCacheInvalidation(Channel channel, UUID serviceId) {
+		// This is cheap, and must happen before any later response is processed
+		ofNullable(channelsToServices.get(channel))
+			.map(Set::stream)
+			.flatMap(s -> s.filter(ir -> serviceId.equals(ir.getId())).findFirst())
+			.ifPresent(ImportRegistrationImpl::invalidateCaches);
+	}
 }
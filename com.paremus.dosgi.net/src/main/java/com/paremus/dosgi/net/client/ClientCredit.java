@@ -0,0 +1,49 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.client;
+
+import static com.paremus.dosgi.net.client.ClientMessageType.STREAMING_RESPONSE_CREDIT;
+
+import java.util.UUID;
+
+import com.paremus.dosgi.net.message.AbstractRSAMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelPromise;
+
+public class ClientCredit extends AbstractRSAMessage<ClientMessageType> {
+
+	private final int credit; 
+	
+	public ClientCredit(UUID serviceId, int callId, int credit) {
+		super(STREAMING_RESPONSE_CREDIT, serviceId, callId);
+		this.credit = credit;
+	}
+
+	public int getCredit() {
+		return credit;
+	}
+
+	public ClientCredit fromTemplate(int credit) {
+		return new ClientCredit(getServiceId(), getCallId(), credit);
+	}
+
+	@Override
+	public void write(ByteBuf buffer, ChannelPromise promise) {
+		writeHeader(buffer);
+		buffer.writeInt(credit);
+		writeLength(buffer);
+	}
+}
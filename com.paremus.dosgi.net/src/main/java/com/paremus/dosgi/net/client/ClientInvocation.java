@@ -26,9 +26,15 @@ import java.util.function.Function;
 
 import org.osgi.framework.ServiceException;
 
+import com.paremus.dosgi.net.message.BufferSizePredictor;
+import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStream;
+import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStreamFactory;
+import com.paremus.dosgi.net.pushstream.StreamCredit;
 import com.paremus.dosgi.net.serialize.CompletedPromise;
 import com.paremus.dosgi.net.serialize.CompletedPromise.State;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.SerializationSession;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
@@ -42,6 +48,10 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 	
 	private static final Object[] EMPTY_ARGS = new Object[0];
 	
+	private static final int[] NO_STREAM_ARGS = new int[0];
+	
+	private static final DataStreamFactory[] NO_STREAM_CONNECTORS = new DataStreamFactory[0];
+	
 	private final int methodId;
 	
 	private final Object[] args;
@@ -49,6 +59,16 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 	private final int[] promiseArgs;
 	
 	private final int[] completableFutureArgs;
+	
+	private final int[] streamArgs;
+	
+	private final DataStreamFactory[] streamConnectors;
+	
+	/** The values of the streamed arguments, which are sent when the server asks for them */
+	private final Object[] streamSources;
+	
+	/** Guarded by this */
+	private final DataStream[] uploads;
 
 	private final Function<Object, Future<Object>> toNettyPromiseAdapter;
 	
@@ -57,17 +77,46 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 	private final AtomicLong timeout; 
 	
 	private final String methodName;
+	
+	private byte[] serializedArgs;
 
 	public ClientInvocation(boolean withReturn, UUID serviceId, int methodId, int callId, 
 			Object[] args, int[] promiseArgs, int[] completableFutureArgs, 
 			Serializer serializer, Function<Object, Future<Object>> toNettyPromiseAdapter, 
 			Promise<Object> result, AtomicLong timeout, String methodName) {
-		super(withReturn ? WITH_RETURN : FIRE_AND_FORGET, serviceId, callId, serializer);
+		this(withReturn, serviceId, methodId, callId, args, promiseArgs, completableFutureArgs, 
+				serializer, toNettyPromiseAdapter, result, timeout, methodName, null);
+	}
+	
+	public ClientInvocation(boolean withReturn, UUID serviceId, int methodId, int callId, 
+			Object[] args, int[] promiseArgs, int[] completableFutureArgs, 
+			Serializer serializer, Function<Object, Future<Object>> toNettyPromiseAdapter, 
+			Promise<Object> result, AtomicLong timeout, String methodName, BufferSizePredictor sizePredictor) {
+		this(withReturn, serviceId, methodId, callId, args, promiseArgs, completableFutureArgs, 
+				serializer, toNettyPromiseAdapter, result, timeout, methodName, sizePredictor, 
+				NO_STREAM_ARGS, NO_STREAM_CONNECTORS);
+	}
+	
+	/**
+	 * @param streamArgs the indices of the <code>PushStream</code> and <code>PushEventSource</code> 
+	 * arguments, whose events are sent to the server using credit based flow control
+	 * @param streamConnectors the connectors used to consume each of the streamed arguments
+	 */
+	public ClientInvocation(boolean withReturn, UUID serviceId, int methodId, int callId, 
+			Object[] args, int[] promiseArgs, int[] completableFutureArgs, 
+			Serializer serializer, Function<Object, Future<Object>> toNettyPromiseAdapter, 
+			Promise<Object> result, AtomicLong timeout, String methodName, BufferSizePredictor sizePredictor,
+			int[] streamArgs, DataStreamFactory[] streamConnectors) {
+		super(withReturn ? WITH_RETURN : FIRE_AND_FORGET, serviceId, callId, serializer, sizePredictor);
 		
 		this.methodId = methodId;
 		this.args = args == null ? EMPTY_ARGS : args;
 		this.promiseArgs = promiseArgs;
 		this.completableFutureArgs = completableFutureArgs;
+		this.streamArgs = streamArgs;
+		this.streamConnectors = streamConnectors;
+		this.streamSources = new Object[streamArgs.length];
+		this.uploads = new DataStream[streamArgs.length];
 		this.toNettyPromiseAdapter = toNettyPromiseAdapter;
 		this.result = result;
 		this.timeout = timeout;
@@ -77,7 +126,20 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 	public ClientInvocation fromTemplate(boolean withReturn, int callId, Object[] args, Promise<Object> result) {
 		return new ClientInvocation(withReturn, getServiceId(), getMethodId(), callId, args,
 				promiseArgs, completableFutureArgs, getSerializer(), toNettyPromiseAdapter, 
-				result, timeout, methodName);
+				result, timeout, methodName, getSizePredictor(), streamArgs, streamConnectors);
+	}
+
+	/**
+	 * Supply the arguments already serialized without a session, for example
+	 * when they were serialized to make a cache key. They are written as they
+	 * are unless the channel uses a serialization session.
+	 * 
+	 * @param serializedArgs the serialized arguments, or <code>null</code>
+	 * @return this invocation
+	 */
+	public ClientInvocation withSerializedArgs(byte[] serializedArgs) {
+		this.serializedArgs = serializedArgs;
+		return this;
 	}
 
 	public final Promise<Object> getResult() {
@@ -100,6 +162,10 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 		return completableFutureArgs;
 	}
 
+	public final int[] getStreamArgs() {
+		return streamArgs;
+	}
+
 	public final Function<Object, Future<Object>> getToNettyPromiseAdapter() {
 		return toNettyPromiseAdapter;
 	}
@@ -118,11 +184,11 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 	}
 
 	@Override
-	public void fail(ByteBuf b) throws Exception {
+	public void fail(Channel channel, ByteBuf b) throws Exception {
 		
 		Throwable o;
 		try {
-			o = (Throwable) getSerializer().deserializeReturn(b);
+			o = (Throwable) SessionSerializer.deserializeReturn(getSerializer(), b, channel);
 		} catch (Exception e) {
 			o = new ServiceException(
 					"Failed to deserialize the remote return value", ServiceException.REMOTE, e);
@@ -132,11 +198,11 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 	}
 	
 	@Override
-	public void data(ByteBuf b) throws Exception {
+	public void data(Channel channel, ByteBuf b) throws Exception {
 				
 		Object o;
 		try {
-			o = getSerializer().deserializeReturn(b);
+			o = SessionSerializer.deserializeReturn(getSerializer(), b, channel);
 		} catch (Exception e) {
 			result.tryFailure(new ServiceException(
 					"Failed to deserialize the remote return value", ServiceException.REMOTE, e));
@@ -159,7 +225,11 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 		
 		Object[] args = getTransformedArgs(promise);
 		
-		getSerializer().serializeArgs(buffer, args);
+		if(serializedArgs != null && !usesSession(promise.channel())) {
+			buffer.writeBytes(serializedArgs);
+		} else {
+			SessionSerializer.serializeArgs(getSerializer(), buffer, args, promise.channel());
+		}
 		
 		writeLength(buffer);
 		
@@ -171,14 +241,21 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 							channel.writeAndFlush(new InvocationCancellation(
 								getServiceId(), getCallId(), true), channel.voidPromise());
 						}
+						// Streamed arguments cannot outlive the call
+						closeUploads();
 					});
 				} else {
-					result.tryFailure(new ServiceException("Unable to invoke the remote service " +
-							getServiceId() + " due to a communications failure" , REMOTE, f.cause()));
+					result.tryFailure(new SendFailedException("Unable to invoke the remote service " +
+							getServiceId() + " due to a communications failure", f.cause()));
 				}
 			});
 	}
 	
+	private static boolean usesSession(Channel channel) {
+		SerializationSession session = SerializationSession.find(channel);
+		return session != null && session.isEnabled();
+	}
+	
 	private Object[] getTransformedArgs(ChannelPromise promise) {
 		
 		for(int i : completableFutureArgs) {
@@ -191,8 +268,79 @@ public class ClientInvocation extends AbstractClientInvocationWithResult {
 			args[i] = transformAsyncArg(promise, adaptedArg, i);
 		}
 		
+		for(int k = 0; k < streamArgs.length; k++) {
+			streamSources[k] = args[streamArgs[k]];
+			args[streamArgs[k]] = null;
+		}
+		
 		return args;
 	}
+
+	/**
+	 * Called when the server grants credit for a streamed argument. The first 
+	 * credit starts the upload, and a negative credit stops it.
+	 * 
+	 * @param channel the channel to send the streamed events on
+	 * @param index the index of the streamed argument
+	 * @param credit the number of additional events that may be sent
+	 */
+	public void streamCredit(Channel channel, int index, int credit) {
+		int k = 0;
+		while(k < streamArgs.length && streamArgs[k] != index) {
+			k++;
+		}
+		if(k == streamArgs.length) {
+			return;
+		}
+		
+		DataStream upload;
+		boolean open = false;
+		synchronized (this) {
+			upload = uploads[k];
+			if(upload == null && credit >= 0 && !result.isDone()) {
+				Object source = streamSources[k];
+				if(source == null) {
+					// There is nothing to stream, so the argument is closed immediately
+					channel.writeAndFlush(new AsyncArgumentClose(this, index), channel.voidPromise());
+					return;
+				}
+				DataStreamFactory connector = streamConnectors[k];
+				upload = new StreamCredit(
+						v -> {
+							channel.writeAndFlush(new AsyncArgumentCompletion(true, this, index, v));
+							return 0;
+						}, 
+						t -> channel.writeAndFlush(t == null ? new AsyncArgumentClose(this, index) : 
+							new AsyncArgumentCompletion(false, this, index, t)),
+						StreamCredit.DEFAULT_MAX_HELD, (d,t) -> connector.apply(d, t, source));
+				uploads[k] = upload;
+				open = true;
+			}
+		}
+		
+		if(upload == null) {
+			return;
+		} else if(credit < 0) {
+			upload.close();
+		} else {
+			upload.grantCredit(credit);
+			if(open) {
+				upload.open();
+			}
+		}
+	}
+	
+	private void closeUploads() {
+		DataStream[] toClose;
+		synchronized (this) {
+			toClose = uploads.clone();
+		}
+		for(DataStream upload : toClose) {
+			if(upload != null) {
+				upload.close();
+			}
+		}
+	}
 	
 	private Future<Object> adaptCompletionStage(CompletionStage<?> cf) {
 		
@@ -21,8 +21,10 @@ import static com.paremus.dosgi.net.wireformat.Protocol_V1.CALL_WITHOUT_RETURN;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.CALL_WITH_RETURN;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.CANCEL;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.ASYNC_METHOD_PARAM_FAILURE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.CALL_BATCH;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.CLIENT_BACK_PRESSURE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.CLIENT_CLOSE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.CLIENT_CREDIT;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.CLIENT_OPEN;
 
 import com.paremus.dosgi.net.message.MessageType;
@@ -43,7 +45,9 @@ public enum ClientMessageType implements MessageType {
 		ASYNC_ARG_CLOSE(Protocol_V2.VERSION, ASYNC_METHOD_PARAM_CLOSE, SKIP),
 		STREAMING_RESPONSE_OPEN(Protocol_V2.VERSION, CLIENT_OPEN, ADD),
 		STREAMING_RESPONSE_CLOSE(Protocol_V2.VERSION, CLIENT_CLOSE, REMOVE),
-		STREAMING_RESPONSE_BACK_PRESSURE(Protocol_V2.VERSION, CLIENT_BACK_PRESSURE, SKIP);
+		STREAMING_RESPONSE_BACK_PRESSURE(Protocol_V2.VERSION, CLIENT_BACK_PRESSURE, SKIP),
+		STREAMING_RESPONSE_CREDIT(Protocol_V2.VERSION, CLIENT_CREDIT, SKIP),
+		BATCH(Protocol_V2.VERSION, CALL_BATCH, ADD);
 	
 	public enum CacheAction {ADD, REMOVE, SKIP};
 	
@@ -14,10 +14,15 @@
  */
 package com.paremus.dosgi.net.client;
 
+import static org.osgi.framework.ServiceException.REMOTE;
+
+import org.osgi.framework.ServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.paremus.dosgi.net.message.AbstractRSAMessage;
+import com.paremus.dosgi.net.message.BufferSizePredictor;
+import com.paremus.dosgi.net.serialize.SerializationSession;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -42,10 +47,21 @@ public class ClientRequestSerializer extends ChannelOutboundHandlerAdapter {
 		
 		ClientMessageType callType = invocation.getType();
 		
+		SerializationSession session = SerializationSession.find(ctx.channel());
+		boolean sessionFrame = session != null && session.beginFrame();
 		try {
 			/* See Protocol_V1 and Protocol_V2 for header structure */
-			ByteBuf buffer = ctx.alloc().ioBuffer();
+			BufferSizePredictor predictor = invocation.getSizePredictor();
+			ByteBuf buffer = predictor == null ? ctx.alloc().ioBuffer() : 
+				ctx.alloc().ioBuffer(predictor.nextSize());
+			int initialCapacity = buffer.capacity();
 			invocation.write(buffer, promise);
+			if(sessionFrame) {
+				session.endFrame(buffer);
+			}
+			if(predictor != null) {
+				predictor.record(initialCapacity, buffer.readableBytes());
+			}
 			
 			switch(callType.getAction()) {
 			
@@ -69,9 +85,18 @@ public class ClientRequestSerializer extends ChannelOutboundHandlerAdapter {
 			ctx.write(buffer, promise);
 		} catch (Exception e) {
 			LOG.error("An error occurred when invoking service {} ", invocation.getServiceId(), e);
+			if(invocation instanceof AbstractClientInvocationWithResult) {
+				// The message was never written, so this is not a communications failure
+				((AbstractClientInvocationWithResult) invocation).fail(new ServiceException(
+						"Failed to serialize the remote invocation", REMOTE, e));
+			}
 			if(!promise.isVoid()) {
 				promise.tryFailure(e);
 			}
+		} finally {
+			if(sessionFrame) {
+				session.releaseFrame();
+			}
 		}
 	}
 }
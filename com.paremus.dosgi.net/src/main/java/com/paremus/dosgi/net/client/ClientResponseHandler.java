@@ -17,20 +17,26 @@ package com.paremus.dosgi.net.client;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_NO_METHOD;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_NO_SERVICE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_RESPONSE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_SERVER_OVERLOADED;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_TO_DESERIALIZE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_TO_SERIALIZE_FAILURE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_TO_SERIALIZE_SUCCESS;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.SUCCESS_RESPONSE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.BATCH_RESPONSE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_ASYNC_METHOD_PARAM_CREDIT;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_CACHE_INVALIDATION;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_CLOSE_EVENT;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_DATA_BATCH_EVENT;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_DATA_EVENT;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_ERROR_EVENT;
 import static org.osgi.framework.ServiceException.REMOTE;
 
-import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -39,12 +45,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.paremus.dosgi.net.message.AbstractRSAMessage.CacheKey;
+import com.paremus.dosgi.net.serialize.SerializationSession;
+import com.paremus.dosgi.net.serialize.SerializationSession.Snapshot;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 public class ClientResponseHandler extends ChannelInboundHandlerAdapter {
 
@@ -54,10 +64,22 @@ public class ClientResponseHandler extends ChannelInboundHandlerAdapter {
 
 	private final ClientConnectionManager ccm;
 	private final Timer timer;
+	private final EventExecutorGroup decodeWorkers;
 	
 	public ClientResponseHandler(ClientConnectionManager ccm, Timer timer) {
+		this(ccm, timer, null);
+	}
+	
+	/**
+	 * @param ccm the connection manager
+	 * @param timer the timer used for invocation timeouts
+	 * @param decodeWorkers the workers used to deserialize responses, or <code>null</code>
+	 * if responses should be deserialized by the IO thread
+	 */
+	public ClientResponseHandler(ClientConnectionManager ccm, Timer timer, EventExecutorGroup decodeWorkers) {
 		this.ccm = ccm;
 		this.timer = timer;
+		this.decodeWorkers = decodeWorkers;
 	}
 
 	public void registerInvocation(AbstractClientInvocationWithResult invocation) {
@@ -95,76 +117,165 @@ public class ClientResponseHandler extends ChannelInboundHandlerAdapter {
 			UUID serviceId = new UUID(buf.readLong(), buf.readLong());
 			int callId = buf.readInt();
 			
+			if(command == SERVER_CACHE_INVALIDATION) {
+				ccm.notifyCacheInvalidation(ctx.channel(), serviceId);
+				return;
+			}
+			
 			CacheKey key = new CacheKey(serviceId, callId);
 			
-			AbstractClientInvocationWithResult ci = command == SERVER_DATA_EVENT ?
-					pendingCalls.get(key) : pendingCalls.remove(key);
+			AbstractClientInvocationWithResult ci = command == SERVER_DATA_EVENT || command == SERVER_DATA_BATCH_EVENT ||
+					command == SERVER_ASYNC_METHOD_PARAM_CREDIT ? pendingCalls.get(key) : pendingCalls.remove(key);
 			
 			if(ci == null) {
 				return;
 			}
 			
-			try {
-				switch(command) {
-					case SUCCESS_RESPONSE :
-					case SERVER_DATA_EVENT :
-						ci.data(buf);
-						break;
-					case FAILURE_RESPONSE :
-					case SERVER_ERROR_EVENT :
-						ci.fail(buf);
-						break;
-					case SERVER_CLOSE_EVENT :
-						ci.fail((Throwable) null);
-						break;
-					case FAILURE_NO_SERVICE :
-						ServiceException serviceException = new ServiceException("The service could not be found", REMOTE, 
-								new MissingServiceException());
-						ci.fail(serviceException);
-						ccm.notifyFailedService(ctx.channel(), serviceId, serviceException);
-						break;
-					case FAILURE_NO_METHOD :
-						ServiceException serviceException2 = new ServiceException("The service method could not be found", REMOTE, 
-									new MissingMethodException(((ClientInvocation)ci).getMethodName()));
-						ci.fail(serviceException2);
-						ccm.notifyFailedService(ctx.channel(), serviceId, serviceException2);
-						break;
-					case FAILURE_TO_DESERIALIZE:
-						ci.fail(new ServiceException("The remote invocation failed because the server could not deserialise the method arguments", REMOTE, 
-								new IllegalArgumentException(buf.readCharSequence(buf.readUnsignedShort(), StandardCharsets.UTF_8).toString())));
-						break;
-					case FAILURE_TO_SERIALIZE_SUCCESS:
-						ci.fail(new ServiceException("The remote invocation succeeded but the server could not serialise the method return value", REMOTE, 
-								new IllegalArgumentException(buf.readCharSequence(buf.readUnsignedShort(), StandardCharsets.UTF_8).toString())));
-						break;
-					case FAILURE_TO_SERIALIZE_FAILURE:
-						ci.fail(new ServiceException("The remote invocation failed and the server could not serialise the failure reason", REMOTE, 
-								new IllegalArgumentException(buf.readCharSequence(buf.readUnsignedShort(), StandardCharsets.UTF_8).toString())));
-						break;
-					default :
-						if(ci instanceof ClientInvocation) {
-							LOG.error("There was a serious error trying to interpret a remote invocation response for service {} method {}. The response code {} was unrecognised.", 
-								new Object[] {serviceId, ((ClientInvocation)ci).getMethodName(), command});
-						} else {
-							LOG.error("There was a serious error trying to interpret a remote invocation response for a streaming result {}. The response code {} was unrecognised.", 
-									new Object[] {serviceId, command});
-						}
-						ci.fail(new UnknownResponseTypeException(command));
+			EventExecutor executor = decodeWorkers == null ? null : ci.getDecodeExecutor(decodeWorkers);
+			if(executor != null) {
+				// Later frames may change the session dictionary before the worker runs
+				Snapshot session = SerializationSession.snapshot(ctx.channel());
+				buf.retain();
+				try {
+					executor.execute(() -> {
+							session.beginRead();
+							try {
+								dispatch(ctx, command, serviceId, ci, buf);
+							} finally {
+								session.endRead();
+								buf.release();
+							}
+						});
+					return;
+				} catch (RejectedExecutionException ree) {
+					buf.release();
+					if(command == SERVER_DATA_EVENT || command == SERVER_DATA_BATCH_EVENT) {
+						// Decoding inline could deliver this event before earlier ones still queued on the worker
+						LOG.warn("The client workers are unable to accept more work, so the data stream from service {} will be failed", serviceId);
+						pendingCalls.remove(key);
+						ci.fail(new ServiceException("The data stream could not be processed because the client workers are overloaded", 
+								REMOTE, ree));
+						return;
+					}
+					LOG.debug("The client workers are unable to accept more work, so the response will be processed by the IO thread");
 				}
+			}
+			dispatch(ctx, command, serviceId, ci, buf);
+		} finally {
+			buf.release();
+		}
+	}
+
+	private void dispatch(ChannelHandlerContext ctx, byte command, UUID serviceId, 
+			AbstractClientInvocationWithResult ci, ByteBuf buf) {
+		try {
+			if(command == BATCH_RESPONSE && ci instanceof BatchInvocation) {
+				batchResponse(ctx, serviceId, (BatchInvocation) ci, buf);
+			} else {
+				response(ctx, command, serviceId, ci, buf);
+			}
+		} catch (Exception e) {
+			LOG.error("There was a serious error trying to interpret a remote invocation response for service " 
+					+ serviceId, e);
+			ci.fail(e);
+		}
+	}
+
+	private void batchResponse(ChannelHandlerContext ctx, UUID serviceId, BatchInvocation batch, ByteBuf buf) {
+		int count = buf.readUnsignedShort();
+		for(int i = 0; i < count; i++) {
+			int callId = buf.readInt();
+			byte command = buf.readByte();
+			ByteBuf entry = buf.readSlice(buf.readInt());
+			
+			ClientInvocation ci = batch.getInvocation(callId);
+			if(ci == null) {
+				continue;
+			}
+			
+			try {
+				response(ctx, command, serviceId, ci, entry);
 			} catch (Exception e) {
-				LOG.error("There was a serious error trying to interpret a remote invocation response for service " 
+				LOG.error("There was a serious error trying to interpret a batched remote invocation response for service " 
 						+ serviceId, e);
 				ci.fail(e);
 			}
-		} finally {
-			buf.release();
+		}
+		
+		// Any invocations not included in the response can never complete
+		batch.fail(new ServiceException("The remote service " + serviceId + 
+				" did not return a response for every call in the batch", REMOTE));
+	}
+
+	private void response(ChannelHandlerContext ctx, byte command, UUID serviceId, 
+			AbstractClientInvocationWithResult ci, ByteBuf buf) throws Exception {
+		switch(command) {
+			case SUCCESS_RESPONSE :
+			case SERVER_DATA_EVENT :
+				ci.data(ctx.channel(), buf);
+				break;
+			case SERVER_DATA_BATCH_EVENT :
+				// Each event is delivered separately, in order, so back pressure still applies
+				for(int i = buf.readUnsignedShort(); i > 0; i--) {
+					ci.data(ctx.channel(), buf.readSlice(buf.readInt()));
+				}
+				break;
+			case FAILURE_RESPONSE :
+			case SERVER_ERROR_EVENT :
+				ci.fail(ctx.channel(), buf);
+				break;
+			case SERVER_CLOSE_EVENT :
+				ci.fail((Throwable) null);
+				break;
+			case SERVER_ASYNC_METHOD_PARAM_CREDIT :
+				if(ci instanceof ClientInvocation) {
+					((ClientInvocation) ci).streamCredit(ctx.channel(), buf.readUnsignedByte(), buf.readInt());
+				}
+				break;
+			case FAILURE_NO_SERVICE :
+				ServiceException serviceException = new ServiceException("The service could not be found", REMOTE, 
+						new MissingServiceException());
+				ci.fail(serviceException);
+				ccm.notifyFailedService(ctx.channel(), serviceId, serviceException);
+				break;
+			case FAILURE_NO_METHOD :
+				ServiceException serviceException2 = new ServiceException("The service method could not be found", REMOTE, 
+							new MissingMethodException(((ClientInvocation)ci).getMethodName()));
+				ci.fail(serviceException2);
+				ccm.notifyFailedService(ctx.channel(), serviceId, serviceException2);
+				break;
+			case FAILURE_TO_DESERIALIZE:
+				ci.fail(new ServiceException("The remote invocation failed because the server could not deserialise the method arguments", REMOTE, 
+						new IllegalArgumentException(buf.readCharSequence(buf.readUnsignedShort(), StandardCharsets.UTF_8).toString())));
+				break;
+			case FAILURE_TO_SERIALIZE_SUCCESS:
+				ci.fail(new ServiceException("The remote invocation succeeded but the server could not serialise the method return value", REMOTE, 
+						new IllegalArgumentException(buf.readCharSequence(buf.readUnsignedShort(), StandardCharsets.UTF_8).toString())));
+				break;
+			case FAILURE_TO_SERIALIZE_FAILURE:
+				ci.fail(new ServiceException("The remote invocation failed and the server could not serialise the failure reason", REMOTE, 
+						new IllegalArgumentException(buf.readCharSequence(buf.readUnsignedShort(), StandardCharsets.UTF_8).toString())));
+				break;
+			case FAILURE_SERVER_OVERLOADED:
+				ci.fail(new ServiceException("The remote invocation was rejected because the server is overloaded", REMOTE, 
+						new ServerOverloadedException(buf.readCharSequence(buf.readUnsignedShort(), StandardCharsets.UTF_8).toString())));
+				break;
+			default :
+				if(ci instanceof ClientInvocation) {
+					LOG.error("There was a serious error trying to interpret a remote invocation response for service {} method {}. The response code {} was unrecognised.", 
+						new Object[] {serviceId, ((ClientInvocation)ci).getMethodName(), command});
+				} else {
+					LOG.error("There was a serious error trying to interpret a remote invocation response for a streaming result {}. The response code {} was unrecognised.", 
+							new Object[] {serviceId, command});
+				}
+				ci.fail(new UnknownResponseTypeException(command));
 		}
 	}
 
 	@Override
 	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
 		Exception e = new ServiceException("The remote connection was lost", ServiceException.REMOTE,
-				new IOException());
+				new ClosedChannelException());
 		pendingCalls.values().stream()
 			.forEach(f -> f.fail(e));
 	}
@@ -0,0 +1,33 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.client;
+
+/**
+ * Controls which threads deserialize the responses received by a client
+ */
+public enum ResponseDecoding {
+	/**
+	 * Responses are deserialized by the IO thread which reads them. This avoids
+	 * a thread hand off, but a large or slow response delays every other
+	 * connection using the same IO thread.
+	 */
+	IO_THREAD,
+	/**
+	 * The IO thread only routes the response to its invocation, and the response
+	 * is deserialized by a client worker. All of the responses for an invocation 
+	 * use the same worker, so streamed data is processed in order.
+	 */
+	WORKER;
+}
@@ -0,0 +1,29 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.client;
+
+import org.osgi.framework.ServiceException;
+
+/**
+ * Indicates that a message could not be written to the remote node
+ */
+public class SendFailedException extends ServiceException {
+
+	private static final long serialVersionUID = -6012893164715287341L;
+
+	public SendFailedException(String message, Throwable cause) {
+		super(message, REMOTE, cause);
+	}
+}
@@ -14,10 +14,6 @@
  */
 package com.paremus.dosgi.net.config;
 
-import static com.paremus.dosgi.net.serialize.SerializationType.FAST_BINARY;
-
-import com.paremus.dosgi.net.serialize.SerializationType;
-
 public @interface ExportedServiceConfig {
 	
 	String[] objectClass() default {};
@@ -34,5 +30,15 @@ public @interface ExportedServiceConfig {
 
 	String[] service_intents() default {};
 	
-	SerializationType com_paremus_dosgi_net_serialization() default FAST_BINARY;
+	String com_paremus_dosgi_net_serialization() default "FAST_BINARY";
+	
+	String com_paremus_dosgi_net_scheduling() default "";
+	
+	String[] com_paremus_dosgi_net_single_flight() default {};
+	
+	int com_paremus_dosgi_net_timeout() default -1;
+	
+	long osgi_basic_timeout() default -1;
+	
+	boolean com_paremus_dosgi_net_serialization_sessions() default false;
 }
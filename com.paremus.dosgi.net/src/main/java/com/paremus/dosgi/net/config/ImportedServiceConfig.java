@@ -14,14 +14,10 @@
  */
 package com.paremus.dosgi.net.config;
 
-import static com.paremus.dosgi.net.serialize.SerializationType.FAST_BINARY;
-
-import com.paremus.dosgi.net.serialize.SerializationType;
-
 public @interface ImportedServiceConfig {
 	String[] com_paremus_dosgi_net() default {};
 
-	SerializationType com_paremus_dosgi_net_serialization() default FAST_BINARY;
+	String com_paremus_dosgi_net_serialization() default "FAST_BINARY";
 
 	int com_paremus_dosgi_net_timeout() default -1;
 	
@@ -29,4 +25,32 @@ public @interface ImportedServiceConfig {
 
 	String[] com_paremus_dosgi_net_methods() default {};
 	
+	String com_paremus_dosgi_net_circuit_breaker() default "";
+	
+	double com_paremus_dosgi_net_circuit_failure_threshold() default -1;
+	
+	int com_paremus_dosgi_net_circuit_minimum_calls() default -1;
+	
+	int com_paremus_dosgi_net_circuit_window_size() default -1;
+	
+	long com_paremus_dosgi_net_circuit_open_duration() default -1;
+	
+	int com_paremus_dosgi_net_circuit_probe_calls() default -1;
+	
+	String[] com_paremus_dosgi_net_idempotent() default {};
+	
+	String com_paremus_dosgi_net_replica_group() default "";
+	
+	long com_paremus_dosgi_net_hedge_delay() default -1;
+	
+	String[] com_paremus_dosgi_net_cacheable() default {};
+	
+	long com_paremus_dosgi_net_cache_ttl() default 60000;
+	
+	int com_paremus_dosgi_net_cache_size() default 1024;
+	
+	boolean com_paremus_dosgi_net_serialization_sessions() default false;
+	
+	int com_paremus_dosgi_net_stream_credit() default 0;
+	
 }
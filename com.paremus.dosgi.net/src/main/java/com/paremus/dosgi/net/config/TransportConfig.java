@@ -14,8 +14,14 @@
  */
 package com.paremus.dosgi.net.config;
 
+import static com.paremus.dosgi.net.client.ResponseDecoding.WORKER;
+import static com.paremus.dosgi.net.server.WorkerScheduling.SHARED;
+
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
+import com.paremus.dosgi.net.client.ResponseDecoding;
+import com.paremus.dosgi.net.server.WorkerScheduling;
+
 
 @ObjectClassDefinition(factoryPid="com.paremus.dosgi.net.transport")
 public @interface TransportConfig {
@@ -39,4 +45,40 @@ public @interface TransportConfig {
 	String endpoint_marker() default "";
 	
 	String[] additional_intents() default {};
+	
+	boolean server_adaptive_concurrency() default false;
+	
+	int server_concurrency_initial_limit() default 64;
+	
+	int server_concurrency_min_limit() default 8;
+	
+	int server_concurrency_max_limit() default 1024;
+	
+	double server_concurrency_latency_tolerance() default 2.0d;
+	
+	WorkerScheduling server_worker_scheduling() default SHARED;
+	
+	int server_stream_batch_events() default 1;
+	
+	int server_stream_batch_bytes() default 16384;
+	
+	long server_stream_batch_linger() default 5;
+	
+	int server_stream_credit() default 0;
+	
+	int server_stream_credit_buffer() default 1024;
+	
+	boolean client_circuit_breaker() default false;
+	
+	double client_circuit_failure_threshold() default 0.5d;
+	
+	int client_circuit_minimum_calls() default 20;
+	
+	int client_circuit_window_size() default 100;
+	
+	long client_circuit_open_duration() default 10000;
+	
+	int client_circuit_probe_calls() default 3;
+	
+	ResponseDecoding client_response_decoding() default WORKER;
 }
@@ -31,10 +31,14 @@ import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.ExportReference;
 import org.osgi.service.remoteserviceadmin.ExportRegistration;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
+import org.osgi.util.converter.Converters;
 import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.paremus.dosgi.net.config.ExportedServiceConfig;
+import com.paremus.dosgi.net.server.ConcurrencyLimiter;
+
 public class ExportRegistrationImpl implements ExportRegistration {
 
 	private static final Logger LOG = LoggerFactory.getLogger(ExportRegistrationImpl.class);
@@ -289,4 +293,42 @@ public class ExportRegistrationImpl implements ExportRegistration {
 		}
 	}
 
+	/**
+	 * Responses which outgrow their predicted buffer size have to be copied into a
+	 * larger buffer. A count which keeps rising shows that response sizes for this 
+	 * service vary too much to predict.
+	 * 
+	 * @return The number of responses from this export which did not fit in their
+	 * predicted buffer size
+	 */
+	public long getResponseBufferReallocations() {
+		return _id == null ? 0 : _rsa.getResponseBufferReallocations(_id);
+	}
+
+	/**
+	 * @return The number of calls to this export which may currently run at the 
+	 * same time, or zero if the export is not open
+	 */
+	public int getConcurrencyLimit() {
+		ConcurrencyLimiter limiter = _id == null ? null : _rsa.getConcurrencyLimiter(_id);
+		return limiter == null ? 0 : limiter.getLimit();
+	}
+
+	/**
+	 * @return The number of calls to this export which have been rejected because
+	 * the concurrency limit was reached
+	 */
+	public long getRejectedCallCount() {
+		ConcurrencyLimiter limiter = _id == null ? null : _rsa.getConcurrencyLimiter(_id);
+		return limiter == null ? 0 : limiter.getRejectedCount();
+	}
+
+	String getSerializationType() {
+		synchronized (this) {
+			return _endpointDescription == null ? null : Converters.standardConverter()
+					.convert(_endpointDescription.getProperties()).to(ExportedServiceConfig.class)
+					.com_paremus_dosgi_net_serialization();
+		}
+	}
+
 }
@@ -24,12 +24,16 @@ import static org.osgi.framework.ServiceException.REMOTE;
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -50,9 +54,14 @@ import org.osgi.util.converter.Converters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.paremus.dosgi.net.client.CircuitBreaker;
 import com.paremus.dosgi.net.client.ClientConnectionManager;
 import com.paremus.dosgi.net.config.ImportedServiceConfig;
+import com.paremus.dosgi.net.config.TransportConfig;
+import com.paremus.dosgi.net.message.BufferSizePredictor;
 import com.paremus.dosgi.net.proxy.ClientServiceFactory;
+import com.paremus.dosgi.net.serialize.SerializationSession;
+import com.paremus.dosgi.net.serialize.spi.SerializerFactory;
 
 import io.netty.channel.Channel;
 import io.netty.util.Timer;
@@ -71,8 +80,13 @@ public class ImportRegistrationImpl implements ImportRegistration {
     private final Channel _channel;
     private final EventExecutorGroup _executor;
     private final Timer _timer;
-    private final long _defaultServiceTimeout;
+    private final TransportConfig _transportConfig;
+    private final SerializerFactory _serializerFactory;
     private final AtomicLong _serviceTimeout;
+    private final CircuitBreaker _circuitBreaker;
+    private final AtomicLong _cacheGeneration = new AtomicLong();
+    private final AtomicInteger _callIdCounter = new AtomicInteger();
+    private final ConcurrentMap<Integer, BufferSizePredictor> _requestSizes = new ConcurrentHashMap<>();
 
     private EndpointDescription _endpointDescription;
     private Throwable _exception;
@@ -89,14 +103,17 @@ public class ImportRegistrationImpl implements ImportRegistration {
      * @param hostBundleContext the bundle context for the proxy bundle
      * @param rsa the exporting {@link RemoteServiceAdmin}
      * @param ccm The connection manager for making client invocations
-     * @param defaultServiceTimeout the time (in millis) after which client calls should timeout
+     * @param transportConfig the transport configuration, supplying the default client call timeout
+     *  and circuit breaker settings
      * @param executor the worker to use when making async network calls
      * @param timer The timer to use for triggering scheduled future work
+     * @param serializerFactory the factory for the serializer named by the endpoint
      * @throws NullPointerException if any required argument is <code>null</code>
      */
 	public ImportRegistrationImpl(EndpointDescription endpoint, Framework targetFramework,
 			BundleContext hostBundleContext, RemoteServiceAdminImpl rsa, ClientConnectionManager ccm,
-			int defaultServiceTimeout, EventExecutorGroup executor, Timer timer) {
+			TransportConfig transportConfig, EventExecutorGroup executor, Timer timer, 
+			SerializerFactory serializerFactory) {
     	
         _endpointDescription = Objects.requireNonNull(endpoint, "The endpoint for an export must not be null");
         _targetFramework = Objects.requireNonNull(targetFramework, "The target framework for a remote service import not be null");
@@ -106,7 +123,8 @@ public class ImportRegistrationImpl implements ImportRegistration {
         _clientConnectionManager = Objects.requireNonNull(ccm, "The Remote Service Admin must not be null");
         _executor = Objects.requireNonNull(executor, "The executor must not be null");
         _timer = Objects.requireNonNull(timer, "The timer must not be null");
-        _defaultServiceTimeout = defaultServiceTimeout;
+        _transportConfig = Objects.requireNonNull(transportConfig, "The transport configuration must not be null");
+        _serializerFactory = Objects.requireNonNull(serializerFactory, "The serializer factory must not be null");
         
         try {
 			_config = Converters.standardConverter().convert( 
@@ -119,6 +137,10 @@ public class ImportRegistrationImpl implements ImportRegistration {
         long serviceTimeout = getServiceTimeout();
         _serviceTimeout = new AtomicLong(serviceTimeout);
         
+        _circuitBreaker = new CircuitBreaker("endpoint " + _endpointDescription.getId(), 
+        		isCircuitBreakerEnabled(), getCircuitFailureThreshold(), getCircuitMinimumCalls(), 
+        		getCircuitWindowSize(), getCircuitOpenDuration(), getCircuitProbeCalls());
+        
         _methodMappings = Arrays.stream(_config.com_paremus_dosgi_net_methods())
         	.map(s -> s.split("="))
         	.collect(Collectors.toMap(s -> Integer.valueOf(s[0]), s -> s[1]));
@@ -144,6 +166,11 @@ public class ImportRegistrationImpl implements ImportRegistration {
         _exception = null;
         _channel = channel;
         _state = OPEN;
+        
+        if(_config.com_paremus_dosgi_net_serialization_sessions()) {
+        	// The exporting framework can read session frames
+        	SerializationSession.get(channel).enable();
+        }
 
         Dictionary<String, Object> serviceProps = new Hashtable<>(_endpointDescription.getProperties());
         serviceProps.remove(RemoteConstants.SERVICE_EXPORTED_INTERFACES);
@@ -156,8 +183,8 @@ public class ImportRegistrationImpl implements ImportRegistration {
 	        reg = _hostBundleContext.registerService(
 	        		endpoint.getInterfaces().toArray(new String[0]), 
 	        		new ClientServiceFactory(this, endpoint, _channel, 
-	        				_config.com_paremus_dosgi_net_serialization().getFactory(), 
-	        				_serviceTimeout, _executor, _timer), 
+		        				_serializerFactory, 
+	        				_serviceTimeout, _circuitBreaker, _executor, _timer), 
 	        		serviceProps);
 		} catch (Exception e) {
 			_serviceRegistration = null;
@@ -203,10 +230,40 @@ public class ImportRegistrationImpl implements ImportRegistration {
         }
         
         if(serviceTimeout < 0) {
-        	serviceTimeout = _defaultServiceTimeout; 
+        	serviceTimeout = _transportConfig.client_default_timeout(); 
         }
 		return serviceTimeout;
 	}
+
+	private boolean isCircuitBreakerEnabled() {
+		String enabled = _config.com_paremus_dosgi_net_circuit_breaker();
+		return enabled.isEmpty() ? _transportConfig.client_circuit_breaker() : Boolean.parseBoolean(enabled);
+	}
+
+	private double getCircuitFailureThreshold() {
+		double threshold = _config.com_paremus_dosgi_net_circuit_failure_threshold();
+		return threshold < 0 ? _transportConfig.client_circuit_failure_threshold() : threshold;
+	}
+
+	private int getCircuitMinimumCalls() {
+		int calls = _config.com_paremus_dosgi_net_circuit_minimum_calls();
+		return calls < 0 ? _transportConfig.client_circuit_minimum_calls() : calls;
+	}
+
+	private int getCircuitWindowSize() {
+		int size = _config.com_paremus_dosgi_net_circuit_window_size();
+		return size < 0 ? _transportConfig.client_circuit_window_size() : size;
+	}
+	
+	private long getCircuitOpenDuration() {
+		long duration = _config.com_paremus_dosgi_net_circuit_open_duration();
+		return duration < 0 ? _transportConfig.client_circuit_open_duration() : duration;
+	}
+
+	private int getCircuitProbeCalls() {
+		int probes = _config.com_paremus_dosgi_net_circuit_probe_calls();
+		return probes < 0 ? _transportConfig.client_circuit_probe_calls() : probes;
+	}
 	
 	/**
 	 * Create a failed endpoint
@@ -232,8 +289,10 @@ public class ImportRegistrationImpl implements ImportRegistration {
         _hostBundleContext = null;
         _config = null;
         _methodMappings = null;
-        _defaultServiceTimeout = -1;
+        _transportConfig = null;
+        _serializerFactory = null;
         _serviceTimeout = null;
+        _circuitBreaker = null;
         
         _state = ERROR;
         _exception = failure;
@@ -288,6 +347,7 @@ public class ImportRegistrationImpl implements ImportRegistration {
 
             _state = CLOSED;
         }
+        invalidateCaches();
         // We must remove before unregistering so that the service reference (if valid) is still
         // available to send in the RemoteServiceAdminEvent
         _rsa.removeImportRegistration(this, _endpointDescription.getId());
@@ -363,10 +423,22 @@ public class ImportRegistrationImpl implements ImportRegistration {
             if(!Arrays.deepEquals(_config.com_paremus_dosgi_net_methods(), tmpConfig.com_paremus_dosgi_net_methods())) {
             	throw new IllegalArgumentException("The methods supported by the remote endpoint have changed");
             }
+            if(!_config.com_paremus_dosgi_net_serialization().equals(tmpConfig.com_paremus_dosgi_net_serialization())) {
+            	throw new IllegalArgumentException("The serialization used by the remote endpoint has changed");
+            }
             
             _endpointDescription = endpoint;
             _config = tmpConfig;
             _serviceTimeout.set(getServiceTimeout());
+            invalidateCaches();
+            try {
+            	_circuitBreaker.update(isCircuitBreakerEnabled(), getCircuitFailureThreshold(), 
+            			getCircuitMinimumCalls(), getCircuitWindowSize(), getCircuitOpenDuration(), 
+            			getCircuitProbeCalls());
+            } catch (IllegalArgumentException iae) {
+            	LOG.warn("The updated circuit breaker configuration for endpoint {} is invalid and will be ignored", 
+            			endpoint.getId(), iae);
+            }
             
             try {
             	//TODO check the handler is still valid
@@ -416,6 +488,80 @@ public class ImportRegistrationImpl implements ImportRegistration {
 	public Map<Integer, String> getMethodMappings() {
 		return _methodMappings;
 	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return _circuitBreaker;
+	}
+
+	String getReplicaGroup() {
+		return _config == null ? "" : _config.com_paremus_dosgi_net_replica_group();
+	}
+
+	String getSerializationType() {
+		return _config == null ? null : _config.com_paremus_dosgi_net_serialization();
+	}
+
+	/**
+	 * Get the other open imports, in the same framework, which are replicas
+	 * of this import. Replicas declare the same <code>com.paremus.dosgi.net.replica.group</code>
+	 * and serialization.
+	 * 
+	 * @return The replicas, or an empty list if there are none
+	 */
+	public List<ImportRegistrationImpl> getReplicas() {
+		String group = getReplicaGroup();
+		return group.isEmpty() ? Collections.emptyList() : _rsa.getReplicas(this, group);
+	}
+	
+	/**
+	 * Client side result caches record this generation when they store a 
+	 * result, and discard everything they hold once it changes.
+	 * 
+	 * @return The current cache generation for this import
+	 */
+	public long getCacheGeneration() {
+		return _cacheGeneration.get();
+	}
+	
+	/**
+	 * Responses are matched to calls using the service id and call id, so every
+	 * call to this import, including hedged calls from replicas, must take its 
+	 * call id from here.
+	 * 
+	 * @return The call id to use for the next call to this import
+	 */
+	public int nextCallId() {
+		return _callIdCounter.getAndIncrement();
+	}
+	
+	/**
+	 * The proxies for this import share a request size predictor for each method,
+	 * whichever bundle they were created for.
+	 * 
+	 * @param methodId the remote method id
+	 * @return The predictor for requests to the method
+	 */
+	public BufferSizePredictor getRequestSizePredictor(int methodId) {
+		return _requestSizes.computeIfAbsent(methodId, i -> new BufferSizePredictor());
+	}
+	
+	/**
+	 * @return The number of requests from this import which did not fit in their
+	 * predicted buffer size
+	 */
+	public long getRequestBufferReallocations() {
+		return _requestSizes.values().stream()
+				.mapToLong(BufferSizePredictor::getReallocations)
+				.sum();
+	}
+	
+	/**
+	 * Invalidate any results cached for this import, for example because the 
+	 * endpoint has been updated or the remote service has told us to.
+	 */
+	public void invalidateCaches() {
+		_cacheGeneration.incrementAndGet();
+	}
 	
 	public void asyncFail(Throwable reason) {
 		synchronized (this) {
@@ -435,6 +581,7 @@ public class ImportRegistrationImpl implements ImportRegistration {
             _exception = reason;
             
 		}
+		invalidateCaches();
 		_clientConnectionManager.notifyClosing(this);
 		
 		_rsa.notifyImportError(this, _endpointDescription.getId());
@@ -25,6 +25,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceFactory;
@@ -68,18 +69,24 @@ public class RemoteServiceAdminFactoryImpl implements ServiceFactory<RemoteServi
 	private final EventExecutorGroup clientWorkers;
 	private final Timer timer;
 	private final TransportConfig config;
+	private final SerializerRegistry serializers;
+	private final Consumer<String> serializerListener = this::serializerRemoved;
 	
 	public RemoteServiceAdminFactoryImpl(TransportConfig config, ParemusNettyTLS tls, 
 			ByteBufAllocator allocator, EventLoopGroup serverIo, EventLoopGroup clientIo,
-			EventExecutorGroup serverWorkers, EventExecutorGroup clientWorkers, Timer timer) {
+			EventExecutorGroup serverWorkers, EventExecutorGroup clientWorkers, Timer timer,
+			SerializerRegistry serializers) {
 		this.config = config;
 		this.timer = timer;
 		
 		this.serverWorkers = serverWorkers;
 		this.clientWorkers = clientWorkers;
+		this.serializers = serializers;
 		
 		clientConnectionManager = new ClientConnectionManager(config, tls, allocator, clientIo, clientWorkers, timer);
 		serverConnectionManager = new ServerConnectionManager(config, tls, allocator, serverIo, timer);
+		
+		serializers.addListener(serializerListener);
 	}
 	
 	
@@ -101,7 +108,7 @@ public class RemoteServiceAdminFactoryImpl implements ServiceFactory<RemoteServi
 		
 		RemoteServiceAdminImpl impl = new RemoteServiceAdminImpl(this, framework, rsaep, serverConnectionManager.getConfiguredProviders(), 
 				clientConnectionManager, getSupportedIntents(), new ProxyHostBundleFactory(), serverWorkers, 
-				clientWorkers, timer, config);
+				clientWorkers, timer, config, serializers);
 		impls.add(impl);
 		return impl;
 	}
@@ -131,6 +138,7 @@ public class RemoteServiceAdminFactoryImpl implements ServiceFactory<RemoteServi
 	}
 	
 	public void close() {
+		serializers.removeListener(serializerListener);
 		serverConnectionManager.close();
 		clientConnectionManager.close();
 	}
@@ -149,6 +157,10 @@ public class RemoteServiceAdminFactoryImpl implements ServiceFactory<RemoteServi
 		return intents;
 	}
 	
+	private void serializerRemoved(String name) {
+		impls.forEach(i -> i.serializerRemoved(name));
+	}
+	
 	Collection<RemoteServiceAdminImpl> getRemoteServiceAdmins() {
 		return impls.stream().collect(toList());
 	}
@@ -32,7 +32,9 @@ import static org.osgi.service.remoteserviceadmin.RemoteConstants.ENDPOINT_SERVI
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_IMPORTED_CONFIGS;
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_INTENTS;
 
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -80,11 +82,17 @@ import org.slf4j.LoggerFactory;
 import com.paremus.dosgi.net.client.ClientConnectionManager;
 import com.paremus.dosgi.net.config.ExportedServiceConfig;
 import com.paremus.dosgi.net.config.TransportConfig;
-import com.paremus.dosgi.net.serialize.SerializationType;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.proxy.ServiceInvocationHandler;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+import com.paremus.dosgi.net.serialize.spi.SerializerFactory;
+import com.paremus.dosgi.net.server.ConcurrencyLimiter;
 import com.paremus.dosgi.net.server.RemotingProvider;
 import com.paremus.dosgi.net.server.ServiceInvoker;
+import com.paremus.dosgi.net.server.StreamBatching;
+import com.paremus.dosgi.net.server.WorkerScheduling;
 import com.paremus.dosgi.scoping.rsa.MultiFrameworkRemoteServiceAdmin;
+import com.paremus.dosgi.scoping.rsa.RemoteCallBatch;
 
 import io.netty.util.Timer;
 import io.netty.util.concurrent.EventExecutorGroup;
@@ -123,10 +131,12 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 
 	private final RemoteServiceAdminFactoryImpl factory;
 	
+	private final SerializerRegistry serializers;
+	
 	public RemoteServiceAdminImpl(RemoteServiceAdminFactoryImpl factory, Framework defaultFramework, RemoteServiceAdminEventPublisher publisher,
 			List<? extends RemotingProvider> remoteProviders, ClientConnectionManager ccm, List<String> intents,
 			ProxyHostBundleFactory phbf, EventExecutorGroup serverWorkers, EventExecutorGroup clientWorkers,
-			Timer timer, TransportConfig config) {
+			Timer timer, TransportConfig config, SerializerRegistry serializers) {
 		this.factory = factory;
 		this.defaultFramework = defaultFramework;
 		this.publisher = publisher;
@@ -138,6 +148,7 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 		this.clientWorkers = clientWorkers;
 		this.timer = timer;
 		this.config = config;
+		this.serializers = serializers;
 	}
 
 	@Override
@@ -358,17 +369,21 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 	        	return null;
 	        }
 	         
-	        SerializationType serializationType;
+	        SerializerFactory serializerFactory;
 	        try {
-	        	serializationType = config.com_paremus_dosgi_net_serialization();
+	        	serializerFactory = serializers.getFactory(config.com_paremus_dosgi_net_serialization());
 	        } catch (Exception e) {
 	        	throw new IllegalArgumentException("Invalid com.paremus.dosgi.net.serialization property", e);
 	        }
 	        
+	        if(serializerFactory == null) {
+	        	throw new IllegalArgumentException("The serialization " + config.com_paremus_dosgi_net_serialization() + 
+	        			" is not available");
+	        }
+	        
 	        Bundle classSpace = FrameworkUtil.getBundle(service.getClass());
 	        
-			Serializer serializer = serializationType
-	        		 .getFactory().create(classSpace == null ? ref.getBundle() : classSpace);
+			Serializer serializer = serializerFactory.create(classSpace == null ? ref.getBundle() : classSpace);
 	         
 	        SortedMap<String, Method> methodMappings = exportedClasses.stream()
 	        		 .map(Class::getMethods)
@@ -376,9 +391,40 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 	        		 .collect(Collectors.toMap(m -> toSignature(m), Function.identity(),
 	        				 (a,b) -> a, TreeMap::new));
 	         
+	        ConcurrencyLimiter limiter = this.config.server_adaptive_concurrency() ?
+	        		new ConcurrencyLimiter(this.config.server_concurrency_initial_limit(), 
+	        				this.config.server_concurrency_min_limit(), this.config.server_concurrency_max_limit(),
+	        				this.config.server_concurrency_latency_tolerance()) :
+	        		ConcurrencyLimiter.unlimited();
+	        
+	        WorkerScheduling scheduling;
+	        try {
+	        	String value = config.com_paremus_dosgi_net_scheduling();
+	        	scheduling = value.isEmpty() ? this.config.server_worker_scheduling() : 
+	        		WorkerScheduling.valueOf(value);
+	        } catch (Exception e) {
+	        	throw new IllegalArgumentException("Invalid com.paremus.dosgi.net.scheduling property", e);
+	        }
+	        
+	        List<String> singleFlight = Arrays.asList(config.com_paremus_dosgi_net_single_flight());
+	        
+	        // The server gives up on a call when the client would
+	        long callTimeout = config.com_paremus_dosgi_net_timeout();
+	        if(callTimeout < 0) {
+	        	callTimeout = config.osgi_basic_timeout();
+	        }
+	        if(callTimeout < 0) {
+	        	callTimeout = this.config.client_default_timeout();
+	        }
+	        long serviceCallTimeout = callTimeout;
+	        
+	        StreamBatching streamBatching = new StreamBatching(this.config.server_stream_batch_events(), 
+	        		this.config.server_stream_batch_bytes(), this.config.server_stream_batch_linger());
+	        
 	        Function<RemotingProvider, ServiceInvoker> invoker = 
 	        		rp -> new ServiceInvoker(rp, id, serializer, service, methodMappings
-	        		.values().toArray(new Method[0]), serverWorkers, timer);
+	        		.values().toArray(new Method[0]), serverWorkers, timer, limiter, scheduling, singleFlight,
+	        		streamBatching, this.config.server_stream_credit_buffer(), serviceCallTimeout);
 	       
 	        List<String> connectionStrings = validProviders.stream()
 	        		 .map(rp -> rp.registerService(id, invoker.apply(rp)))
@@ -390,8 +436,11 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 	        	LOG.warn("No remoting providers successfully exposed the service {}", ref);
 	        	throw new IllegalArgumentException("No remoting providers are able to expose the service " + ref);
 	        }
+	        // Sessions are opt-in, and only advertised if the serializer can make use of them
+	        boolean sessions = config.com_paremus_dosgi_net_serialization_sessions() && 
+	        		SessionSerializer.usesSessions(serializer);
 	        addRSAProperties(serviceProperties, id, ref, config, exportedClasses, 
-	        		supportedIntents, connectionStrings, methodMappings, framework);
+	        		supportedIntents, connectionStrings, methodMappings, sessions, framework);
 	        
 	        return new EndpointDescription(serviceProperties);
         } catch (Exception e) {
@@ -403,7 +452,8 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 
 	private void addRSAProperties(Map<String, Object> serviceProperties, UUID id, 
 			ServiceReference<?> ref, ExportedServiceConfig config, List<Class<?>> exportedClasses,
-			Set<String> intents, List<String> connectionStrings, Map<String, Method> methodMappings, Framework framework) {
+			Set<String> intents, List<String> connectionStrings, Map<String, Method> methodMappings, 
+			boolean sessions, Framework framework) {
 		
 		Set<String> packages = exportedClasses.stream()
 					.map(Class::getPackage)
@@ -456,6 +506,15 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
         }
         
         serviceProperties.put("com.paremus.dosgi.net.methods", methodMappingData);
+        if(sessions) {
+        	serviceProperties.put("com.paremus.dosgi.net.serialization.sessions", Boolean.TRUE);
+        } else {
+        	serviceProperties.remove("com.paremus.dosgi.net.serialization.sessions");
+        }
+        
+        if(this.config.server_stream_credit() > 0) {
+        	serviceProperties.put("com.paremus.dosgi.net.stream.credit", this.config.server_stream_credit());
+        }
         
         if(!this.config.endpoint_marker().isEmpty()) {
         	serviceProperties.put("com.paremus.dosgi.net.endpoint.marker", this.config.endpoint_marker());
@@ -569,6 +628,14 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 		                            , e, unsupported);
         	return null;
 		}
+        
+        SerializerFactory serializerFactory = serializers.getFactory(edConfig.com_paremus_dosgi_net_serialization());
+        
+        if (serializerFactory == null) {
+        	LOG.info("Unable to import the endpoint {} as the serialization {} is not available"
+        			, e, edConfig.com_paremus_dosgi_net_serialization());
+        	return null;
+        }
 		
 		UUID id = UUID.fromString(e.getId());
 		
@@ -584,8 +651,7 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 					failure);
 		} else {
 			reg = new ImportRegistrationImpl(e, framework, proxyHostContext, this, 
-					clientConnectionManager, config.client_default_timeout(), 
-					clientWorkers, timer);
+					clientConnectionManager, config, clientWorkers, timer, serializerFactory);
 			
 			synchronized (imports) {
 				imports.computeIfAbsent(framework, k -> new HashMap<>())
@@ -618,6 +684,25 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 	 * @param importRegistration
 	 * @param endpointId
 	 */
+	List<ImportRegistrationImpl> getReplicas(ImportRegistrationImpl importRegistration, String group) {
+		List<ImportRegistrationImpl> candidates;
+		synchronized (imports) {
+			candidates = ofNullable(imports.get(importRegistration.getTargetFramework()))
+					.map(m -> m.values().stream()
+							.flatMap(Set::stream)
+							.collect(toList()))
+					.orElse(emptyList());
+		}
+		
+		UUID id = importRegistration.getId();
+		return candidates.stream()
+				.filter(i -> i.getState() == OPEN)
+				.filter(i -> !id.equals(i.getId()))
+				.filter(i -> group.equals(i.getReplicaGroup()))
+				.filter(i -> Objects.equals(importRegistration.getSerializationType(), i.getSerializationType()))
+				.collect(toList());
+	}
+
 	void removeImportRegistration(ImportRegistrationImpl importRegistration,
 			String endpointId) {
 		synchronized (imports) {
@@ -799,6 +884,18 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 				.collect(toSet());
 	}
 
+	@Override
+	public <T> RemoteCallBatch<T> createBatch(T importedService) {
+		if(importedService != null && Proxy.isProxyClass(importedService.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(importedService);
+			if(handler instanceof ServiceInvocationHandler) {
+				return ((ServiceInvocationHandler) handler).createBatch(importedService);
+			}
+		}
+		throw new IllegalArgumentException("The object " + importedService + 
+				" is not a remote service imported by this Remote Service Admin");
+	}
+
 	private Map<Framework, Set<ImportRegistrationImpl>> localGetAllImportedEndpoints() {
 		Map<Framework,Set<ImportRegistrationImpl>> toShow;
 		synchronized (imports) {
@@ -891,6 +988,8 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 		EndpointDescription ed = null;
 		try {
 			ed = createEndpointDescription(source, ref, additionalProperties, id);
+			remoteProviders.stream()
+				.forEach(rp -> rp.invalidateCachedResults(id));
 			publisher.notifyExportUpdate(ref, ed, null);
 		} catch (Exception e) {
 			publisher.notifyExportUpdate(ref, previous, e);
@@ -898,6 +997,61 @@ public class RemoteServiceAdminImpl implements MultiFrameworkRemoteServiceAdmin
 		return ed;
 	}
 	
+	/**
+	 * @param id the id of an exported endpoint
+	 * @return the number of responses for the endpoint which did not fit in their
+	 * predicted buffer size, across all of the remoting providers
+	 */
+	long getResponseBufferReallocations(UUID id) {
+		return remoteProviders.stream()
+				.mapToLong(rp -> rp.getResponseBufferReallocations(id))
+				.sum();
+	}
+	
+	/**
+	 * @param id the id of an exported endpoint
+	 * @return the limiter shared by all of the remoting providers for the endpoint,
+	 * or <code>null</code> if the endpoint is not registered
+	 */
+	ConcurrencyLimiter getConcurrencyLimiter(UUID id) {
+		return remoteProviders.stream()
+				.map(rp -> rp.getConcurrencyLimiter(id))
+				.filter(Objects::nonNull)
+				.findFirst()
+				.orElse(null);
+	}
+	
+	/**
+	 * Close the imports and exports which use a serializer that is no longer available.
+	 * Must not be called while holding a lock on an ImportRegistration or ExportRegistration
+	 * @param name the serializer name
+	 */
+	void serializerRemoved(String name) {
+		Set<ImportRegistrationImpl> importsToClose;
+		synchronized (imports) {
+			importsToClose = imports.values().stream()
+				.flatMap(m -> m.values().stream())
+				.flatMap(Set::stream)
+				.filter(i -> name.equals(i.getSerializationType()))
+				.collect(toSet());
+		}
+		
+		importsToClose.stream()
+			.forEach(ImportRegistration::close);
+		
+		Set<ExportRegistrationImpl> exportsToClose;
+		synchronized (exports) {
+			exportsToClose = exports.values().stream()
+				.flatMap(m -> m.values().stream())
+				.flatMap(Set::stream)
+				.filter(e -> name.equals(e.getSerializationType()))
+				.collect(toSet());
+		}
+		
+		exportsToClose.stream()
+			.forEach(ExportRegistration::close);
+	}
+	
 	void close() {
 		Set<ImportRegistration> importsToClose;
 		synchronized (imports) {
@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.impl;
+
+import static com.paremus.dosgi.net.serialize.spi.SerializerFactory.SERIALIZATION_NAME;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.paremus.dosgi.net.serialize.SerializationType;
+import com.paremus.dosgi.net.serialize.spi.SerializerFactory;
+
+/**
+ * Resolves the names used in the <code>com.paremus.dosgi.net.serialization</code>
+ * property. The built in {@link SerializationType}s are always available, and
+ * any {@link SerializerFactory} services registered with a name are tracked
+ * using the whiteboard pattern.
+ */
+public class SerializerRegistry {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SerializerRegistry.class);
+
+	private static class NamedFactory {
+		volatile List<String> names;
+		final SerializerFactory factory;
+
+		public NamedFactory(List<String> names, SerializerFactory factory) {
+			this.names = names;
+			this.factory = factory;
+		}
+	}
+
+	private final ConcurrentMap<ServiceReference<SerializerFactory>, NamedFactory> factories =
+			new ConcurrentHashMap<>();
+
+	private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+	private final ServiceTracker<SerializerFactory, NamedFactory> tracker;
+
+	/**
+	 * Create a registry which only supports the built in serializers
+	 */
+	public SerializerRegistry() {
+		this.tracker = null;
+	}
+
+	/**
+	 * Create a registry which also supports named {@link SerializerFactory} services
+	 * @param context the context to use when tracking services
+	 */
+	public SerializerRegistry(BundleContext context) {
+		this.tracker = new ServiceTracker<SerializerFactory, NamedFactory>(context, SerializerFactory.class, null) {
+
+				@Override
+				public NamedFactory addingService(ServiceReference<SerializerFactory> reference) {
+					List<String> names = getNames(reference);
+					if(names.isEmpty()) {
+						LOG.warn("The SerializerFactory service {} does not declare the {} property and will be ignored",
+								reference, SERIALIZATION_NAME);
+						return null;
+					}
+					SerializerFactory factory = context.getService(reference);
+					if(factory == null) {
+						return null;
+					}
+					NamedFactory named = new NamedFactory(names, factory);
+					factories.put(reference, named);
+					return named;
+				}
+
+				@Override
+				public void modifiedService(ServiceReference<SerializerFactory> reference, NamedFactory service) {
+					List<String> previous = service.names;
+					service.names = getNames(reference);
+					notifyRemoved(previous);
+				}
+
+				@Override
+				public void removedService(ServiceReference<SerializerFactory> reference, NamedFactory service) {
+					factories.remove(reference, service);
+					notifyRemoved(service.names);
+					context.ungetService(reference);
+				}
+			};
+	}
+
+	private static List<String> getNames(ServiceReference<?> reference) {
+		Object o = reference.getProperty(SERIALIZATION_NAME);
+		if(o instanceof String) {
+			return Arrays.asList((String) o);
+		} else if (o instanceof String[]) {
+			return Arrays.asList((String[]) o);
+		} else if (o instanceof Collection) {
+			return ((Collection<?>) o).stream()
+					.map(String::valueOf)
+					.collect(toList());
+		}
+		return emptyList();
+	}
+
+	private void notifyRemoved(List<String> names) {
+		names.stream()
+			.filter(n -> getFactory(n) == null)
+			.forEach(n -> listeners.forEach(l -> l.accept(n)));
+	}
+
+	public void open() {
+		if(tracker != null) {
+			tracker.open();
+		}
+	}
+
+	public void close() {
+		if(tracker != null) {
+			tracker.close();
+		}
+	}
+
+	/**
+	 * Get the factory for the named serializer. The built in {@link SerializationType}s
+	 * take precedence, followed by the highest ranked {@link SerializerFactory} service
+	 *
+	 * @param name the serializer name
+	 * @return the factory, or <code>null</code> if the serializer is not available
+	 */
+	public SerializerFactory getFactory(String name) {
+		for(SerializationType type : SerializationType.values()) {
+			if(type.name().equals(name)) {
+				return type.getFactory();
+			}
+		}
+
+		return factories.entrySet().stream()
+			.filter(e -> e.getValue().names.contains(name))
+			.max((a,b) -> a.getKey().compareTo(b.getKey()))
+			.map(Entry::getValue)
+			.map(n -> n.factory)
+			.orElse(null);
+	}
+
+	/**
+	 * Add a listener which is called with the name of any serializer that
+	 * stops being available
+	 *
+	 * @param listener
+	 */
+	public void addListener(Consumer<String> listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Consumer<String> listener) {
+		listeners.remove(listener);
+	}
+}
@@ -16,19 +16,32 @@ package com.paremus.dosgi.net.message;
 
 import java.util.UUID;
 
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 public abstract class AbstractPayloadMessage<M extends MessageType> extends AbstractRSAMessage<M> {
 	
 	private final Serializer serializer;
 	
+	private final BufferSizePredictor sizePredictor;
+	
 	public AbstractPayloadMessage(M type, UUID serviceId, int callId,
 			Serializer serializer) {
+		this(type, serviceId, callId, serializer, null);
+	}
+	
+	public AbstractPayloadMessage(M type, UUID serviceId, int callId,
+			Serializer serializer, BufferSizePredictor sizePredictor) {
 		super(type, serviceId, callId);
 		this.serializer = serializer;
+		this.sizePredictor = sizePredictor;
 	}
 	
 	public final Serializer getSerializer() {
 		return serializer;
 	}
+	
+	@Override
+	public final BufferSizePredictor getSizePredictor() {
+		return sizePredictor;
+	}
 }
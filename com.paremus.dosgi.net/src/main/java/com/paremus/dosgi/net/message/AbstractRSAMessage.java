@@ -49,6 +49,14 @@ public abstract class AbstractRSAMessage<M extends MessageType> {
 
 	public abstract void write(ByteBuf buffer, ChannelPromise promise) throws IOException;
 	
+	/**
+	 * @return the predictor used to size the buffer for this message, or <code>null</code>
+	 * if the default buffer size should be used
+	 */
+	public BufferSizePredictor getSizePredictor() {
+		return null;
+	}
+	
 	protected final void writeHeader(ByteBuf buffer) {
 		buffer
 			.writeByte(type.getVersion())
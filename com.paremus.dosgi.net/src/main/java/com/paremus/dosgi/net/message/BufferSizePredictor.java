@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Predicts the buffer size needed to write a message, based on the sizes of the
+ * messages written before it. This works in the same way as Netty's 
+ * <code>AdaptiveRecvByteBufAllocator</code>, growing immediately when a message 
+ * does not fit and shrinking only after two consecutive smaller messages.
+ * <p>
+ * A predictor is shared by all the calls to a method, so its state is updated
+ * without locking. Lost updates only cost a less accurate prediction.
+ */
+public final class BufferSizePredictor {
+
+	private static final int MINIMUM = 64;
+	
+	private static final int INITIAL = 256;
+	
+	private static final int MAXIMUM = 16777216;
+	
+	private static final int[] SIZE_TABLE;
+	
+	static {
+		List<Integer> sizes = new ArrayList<>();
+		for (int i = 16; i < 512; i += 16) {
+			sizes.add(i);
+		}
+		for (int i = 512; i > 0 && i <= MAXIMUM; i <<= 1) {
+			sizes.add(i);
+		}
+		SIZE_TABLE = sizes.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	private static final int MIN_INDEX = getSizeTableIndex(MINIMUM);
+	
+	private static final int MAX_INDEX = getSizeTableIndex(MAXIMUM);
+
+	/**
+	 * @return the index of the smallest table entry which can hold <code>size</code> bytes
+	 */
+	private static int getSizeTableIndex(int size) {
+		int idx = Arrays.binarySearch(SIZE_TABLE, size);
+		return Math.min(idx < 0 ? -(idx + 1) : idx, SIZE_TABLE.length - 1);
+	}
+	
+	private final LongAdder reallocations = new LongAdder();
+	
+	private volatile int index = getSizeTableIndex(INITIAL);
+	
+	private volatile boolean decreaseNow;
+	
+	/**
+	 * @return the initial capacity to use for the next message
+	 */
+	public int nextSize() {
+		return SIZE_TABLE[index];
+	}
+	
+	/**
+	 * Record the size of a message which has been written
+	 * 
+	 * @param initialCapacity the capacity of the buffer before the message was written
+	 * @param actual the number of bytes written
+	 */
+	public void record(int initialCapacity, int actual) {
+		if(actual > initialCapacity) {
+			reallocations.increment();
+		}
+		
+		int current = index;
+		if (actual <= SIZE_TABLE[Math.max(0, current - 1)]) {
+			if (decreaseNow) {
+				index = Math.max(current - 1, MIN_INDEX);
+				decreaseNow = false;
+			} else {
+				decreaseNow = true;
+			}
+		} else if (actual > SIZE_TABLE[current]) {
+			index = Math.min(getSizeTableIndex(actual), MAX_INDEX);
+			decreaseNow = false;
+		}
+	}
+	
+	/**
+	 * @return the number of messages which did not fit in their initial buffer,
+	 * and so had to be copied into a larger one while being written
+	 */
+	public long getReallocations() {
+		return reallocations.sum();
+	}
+}
@@ -27,7 +27,6 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
@@ -47,9 +46,10 @@ import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.paremus.dosgi.net.client.CircuitBreaker;
 import com.paremus.dosgi.net.impl.ImportRegistrationImpl;
 import com.paremus.dosgi.net.impl.RemoteServiceAdminImpl;
-import com.paremus.dosgi.net.serialize.SerializerFactory;
+import com.paremus.dosgi.net.serialize.spi.SerializerFactory;
 
 import io.netty.channel.Channel;
 import io.netty.util.Timer;
@@ -103,7 +103,7 @@ public class ClientServiceFactory implements ServiceFactory<Object> {
 
 	private final AtomicLong _serviceCallTimeout;
 	
-	private final AtomicInteger _callIdCounter = new AtomicInteger(0);
+	private final CircuitBreaker _circuitBreaker;
 
 	/**
      * Default constructor, used by
@@ -113,16 +113,19 @@ public class ClientServiceFactory implements ServiceFactory<Object> {
      * @param channel The communications channel to talk to the server
      * @param serializerFactory the serializer to use when sending arguments
      * @param serviceCallTimeout the timeout for service calls
+     * @param circuitBreaker the circuit breaker protecting callers of the service
      * @param executor the worker for client calls
      * @param timer the worker for triggering scheduled calls
      */
     public ClientServiceFactory(ImportRegistrationImpl importRegistration, EndpointDescription endpoint,
-    		Channel channel, SerializerFactory serializerFactory, AtomicLong serviceCallTimeout, EventExecutorGroup executor, Timer timer) {
+    		Channel channel, SerializerFactory serializerFactory, AtomicLong serviceCallTimeout, CircuitBreaker circuitBreaker, 
+    		EventExecutorGroup executor, Timer timer) {
         _endpointDescription = endpoint;
         _importRegistration = importRegistration;
         _channel = channel;
 		_serializerFactory = serializerFactory;
         _serviceCallTimeout = serviceCallTimeout;
+        _circuitBreaker = circuitBreaker;
         _executor = executor;
         _timer = timer;
     }
@@ -170,8 +173,8 @@ public class ClientServiceFactory implements ServiceFactory<Object> {
                 ServiceInvocationHandler proxyHandler = new ServiceInvocationHandler(
                 		_importRegistration, _endpointDescription, requestingBundle, 
                 		proxyClass, interfaces, promise, asyncDelegate != null, pushStream, pushEventSource, 
-                		_channel, _serializerFactory.create(requestingBundle), () -> _callIdCounter.getAndIncrement(), 
-                		_serviceCallTimeout, _executor, _timer);
+                		_channel, _serializerFactory.create(requestingBundle), _importRegistration::nextCallId, 
+                		_serviceCallTimeout, _circuitBreaker, _executor, _timer);
                 
                 return proxyClass.getConstructor(InvocationHandler.class).newInstance(proxyHandler);
             };
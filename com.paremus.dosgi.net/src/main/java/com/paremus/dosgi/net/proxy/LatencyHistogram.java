@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cheap, approximate record of recent call latencies, used to 
+ * estimate percentiles. Latencies are counted in power of two 
+ * buckets, and the counts decay so that old samples are forgotten.
+ */
+class LatencyHistogram {
+	
+	private static final int BUCKETS = 40;
+	
+	private static final int DECAY_AFTER = 4096;
+	
+	private final int minimumSamples;
+	
+	private final long[] counts = new long[BUCKETS];
+	
+	private long total;
+
+	public LatencyHistogram(int minimumSamples) {
+		this.minimumSamples = minimumSamples;
+	}
+	
+	public synchronized void record(long nanos) {
+		long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+		int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		counts[bucket]++;
+		if(++total >= DECAY_AFTER) {
+			total = 0;
+			for(int i = 0; i < BUCKETS; i++) {
+				counts[i] >>= 1;
+				total += counts[i];
+			}
+		}
+	}
+
+	/**
+	 * @param percentile a value between 0 and 1
+	 * @return the upper bound in nanoseconds of the latency bucket containing the
+	 * requested percentile, or -1 if too few samples have been recorded
+	 */
+	public synchronized long percentile(double percentile) {
+		if(total < minimumSamples) {
+			return -1;
+		}
+		long target = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= target) {
+				return TimeUnit.MICROSECONDS.toNanos(1L << (i + 1));
+			}
+		}
+		return TimeUnit.MICROSECONDS.toNanos(1L << BUCKETS);
+	}
+}
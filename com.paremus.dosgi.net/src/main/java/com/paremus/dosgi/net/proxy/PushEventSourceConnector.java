@@ -27,10 +27,12 @@ import org.osgi.framework.ServiceException;
 
 import com.paremus.dosgi.net.client.BeginStreamingInvocation;
 import com.paremus.dosgi.net.client.ClientBackPressure;
+import com.paremus.dosgi.net.client.ClientCredit;
 import com.paremus.dosgi.net.client.EndStreamingInvocation;
 import com.paremus.dosgi.net.message.AbstractRSAMessage.CacheKey;
 import com.paremus.dosgi.net.pushstream.PushStreamFactory.OnConnect;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.pushstream.StreamCreditWindow;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.channel.Channel;
 import io.netty.util.Timeout;
@@ -51,10 +53,22 @@ public class PushEventSourceConnector implements OnConnect<Object> {
 
 	private Timer _timer;
 	
+	private final int _streamCredit;
+	
 	public PushEventSourceConnector(Timer _timer, Channel _channel, Serializer _serializer) {
+		this(_timer, _channel, _serializer, 0);
+	}
+	
+	/**
+	 * @param _streamCredit The credit window for credit based flow control, 
+	 * or zero to use time based back pressure
+	 */
+	public PushEventSourceConnector(Timer _timer, Channel _channel, Serializer _serializer, 
+			int _streamCredit) {
 		this._timer = _timer;
 		this._channel = _channel;
 		this._serializer = _serializer;
+		this._streamCredit = _streamCredit;
 	}
 	
 	@Override
@@ -63,7 +77,8 @@ public class PushEventSourceConnector implements OnConnect<Object> {
 		// We use an immediate executor here as we swap to a different thread for real delivery
 		
 		PushEventSourceConnection connection = connections.computeIfAbsent(key, 
-				k -> new PushEventSourceConnection(_timer, key, ImmediateEventExecutor.INSTANCE, _channel, _serializer));
+				k -> new PushEventSourceConnection(_timer, key, ImmediateEventExecutor.INSTANCE, _channel, 
+						_serializer, _streamCredit));
 
 		new PushEventSourceClient(worker, closeFuture, connection, pushData, pushClose);
 	}
@@ -82,6 +97,8 @@ class PushEventSourceConnection {
 	private final Serializer _serializer;
 	
 	private final ClientBackPressure backPressureTemplate;
+	
+	private final StreamCreditWindow creditWindow;
 
 	private Promise<Object> closeFuture;
 
@@ -90,13 +107,15 @@ class PushEventSourceConnection {
 	private Timeout timeout;
 	
 	public PushEventSourceConnection(Timer _timer, CacheKey key, EventExecutor _executor,
-			Channel _channel, Serializer _serializer) {
+			Channel _channel, Serializer _serializer, int streamCredit) {
 		this._timer = _timer;
 		this.key = key;
 		this._executor = _executor;
 		this._channel = _channel;
 		this._serializer = _serializer;
 		this.backPressureTemplate = new ClientBackPressure(key.getId(), key.getCallId(), 0);
+		this.creditWindow = streamCredit > 0 ? new StreamCreditWindow(_channel, streamCredit, 
+				new ClientCredit(key.getId(), key.getCallId(), 0)::fromTemplate) : null;
 		this.closeFuture = _executor.newPromise().addListener(this::setTimeout);
 		
 		setTimeout(null);
@@ -126,8 +145,14 @@ class PushEventSourceConnection {
 			activeClients.add(pushEventSourceClient);
 			if(add) {
 				timeout.cancel();
+				int initialCredit = 0;
+				if(creditWindow != null) {
+					creditWindow.reset();
+					initialCredit = creditWindow.getWindow();
+				}
 				_channel.writeAndFlush(new BeginStreamingInvocation(key.getId(), key.getCallId(), 
-						_serializer, _executor, this::incomingData, this::incomingTerminal, closeFuture)).addListener(f -> {
+						_serializer, _executor, this::incomingData, this::incomingTerminal, closeFuture, 
+						initialCredit)).addListener(f -> {
 							if(!f.isSuccess()) {
 								incomingTerminal(new ServiceException("Unable to open the data stream",
 										ServiceException.REMOTE, f.cause()));
@@ -141,7 +166,9 @@ class PushEventSourceConnection {
 		// Data only ever comes in on a single thread and is pushed onto client threads
 		synchronized (activeClients) {
 			if (!closed) {
-				BackPressureToken token = new BackPressureToken(_channel, backPressureTemplate);
+				BackPressureToken token = creditWindow == null ? 
+						new BackPressureToken(_channel, backPressureTemplate) :
+						new CreditToken(_channel, backPressureTemplate, creditWindow, activeClients.size());
 				for (PushEventSourceClient client : activeClients) {
 					client.data(token, o);
 				}
@@ -208,23 +235,27 @@ class PushEventSourceClient {
 				worker.execute(() -> internalDataEvent(token, o));
 			} catch (Exception e) {
 				checkedTerminal(e);
+				token.processed(0);
 			}
+		} else {
+			token.processed(0);
 		}
 	}
 	
 	private void internalDataEvent(BackPressureToken token, Object o) {
+		long bp = 0;
 		if(!closed.get()) {
 			try {
-				long bp = pushData.applyAsLong(o);
-				if(bp > 0) {
-					token.applyBackPressure(bp);
-				} else if (bp < 0) {
+				bp = pushData.applyAsLong(o);
+				if (bp < 0) {
 					checkedTerminal(null);
+					bp = 0;
 				}
 			} catch (Exception e) {
 				checkedTerminal(e);
 			}
 		}
+		token.processed(bp);
 	}
 
 	private void checkedTerminal(Exception e) {
@@ -262,6 +293,16 @@ class BackPressureToken {
 		this.backPressureTemplate = backPressureTemplate;
 	}
 
+	/**
+	 * Called once by each client when it has processed the event
+	 * @param bp the back pressure requested by the client
+	 */
+	public void processed(long bp) {
+		if(bp > 0) {
+			applyBackPressure(bp);
+		}
+	}
+
 	public void applyBackPressure(long bp) {
 		
 		long suggestedFutureTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(bp);
@@ -292,3 +333,38 @@ class BackPressureToken {
 		}
 	}
 }
+
+class CreditToken extends BackPressureToken {
+	
+	private final StreamCreditWindow creditWindow;
+	
+	/** Guarded by this */
+	private int remaining;
+	
+	/** Guarded by this */
+	private long maxBackPressure;
+	
+	public CreditToken(Channel _channel, ClientBackPressure backPressureTemplate, 
+			StreamCreditWindow creditWindow, int clients) {
+		super(_channel, backPressureTemplate);
+		this.creditWindow = creditWindow;
+		this.remaining = clients;
+	}
+
+	/**
+	 * The credit is returned once every client has processed the event, 
+	 * after the largest back pressure that any of them requested
+	 */
+	@Override
+	public void processed(long bp) {
+		long pause;
+		synchronized (this) {
+			maxBackPressure = Math.max(maxBackPressure, bp);
+			if(--remaining > 0) {
+				return;
+			}
+			pause = maxBackPressure;
+		}
+		creditWindow.processed(pause);
+	}
+}
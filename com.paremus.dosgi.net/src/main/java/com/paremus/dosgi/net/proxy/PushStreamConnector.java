@@ -21,10 +21,12 @@ import org.osgi.framework.ServiceException;
 
 import com.paremus.dosgi.net.client.BeginStreamingInvocation;
 import com.paremus.dosgi.net.client.ClientBackPressure;
+import com.paremus.dosgi.net.client.ClientCredit;
 import com.paremus.dosgi.net.client.EndStreamingInvocation;
 import com.paremus.dosgi.net.message.AbstractRSAMessage.CacheKey;
 import com.paremus.dosgi.net.pushstream.PushStreamFactory.OnConnect;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.pushstream.StreamCreditWindow;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.channel.Channel;
 import io.netty.util.concurrent.EventExecutor;
@@ -36,9 +38,20 @@ public class PushStreamConnector implements OnConnect<Object> {
 	
 	private final Serializer _serializer;
 	
+	private final int _streamCredit;
+	
 	public PushStreamConnector(Channel _channel, Serializer _serializer) {
+		this(_channel, _serializer, 0);
+	}
+	
+	/**
+	 * @param _streamCredit The credit window for credit based flow control, 
+	 * or zero to use time based back pressure
+	 */
+	public PushStreamConnector(Channel _channel, Serializer _serializer, int _streamCredit) {
 		this._channel = _channel;
 		this._serializer = _serializer;
+		this._streamCredit = _streamCredit;
 	}
 
 	@Override
@@ -46,26 +59,29 @@ public class PushStreamConnector implements OnConnect<Object> {
 			ToLongFunction<Object> pushData, Consumer<Exception> pushClose) {
 		ClientBackPressure template = new ClientBackPressure(
 				key.getId(), key.getCallId(), 0);
+		StreamCreditWindow window = _streamCredit > 0 ? 
+				new StreamCreditWindow(_channel, _streamCredit, 
+						new ClientCredit(key.getId(), key.getCallId(), 0)::fromTemplate) : null;
 		
 		Consumer<Object> onData = t ->
 			{
 				long bp = pushData.applyAsLong(t);
 				
-				if(bp != 0) {
-					if(bp < 0) {
-						_channel.writeAndFlush(new EndStreamingInvocation(
-								key.getId(), key.getCallId()), _channel.voidPromise());
-						pushClose.accept(null);
-					} else {
-						_channel.writeAndFlush(template.fromTemplate(bp), 
-								_channel.voidPromise());
-					}
+				if(bp < 0) {
+					_channel.writeAndFlush(new EndStreamingInvocation(
+							key.getId(), key.getCallId()), _channel.voidPromise());
+					pushClose.accept(null);
+				} else if(window != null) {
+					window.processed(bp);
+				} else if(bp > 0) {
+					_channel.writeAndFlush(template.fromTemplate(bp), 
+							_channel.voidPromise());
 				}
 			};
 		
 		// Open the channel
 		_channel.writeAndFlush(new BeginStreamingInvocation(key.getId(), key.getCallId(), 
-				_serializer, worker, onData, pushClose, closeFuture)).addListener(f -> {
+				_serializer, worker, onData, pushClose, closeFuture, _streamCredit)).addListener(f -> {
 					if(!f.isSuccess()) {
 						pushClose.accept(new ServiceException("Unable to open the data stream",
 								ServiceException.REMOTE, f.cause()));
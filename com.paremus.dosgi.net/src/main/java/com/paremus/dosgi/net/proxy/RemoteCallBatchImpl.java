@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import com.paremus.dosgi.net.client.ClientInvocation;
+import com.paremus.dosgi.scoping.rsa.RemoteCallBatch;
+
+/**
+ * Records calls made on a proxy instance, turning each one into a
+ * {@link ClientInvocation} which is sent as part of a batch
+ */
+class RemoteCallBatchImpl<T> implements RemoteCallBatch<T> {
+
+	private final ServiceInvocationHandler handler;
+	
+	private final T recorder;
+	
+	private final List<ClientInvocation> invocations = new ArrayList<>();
+	
+	private Method recordedMethod;
+	
+	private Object[] recordedArgs;
+	
+	@SuppressWarnings("unchecked")
+	RemoteCallBatchImpl(ServiceInvocationHandler handler, T proxy) {
+		this.handler = handler;
+		try {
+			this.recorder = (T) proxy.getClass().getConstructor(InvocationHandler.class)
+					.newInstance((InvocationHandler) this::record);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to create a batch for the service " + proxy, e);
+		}
+	}
+	
+	private Object record(Object proxy, Method method, Object[] args) {
+		if(method.getDeclaringClass() == Object.class) {
+			switch(method.getName()) {
+				case "equals" :
+					return proxy == args[0];
+				case "hashCode" :
+					return System.identityHashCode(proxy);
+				default :
+					return "Batch recorder for " + handler;
+			}
+		}
+		
+		if(recordedMethod != null) {
+			throw new IllegalArgumentException("Only one method may be called for each call in a batch");
+		}
+		recordedMethod = method;
+		recordedArgs = args;
+		
+		return defaultValue(method.getReturnType());
+	}
+
+	private Object defaultValue(Class<?> type) {
+		if(!type.isPrimitive() || type == void.class) {
+			return null;
+		} else if(type == boolean.class) {
+			return false;
+		} else if(type == char.class) {
+			return '\0';
+		} else if(type == byte.class) {
+			return (byte) 0;
+		} else if(type == short.class) {
+			return (short) 0;
+		} else if(type == int.class) {
+			return 0;
+		} else if(type == long.class) {
+			return 0L;
+		} else if(type == float.class) {
+			return 0f;
+		} else {
+			return 0d;
+		}
+	}
+
+	@Override
+	public synchronized <R> CompletableFuture<R> call(Function<? super T, R> call) {
+		Method method;
+		Object[] args;
+		try {
+			call.apply(recorder);
+			method = recordedMethod;
+			args = recordedArgs;
+		} finally {
+			recordedMethod = null;
+			recordedArgs = null;
+		}
+		
+		if(method == null) {
+			throw new IllegalArgumentException("No method was called on the service");
+		}
+		
+		ClientInvocation invocation = handler.prepareBatchedCall(method, args);
+		
+		CompletableFuture<R> result = new CompletableFuture<>();
+		invocation.getResult().addListener(f -> {
+				if(f.isSuccess()) {
+					@SuppressWarnings("unchecked")
+					R r = (R) f.getNow();
+					result.complete(r);
+				} else {
+					result.completeExceptionally(f.cause());
+				}
+			});
+		result.whenComplete((r, t) -> {
+				if(result.isCancelled()) {
+					cancel(invocation);
+				}
+			});
+		
+		invocations.add(invocation);
+		return result;
+	}
+
+	/**
+	 * A call which has not been sent is removed from the batch, otherwise
+	 * cancelling its result sends a cancellation to the remote node
+	 */
+	private void cancel(ClientInvocation invocation) {
+		synchronized (this) {
+			invocations.remove(invocation);
+		}
+		invocation.getResult().cancel(true);
+	}
+
+	@Override
+	public void send() {
+		List<ClientInvocation> toSend;
+		synchronized (this) {
+			if(invocations.isEmpty()) {
+				return;
+			}
+			toSend = new ArrayList<>(invocations);
+			invocations.clear();
+		}
+		handler.sendBatch(toSend);
+	}
+
+	@Override
+	public synchronized int size() {
+		return invocations.size();
+	}
+}
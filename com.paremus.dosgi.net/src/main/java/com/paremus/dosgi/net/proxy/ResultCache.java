@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.proxy;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import io.netty.util.concurrent.Future;
+
+/**
+ * A size bounded, least recently used, cache of the results of remote calls.
+ * Results are keyed using the method id and the serialized bytes of the 
+ * arguments, and expire after a fixed time to live. 
+ * <p>
+ * The whole cache is cleared whenever the supplied generation changes, which
+ * happens when the import is updated or closed, or when the server indicates
+ * that the cached results are no longer valid.
+ */
+class ResultCache {
+	
+	static final class Key {
+		private final int methodId;
+		private final byte[] args;
+		private final int hash;
+		
+		Key(int methodId, byte[] args) {
+			this.methodId = methodId;
+			this.args = args;
+			this.hash = 31 * methodId + Arrays.hashCode(args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return methodId == other.methodId && hash == other.hash && 
+					Arrays.equals(args, other.args);
+		}
+	}
+	
+	private static final class Entry {
+		private final Future<Object> result;
+		private final long expiry;
+		
+		Entry(Future<Object> result, long expiry) {
+			this.result = result;
+			this.expiry = expiry;
+		}
+	}
+	
+	private final long ttlNanos;
+	
+	private final LongSupplier generation;
+	
+	private final LinkedHashMap<Key, Entry> entries;
+	
+	private long currentGeneration;
+	
+	ResultCache(long ttlMillis, int maxSize, LongSupplier generation) {
+		if(maxSize < 1) {
+			throw new IllegalArgumentException("The cache size must be greater than zero");
+		}
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.generation = generation;
+		this.currentGeneration = generation.getAsLong();
+		this.entries = new LinkedHashMap<Key, Entry>(Math.min(maxSize, 1024), 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * @param key the cache key
+	 * @return The cached result, which may not yet be complete, or null
+	 * if there is no valid cached result
+	 */
+	synchronized Future<Object> get(Key key) {
+		checkGeneration();
+		Entry e = entries.get(key);
+		if(e == null) {
+			return null;
+		} else if (e.expiry - System.nanoTime() < 0) {
+			entries.remove(key);
+			return null;
+		}
+		return e.result;
+	}
+	
+	/**
+	 * @return the current generation, which must be read before making the
+	 * remote call whose result will be cached
+	 */
+	long getGeneration() {
+		return generation.getAsLong();
+	}
+	
+	/**
+	 * Cache a result, unless the cache has been invalidated since the 
+	 * generation was read
+	 */
+	synchronized void put(Key key, Future<Object> result, long resultGeneration) {
+		checkGeneration();
+		if(resultGeneration == currentGeneration) {
+			entries.put(key, new Entry(result, System.nanoTime() + ttlNanos));
+		}
+	}
+
+	/**
+	 * Remove the cached result if it is the supplied result, used 
+	 * to ensure that failures are not cached
+	 */
+	synchronized void remove(Key key, Future<Object> result) {
+		Entry e = entries.get(key);
+		if(e != null && e.result == result) {
+			entries.remove(key);
+		}
+	}
+	
+	synchronized int size() {
+		checkGeneration();
+		long now = System.nanoTime();
+		for(Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			if(it.next().expiry - now < 0) {
+				it.remove();
+			}
+		}
+		return entries.size();
+	}
+	
+	private void checkGeneration() {
+		long latest = generation.getAsLong();
+		if(latest != currentGeneration) {
+			entries.clear();
+			currentGeneration = latest;
+		}
+	}
+}
@@ -17,8 +17,10 @@ package com.paremus.dosgi.net.proxy;
 import static com.paremus.dosgi.net.proxy.ClientServiceFactory.ASYNC_DELEGATE_TYPE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.toSignature;
 import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -34,6 +36,8 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.IntSupplier;
@@ -44,17 +48,29 @@ import java.util.stream.IntStream.Builder;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceException;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.util.converter.Converters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.paremus.dosgi.net.client.BatchInvocation;
+import com.paremus.dosgi.net.client.CircuitBreaker;
+import com.paremus.dosgi.net.client.CircuitBreakerOpenException;
 import com.paremus.dosgi.net.client.ClientInvocation;
 import com.paremus.dosgi.net.client.EndStreamingInvocation;
+import com.paremus.dosgi.net.client.SendFailedException;
+import com.paremus.dosgi.net.config.ImportedServiceConfig;
 import com.paremus.dosgi.net.impl.ImportRegistrationImpl;
 import com.paremus.dosgi.net.promise.PromiseFactory;
 import com.paremus.dosgi.net.pushstream.PushStreamFactory;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStreamFactory;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+import com.paremus.dosgi.scoping.rsa.RemoteCallBatch;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.EventExecutorGroup;
@@ -78,6 +94,17 @@ public class ServiceInvocationHandler implements InvocationHandler {
     private final Timer _timer;
     private final Serializer _serializer;
     private final IntSupplier _callIdGenerator;
+    private final CircuitBreaker _circuitBreaker;
+    private final AtomicLong _serviceCallTimeout;
+    private final Set<String> _idempotentMethods;
+    private final long _hedgeDelay;
+    private final Set<String> _cacheableMethods;
+    private final ResultCache _resultCache;
+    private final int _streamCredit;
+    
+    /** Created when first needed, as most services do not take streamed arguments */
+    private DataStreamFactory _pushStreamArgConnector;
+    private DataStreamFactory _pushEventSourceArgConnector;
     
     private final Future<Boolean> _trueReturn;
     private final Future<Boolean> _falseReturn;
@@ -86,6 +113,18 @@ public class ServiceInvocationHandler implements InvocationHandler {
     	Future<?> handle(boolean withReturn, Object proxy, Method m, Object[] args) throws Exception;
     }
     
+    /**
+     * A {@link CallHandler} which can reuse arguments that have already been serialized
+     */
+    private static interface SerializedArgsCallHandler extends CallHandler {
+    	Future<?> handle(boolean withReturn, Object proxy, Method m, Object[] args, 
+    			byte[] serializedArgs) throws Exception;
+    	
+    	default Future<?> handle(boolean withReturn, Object proxy, Method m, Object[] args) throws Exception {
+    		return handle(withReturn, proxy, m, args, null);
+    	}
+    }
+    
     private static class InvocationInfo {
     	final CallHandler handler;
     	final Function<Future<?>, Object> returnTransformer;
@@ -99,17 +138,30 @@ public class ServiceInvocationHandler implements InvocationHandler {
     }
     
     private final Map<Method, InvocationInfo> actions = new HashMap<>();
+    
+    private final Map<Method, ClientInvocation> batchTemplates = new HashMap<>();
    
     public ServiceInvocationHandler(ImportRegistrationImpl importRegistration, EndpointDescription endpoint,
     		Bundle callingContext, Class<?> proxyClass, List<Class<?>> interfaces, Class<?> promiseClass, boolean isAsyncDelegate,
     		Class<?> pushStreamClass, Class<?> pushEventSourceClass, Channel channel, Serializer serializer, IntSupplier callIdGenerator, 
-    		AtomicLong serviceCallTimeout, EventExecutorGroup executor, Timer timer) {
+    		AtomicLong serviceCallTimeout, CircuitBreaker circuitBreaker, EventExecutorGroup executor, Timer timer) {
     	_importRegistration = Objects.requireNonNull(importRegistration, "ImportRegistration cannot be null");
         _channel = Objects.requireNonNull(channel, "A communications channel must be supplied");
         _executor = Objects.requireNonNull(executor, "An executor must be supplied");
         _timer = Objects.requireNonNull(timer, "A timer must be supplied");
         _serializer = Objects.requireNonNull(serializer, "A Serializer must be supplied");
         _callIdGenerator = Objects.requireNonNull(callIdGenerator, "A call id generator must be supplied");
+        _circuitBreaker = Objects.requireNonNull(circuitBreaker, "A circuit breaker must be supplied");
+        _serviceCallTimeout = serviceCallTimeout;
+        
+        ImportedServiceConfig config = Converters.standardConverter()
+        		.convert(endpoint.getProperties()).to(ImportedServiceConfig.class);
+        _idempotentMethods = stream(config.com_paremus_dosgi_net_idempotent()).collect(toSet());
+        _hedgeDelay = config.com_paremus_dosgi_net_hedge_delay();
+        _cacheableMethods = stream(config.com_paremus_dosgi_net_cacheable()).collect(toSet());
+        _resultCache = _cacheableMethods.isEmpty() ? null : new ResultCache(config.com_paremus_dosgi_net_cache_ttl(), 
+        		config.com_paremus_dosgi_net_cache_size(), importRegistration::getCacheGeneration);
+        _streamCredit = Math.max(0, config.com_paremus_dosgi_net_stream_credit());
         
         _trueReturn = executor.next().newSucceededFuture(true);
         _falseReturn = executor.next().newSucceededFuture(false);
@@ -211,22 +263,41 @@ public class ServiceInvocationHandler implements InvocationHandler {
 			
 			int[] promiseArgs = promiseClass == null ? new int[0] : getArgsOfType(method, promiseClass);
 			int[] completableFutureArgs = getArgsOfType(method, CompletableFuture.class, CompletionStage.class);
+			int[] streamArgs = getArgsOfType(method, Arrays.asList(pushStreamClass, pushEventSourceClass)
+					.stream().filter(Objects::nonNull).toArray(Class<?>[]::new));
 			
 			UUID id = _importRegistration.getId();
 			ClientInvocation template = new ClientInvocation(false, id, methodId, -1, null, 
-					promiseArgs, completableFutureArgs, _serializer, nettyFutureAdapter, null, timeout, method.toString());
+					promiseArgs, completableFutureArgs, _serializer, nettyFutureAdapter, null, timeout, method.toString(),
+					_importRegistration.getRequestSizePredictor(methodId), streamArgs, getStreamArgConnectors(method, streamArgs, pushStreamClass));
+			
+			if(transformer == DEFAULT_RETURN_TRANSFORM && promiseArgs.length == 0 && 
+					completableFutureArgs.length == 0 && streamArgs.length == 0) {
+				batchTemplates.put(method, template);
+			}
+			
+			SerializedArgsCallHandler handler;
+			if(streamArgs.length > 0) {
+				// The server asks for streamed arguments, so the call must always have a response
+				handler = (w,o,m,a,s) -> invoke(template, true, a, s, nettyPromiseSupplier);
+			} else if(isHedgeable(method, promiseArgs, completableFutureArgs)) {
+				String signature = toSignature(method);
+				LatencyHistogram latencies = new LatencyHistogram(20);
+				handler = (w,o,m,a,s) -> w ? 
+						hedgedInvoke(template, signature, latencies, a, s, nettyPromiseSupplier) :
+						invoke(template, w, a, s, nettyPromiseSupplier);
+			} else {
+				handler = (w,o,m,a,s) -> invoke(template, w, a, s, nettyPromiseSupplier);
+			}
+			
+			if(isCacheable(method, promiseArgs, completableFutureArgs)) {
+				SerializedArgsCallHandler uncached = handler;
+				return new InvocationInfo((w,o,m,a) -> w ? 
+						cachedInvoke(methodId, uncached, o, m, a, nettyPromiseSupplier) : 
+						uncached.handle(w, o, m, a), transformer);
+			}
 			
-			return new InvocationInfo((w,o,m,a) -> {
-					Promise<Object> result = nettyPromiseSupplier.apply(_executor.next());
-					_channel.writeAndFlush(template.fromTemplate(
-						w, _callIdGenerator.getAsInt(), a, result), 
-							_channel.newPromise().addListener(f -> {
-									if(!f.isSuccess()) {
-										result.tryFailure(new ServiceException("Failed to send the remote invocation", ServiceException.REMOTE, f.cause()));
-									}
-								}));
-					return result;
-				}, transformer);
+			return new InvocationInfo(handler, transformer);
 		}
 		
 		return new InvocationInfo((a,b,c,d) -> {
@@ -235,6 +306,304 @@ public class ServiceInvocationHandler implements InvocationHandler {
 				}, UNREACHABLE_RETURN_TRANSFORMER);
 	}
 
+	private DataStreamFactory[] getStreamArgConnectors(Method method, int[] streamArgs, Class<?> pushStreamClass) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		DataStreamFactory[] connectors = new DataStreamFactory[streamArgs.length];
+		try {
+			for(int i = 0; i < streamArgs.length; i++) {
+				Class<?> type = parameterTypes[streamArgs[i]];
+				if(type.equals(pushStreamClass)) {
+					if(_pushStreamArgConnector == null) {
+						_pushStreamArgConnector = PushStreamFactory.pushStreamConnector(type, _timer);
+					}
+					connectors[i] = _pushStreamArgConnector;
+				} else {
+					if(_pushEventSourceArgConnector == null) {
+						_pushEventSourceArgConnector = PushStreamFactory.pushEventSourceConnector(type, _timer);
+					}
+					connectors[i] = _pushEventSourceArgConnector;
+				}
+			}
+		} catch (NoClassDefFoundError | Exception e) {
+			throw new RuntimeException("The PushStream package is not supported", e);
+		}
+		return connectors;
+	}
+
+	private Future<Object> invoke(ClientInvocation template, boolean withReturn, Object[] args,
+			byte[] serializedArgs, Function<EventExecutor, Promise<Object>> nettyPromiseSupplier) {
+		Promise<Object> result = nettyPromiseSupplier.apply(_executor.next());
+		if(!acquireCircuitBreaker(withReturn, result)) {
+			return result;
+		}
+		send(_channel, template.fromTemplate(withReturn, _callIdGenerator.getAsInt(), args, result)
+				.withSerializedArgs(serializedArgs));
+		return result;
+	}
+
+	private boolean acquireCircuitBreaker(boolean withReturn, Promise<Object> result) {
+		if(withReturn ? !_circuitBreaker.tryAcquire() : !_circuitBreaker.isCallPermitted()) {
+			result.setFailure(new ServiceException("The remote service " + _importRegistration.getId() + 
+					" is failing and calls to it are being rejected", ServiceException.REMOTE, 
+					new CircuitBreakerOpenException()));
+			return false;
+		} else if (withReturn) {
+			result.addListener(f -> _circuitBreaker.onComplete(f.isSuccess(), f.cause()));
+		}
+		return true;
+	}
+
+	private void send(Channel channel, ClientInvocation invocation) {
+		channel.writeAndFlush(invocation, channel.newPromise().addListener(f -> {
+				if(!f.isSuccess()) {
+					invocation.getResult().tryFailure(new SendFailedException("Failed to send the remote invocation", 
+							f.cause()));
+				}
+			}));
+	}
+
+	/**
+	 * Create a batch which records calls on the supplied proxy so that they
+	 * can be sent to the remote service in a single message
+	 * 
+	 * @param proxy the proxy using this invocation handler
+	 * @return a new batch
+	 */
+	public <T> RemoteCallBatch<T> createBatch(T proxy) {
+		return new RemoteCallBatchImpl<>(this, proxy);
+	}
+
+	ClientInvocation prepareBatchedCall(Method method, Object[] args) {
+		ClientInvocation template = batchTemplates.get(method);
+		if(template == null) {
+			throw new IllegalArgumentException("The method " + method.toGenericString() + 
+					" cannot be called as part of a batch");
+		}
+		return template.fromTemplate(true, _callIdGenerator.getAsInt(), args, _executor.next().newPromise());
+	}
+
+	void sendBatch(List<ClientInvocation> invocations) {
+		List<ClientInvocation> permitted = invocations.stream()
+				.filter(ci -> acquireCircuitBreaker(true, ci.getResult()))
+				.collect(toList());
+		
+		for(int i = 0; i < permitted.size(); i += BatchInvocation.MAX_BATCH_SIZE) {
+			List<ClientInvocation> chunk = permitted.subList(i, 
+					Math.min(permitted.size(), i + BatchInvocation.MAX_BATCH_SIZE));
+			if(chunk.size() == 1) {
+				send(_channel, chunk.get(0));
+				continue;
+			}
+			
+			BatchInvocation batch = new BatchInvocation(_importRegistration.getId(), 
+					_callIdGenerator.getAsInt(), _serializer, chunk);
+			_channel.writeAndFlush(batch, _channel.newPromise().addListener(f -> {
+					if(!f.isSuccess()) {
+						batch.fail(new SendFailedException("Failed to send the batch of remote invocations", 
+								f.cause()));
+					}
+				}));
+		}
+	}
+
+	/**
+	 * Hedging sends the same call to a replica if the primary is slow to respond. 
+	 * This is only safe for idempotent methods, and is only possible when the 
+	 * arguments are not asynchronous and the result is not a stream. 
+	 */
+	private boolean isHedgeable(Method method, int[] promiseArgs, int[] completableFutureArgs) {
+		return isNamedIn(_idempotentMethods, method) && 
+				isSingleValued(method, promiseArgs, completableFutureArgs);
+	}
+
+	/**
+	 * Caching reuses the result of an earlier call with the same arguments. 
+	 * This is only safe for methods whose results rarely change, and is only 
+	 * possible when the arguments are not asynchronous and the result is not a stream. 
+	 */
+	private boolean isCacheable(Method method, int[] promiseArgs, int[] completableFutureArgs) {
+		return _resultCache != null && isNamedIn(_cacheableMethods, method) && 
+				isSingleValued(method, promiseArgs, completableFutureArgs);
+	}
+
+	private boolean isNamedIn(Set<String> names, Method method) {
+		return names.contains(method.getName()) || names.contains(toSignature(method));
+	}
+
+	private boolean isSingleValued(Method method, int[] promiseArgs, int[] completableFutureArgs) {
+		return promiseArgs.length == 0 && completableFutureArgs.length == 0 &&
+				!PushStreamFactory.isPushStream(method.getReturnType()) &&
+				!PushStreamFactory.isPushEventSource(method.getReturnType()) &&
+				stream(method.getParameterTypes()).noneMatch(t -> 
+					PushStreamFactory.isPushStream(t) || PushStreamFactory.isPushEventSource(t));
+	}
+
+	/**
+	 * The cache holds the serialized result, rather than the result object, so that 
+	 * every caller gets its own copy of a value which may be mutable
+	 */
+	@SuppressWarnings("unchecked")
+	private Future<?> cachedInvoke(int methodId, SerializedArgsCallHandler uncached, Object proxy, Method method, 
+			Object[] args, Function<EventExecutor, Promise<Object>> nettyPromiseSupplier) throws Exception {
+		byte[] serializedArgs;
+		ByteBuf buf = Unpooled.buffer();
+		try {
+			_serializer.serializeArgs(buf, args == null ? new Object[0] : args);
+			serializedArgs = ByteBufUtil.getBytes(buf);
+		} catch (Exception e) {
+			LOG.debug("The arguments for the call to {} cannot be used to cache the result", method, e);
+			return uncached.handle(true, proxy, method, args);
+		} finally {
+			buf.release();
+		}
+		ResultCache.Key key = new ResultCache.Key(methodId, serializedArgs);
+		
+		Promise<Object> result = nettyPromiseSupplier.apply(_executor.next());
+		
+		long generation = _resultCache.getGeneration();
+		Future<Object> cached = _resultCache.get(key);
+		if(cached == null) {
+			// The arguments are only serialized once, unless the call uses a serialization session
+			Future<Object> response = (Future<Object>) uncached.handle(true, proxy, method, args, serializedArgs);
+			if(response.isDone() && !response.isSuccess()) {
+				return response;
+			}
+			Promise<Object> serialized = ImmediateEventExecutor.INSTANCE.newPromise();
+			_resultCache.put(key, serialized, generation);
+			serialized.addListener(f -> {
+					if(!f.isSuccess()) {
+						_resultCache.remove(key, serialized);
+					}
+				});
+			// The value is serialized before this caller can see, and possibly change, it 
+			response.addListener(f -> {
+					if(f.isSuccess()) {
+						Object value = f.getNow();
+						try {
+							serialized.trySuccess(serializeResult(value));
+						} catch (Exception e) {
+							LOG.debug("The result of the call to {} cannot be cached", method, e);
+							serialized.tryFailure(e);
+						}
+						result.trySuccess(value);
+					} else {
+						serialized.tryFailure(f.cause());
+						result.tryFailure(f.cause());
+					}
+				});
+			// Cancelling this caller's result does not affect the other callers
+			return result;
+		}
+		
+		cached.addListener(f -> {
+				if(f.isSuccess()) {
+					try {
+						result.trySuccess(_serializer.deserializeReturn(Unpooled.wrappedBuffer((byte[]) f.getNow())));
+					} catch (Exception e) {
+						result.tryFailure(new ServiceException(
+								"Failed to deserialize the cached return value", ServiceException.REMOTE, e));
+					}
+				} else {
+					result.tryFailure(f.cause());
+				}
+			});
+		return result;
+	}
+
+	private byte[] serializeResult(Object value) throws IOException {
+		ByteBuf buf = Unpooled.buffer();
+		try {
+			_serializer.serializeReturn(buf, value);
+			return ByteBufUtil.getBytes(buf);
+		} finally {
+			buf.release();
+		}
+	}
+
+	private Future<Object> hedgedInvoke(ClientInvocation template, String signature, LatencyHistogram latencies, 
+			Object[] args, byte[] serializedArgs, Function<EventExecutor, Promise<Object>> nettyPromiseSupplier) {
+		Promise<Object> result = nettyPromiseSupplier.apply(_executor.next());
+		
+		long start = System.nanoTime();
+		// The latency seen by the caller, whichever invocation wins, decides when to hedge
+		result.addListener(f -> {
+				if(f.isSuccess()) {
+					latencies.record(System.nanoTime() - start);
+				}
+			});
+		
+		Promise<Object> primary = ImmediateEventExecutor.INSTANCE.newPromise();
+		primary.addListener(f -> completeHedge(f, result));
+		// Each invocation is recorded by the circuit breaker for the node that it is sent to
+		if(!acquireCircuitBreaker(true, primary)) {
+			return result;
+		}
+		// The losing invocation is cancelled, which sends a cancellation to the remote node
+		result.addListener(f -> primary.cancel(false));
+		
+		send(_channel, template.fromTemplate(true, _callIdGenerator.getAsInt(), args, primary)
+				.withSerializedArgs(serializedArgs));
+		
+		long delay = _hedgeDelay < 0 ? latencies.percentile(0.95d) : 
+			TimeUnit.MILLISECONDS.toNanos(_hedgeDelay);
+		
+		if(delay >= 0 && !result.isDone()) {
+			Timeout timeout = _timer.newTimeout(t -> sendHedge(template, signature, args, serializedArgs, result), 
+					delay, TimeUnit.NANOSECONDS);
+			result.addListener(f -> timeout.cancel());
+		}
+		return result;
+	}
+
+	private void sendHedge(ClientInvocation template, String signature, Object[] args, byte[] serializedArgs,
+			Promise<Object> result) {
+		if(result.isDone()) {
+			return;
+		}
+		
+		List<ImportRegistrationImpl> replicas = _importRegistration.getReplicas().stream()
+				.filter(i -> i.getChannel() != null && i.getChannel().isActive())
+				.filter(i -> i.getMethodMappings().containsValue(signature))
+				.filter(i -> i.getCircuitBreaker().isCallPermitted())
+				.collect(Collectors.toList());
+		
+		if(replicas.isEmpty()) {
+			return;
+		}
+		
+		ImportRegistrationImpl replica = replicas.get(ThreadLocalRandom.current().nextInt(replicas.size()));
+		CircuitBreaker breaker = replica.getCircuitBreaker();
+		if(!breaker.tryAcquire()) {
+			return;
+		}
+		int methodId = replica.getMethodMappings().entrySet().stream()
+				.filter(e -> signature.equals(e.getValue()))
+				.mapToInt(Entry::getKey)
+				.findFirst().getAsInt();
+		
+		LOG.debug("Hedging the call to {} on service {} by calling the replica {}", signature, 
+				_importRegistration.getId(), replica.getId());
+		
+		Promise<Object> secondary = ImmediateEventExecutor.INSTANCE.newPromise();
+		secondary.addListener(f -> breaker.onComplete(f.isSuccess(), f.cause()));
+		secondary.addListener(f -> completeHedge(f, result));
+		result.addListener(f -> secondary.cancel(false));
+		
+		// The call id must come from the replica, as its own proxies use the same service id
+		send(replica.getChannel(), new ClientInvocation(true, replica.getId(), methodId, 
+				replica.nextCallId(), args, template.getPromiseArgs(), template.getCompletionStageArgs(), 
+				_serializer, template.getToNettyPromiseAdapter(), secondary, _serviceCallTimeout, 
+				template.getMethodName(), template.getSizePredictor()).withSerializedArgs(serializedArgs));
+	}
+
+	private void completeHedge(Future<?> completed, Promise<Object> result) {
+		if(completed.isSuccess()) {
+			result.trySuccess(completed.getNow());
+		} else if (!completed.isCancelled()) {
+			result.tryFailure(completed.cause());
+		}
+	}
+
 	private int[] getArgsOfType(Method method, Class<?>... clazz) {
 		Class<?>[] parameterTypes = method.getParameterTypes();
 		
@@ -291,7 +660,7 @@ public class ServiceInvocationHandler implements InvocationHandler {
 		} else {
 			try {
 				pushStreamReturnAction = PushStreamFactory.pushStreamHandler(pushStreamClass, 
-						_executor, new PushStreamConnector(_channel, _serializer), (key) -> {
+						_executor, new PushStreamConnector(_channel, _serializer, _streamCredit), (key) -> {
 							_channel.writeAndFlush(new EndStreamingInvocation(key.getId(), key.getCallId()));
 						});
 			} catch (NoClassDefFoundError | Exception e) {
@@ -308,7 +677,8 @@ public class ServiceInvocationHandler implements InvocationHandler {
 		} else {
 			try {
 				pushEventSourceReturnAction = PushStreamFactory.pushEventSourceHandler(pushEventSourceClass, 
-						_executor, new PushEventSourceConnector(_timer, _channel, _serializer), (key) -> {});
+						_executor, new PushEventSourceConnector(_timer, _channel, _serializer, 
+								_streamCredit), (key) -> {});
 			} catch (NoClassDefFoundError | Exception e) {
 				throw new RuntimeException("The PushStream package is not supported", e);
 			}
@@ -68,6 +68,11 @@ public class PushStreamFactory {
 	public static interface DataStream {
 		void open();
 		void asyncBackPressure(long bp);
+		/**
+		 * Allow the stream to send more data events. Streams which never 
+		 * receive credit use time based back pressure.
+		 */
+		default void grantCredit(int credit) {}
 		void close();
 		Future<Void> closeFuture();
 	}
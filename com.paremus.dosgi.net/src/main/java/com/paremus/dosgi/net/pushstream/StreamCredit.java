@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.pushstream;
+
+import java.util.ArrayDeque;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import org.osgi.framework.ServiceException;
+
+import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStream;
+
+import io.netty.util.concurrent.Future;
+
+/**
+ * Applies credit based flow control to the data events of one remote stream, 
+ * either a streamed response or a streamed method argument.
+ * <p>
+ * Until the receiver grants credit the stream uses time based back pressure, and
+ * events are sent as they arrive. Once credit has been granted each event that is
+ * sent uses one credit, and events which arrive without credit are held until the
+ * receiver grants more. No more than a fixed number of events are held, a stream 
+ * which exceeds this is failed. Terminal events are sent after any held events.
+ */
+public class StreamCredit implements DataStream {
+
+	/** The default limit for events held while waiting for credit */
+	public static final int DEFAULT_MAX_HELD = 1024;
+	
+	/** The longest back pressure requested while waiting for credit */
+	private static final long MAX_CREDIT_WAIT = 1000;
+	
+	private final ToLongFunction<Object> onData;
+	private final Consumer<Throwable> onTerminal;
+	private final int maxHeld;
+	private final DataStream stream;
+	
+	/** Guarded by this, negative until the receiver first grants credit */
+	private int credit = -1;
+	/** Guarded by this */
+	private final ArrayDeque<Object> held = new ArrayDeque<>();
+	/** Guarded by this */
+	private boolean terminalHeld;
+	/** Guarded by this */
+	private Throwable heldFailure;
+	/** Guarded by this */
+	private boolean done;
+
+	/**
+	 * @param onData sends a data event to the receiver
+	 * @param onTerminal sends a terminal event to the receiver
+	 * @param maxHeld the largest number of events held while waiting for credit
+	 * @param connector creates the stream using the supplied data and terminal callbacks
+	 */
+	public StreamCredit(ToLongFunction<Object> onData, Consumer<Throwable> onTerminal, int maxHeld,
+			BiFunction<ToLongFunction<Object>, Consumer<Throwable>, DataStream> connector) {
+		if(maxHeld < 0) {
+			throw new IllegalArgumentException("The number of events held waiting for credit must not be negative");
+		}
+		this.onData = onData;
+		this.onTerminal = onTerminal;
+		this.maxHeld = maxHeld;
+		this.stream = connector.apply(this::data, this::terminal);
+	}
+	
+	private long data(Object data) {
+		synchronized (this) {
+			if(done) {
+				return -1;
+			} else if(credit >= 0) {
+				if(credit == 0 || !held.isEmpty()) {
+					if(held.size() < maxHeld) {
+						held.add(data);
+						// Ask for a pause which grows with the number of waiting events
+						return Math.min(held.size(), MAX_CREDIT_WAIT);
+					}
+					overflow();
+					return -1;
+				}
+				credit--;
+				// Sent while holding the lock so that held events cannot overtake this one
+				return onData.applyAsLong(data);
+			}
+		}
+		return onData.applyAsLong(data);
+	}
+
+	private void overflow() {
+		done = true;
+		held.clear();
+		onTerminal.accept(new ServiceException("The receiver did not grant credit for the streamed data and more than " 
+				+ maxHeld + " events were waiting", ServiceException.REMOTE));
+		stream.close();
+	}
+	
+	private synchronized void terminal(Throwable failure) {
+		if(!done) {
+			if(held.isEmpty()) {
+				done = true;
+				onTerminal.accept(failure);
+			} else {
+				terminalHeld = true;
+				heldFailure = failure;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void grantCredit(int granted) {
+		if(done || granted <= 0) {
+			return;
+		}
+		credit = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(credit, 0) + granted);
+		
+		while(credit > 0 && !held.isEmpty()) {
+			credit--;
+			if(onData.applyAsLong(held.poll()) < 0) {
+				// The event could not be sent, so the stream has already been ended
+				done = true;
+				held.clear();
+				stream.close();
+				return;
+			}
+		}
+		
+		if(terminalHeld && held.isEmpty()) {
+			done = true;
+			onTerminal.accept(heldFailure);
+		}
+	}
+
+	@Override
+	public void open() {
+		stream.open();
+	}
+
+	@Override
+	public void asyncBackPressure(long bp) {
+		stream.asyncBackPressure(bp);
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			done = true;
+			held.clear();
+		}
+		stream.close();
+	}
+
+	@Override
+	public Future<Void> closeFuture() {
+		return stream.closeFuture();
+	}
+}
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.pushstream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.function.IntFunction;
+
+import io.netty.channel.Channel;
+
+/**
+ * Grants credit to the sender of a remote stream which uses credit based 
+ * flow control. The credit for an event is returned once the event has been 
+ * processed locally and any back pressure that it caused has elapsed. Returned 
+ * credit is sent in blocks of half the window to limit the number of messages.
+ */
+public class StreamCreditWindow {
+
+	private final Channel _channel;
+	
+	private final IntFunction<?> creditMessage;
+	
+	private final int window;
+	
+	private final int threshold;
+	
+	/** Guarded by this */
+	private int returned;
+	
+	/**
+	 * @param _channel the channel used to send credit to the sender
+	 * @param window the number of events that the sender may have in flight
+	 * @param creditMessage creates the message which grants the supplied credit
+	 */
+	public StreamCreditWindow(Channel _channel, int window, IntFunction<?> creditMessage) {
+		this._channel = _channel;
+		this.creditMessage = creditMessage;
+		this.window = window;
+		this.threshold = Math.max(1, window / 2);
+	}
+
+	/**
+	 * @return The credit to grant when opening the stream
+	 */
+	public int getWindow() {
+		return window;
+	}
+	
+	/**
+	 * Forget any credit from a previous opening of the stream
+	 */
+	public synchronized void reset() {
+		returned = 0;
+	}
+	
+	/**
+	 * Return the credit for an event which has been processed
+	 * @param backPressure the back pressure requested by the local consumer
+	 */
+	public void processed(long backPressure) {
+		if(backPressure > 0) {
+			_channel.eventLoop().schedule(() -> processed(0), backPressure, MILLISECONDS);
+			return;
+		}
+		
+		int toSend = 0;
+		synchronized (this) {
+			if(++returned >= threshold) {
+				toSend = returned;
+				returned = 0;
+			}
+		}
+		
+		if(toSend > 0) {
+			_channel.writeAndFlush(creditMessage.apply(toSend), _channel.voidPromise());
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.serialize;
+
+import java.io.StreamCorruptedException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.freshvanilla.net.BinaryWireFormat.TagDictionary;
+import org.freshvanilla.net.BinaryWireFormat.TagTable;
+
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * State shared between the {@link Serializer}s at each end of a channel, which lives 
+ * as long as the channel. Serializers use this state to avoid repeating data, such 
+ * as class names, in every message.
+ * <p>
+ * Each direction of the channel has its own dictionary. Changes to the outgoing 
+ * dictionary are appended to the frame which caused them as a trailer, and the frame 
+ * is marked by setting the high bit of its version byte. The trailer is removed and 
+ * applied to the incoming dictionary by the frame decoder, so the dictionaries stay 
+ * in step even if the receiver discards the message.
+ * <p>
+ * Session state is always used when reading a message that requires it, but is only
+ * used when writing once the remote end is known to support sessions. A frame which
+ * is decoded after later frames have been read must be decoded using a {@link Snapshot}
+ * of the incoming dictionary taken when it was received.
+ */
+public final class SerializationSession {
+
+	/**
+	 * The maximum number of class names and other tags remembered for each
+	 * direction of a channel. The dictionary is reset when it is full.
+	 */
+	private static final int DICTIONARY_SIZE = 4096;
+	
+	private static final int SESSION_FRAME = 0x80;
+	
+	private static final AttributeKey<SerializationSession> SESSION = 
+			AttributeKey.valueOf(SerializationSession.class.getName());
+	
+	private static final ThreadLocal<SerializationSession> WRITING = new ThreadLocal<>();
+	
+	private static final ThreadLocal<Snapshot> READING = new ThreadLocal<>();
+	
+	private static final Snapshot NO_SESSION = new Snapshot(null, null);
+	
+	/**
+	 * The incoming dictionary of a channel as it was when a frame was received
+	 */
+	public static final class Snapshot {
+		private final SerializationSession session;
+		private final TagTable incoming;
+		
+		private Snapshot(SerializationSession session, TagTable incoming) {
+			this.session = session;
+			this.incoming = incoming;
+		}
+		
+		/**
+		 * Begin decoding the frame on the current thread. Deserializing with the
+		 * channel uses this snapshot until {@link #endRead()} is called
+		 */
+		public void beginRead() {
+			if(session != null) {
+				READING.set(this);
+			}
+		}
+		
+		/**
+		 * Finish decoding the frame started with {@link #beginRead()}
+		 */
+		public void endRead() {
+			if(session != null) {
+				READING.remove();
+			}
+		}
+	}
+	
+	private final Channel channel;
+	
+	private final ReentrantLock frameLock = new ReentrantLock();
+	
+	private final TagDictionary outgoing;
+	
+	private final TagDictionary incoming;
+	
+	private volatile boolean enabled;
+	
+	SerializationSession(Channel channel, int dictionarySize) {
+		this.channel = channel;
+		this.outgoing = new TagDictionary(dictionarySize);
+		this.incoming = new TagDictionary(dictionarySize);
+	}
+	
+	/**
+	 * @param channel the channel
+	 * @return The session for the supplied channel, created if necessary
+	 */
+	public static SerializationSession get(Channel channel) {
+		Attribute<SerializationSession> attr = channel.attr(SESSION);
+		SerializationSession session = attr.get();
+		if(session == null) {
+			session = new SerializationSession(channel, DICTIONARY_SIZE);
+			SerializationSession existing = attr.setIfAbsent(session);
+			if(existing != null) {
+				session = existing;
+			}
+		}
+		return session;
+	}
+	
+	/**
+	 * @param channel the channel
+	 * @return The session for the supplied channel, or <code>null</code> if
+	 * it has not been created
+	 */
+	public static SerializationSession find(Channel channel) {
+		return channel.hasAttr(SESSION) ? channel.attr(SESSION).get() : null;
+	}
+	
+	/**
+	 * Record that the remote end of the channel supports sessions
+	 */
+	public void enable() {
+		enabled = true;
+	}
+
+	/**
+	 * @return true if the remote end of the channel supports sessions
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Begin writing a frame which may use the session. If this method returns
+	 * true then the frame must be passed to the next handler before calling 
+	 * {@link #releaseFrame()}, so that frames reach the event loop in the order
+	 * that they use the session.
+	 * <p>
+	 * Frames written from the event loop do not use the session, as they could
+	 * overtake frames which are already queued for the event loop. 
+	 * 
+	 * @return true if the session can be used for this frame
+	 */
+	public boolean beginFrame() {
+		if(!enabled || channel.eventLoop().inEventLoop()) {
+			return false;
+		}
+		frameLock.lock();
+		outgoing.beginWrite();
+		WRITING.set(this);
+		return true;
+	}
+	
+	/**
+	 * @param channel the channel being written to
+	 * @return The outgoing dictionary, or <code>null</code> if the current
+	 * thread is not writing a session frame for the channel
+	 */
+	public static TagDictionary outgoing(Channel channel) {
+		SerializationSession session = WRITING.get();
+		return session != null && session.channel == channel ? session.outgoing : null;
+	}
+	
+	/**
+	 * @return The incoming dictionary, or the snapshot being read by the current thread
+	 */
+	public TagTable incoming() {
+		Snapshot snapshot = READING.get();
+		return snapshot != null && snapshot.session == this ? snapshot.incoming : incoming;
+	}
+	
+	/**
+	 * Take a snapshot of the incoming dictionary so that the frame being received can
+	 * be decoded by another thread, after later frames have changed the dictionary. 
+	 * This must be called by the event loop while it handles the frame.
+	 * 
+	 * @param channel the channel
+	 * @return A snapshot of the incoming dictionary for the channel
+	 */
+	public static Snapshot snapshot(Channel channel) {
+		SerializationSession session = find(channel);
+		return session == null ? NO_SESSION : new Snapshot(session, session.incoming.snapshot());
+	}
+	
+	/**
+	 * Discard any session changes made by a partially written frame
+	 */
+	public void abortFrame() {
+		outgoing.rollback();
+	}
+	
+	/**
+	 * Append any session changes to a completely written frame
+	 * 
+	 * @param frame the frame, including its header
+	 */
+	public void endFrame(ByteBuf frame) {
+		if(outgoing.hasPendingDefinitions()) {
+			int start = frame.writerIndex();
+			outgoing.writeDefinitions(frame);
+			frame.writeInt(frame.writerIndex() - start);
+			
+			int offset = frame.readerIndex();
+			frame.setByte(offset, frame.getUnsignedByte(offset) | SESSION_FRAME)
+				.setMedium(offset + 1, frame.readableBytes() - 4);
+		}
+	}
+	
+	/**
+	 * Finish writing a frame started with {@link #beginFrame()}, discarding any
+	 * session changes that were not written
+	 */
+	public void releaseFrame() {
+		try {
+			outgoing.rollback();
+		} finally {
+			WRITING.remove();
+			frameLock.unlock();
+		}
+	}
+	
+	/**
+	 * @param version the version byte of a frame
+	 * @return the protocol version of the frame
+	 */
+	public static int getProtocolVersion(int version) {
+		return version & ~SESSION_FRAME;
+	}
+	
+	/**
+	 * Remove the session trailer, if any, from a received frame and apply it to 
+	 * the incoming dictionary for the channel
+	 * 
+	 * @param channel the channel that the frame was read from
+	 * @param version the version byte of the frame
+	 * @param frame the frame content, excluding the version and length
+	 * @return the frame content without any session trailer
+	 * @throws StreamCorruptedException if the trailer is not valid
+	 */
+	public static ByteBuf readFrameTrailer(Channel channel, int version, ByteBuf frame) 
+			throws StreamCorruptedException {
+		if((version & SESSION_FRAME) == 0) {
+			return frame;
+		}
+		int end = frame.writerIndex();
+		int trailerLength = frame.getInt(end - 4);
+		int start = end - 4 - trailerLength;
+		if(trailerLength < 0 || start < frame.readerIndex()) {
+			throw new StreamCorruptedException("Invalid session trailer length " + trailerLength);
+		}
+		
+		SerializationSession session = get(channel);
+		// The remote end is using a session, so it must support them
+		session.enable();
+		session.incoming.readDefinitions(frame.slice(start, trailerLength));
+		
+		return frame.writerIndex(start);
+	}
+}
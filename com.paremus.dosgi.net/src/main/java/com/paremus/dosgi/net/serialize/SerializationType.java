@@ -17,10 +17,16 @@ package com.paremus.dosgi.net.serialize;
 import com.paremus.dosgi.net.serialize.freshvanilla.VanillaRMISerializerFactory;
 import com.paremus.dosgi.net.serialize.java.JavaSerializerFactory;
 import com.paremus.dosgi.net.serialize.protobuf.ProtobufSerializerFactory;
+import com.paremus.dosgi.net.serialize.spi.SerializerFactory;
 
 public enum SerializationType {
 	
 	FAST_BINARY(new VanillaRMISerializerFactory()),
+	/**
+	 * The {@link #FAST_BINARY} format without shared reference tracking, for
+	 * services whose arguments and return values are trees of objects
+	 */
+	FAST_BINARY_ACYCLIC(new VanillaRMISerializerFactory(true)),
 	DEFAULT_JAVA_SERIALIZATION(new JavaSerializerFactory()),
 	PROTOCOL_BUFFERS(new ProtobufSerializerFactory());
 
@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.serialize;
+
+import java.io.IOException;
+
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+/**
+ * A {@link Serializer} which can use the {@link SerializationSession} of the channel 
+ * that its data is written to, or read from. Only the built in serializers implement 
+ * this interface, serializers provided by other bundles are always used without
+ * a session.
+ * <p>
+ * The static methods use the channel when the serializer supports it, and fall back
+ * to the plain {@link Serializer} methods otherwise.
+ */
+public interface SessionSerializer extends Serializer {
+
+	/**
+	 * Serialize arguments which will be written to the supplied channel, using any 
+	 * state kept for the channel if this call is part of a session frame.
+	 * 
+	 * @param buffer the buffer to write to
+	 * @param args the arguments
+	 * @param channel the channel, may be <code>null</code>
+	 * @throws IOException if serialization fails
+	 */
+	void serializeArgs(ByteBuf buffer, Object[] args, Channel channel) throws IOException;
+
+	/**
+	 * Deserialize arguments which were read from the supplied channel, using any 
+	 * state kept for the channel if they were written as part of a session.
+	 * 
+	 * @param buffer the buffer to read from
+	 * @param channel the channel, may be <code>null</code>
+	 * @return the arguments
+	 * @throws ClassNotFoundException if a class cannot be loaded 
+	 * @throws IOException if deserialization fails
+	 */
+	Object[] deserializeArgs(ByteBuf buffer, Channel channel) throws ClassNotFoundException, IOException;
+	
+	/**
+	 * Serialize a value which will be written to the supplied channel. 
+	 * See {@link #serializeArgs(ByteBuf, Object[], Channel)}
+	 * 
+	 * @param buffer the buffer to write to
+	 * @param o the value
+	 * @param channel the channel, may be <code>null</code>
+	 * @throws IOException if serialization fails
+	 */
+	void serializeReturn(ByteBuf buffer, Object o, Channel channel) throws IOException;
+	
+	/**
+	 * Deserialize a value which was read from the supplied channel. 
+	 * See {@link #deserializeArgs(ByteBuf, Channel)}
+	 * 
+	 * @param buffer the buffer to read from
+	 * @param channel the channel, may be <code>null</code>
+	 * @return the value
+	 * @throws ClassNotFoundException if a class cannot be loaded 
+	 * @throws IOException if deserialization fails
+	 */
+	Object deserializeReturn(ByteBuf buffer, Channel channel) throws ClassNotFoundException, IOException;
+	
+	/**
+	 * @return true if this serializer keeps state for the lifetime of a channel, in
+	 * which case sessions may be advertised for services using it
+	 */
+	boolean usesSessions();
+
+	static void serializeArgs(Serializer serializer, ByteBuf buffer, Object[] args, 
+			Channel channel) throws IOException {
+		if(serializer instanceof SessionSerializer) {
+			((SessionSerializer) serializer).serializeArgs(buffer, args, channel);
+		} else {
+			serializer.serializeArgs(buffer, args);
+		}
+	}
+
+	static Object[] deserializeArgs(Serializer serializer, ByteBuf buffer, 
+			Channel channel) throws ClassNotFoundException, IOException {
+		return serializer instanceof SessionSerializer ? 
+				((SessionSerializer) serializer).deserializeArgs(buffer, channel) : 
+				serializer.deserializeArgs(buffer);
+	}
+
+	static void serializeReturn(Serializer serializer, ByteBuf buffer, Object o, 
+			Channel channel) throws IOException {
+		if(serializer instanceof SessionSerializer) {
+			((SessionSerializer) serializer).serializeReturn(buffer, o, channel);
+		} else {
+			serializer.serializeReturn(buffer, o);
+		}
+	}
+
+	static Object deserializeReturn(Serializer serializer, ByteBuf buffer, 
+			Channel channel) throws ClassNotFoundException, IOException {
+		return serializer instanceof SessionSerializer ? 
+				((SessionSerializer) serializer).deserializeReturn(buffer, channel) : 
+				serializer.deserializeReturn(buffer);
+	}
+
+	static boolean usesSessions(Serializer serializer) {
+		return serializer instanceof SessionSerializer && 
+				((SessionSerializer) serializer).usesSessions();
+	}
+}
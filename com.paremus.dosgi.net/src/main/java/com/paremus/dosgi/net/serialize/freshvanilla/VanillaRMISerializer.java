@@ -19,15 +19,18 @@ import java.io.IOException;
 import org.freshvanilla.lang.MetaClasses;
 import org.freshvanilla.lang.misc.AccessUtils;
 import org.freshvanilla.net.BinaryWireFormat;
+import org.freshvanilla.net.BinaryWireFormat.TagDictionary;
 import org.freshvanilla.net.VanillaPojoSerializer;
 import org.freshvanilla.net.VersionAwareVanillaPojoSerializer;
 
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.SerializationSession;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.util.concurrent.FastThreadLocal;
 
-public class VanillaRMISerializer implements Serializer {
+public class VanillaRMISerializer implements SessionSerializer {
 
 	private final MetaClasses metaClasses;
 	
@@ -36,132 +39,187 @@ public class VanillaRMISerializer implements Serializer {
 				protected BinaryWireFormat initialValue() {
 					return new BinaryWireFormat(metaClasses, AccessUtils.isSafe() ?
 							new VersionAwareVanillaPojoSerializer(metaClasses) :
-							new VanillaPojoSerializer(metaClasses));
+							new VanillaPojoSerializer(metaClasses), acyclic);
 				}
 			};
 
+	private final boolean acyclic;
+
 	public VanillaRMISerializer(MetaClasses metaClasses) {
+		this(metaClasses, false);
+	}
+
+	/**
+	 * @param metaClasses
+	 * @param acyclic if <code>true</code> then shared references are not tracked, 
+	 * and object graphs containing cycles cannot be serialized
+	 */
+	public VanillaRMISerializer(MetaClasses metaClasses, boolean acyclic) {
 		this.metaClasses = metaClasses;
+		this.acyclic = acyclic;
 	}
 
 	@Override
 	public void serializeArgs(ByteBuf buffer, Object[] o) throws IOException {
 		BinaryWireFormat bwf = wireFormats.get();
 		try {
-			bwf.writeNum(buffer, o.length);
-			//Optimise for up to 8 args
-			switch(o.length) {
-				case 0 :
-					break;
-				case 1 :
-					bwf.writeObject(buffer, o[0]);
-					break;
-				case 2 :
-					bwf.writeObject(buffer, o[0]);
-					bwf.writeObject(buffer, o[1]);
-					break;
-				case 3 :
-					bwf.writeObject(buffer, o[0]);
-					bwf.writeObject(buffer, o[1]);
-					bwf.writeObject(buffer, o[2]);
-					break;
-				case 4 :
-					bwf.writeObject(buffer, o[0]);
-					bwf.writeObject(buffer, o[1]);
-					bwf.writeObject(buffer, o[2]);
-					bwf.writeObject(buffer, o[3]);
-					break;
-				case 5 :
-					bwf.writeObject(buffer, o[0]);
-					bwf.writeObject(buffer, o[1]);
-					bwf.writeObject(buffer, o[2]);
-					bwf.writeObject(buffer, o[3]);
-					bwf.writeObject(buffer, o[4]);
-					break;
-				case 6 :
-					bwf.writeObject(buffer, o[0]);
-					bwf.writeObject(buffer, o[1]);
-					bwf.writeObject(buffer, o[2]);
-					bwf.writeObject(buffer, o[3]);
-					bwf.writeObject(buffer, o[4]);
-					bwf.writeObject(buffer, o[5]);
-					break;
-				case 7 :
-					bwf.writeObject(buffer, o[0]);
-					bwf.writeObject(buffer, o[1]);
-					bwf.writeObject(buffer, o[2]);
-					bwf.writeObject(buffer, o[3]);
-					bwf.writeObject(buffer, o[4]);
-					bwf.writeObject(buffer, o[5]);
-					bwf.writeObject(buffer, o[6]);
-					break;
-				case 8 :
-					bwf.writeObject(buffer, o[0]);
-					bwf.writeObject(buffer, o[1]);
-					bwf.writeObject(buffer, o[2]);
-					bwf.writeObject(buffer, o[3]);
-					bwf.writeObject(buffer, o[4]);
-					bwf.writeObject(buffer, o[5]);
-					bwf.writeObject(buffer, o[6]);
-					bwf.writeObject(buffer, o[7]);
-					break;
-				default :
-					for(int i = 0; i < o.length; i ++) {
-						bwf.writeObject(buffer,o[i]);
-					}
-			}
+			writeArgs(bwf, buffer, o);
+		} finally {
+			bwf.reset();
+		}
+	}
+
+	@Override
+	public boolean usesSessions() {
+		return true;
+	}
+
+	@Override
+	public void serializeArgs(ByteBuf buffer, Object[] o, Channel channel) throws IOException {
+		TagDictionary dictionary = SerializationSession.outgoing(channel);
+		if(dictionary == null) {
+			serializeArgs(buffer, o);
+			return;
+		}
+		BinaryWireFormat bwf = wireFormats.get();
+		try {
+			bwf.beginSessionWrite(buffer, dictionary);
+			writeArgs(bwf, buffer, o);
 		} finally {
 			bwf.reset();
 		}
 	}
 	
+	private void writeArgs(BinaryWireFormat bwf, ByteBuf buffer, Object[] o) throws IOException {
+		bwf.writeNum(buffer, o.length);
+		//Optimise for up to 8 args
+		switch(o.length) {
+			case 0 :
+				break;
+			case 1 :
+				bwf.writeObject(buffer, o[0]);
+				break;
+			case 2 :
+				bwf.writeObject(buffer, o[0]);
+				bwf.writeObject(buffer, o[1]);
+				break;
+			case 3 :
+				bwf.writeObject(buffer, o[0]);
+				bwf.writeObject(buffer, o[1]);
+				bwf.writeObject(buffer, o[2]);
+				break;
+			case 4 :
+				bwf.writeObject(buffer, o[0]);
+				bwf.writeObject(buffer, o[1]);
+				bwf.writeObject(buffer, o[2]);
+				bwf.writeObject(buffer, o[3]);
+				break;
+			case 5 :
+				bwf.writeObject(buffer, o[0]);
+				bwf.writeObject(buffer, o[1]);
+				bwf.writeObject(buffer, o[2]);
+				bwf.writeObject(buffer, o[3]);
+				bwf.writeObject(buffer, o[4]);
+				break;
+			case 6 :
+				bwf.writeObject(buffer, o[0]);
+				bwf.writeObject(buffer, o[1]);
+				bwf.writeObject(buffer, o[2]);
+				bwf.writeObject(buffer, o[3]);
+				bwf.writeObject(buffer, o[4]);
+				bwf.writeObject(buffer, o[5]);
+				break;
+			case 7 :
+				bwf.writeObject(buffer, o[0]);
+				bwf.writeObject(buffer, o[1]);
+				bwf.writeObject(buffer, o[2]);
+				bwf.writeObject(buffer, o[3]);
+				bwf.writeObject(buffer, o[4]);
+				bwf.writeObject(buffer, o[5]);
+				bwf.writeObject(buffer, o[6]);
+				break;
+			case 8 :
+				bwf.writeObject(buffer, o[0]);
+				bwf.writeObject(buffer, o[1]);
+				bwf.writeObject(buffer, o[2]);
+				bwf.writeObject(buffer, o[3]);
+				bwf.writeObject(buffer, o[4]);
+				bwf.writeObject(buffer, o[5]);
+				bwf.writeObject(buffer, o[6]);
+				bwf.writeObject(buffer, o[7]);
+				break;
+			default :
+				for(int i = 0; i < o.length; i ++) {
+					bwf.writeObject(buffer,o[i]);
+				}
+		}
+	}
+	
 	private static final Object[] EMPTY_ARGS = new Object[0];
 	
 	@Override
 	public Object[] deserializeArgs(ByteBuf buffer) throws ClassNotFoundException, IOException {
 		BinaryWireFormat bwf = wireFormats.get();
 		try {
-			int size = (int) bwf.readNum(buffer);
-			switch(size) {
-				case 0:
-					return EMPTY_ARGS;
-				case 1:
-					return new Object[] {bwf.readObject(buffer)};
-				case 2:
-					return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer)};
-				case 3:
-					return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer), 
-							bwf.readObject(buffer)};
-				case 4:
-					return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
-							bwf.readObject(buffer), bwf.readObject(buffer)};
-				case 5:
-					return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
-							bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer)};
-				case 6:
-					return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
-							bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer),
-							bwf.readObject(buffer)};
-				case 7:
-					return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
-							bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer),
-							bwf.readObject(buffer), bwf.readObject(buffer)};
-				case 8:
-					return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
-							bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer),
-							bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer)};
-				default:
-					Object[] o = new Object[size];
-					for(int i = 0; i < o.length; i++) {
-						o[i] = bwf.readObject(buffer);
-					}
-					return o;
-					
-			}
+			return readArgs(bwf, buffer);
+		} finally {
+			bwf.reset();
+		}
+	}
+
+	@Override
+	public Object[] deserializeArgs(ByteBuf buffer, Channel channel) throws ClassNotFoundException, IOException {
+		if(channel == null || !BinaryWireFormat.isSessionMessage(buffer)) {
+			return deserializeArgs(buffer);
+		}
+		BinaryWireFormat bwf = wireFormats.get();
+		try {
+			bwf.beginSessionRead(buffer, SerializationSession.get(channel).incoming());
+			return readArgs(bwf, buffer);
 		} finally {
 			bwf.reset();
 		}
 	}
+	
+	private Object[] readArgs(BinaryWireFormat bwf, ByteBuf buffer) throws ClassNotFoundException, IOException {
+		int size = (int) bwf.readNum(buffer);
+		switch(size) {
+			case 0:
+				return EMPTY_ARGS;
+			case 1:
+				return new Object[] {bwf.readObject(buffer)};
+			case 2:
+				return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer)};
+			case 3:
+				return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer), 
+						bwf.readObject(buffer)};
+			case 4:
+				return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
+						bwf.readObject(buffer), bwf.readObject(buffer)};
+			case 5:
+				return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
+						bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer)};
+			case 6:
+				return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
+						bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer),
+						bwf.readObject(buffer)};
+			case 7:
+				return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
+						bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer),
+						bwf.readObject(buffer), bwf.readObject(buffer)};
+			case 8:
+				return new Object[] {bwf.readObject(buffer), bwf.readObject(buffer),
+						bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer),
+						bwf.readObject(buffer), bwf.readObject(buffer), bwf.readObject(buffer)};
+			default:
+				Object[] o = new Object[size];
+				for(int i = 0; i < o.length; i++) {
+					o[i] = bwf.readObject(buffer);
+				}
+				return o;
+				
+		}
+	}
 
 	@Override
 	public void serializeReturn(ByteBuf buffer, Object o) throws IOException {
@@ -183,4 +241,34 @@ public class VanillaRMISerializer implements Serializer {
 		}
 	}
 
+	@Override
+	public void serializeReturn(ByteBuf buffer, Object o, Channel channel) throws IOException {
+		TagDictionary dictionary = SerializationSession.outgoing(channel);
+		if(dictionary == null) {
+			serializeReturn(buffer, o);
+			return;
+		}
+		BinaryWireFormat bwf = wireFormats.get();
+		try {
+			bwf.beginSessionWrite(buffer, dictionary);
+			bwf.writeObject(buffer, o);
+		} finally {
+			bwf.reset();
+		}
+	}
+
+	@Override
+	public Object deserializeReturn(ByteBuf buffer, Channel channel) throws ClassNotFoundException, IOException {
+		if(channel == null || !BinaryWireFormat.isSessionMessage(buffer)) {
+			return deserializeReturn(buffer);
+		}
+		BinaryWireFormat bwf = wireFormats.get();
+		try {
+			bwf.beginSessionRead(buffer, SerializationSession.get(channel).incoming());
+			return bwf.readObject(buffer);
+		} finally {
+			bwf.reset();
+		}
+	}
+
 }
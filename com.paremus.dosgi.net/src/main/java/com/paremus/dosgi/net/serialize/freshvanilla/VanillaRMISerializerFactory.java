@@ -17,14 +17,29 @@ package com.paremus.dosgi.net.serialize.freshvanilla;
 import org.freshvanilla.lang.MetaClasses;
 import org.osgi.framework.Bundle;
 
-import com.paremus.dosgi.net.serialize.Serializer;
-import com.paremus.dosgi.net.serialize.SerializerFactory;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+import com.paremus.dosgi.net.serialize.spi.SerializerFactory;
 
 public class VanillaRMISerializerFactory implements SerializerFactory {
 
+	private final boolean acyclic;
+
+	public VanillaRMISerializerFactory() {
+		this(false);
+	}
+
+	/**
+	 * @param acyclic if <code>true</code> then the serializers created will not track 
+	 * shared references. This avoids the cost of recording every object for tree shaped
+	 * data, but shared objects are sent once per use and cycles cannot be sent.
+	 */
+	public VanillaRMISerializerFactory(boolean acyclic) {
+		this.acyclic = acyclic;
+	}
+
 	@Override
 	public Serializer create(Bundle classSpace) {
 		return new VanillaRMISerializer(new MetaClasses(new MetaClassesClassLoader(
-						classSpace)));
+						classSpace)), acyclic);
 	}
 }
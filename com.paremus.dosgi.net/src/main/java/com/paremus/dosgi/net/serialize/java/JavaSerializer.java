@@ -14,37 +14,106 @@
  */
 package com.paremus.dosgi.net.serialize.java;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.freshvanilla.net.BinaryWireFormat.TagDictionary;
+import org.freshvanilla.net.BinaryWireFormat.TagTable;
 import org.osgi.framework.Bundle;
 
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.SerializationSession;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
 
-public class JavaSerializer implements Serializer {
+public class JavaSerializer implements SessionSerializer {
 
+	/**
+	 * The first byte of a message written using a {@link SerializationSession}.
+	 * Other messages start with the Java serialization stream magic number.
+	 */
+	private static final int SESSION_MESSAGE = 0x01;
+	
+	/**
+	 * The number of resolved classes and class descriptors remembered by each serializer
+	 */
+	private static final int CACHE_SIZE = 256;
+	
+	/**
+	 * Descriptors longer than this cannot be stored in the session dictionary
+	 */
+	private static final int MAX_DESCRIPTOR_LENGTH = 0x7FFF;
+	
 	private final Bundle classSpace;
 	
+	private final Map<String, Class<?>> classes = boundedCache();
+	
+	private final Map<ObjectStreamClass, String> encodedDescriptors = boundedCache();
+	
+	private final Map<String, ObjectStreamClass> decodedDescriptors = boundedCache();
+	
 	public JavaSerializer(Bundle classSpace) {
 		this.classSpace = classSpace;
 	}
 
+	private static <K, V> Map<K, V> boundedCache() {
+		return Collections.synchronizedMap(new LinkedHashMap<K, V>(32, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		});
+	}
+	
 	@Override
 	public void serializeArgs(ByteBuf buffer, Object[] o) throws IOException {
 		serializeReturn(buffer, o);
 	}
 	
+	@Override
+	public boolean usesSessions() {
+		return true;
+	}
+	
+	@Override
+	public void serializeArgs(ByteBuf buffer, Object[] o, Channel channel) throws IOException {
+		serializeReturn(buffer, o, channel);
+	}
+	
 	@Override
 	public void serializeReturn(ByteBuf buffer, Object o) throws IOException {
 		serialzeWithJava(new ByteBufOutputStream(buffer), o);
 	}
 
+	@Override
+	public void serializeReturn(ByteBuf buffer, Object o, Channel channel) throws IOException {
+		TagDictionary dictionary = SerializationSession.outgoing(channel);
+		if(dictionary == null) {
+			serializeReturn(buffer, o);
+			return;
+		}
+		buffer.writeByte(SESSION_MESSAGE);
+		try (ObjectOutputStream oos = new SessionOutputStream(new ByteBufOutputStream(buffer), dictionary)) {
+			oos.writeObject(o);
+		}
+	}
+
 	public static void serialzeWithJava(ByteBufOutputStream bbos, Object o) throws IOException {
 		try (ObjectOutputStream oos = new ObjectOutputStream(bbos)) {
 			oos.writeObject(o);
@@ -56,17 +125,166 @@ public class JavaSerializer implements Serializer {
 		return (Object[]) deserializeReturn(buffer);
 	}
 	
+	@Override
+	public Object[] deserializeArgs(ByteBuf buffer, Channel channel) throws ClassNotFoundException, IOException {
+		return (Object[]) deserializeReturn(buffer, channel);
+	}
+	
 	@Override
 	public Object deserializeReturn(ByteBuf buffer) throws ClassNotFoundException, IOException {
 		try (ObjectInputStream ois = new ObjectInputStream(new ByteBufInputStream(buffer)) {
 			@Override
 			protected Class<?> resolveClass(ObjectStreamClass arg0)
 					throws IOException, ClassNotFoundException {
-				return classSpace.loadClass(arg0.getName());
+				return loadClass(arg0.getName());
 			}
 		}) {
 			return ois.readObject();
 		}
 	}
 
+	@Override
+	public Object deserializeReturn(ByteBuf buffer, Channel channel) throws ClassNotFoundException, IOException {
+		if(channel == null || !buffer.isReadable() || 
+				buffer.getByte(buffer.readerIndex()) != SESSION_MESSAGE) {
+			return deserializeReturn(buffer);
+		}
+		buffer.skipBytes(1);
+		TagTable dictionary = SerializationSession.get(channel).incoming();
+		try (ObjectInputStream ois = new SessionInputStream(new ByteBufInputStream(buffer), dictionary)) {
+			return ois.readObject();
+		}
+	}
+
+	private Class<?> loadClass(String name) throws ClassNotFoundException {
+		Class<?> cls = classes.get(name);
+		if(cls == null) {
+			cls = classSpace.loadClass(name);
+			classes.put(name, cls);
+		}
+		return cls;
+	}
+	
+	/**
+	 * @return The descriptor encoded as a dictionary entry, or <code>null</code>
+	 * if it is too large
+	 */
+	private String encode(ObjectStreamClass desc) throws IOException {
+		String encoded = encodedDescriptors.get(desc);
+		if(encoded == null) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
+			try (DescriptorOutputStream dos = new DescriptorOutputStream(baos)) {
+				dos.writeDescriptor(desc);
+			}
+			if(baos.size() > MAX_DESCRIPTOR_LENGTH) {
+				return null;
+			}
+			encoded = new String(baos.toByteArray(), ISO_8859_1);
+			encodedDescriptors.put(desc, encoded);
+		}
+		return encoded;
+	}
+	
+	private ObjectStreamClass decode(String encoded) throws IOException, ClassNotFoundException {
+		ObjectStreamClass desc = decodedDescriptors.get(encoded);
+		if(desc == null) {
+			try (DescriptorInputStream dis = new DescriptorInputStream(
+					new ByteArrayInputStream(encoded.getBytes(ISO_8859_1)))) {
+				desc = dis.readDescriptor();
+			}
+			decodedDescriptors.put(encoded, desc);
+		}
+		return desc;
+	}
+	
+	/**
+	 * Writes class descriptors as references to the session dictionary, so that each
+	 * descriptor is only sent once per connection, and omits the stream header
+	 */
+	private class SessionOutputStream extends ObjectOutputStream {
+		
+		private final TagDictionary dictionary;
+		
+		SessionOutputStream(OutputStream out, TagDictionary dictionary) throws IOException {
+			super(out);
+			this.dictionary = dictionary;
+		}
+
+		@Override
+		protected void writeStreamHeader() throws IOException {
+			// The session marker replaces the header
+		}
+
+		@Override
+		protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+			String encoded = encode(desc);
+			int id = encoded == null ? -1 : dictionary.define(encoded);
+			writeInt(id);
+			if(id < 0) {
+				// Too big, or the dictionary is full
+				super.writeClassDescriptor(desc);
+			}
+		}
+	}
+	
+	private class SessionInputStream extends ObjectInputStream {
+		
+		private final TagTable dictionary;
+		
+		SessionInputStream(InputStream in, TagTable dictionary) throws IOException {
+			super(in);
+			this.dictionary = dictionary;
+		}
+
+		@Override
+		protected void readStreamHeader() throws IOException {
+			// The session marker replaces the header
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			int id = readInt();
+			return id < 0 ? super.readClassDescriptor() : decode(dictionary.get(id));
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			return loadClass(desc.getName());
+		}
+	}
+	
+	/**
+	 * Writes a single, self-contained, class descriptor
+	 */
+	private static class DescriptorOutputStream extends ObjectOutputStream {
+
+		DescriptorOutputStream(OutputStream out) throws IOException {
+			super(out);
+		}
+
+		@Override
+		protected void writeStreamHeader() throws IOException {
+			// Not needed
+		}
+
+		void writeDescriptor(ObjectStreamClass desc) throws IOException {
+			writeClassDescriptor(desc);
+		}
+	}
+
+	private static class DescriptorInputStream extends ObjectInputStream {
+		
+		DescriptorInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+		
+		@Override
+		protected void readStreamHeader() throws IOException {
+			// Not needed
+		}
+
+		ObjectStreamClass readDescriptor() throws IOException, ClassNotFoundException {
+			return readClassDescriptor();
+		}
+	}
 }
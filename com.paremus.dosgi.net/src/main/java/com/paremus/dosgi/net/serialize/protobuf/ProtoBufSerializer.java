@@ -14,13 +14,23 @@
  */
 package com.paremus.dosgi.net.serialize.protobuf;
 
+import static java.lang.invoke.MethodType.methodType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Array;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -34,15 +44,18 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.osgi.framework.Bundle;
 
-import com.paremus.dosgi.net.serialize.Serializer;
 import com.paremus.dosgi.net.serialize.java.JavaSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 
 public class ProtoBufSerializer implements Serializer {
 	
@@ -55,7 +68,8 @@ public class ProtoBufSerializer implements Serializer {
 	private static final byte FLOAT_TAG = 0x06;
 	private static final byte LONG_TAG = 0x07;
 	private static final byte DOUBLE_TAG = 0x08;
-	private static final byte STRING_TAG = 0x09;
+	/** A string written with writeUTF, still used for strings which fit so older peers can read them */
+	private static final byte LEGACY_STRING_TAG = 0x09;
 	private static final byte BOOLEAN_ARRAY_TAG = 0x0A;
 	private static final byte BYTE_ARRAY_TAG = 0x0B;
 	private static final byte SHORT_ARRAY_TAG = 0x0C;
@@ -64,18 +78,27 @@ public class ProtoBufSerializer implements Serializer {
 	private static final byte FLOAT_ARRAY_TAG = 0x0F;
 	private static final byte LONG_ARRAY_TAG = 0x10;
 	private static final byte DOUBLE_ARRAY_TAG = 0x11;
-	private static final byte STRING_ARRAY_TAG = 0x12;
-	private static final byte ARRAY_TAG = 0x13;
+	/** Strings written with writeUTF, which are no longer written as older peers wrote the wrong length */
+	private static final byte LEGACY_STRING_ARRAY_TAG = 0x12;
+	/** An array whose type was written with writeUTF, still written so older peers can read it */
+	private static final byte LEGACY_ARRAY_TAG = 0x13;
 	private static final byte LIST_TAG = 0x14;
 	private static final byte SET_TAG = 0x15;
 	private static final byte SORTED_SET_TAG = 0x16;
 	private static final byte MAP_TAG = 0x17;
 	private static final byte SORTED_MAP_TAG = 0x18;
-	private static final byte PROTOBUF_OBJECT_TAG = 0x19;
-	private static final byte JAVA_OBJECT_TAG = 0x1A;
+	/** A message with no length, so only written as the last value, where older peers can read it */
+	private static final byte LEGACY_PROTOBUF_OBJECT_TAG = 0x19;
+	/** A serialized object with no length, so only written as the last value, where older peers can read it */
+	private static final byte LEGACY_JAVA_OBJECT_TAG = 0x1A;
+	private static final byte STRING_TAG = 0x1B;
+	private static final byte STRING_ARRAY_TAG = 0x1C;
+	private static final byte ARRAY_TAG = 0x1D;
+	private static final byte PROTOBUF_OBJECT_TAG = 0x1E;
+	private static final byte JAVA_OBJECT_TAG = 0x1F;
 	
 	private interface SimpleTypeSerializer {
-		public void serialize(ByteBufOutputStream os, Object o) throws IOException;
+		public void serialize(ByteBuf buffer, Object o) throws IOException;
 	}
 	
 	private static final Map<Class<?>, SimpleTypeSerializer> SERIALIZERS;
@@ -83,97 +106,142 @@ public class ProtoBufSerializer implements Serializer {
 	static {
 		Map<Class<?>, SimpleTypeSerializer> map = new HashMap<Class<?>, SimpleTypeSerializer>();
 		
-		map.put(null, (os,o) -> os.write(NULL_TAG));
-		map.put(Boolean.class, (os,o) -> {
-				os.write(BOOLEAN_TAG);
-				os.write(((Boolean)o) ? 1 : 0);
+		map.put(null, (b,o) -> b.writeByte(NULL_TAG));
+		map.put(Boolean.class, (b,o) -> {
+				b.writeByte(BOOLEAN_TAG);
+				b.writeBoolean((Boolean)o);
 			});
-		map.put(Byte.class, (os,o) -> { 
-				os.write(BYTE_TAG);
-				os.write((Byte)o);
+		map.put(Byte.class, (b,o) -> { 
+				b.writeByte(BYTE_TAG);
+				b.writeByte((Byte)o);
 			});
-		map.put(Short.class, (os,o) -> {
-				os.write(SHORT_TAG);
-				os.writeShort((Short)o);
+		map.put(Short.class, (b,o) -> {
+				b.writeByte(SHORT_TAG);
+				b.writeShort((Short)o);
 			});
-		map.put(Character.class, (os,o) -> {
-				os.write(CHARACTER_TAG);
-				os.writeChar((Character)o);
+		map.put(Character.class, (b,o) -> {
+				b.writeByte(CHARACTER_TAG);
+				b.writeChar((Character)o);
 			});
-		map.put(Integer.class, (os,o) -> {
-				os.write(INTEGER_TAG);
-				os.writeInt((Integer)o);
+		map.put(Integer.class, (b,o) -> {
+				b.writeByte(INTEGER_TAG);
+				b.writeInt((Integer)o);
 			});
-		map.put(Float.class, (os,o) -> {
-				os.write(FLOAT_TAG);
-				os.writeFloat((Float)o);
+		map.put(Float.class, (b,o) -> {
+				b.writeByte(FLOAT_TAG);
+				b.writeFloat((Float)o);
 			});
-		map.put(Long.class, (os,o) -> {
-				os.write(LONG_TAG);
-				os.writeLong((Long)o);
+		map.put(Long.class, (b,o) -> {
+				b.writeByte(LONG_TAG);
+				b.writeLong((Long)o);
 			});
-		map.put(Double.class, (os,o) ->  {
-				os.write(DOUBLE_TAG);
-				os.writeDouble((Double)o);
+		map.put(Double.class, (b,o) ->  {
+				b.writeByte(DOUBLE_TAG);
+				b.writeDouble((Double)o);
 			});
-		map.put(String.class, (os,o) -> {
-				os.write(STRING_TAG);
-				os.writeUTF(o.toString());
+		map.put(String.class, (b,o) -> {
+				String string = (String) o;
+				int utfLength = modifiedUtf8Length(string);
+				if(utfLength <= 0xFFFF) {
+					b.writeByte(LEGACY_STRING_TAG);
+					writeModifiedUtf8(b, string, utfLength);
+				} else {
+					b.writeByte(STRING_TAG);
+					writeString(b, string);
+				}
 			});
 
-		map.put(boolean[].class, (os,o) ->  {
-				os.write(BOOLEAN_ARRAY_TAG);
-				os.write(((boolean[])o).length);
-				for(boolean b : (boolean[])o)
-					os.write(b ? 1 : 0);
+		map.put(boolean[].class, (b,o) ->  {
+				boolean[] array = (boolean[])o;
+				b.writeByte(BOOLEAN_ARRAY_TAG);
+				b.writeInt(array.length);
+				for(boolean x : array)
+					b.writeBoolean(x);
 			});
-		map.put(byte[].class, (os,o) ->  {
-				os.write(BYTE_ARRAY_TAG);
-				os.write(((byte[])o).length);
-				for(byte b : (byte[])o)
-					os.write(b);
+		map.put(byte[].class, (b,o) ->  {
+				byte[] array = (byte[])o;
+				b.writeByte(BYTE_ARRAY_TAG);
+				b.writeInt(array.length);
+				b.writeBytes(array);
 			});
-		map.put(short[].class, (os,o) ->  {
-				os.write(SHORT_ARRAY_TAG);
-				os.write(((short[])o).length);
-				for(short s : (short[])o)
-					os.writeShort(s);
+		map.put(short[].class, (b,o) ->  {
+				short[] array = (short[])o;
+				b.writeByte(SHORT_ARRAY_TAG);
+				b.writeInt(array.length);
+				ByteBuffer view = reserve(b, array.length, Short.BYTES);
+				if(view != null) {
+					view.asShortBuffer().put(array);
+				} else {
+					for(short x : array)
+						b.writeShort(x);
+				}
 			});
-		map.put(char[].class, (os,o) -> {
-				os.write(CHAR_ARRAY_TAG);
-				os.write(((char[])o).length);
-				for(char c : (char[])o)
-					os.writeChar(c);
+		map.put(char[].class, (b,o) -> {
+				char[] array = (char[])o;
+				b.writeByte(CHAR_ARRAY_TAG);
+				b.writeInt(array.length);
+				ByteBuffer view = reserve(b, array.length, Character.BYTES);
+				if(view != null) {
+					view.asCharBuffer().put(array);
+				} else {
+					for(char x : array)
+						b.writeChar(x);
+				}
 			});
-		map.put(int[].class, (os,o) -> {
-				os.write(INT_ARRAY_TAG);
-				os.write(((int[])o).length);
-				for(int i : (int[])o)
-					os.writeInt(i);
+		map.put(int[].class, (b,o) -> {
+				int[] array = (int[])o;
+				b.writeByte(INT_ARRAY_TAG);
+				b.writeInt(array.length);
+				ByteBuffer view = reserve(b, array.length, Integer.BYTES);
+				if(view != null) {
+					view.asIntBuffer().put(array);
+				} else {
+					for(int x : array)
+						b.writeInt(x);
+				}
 			});
-		map.put(float[].class, (os,o) -> {
-				os.write(FLOAT_ARRAY_TAG);
-				os.write(((float[])o).length);
-				for(float f : (float[])o)
-					os.writeFloat(f);
+		map.put(float[].class, (b,o) -> {
+				float[] array = (float[])o;
+				b.writeByte(FLOAT_ARRAY_TAG);
+				b.writeInt(array.length);
+				ByteBuffer view = reserve(b, array.length, Float.BYTES);
+				if(view != null) {
+					view.asFloatBuffer().put(array);
+				} else {
+					for(float x : array)
+						b.writeFloat(x);
+				}
 			});
-		map.put(long[].class, (os,o) -> {
-				os.write(LONG_ARRAY_TAG);
-				os.write(((long[])o).length);
-				for(long l : (long[])o)
-					os.writeLong(l);
+		map.put(long[].class, (b,o) -> {
+				long[] array = (long[])o;
+				b.writeByte(LONG_ARRAY_TAG);
+				b.writeInt(array.length);
+				ByteBuffer view = reserve(b, array.length, Long.BYTES);
+				if(view != null) {
+					view.asLongBuffer().put(array);
+				} else {
+					for(long x : array)
+						b.writeLong(x);
+				}
 			});
-		map.put(double[].class, (os,o) -> {
-				os.write(DOUBLE_ARRAY_TAG);
-				os.write(((double[])o).length);
-				for(double d : (double[])o)
-					os.writeDouble(d);
+		map.put(double[].class, (b,o) -> {
+				double[] array = (double[])o;
+				b.writeByte(DOUBLE_ARRAY_TAG);
+				b.writeInt(array.length);
+				ByteBuffer view = reserve(b, array.length, Double.BYTES);
+				if(view != null) {
+					view.asDoubleBuffer().put(array);
+				} else {
+					for(double x : array)
+						b.writeDouble(x);
+				}
 			});
-		map.put(String[].class, (os,o) -> {
-				os.write(STRING_ARRAY_TAG);
-				os.write(((String[])o).length);
-				for(String s : (String[])o)
-					os.writeUTF(s);
+		map.put(String[].class, (b,o) -> {
+				String[] array = (String[])o;
+				b.writeByte(STRING_ARRAY_TAG);
+				b.writeInt(array.length);
+				for(String x : array)
+					writeString(b, x);
 			});
 		
 		SERIALIZERS = Collections.unmodifiableMap(map);
@@ -181,306 +249,598 @@ public class ProtoBufSerializer implements Serializer {
 	
 	private final Bundle classSpace;
 	
+	private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<Class<?>, MessageCodec> codecs = new ConcurrentHashMap<>();
+	
 	public ProtoBufSerializer(Bundle classSpace) {
 		this.classSpace = classSpace;
 	}
 
 	@Override
 	public void serializeArgs(ByteBuf buffer, Object[] o) throws IOException {
-		ByteBufOutputStream bbos = new ByteBufOutputStream(buffer);
-		bbos.writeInt(o.length);
-		for(Object x : o)
-			serialzeWithProtoBuf(bbos, x);
+		buffer.writeInt(o.length);
+		for(int i = 0; i < o.length; i++)
+			serialize(buffer, o[i], i == o.length - 1);
 	}
 	
 	@Override
 	public void serializeReturn(ByteBuf buffer, Object o) throws IOException {
-		serialzeWithProtoBuf(new ByteBufOutputStream(buffer), o);
+		serialize(buffer, o, true);
 	}
 
 	@Override
 	public Object[] deserializeArgs(ByteBuf buffer) throws ClassNotFoundException, IOException {
 		Object[] o = new Object[buffer.readInt()];
 		for(int i = 0; i < o.length ; i++) 
-			o[i] = deserializeWithProtoBuf(new ByteBufInputStream(buffer), classSpace);
+			o[i] = deserialize(buffer);
 		return o;
 	}
 	
 	@Override
 	public Object deserializeReturn(ByteBuf buffer) throws ClassNotFoundException, IOException {
-		return deserializeWithProtoBuf(new ByteBufInputStream(buffer), classSpace);
+		return deserialize(buffer);
 	}
 
-	public static void serialzeWithProtoBuf(ByteBufOutputStream bbos,
-			Object e) throws IOException {
+	/**
+	 * Values are written with the tags that older peers understand wherever those
+	 * encodings can represent the value, so that mixed versions can talk to one another.
+	 * 
+	 * @param last true if nothing will be written after this value, in which case
+	 * messages and serialized objects need no length
+	 */
+	private void serialize(ByteBuf buffer, Object e, boolean last) throws IOException {
 		
-		Class<? extends Object> classType = e.getClass();
+		Class<? extends Object> classType = e == null ? null : e.getClass();
 
 		SimpleTypeSerializer s = SERIALIZERS.get(classType);
 		
 		if(s != null) {
-			s.serialize(bbos, e);
+			s.serialize(buffer, e);
 			return;
 		} else {
 			if(classType.isArray()) {
 				int length = Array.getLength(e);
 
-				bbos.write(ARRAY_TAG);
-				bbos.writeUTF(classType.getComponentType().getName());
-				bbos.writeInt(length);
+				String type = classType.getComponentType().getName();
+				buffer.writeByte(LEGACY_ARRAY_TAG);
+				writeModifiedUtf8(buffer, type, modifiedUtf8Length(type));
+				buffer.writeInt(length);
 				for(int i = 0; i < length; i++) {
-					serialzeWithProtoBuf(bbos, Array.get(e, i));
+					serialize(buffer, Array.get(e, i), false);
 				}
 				return;
 			} else if (Collection.class.isAssignableFrom(classType)) {
 				if(e instanceof SortedSet) {
-					bbos.write(SORTED_SET_TAG);
+					buffer.writeByte(SORTED_SET_TAG);
 				} else if(e instanceof Set) {
-					bbos.write(SET_TAG);
+					buffer.writeByte(SET_TAG);
 				} else {
-					bbos.write(LIST_TAG);
+					buffer.writeByte(LIST_TAG);
 				}
-				bbos.writeInt(((Collection<?>)e).size());
+				buffer.writeInt(((Collection<?>)e).size());
 				for(Object entry : (Collection<?>)e) {
-					serialzeWithProtoBuf(bbos, entry);
+					serialize(buffer, entry, false);
 				}
 			} else if (Map.class.isAssignableFrom(classType)) {
 				if(e instanceof SortedMap) {
-					bbos.write(SORTED_MAP_TAG);
+					buffer.writeByte(SORTED_MAP_TAG);
 				} else {
-					bbos.write(MAP_TAG);
+					buffer.writeByte(MAP_TAG);
 				}
 				
-				bbos.writeInt(((Map<?,?>)e).size());
+				buffer.writeInt(((Map<?,?>)e).size());
 				for(Entry<?,?> entry : ((Map<?,?>)e).entrySet()) {
-					serialzeWithProtoBuf(bbos, entry.getKey());
-					serialzeWithProtoBuf(bbos, entry.getValue());
+					serialize(buffer, entry.getKey(), false);
+					serialize(buffer, entry.getValue(), false);
 				}
 			} else {
-				try {
-					Method m = classType.getMethod("writeTo", OutputStream.class);
-					bbos.write(PROTOBUF_OBJECT_TAG);
-					bbos.writeUTF(classType.getName());
-					m.invoke(e, bbos);
-				} catch (Exception e1) {
+				MessageCodec codec = codecs.computeIfAbsent(classType, MessageCodec::create);
+				if(codec != MessageCodec.NOT_A_MESSAGE) {
+					if(last) {
+						String type = classType.getName();
+						buffer.writeByte(LEGACY_PROTOBUF_OBJECT_TAG);
+						writeModifiedUtf8(buffer, type, modifiedUtf8Length(type));
+						codec.writeLegacy(buffer, e);
+					} else {
+						buffer.writeByte(PROTOBUF_OBJECT_TAG);
+						writeString(buffer, classType.getName());
+						codec.write(buffer, e);
+					}
+				} else if(last) {
 					//Fall back to normal Java com.paremus.dosgi.dsw.net.serialization
-					bbos.write(JAVA_OBJECT_TAG);
-					JavaSerializer.serialzeWithJava(bbos, e);
+					buffer.writeByte(LEGACY_JAVA_OBJECT_TAG);
+					JavaSerializer.serialzeWithJava(new ByteBufOutputStream(buffer), e);
+				} else {
+					buffer.writeByte(JAVA_OBJECT_TAG);
+					int lengthIdx = buffer.writerIndex();
+					buffer.writeInt(0);
+					JavaSerializer.serialzeWithJava(new ByteBufOutputStream(buffer), e);
+					buffer.setInt(lengthIdx, buffer.writerIndex() - lengthIdx - 4);
 				}
 			}
 		}
 	}
 	
-	public static Object deserializeWithProtoBuf(ByteBufInputStream bbis, Bundle classSpace) throws IOException {
+	private Object deserialize(ByteBuf buffer) throws IOException {
 		
-		switch(bbis.read()) {
+		switch(buffer.readByte()) {
 			case NULL_TAG :
 				return null;
 			case BOOLEAN_TAG :
-				return bbis.read() == 1;
+				return buffer.readBoolean();
 			case BYTE_TAG :
-				return bbis.readByte();
+				return buffer.readByte();
 			case SHORT_TAG :
-				return bbis.readShort();
+				return buffer.readShort();
 			case CHARACTER_TAG :
-				return bbis.readChar();
+				return buffer.readChar();
 			case INTEGER_TAG :
-				return bbis.readInt();
+				return buffer.readInt();
 			case FLOAT_TAG :
-				return bbis.readFloat();
+				return buffer.readFloat();
 			case LONG_TAG :
-				return bbis.readLong();
+				return buffer.readLong();
 			case DOUBLE_TAG :
-				return bbis.readDouble();
+				return buffer.readDouble();
 			case STRING_TAG :
-				return bbis.readUTF();
+				return readString(buffer);
+			case LEGACY_STRING_TAG :
+				return DataInputStream.readUTF(new ByteBufInputStream(buffer));
 			case BOOLEAN_ARRAY_TAG : {
-				int length = bbis.readInt();
-				boolean[] array = new boolean[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readByte() == 1;
+				boolean[] array = new boolean[readLength(buffer, 1)];
+				for(int i = 0; i < array.length; i++) {
+					array[i] = buffer.readBoolean();
 				}
 				return array;
 			}
 			case BYTE_ARRAY_TAG : {
-				int length = bbis.readInt();
-				byte[] array = new byte[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readByte();
-				}
+				byte[] array = new byte[readLength(buffer, 1)];
+				buffer.readBytes(array);
 				return array;
 			}
 			case SHORT_ARRAY_TAG : {
-				int length = bbis.readInt();
-				short[] array = new short[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readShort();
-				}
+				short[] array = new short[readLength(buffer, Short.BYTES)];
+				view(buffer, array.length, Short.BYTES).asShortBuffer().get(array);
 				return array;
 			}
 			case CHAR_ARRAY_TAG : {
-				int length = bbis.readInt();
-				char[] array = new char[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readChar();
-				}
+				char[] array = new char[readLength(buffer, Character.BYTES)];
+				view(buffer, array.length, Character.BYTES).asCharBuffer().get(array);
 				return array;
 			}
 			case INT_ARRAY_TAG : {
-				int length = bbis.readInt();
-				int[] array = new int[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readInt();
-				}
+				int[] array = new int[readLength(buffer, Integer.BYTES)];
+				view(buffer, array.length, Integer.BYTES).asIntBuffer().get(array);
 				return array;
 			}
 			case FLOAT_ARRAY_TAG : {
-				int length = bbis.readInt();
-				float[] array = new float[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readFloat();
-				}
+				float[] array = new float[readLength(buffer, Float.BYTES)];
+				view(buffer, array.length, Float.BYTES).asFloatBuffer().get(array);
 				return array;
 			}
 			case LONG_ARRAY_TAG : {
-				int length = bbis.readInt();
-				long[] array = new long[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readLong();
-				}
+				long[] array = new long[readLength(buffer, Long.BYTES)];
+				view(buffer, array.length, Long.BYTES).asLongBuffer().get(array);
 				return array;
 			}
 			case DOUBLE_ARRAY_TAG : {
-				int length = bbis.readInt();
-				double[] array = new double[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readDouble();
-				}
+				double[] array = new double[readLength(buffer, Double.BYTES)];
+				view(buffer, array.length, Double.BYTES).asDoubleBuffer().get(array);
 				return array;
 			}
 			case STRING_ARRAY_TAG : {
-				int length = bbis.readInt();
-				String[] array = new String[length];
-				for(int i = 0; i < length; i++) {
-					array[i] = bbis.readUTF();
+				String[] array = new String[readLength(buffer, Integer.BYTES)];
+				for(int i = 0; i < array.length; i++) {
+					array[i] = readString(buffer);
 				}
 				return array;
 			}
-			case ARRAY_TAG : {
-				String type = bbis.readUTF();
-				int length = bbis.readInt();
-				
-				try {
-					Class<? extends Object> componentType = null;
-					try {
-						componentType = classSpace.loadClass(type);
-					} catch (ClassNotFoundException cnfe) {
-						try {
-							return ProtoBufSerializer.class.getClassLoader().loadClass(type);
-						} catch (ClassNotFoundException cnfe2) {
-							throw cnfe;
-						}
-					}
-					Object array = Array.newInstance(componentType, length);
-					for(int i = 0; i < length; i++) {
-						Array.set(array, i, deserializeWithProtoBuf(bbis, classSpace));
-					}
-					return array;
-				} catch (ClassNotFoundException e) {
-					throw new IOException("Unable to deserialize", e);
+			case LEGACY_STRING_ARRAY_TAG : {
+				String[] array = new String[readLength(buffer, 2)];
+				ByteBufInputStream bbis = new ByteBufInputStream(buffer);
+				for(int i = 0; i < array.length; i++) {
+					array[i] = bbis.readUTF();
 				}
+				return array;
 			}
+			case ARRAY_TAG :
+				return readArray(buffer, readString(buffer));
+			case LEGACY_ARRAY_TAG :
+				return readArray(buffer, DataInputStream.readUTF(new ByteBufInputStream(buffer)));
 			case LIST_TAG : {
-				int length = bbis.readInt();
+				int length = buffer.readInt();
 				List<Object> list = new ArrayList<Object>(length);
 				for(int i = 0; i < length; i++) {
-					list.add(deserializeWithProtoBuf(bbis, classSpace));
+					list.add(deserialize(buffer));
 				}
 				return list;
 			}
 			case SET_TAG : {
-				int length = bbis.readInt();
+				int length = buffer.readInt();
 				Set<Object> set = new HashSet<Object>(length);
 				for(int i = 0; i < length; i++) {
-					set.add(deserializeWithProtoBuf(bbis, classSpace));
+					set.add(deserialize(buffer));
 				}
 				return set;
 			}
 			case SORTED_SET_TAG : {
-				int length = bbis.readInt();
+				int length = buffer.readInt();
 				SortedSet<Object> set = new TreeSet<Object>();
 				for(int i = 0; i < length; i++) {
-					set.add(deserializeWithProtoBuf(bbis, classSpace));
+					set.add(deserialize(buffer));
 				}
 				return set;
 			}
 			case MAP_TAG : {
-				int length = bbis.readInt();
+				int length = buffer.readInt();
 				Map<Object, Object> map = new HashMap<Object, Object>(length);
 				for(int i = 0; i < length; i++) {
-					map.put(deserializeWithProtoBuf(bbis, classSpace), 
-							deserializeWithProtoBuf(bbis, classSpace));
+					map.put(deserialize(buffer), deserialize(buffer));
 				}
 				return map;
 			}
 			case SORTED_MAP_TAG : {
-				int length = bbis.readInt();
+				int length = buffer.readInt();
 				SortedMap<Object, Object> map = new TreeMap<Object, Object>();
 				for(int i = 0; i < length; i++) {
-					map.put(deserializeWithProtoBuf(bbis, classSpace), 
-							deserializeWithProtoBuf(bbis, classSpace));
+					map.put(deserialize(buffer), deserialize(buffer));
 				}
 				return map;
 			}
-			case PROTOBUF_OBJECT_TAG : {
-				String type = bbis.readUTF();
+			case PROTOBUF_OBJECT_TAG :
+				return getCodec(readString(buffer)).read(buffer);
+			case LEGACY_PROTOBUF_OBJECT_TAG :
+				return getCodec(DataInputStream.readUTF(new ByteBufInputStream(buffer))).readLegacy(buffer);
+			case JAVA_OBJECT_TAG : {
+				int length = readLength(buffer, 1);
+				int end = buffer.readerIndex() + length;
+				try {
+					return readJava(new ByteBufInputStream(buffer, length));
+				} finally {
+					buffer.readerIndex(end);
+				}
+			}
+			case LEGACY_JAVA_OBJECT_TAG :
+				return readJava(new ByteBufInputStream(buffer));
+			default :
+				throw new IOException("Unknown state");
+		}
+		
+	}
+
+	private Object readArray(ByteBuf buffer, String type) throws IOException {
+		int length = buffer.readInt();
+		
+		try {
+			Object array = Array.newInstance(loadClass(type), length);
+			for(int i = 0; i < length; i++) {
+				Array.set(array, i, deserialize(buffer));
+			}
+			return array;
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to deserialize", e);
+		}
+	}
+	
+	private MessageCodec getCodec(String type) throws IOException {
+		MessageCodec codec;
+		try {
+			codec = codecs.computeIfAbsent(loadClass(type), MessageCodec::create);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to deserialize", e);
+		}
+		if(codec == MessageCodec.NOT_A_MESSAGE) {
+			throw new IOException("The type " + type + " is not a protocol buffers message");
+		}
+		return codec;
+	}
+	
+	private Object readJava(InputStream is) throws IOException {
+		try (ObjectInputStream ois = new ObjectInputStream(is) {
+				@Override
+				protected Class<?> resolveClass(ObjectStreamClass arg0)
+						throws IOException, ClassNotFoundException {
+					return loadClass(arg0.getName());
+				}
+			}) {
+			return ois.readObject();
+		} catch (Exception e) {
+			throw new IOException("Unable to deserialize", e);
+		}
+	}
+
+	private Class<?> loadClass(String name) throws ClassNotFoundException {
+		Class<?> cls = classes.get(name);
+		if(cls == null) {
+			try {
+				cls = classSpace.loadClass(name);
+			} catch (ClassNotFoundException cnfe) {
 				try {
-					Class<? extends Object> cls = null;
+					cls = ProtoBufSerializer.class.getClassLoader().loadClass(name);
+				} catch (ClassNotFoundException cnfe2) {
+					throw cnfe;
+				}
+			}
+			classes.putIfAbsent(name, cls);
+		}
+		return cls;
+	}
+
+	private static void writeString(ByteBuf buffer, String s) {
+		if(s == null) {
+			buffer.writeInt(-1);
+			return;
+		}
+		int lengthIdx = buffer.writerIndex();
+		buffer.writeInt(0);
+		buffer.setInt(lengthIdx, ByteBufUtil.writeUtf8(buffer, s));
+	}
+	
+	/**
+	 * @return the number of bytes needed to write the string with 
+	 * {@link java.io.DataOutput#writeUTF(String)}, or a value over 0xFFFF if
+	 * the string is too long to be written that way
+	 */
+	private static int modifiedUtf8Length(String s) {
+		int length = s.length();
+		int utfLength = length;
+		for(int i = 0; i < length && utfLength <= 0xFFFF; i++) {
+			char c = s.charAt(i);
+			if(c == 0 || c > 0x7F) {
+				utfLength += c > 0x7FF ? 2 : 1;
+			}
+		}
+		return utfLength;
+	}
+	
+	/**
+	 * Write a string in the same way as {@link java.io.DataOutput#writeUTF(String)}
+	 */
+	private static void writeModifiedUtf8(ByteBuf buffer, String s, int utfLength) {
+		buffer.ensureWritable(utfLength + 2);
+		buffer.writeShort(utfLength);
+		int length = s.length();
+		for(int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if(c != 0 && c <= 0x7F) {
+				buffer.writeByte(c);
+			} else if(c > 0x7FF) {
+				buffer.writeByte(0xE0 | ((c >> 12) & 0x0F));
+				buffer.writeByte(0x80 | ((c >> 6) & 0x3F));
+				buffer.writeByte(0x80 | (c & 0x3F));
+			} else {
+				buffer.writeByte(0xC0 | ((c >> 6) & 0x1F));
+				buffer.writeByte(0x80 | (c & 0x3F));
+			}
+		}
+	}
+	
+	private static String readString(ByteBuf buffer) throws IOException {
+		int length = buffer.readInt();
+		if(length == -1) {
+			return null;
+		} else if(length < 0 || length > buffer.readableBytes()) {
+			throw new IOException("Invalid string length " + length);
+		}
+		String s = buffer.toString(buffer.readerIndex(), length, UTF_8);
+		buffer.skipBytes(length);
+		return s;
+	}
+
+	/**
+	 * Reserve space for a bulk copy of a primitive array
+	 * 
+	 * @return a big endian view of the reserved space, or null if the buffer
+	 * is not backed by a single NIO buffer and nothing was reserved
+	 */
+	private static ByteBuffer reserve(ByteBuf buffer, int length, int width) throws IOException {
+		if((long) length * width > Integer.MAX_VALUE) {
+			throw new IOException("The array is too large to serialize, length=" + length);
+		}
+		int bytes = length * width;
+		buffer.ensureWritable(bytes);
+		if(buffer.nioBufferCount() != 1) {
+			return null;
+		}
+		int idx = buffer.writerIndex();
+		ByteBuffer view = buffer.nioBuffer(idx, bytes).order(ByteOrder.BIG_ENDIAN);
+		buffer.writerIndex(idx + bytes);
+		return view;
+	}
+	
+	private static int readLength(ByteBuf buffer, int width) throws IOException {
+		int length = buffer.readInt();
+		if(length < 0 || (long) length * width > buffer.readableBytes()) {
+			throw new IOException("Invalid length " + length);
+		}
+		return length;
+	}
+	
+	private static ByteBuffer view(ByteBuf buffer, int length, int width) {
+		int bytes = length * width;
+		ByteBuffer view = buffer.nioBuffer(buffer.readerIndex(), bytes).order(ByteOrder.BIG_ENDIAN);
+		buffer.skipBytes(bytes);
+		return view;
+	}
+
+	/**
+	 * The cached {@link MethodHandle}s for reading and writing one type of protocol 
+	 * buffers message. Protocol buffers is an optional dependency, so everything is 
+	 * found reflectively from the message type. Messages are written with a length 
+	 * prefix so that they can be parsed directly from the buffer, unless they are the
+	 * last value, where the length is left out so that older peers can read them. Where the protocol 
+	 * buffers version in use supports it (3.x) messages are written to and parsed from
+	 * NIO views of the buffer, otherwise the message streams are used.
+	 */
+	private static final class MessageCodec {
+		
+		static final MessageCodec NOT_A_MESSAGE = new MessageCodec(null, null, null, null, null, null, null);
+		
+		private final MethodHandle getSerializedSize;
+		private final MethodHandle writeToStream;
+		private final MethodHandle newCodedOutput;
+		private final MethodHandle writeToCodedOutput;
+		private final MethodHandle flush;
+		private final MethodHandle parseBuffer;
+		private final MethodHandle parseStream;
+
+		private MessageCodec(MethodHandle getSerializedSize, MethodHandle writeToStream, 
+				MethodHandle newCodedOutput, MethodHandle writeToCodedOutput, MethodHandle flush,
+				MethodHandle parseBuffer, MethodHandle parseStream) {
+			this.getSerializedSize = getSerializedSize;
+			this.writeToStream = writeToStream;
+			this.newCodedOutput = newCodedOutput;
+			this.writeToCodedOutput = writeToCodedOutput;
+			this.flush = flush;
+			this.parseBuffer = parseBuffer;
+			this.parseStream = parseStream;
+		}
+		
+		static MessageCodec create(Class<?> type) {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodHandle getSerializedSize;
+			MethodHandle writeToStream;
+			MethodHandle parseStream;
+			try {
+				getSerializedSize = lookup.unreflect(type.getMethod("getSerializedSize"))
+						.asType(methodType(int.class, Object.class));
+				writeToStream = lookup.unreflect(type.getMethod("writeTo", OutputStream.class))
+						.asType(methodType(void.class, Object.class, OutputStream.class));
+				parseStream = lookup.unreflect(type.getMethod("parseFrom", InputStream.class))
+						.asType(methodType(Object.class, InputStream.class));
+			} catch (Exception e) {
+				return NOT_A_MESSAGE;
+			}
+			
+			MethodHandle newCodedOutput = null;
+			MethodHandle writeToCodedOutput = null;
+			MethodHandle flush = null;
+			for(Method m : type.getMethods()) {
+				Class<?>[] params = m.getParameterTypes();
+				if("writeTo".equals(m.getName()) && params.length == 1 && 
+						"com.google.protobuf.CodedOutputStream".equals(params[0].getName())) {
 					try {
-						cls = classSpace.loadClass(type);
-					} catch (ClassNotFoundException cnfe) {
-						try {
-							return ProtoBufSerializer.class.getClassLoader().loadClass(type);
-						} catch (ClassNotFoundException cnfe2) {
-							throw cnfe;
-						}
+						newCodedOutput = lookup.unreflect(params[0].getMethod("newInstance", ByteBuffer.class))
+								.asType(methodType(Object.class, ByteBuffer.class));
+						writeToCodedOutput = lookup.unreflect(m)
+								.asType(methodType(void.class, Object.class, Object.class));
+						flush = lookup.unreflect(params[0].getMethod("flush"))
+								.asType(methodType(void.class, Object.class));
+					} catch (Exception e) {
+						// An older protocol buffers version with no NIO support
+						newCodedOutput = null;
 					}
-					Method m = cls.getMethod("parseFrom", InputStream.class);
-					return m.invoke(null, bbis);
-				} catch (Exception e) {
-					throw new IOException("Unable to deserialize", e);
+					break;
 				}
 			}
-			case JAVA_OBJECT_TAG : {
-				ObjectInputStream ois = null;
+			
+			// Protocol buffers 3 messages have a parser() method, 2.5 and later a PARSER field
+			Object parser = null;
+			Class<?> parserType = null;
+			try {
+				Method m = type.getMethod("parser");
+				parserType = m.getReturnType();
+				parser = m.invoke(null);
+			} catch (Exception e) {
 				try {
-					ois = new ObjectInputStream(bbis) {
-						@Override
-						protected Class<?> resolveClass(ObjectStreamClass arg0)
-								throws IOException, ClassNotFoundException {
-							try {
-								return classSpace.loadClass(arg0.getName());
-							} catch (ClassNotFoundException cnfe) {
-								try {
-									return ProtoBufSerializer.class.getClassLoader().loadClass(arg0.getName());
-								} catch (ClassNotFoundException cnfe2) {
-									throw cnfe;
-								}
-							}
-						}
-					};
-					return ois.readObject();
-				} catch (Exception e) {
-					throw new IOException("Unable to deserialize", e);
-				} finally {
-					if(ois != null) {
-						ois.close();
+					Field f = type.getField("PARSER");
+					if(Modifier.isStatic(f.getModifiers())) {
+						parserType = f.getType();
+						parser = f.get(null);
 					}
+				} catch (Exception e2) {
+					// Use the static parse method
 				}
 			}
-			default :
-				throw new IOException("Unknown state");
+			
+			MethodHandle parseBuffer = null;
+			if(parser != null) {
+				try {
+					parseStream = lookup.findVirtual(parserType, "parseFrom", 
+							methodType(Object.class, InputStream.class)).bindTo(parser);
+				} catch (Exception e) {
+					// Use the static parse method
+				}
+				try {
+					parseBuffer = lookup.findVirtual(parserType, "parseFrom", 
+							methodType(Object.class, ByteBuffer.class)).bindTo(parser);
+				} catch (Exception e) {
+					// An older protocol buffers version with no NIO support
+				}
+			}
+			
+			return new MessageCodec(getSerializedSize, writeToStream, newCodedOutput, 
+					newCodedOutput == null ? null : writeToCodedOutput, flush, parseBuffer, parseStream);
+		}
+
+		void write(ByteBuf buffer, Object message) throws IOException {
+			write(buffer, message, true);
 		}
 		
+		/**
+		 * Write a message with no length prefix, which must be the last value
+		 */
+		void writeLegacy(ByteBuf buffer, Object message) throws IOException {
+			write(buffer, message, false);
+		}
+		
+		private void write(ByteBuf buffer, Object message, boolean withLength) throws IOException {
+			try {
+				int size = (int) getSerializedSize.invokeExact(message);
+				if(withLength) {
+					buffer.writeInt(size);
+				}
+				buffer.ensureWritable(size);
+				int idx = buffer.writerIndex();
+				if(newCodedOutput != null && buffer.nioBufferCount() == 1) {
+					Object cos = (Object) newCodedOutput.invokeExact(buffer.nioBuffer(idx, size));
+					writeToCodedOutput.invokeExact(message, cos);
+					flush.invokeExact(cos);
+					buffer.writerIndex(idx + size);
+				} else {
+					writeToStream.invokeExact(message, (OutputStream) new ByteBufOutputStream(buffer));
+				}
+				if(buffer.writerIndex() != idx + size) {
+					throw new IOException("The message " + message.getClass().getName() + 
+							" did not write the expected number of bytes");
+				}
+			} catch (IOException | RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new IOException("Unable to serialize", t);
+			}
+		}
+		
+		/**
+		 * Read a message with no length prefix, which uses the rest of the buffer
+		 */
+		Object readLegacy(ByteBuf buffer) throws IOException {
+			try {
+				return (Object) parseStream.invokeExact((InputStream) new ByteBufInputStream(buffer));
+			} catch (IOException e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new IOException("Unable to deserialize", t);
+			}
+		}
+		
+		Object read(ByteBuf buffer) throws IOException {
+			int size = readLength(buffer, 1);
+			int end = buffer.readerIndex() + size;
+			try {
+				if(parseBuffer != null) {
+					return (Object) parseBuffer.invokeExact(buffer.nioBuffer(buffer.readerIndex(), size));
+				} else {
+					return (Object) parseStream.invokeExact((InputStream) new ByteBufInputStream(buffer, size));
+				}
+			} catch (IOException e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new IOException("Unable to deserialize", t);
+			} finally {
+				buffer.readerIndex(end);
+			}
+		}
 	}
 }
@@ -16,8 +16,8 @@ package com.paremus.dosgi.net.serialize.protobuf;
 
 import org.osgi.framework.Bundle;
 
-import com.paremus.dosgi.net.serialize.Serializer;
-import com.paremus.dosgi.net.serialize.SerializerFactory;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+import com.paremus.dosgi.net.serialize.spi.SerializerFactory;
 
 public class ProtobufSerializerFactory implements SerializerFactory {
 
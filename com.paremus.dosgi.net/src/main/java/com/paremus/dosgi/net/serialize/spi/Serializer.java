@@ -12,12 +12,19 @@
  * LICENSE.txt file distributed with this work
  * #L%
  */
-package com.paremus.dosgi.net.serialize;
+package com.paremus.dosgi.net.serialize.spi;
 
 import java.io.IOException;
 
+import org.osgi.annotation.versioning.ConsumerType;
+
 import io.netty.buffer.ByteBuf;
 
+/**
+ * Converts the arguments and return values of remote calls to and from bytes.
+ * Instances are created by a {@link SerializerFactory}.
+ */
+@ConsumerType
 public interface Serializer {
 
 	void serializeArgs(ByteBuf buffer, Object[] args) throws IOException;
@@ -27,5 +34,4 @@ public interface Serializer {
 	void serializeReturn(ByteBuf buffer, Object o) throws IOException;
 	
 	Object deserializeReturn(ByteBuf buffer) throws ClassNotFoundException, IOException;
-	
 }
@@ -0,0 +1,41 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.serialize.spi;
+
+import org.osgi.annotation.versioning.ConsumerType;
+import org.osgi.framework.Bundle;
+
+/**
+ * Creates {@link Serializer} instances for exported and imported services.
+ * <p>
+ * Additional serializers may be provided by registering a {@link SerializerFactory}
+ * service with the {@link #SERIALIZATION_NAME} property. Services select the
+ * serializer using the same property, and endpoints will only be imported if
+ * their serializer is available locally.
+ */
+@ConsumerType
+public interface SerializerFactory {
+
+	/**
+	 * The service property used to name a serializer. The value may be a String or
+	 * a String[], and should not use the names of the built in serializers
+	 * (<code>FAST_BINARY</code>, <code>FAST_BINARY_ACYCLIC</code>, 
+	 * <code>DEFAULT_JAVA_SERIALIZATION</code> and <code>PROTOCOL_BUFFERS</code>).
+	 */
+	public static final String SERIALIZATION_NAME = "com.paremus.dosgi.net.serialization";
+
+	public Serializer create(Bundle classSpace);
+	
+}
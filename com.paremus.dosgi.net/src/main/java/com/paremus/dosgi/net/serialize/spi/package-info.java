@@ -12,12 +12,6 @@
  * LICENSE.txt file distributed with this work
  * #L%
  */
-package com.paremus.dosgi.net.serialize;
-
-import org.osgi.framework.Bundle;
-
-public interface SerializerFactory {
-
-	public Serializer create(Bundle classSpace);
-	
-}
+@org.osgi.annotation.bundle.Export
+@org.osgi.annotation.versioning.Version("1.0.0")
+package com.paremus.dosgi.net.serialize.spi;
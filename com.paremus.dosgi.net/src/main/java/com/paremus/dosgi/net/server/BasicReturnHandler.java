@@ -16,7 +16,8 @@ package com.paremus.dosgi.net.server;
 
 import java.util.UUID;
 
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.message.BufferSizePredictor;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.channel.Channel;
 import io.netty.util.concurrent.Future;
@@ -25,6 +26,7 @@ class BasicReturnHandler implements ReturnHandler {
 
 	protected final UUID serviceId;
 	protected final Serializer serializer;
+	protected final BufferSizePredictor responseSizes = new BufferSizePredictor();
 	private Future<?> completeFuture;
 	
 	public BasicReturnHandler(UUID serviceId, Serializer serializer, Future<?> completeFuture) {
@@ -45,9 +47,14 @@ class BasicReturnHandler implements ReturnHandler {
 		return completeFuture;
 	}
 	
+	@Override
+	public long getBufferReallocations() {
+		return responseSizes.getReallocations();
+	}
+	
 	protected void sendReturn(Channel channel, int callId, boolean successful, Object o) {
 		channel.writeAndFlush(
-				new MethodCompleteResponse(successful, serviceId, callId, serializer, o), 
+				new MethodCompleteResponse(successful, serviceId, callId, serializer, o, responseSizes), 
 				channel.voidPromise());
 	}
 }
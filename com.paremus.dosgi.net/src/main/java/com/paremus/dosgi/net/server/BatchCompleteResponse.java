@@ -0,0 +1,142 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import static com.paremus.dosgi.net.server.ServerMessageType.BATCH;
+import static com.paremus.dosgi.net.server.ServerMessageType.FAILURE;
+import static com.paremus.dosgi.net.server.ServerMessageType.FAILURE_SERIALIZATION_ERROR;
+import static com.paremus.dosgi.net.server.ServerMessageType.RETURN_SERIALIZATION_ERROR;
+import static com.paremus.dosgi.net.server.ServerMessageType.SUCCESS;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.paremus.dosgi.net.message.AbstractPayloadMessage;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * The responses to all of the calls in a batch, sent as a single message.
+ * Each entry is either a {@link ServerMessageType#SUCCESS} or {@link ServerMessageType#FAILURE}
+ * with a serialized value, or an error type with a (possibly empty) String message
+ */
+public class BatchCompleteResponse extends AbstractPayloadMessage<ServerMessageType> {
+
+	private final int[] callIds;
+	
+	private final ServerMessageType[] types;
+	
+	private final Object[] values;
+	
+	private final AtomicIntegerArray cancelled;
+	
+	public BatchCompleteResponse(UUID serviceId, int callId, Serializer serializer, int[] callIds) {
+		super(BATCH, serviceId, callId, serializer);
+		this.callIds = callIds;
+		this.types = new ServerMessageType[callIds.length];
+		this.values = new Object[callIds.length];
+		this.cancelled = new AtomicIntegerArray(callIds.length);
+	}
+	
+	public int size() {
+		return callIds.length;
+	}
+
+	public int getCallId(int index) {
+		return callIds[index];
+	}
+	
+	public ServerMessageType getType(int index) {
+		return types[index];
+	}
+	
+	public Object getValue(int index) {
+		return values[index];
+	}
+	
+	/**
+	 * Cancel one of the calls in this batch. A call which has not yet 
+	 * started will not be invoked.
+	 * 
+	 * @param callId the call to cancel
+	 * @return true if the call is part of this batch
+	 */
+	public boolean cancel(int callId) {
+		for(int i = 0; i < callIds.length; i++) {
+			if(callIds[i] == callId) {
+				cancelled.set(i, 1);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public boolean isCancelled(int index) {
+		return cancelled.get(index) != 0;
+	}
+	
+	public void complete(int index, ServerMessageType type, Object value) {
+		types[index] = type;
+		values[index] = value;
+	}
+
+	@Override
+	public void write(ByteBuf buffer, ChannelPromise promise) throws IOException {
+		writeHeader(buffer);
+		buffer.writeShort(callIds.length);
+		
+		for(int i = 0; i < callIds.length; i++) {
+			int entryStart = buffer.writerIndex();
+			try {
+				writeEntry(buffer, callIds[i], types[i], values[i], promise.channel());
+			} catch (Exception e) {
+				buffer.writerIndex(entryStart);
+				writeEntry(buffer, callIds[i], types[i] == SUCCESS ? 
+						RETURN_SERIALIZATION_ERROR : FAILURE_SERIALIZATION_ERROR, e.getMessage(), null);
+			}
+		}
+		
+		writeLength(buffer);
+	}
+
+	private void writeEntry(ByteBuf buffer, int callId, ServerMessageType type, Object value, 
+			Channel channel) throws IOException {
+		buffer.writeInt(callId)
+			.writeByte(type.getCommand());
+		
+		// Create space for the entry length
+		int entryLengthStart = buffer.writerIndex();
+		buffer.writerIndex(entryLengthStart + 4);
+		
+		if(type == SUCCESS || type == FAILURE) {
+			SessionSerializer.serializeReturn(getSerializer(), buffer, value, channel);
+		} else {
+			// The client always reads a message for an error type, so send an empty one if needed
+			int messageLengthStart = buffer.writerIndex();
+			buffer.writerIndex(messageLengthStart + 2);
+			int length = buffer.writeCharSequence(value == null ? "" : String.valueOf(value), 
+					StandardCharsets.UTF_8);
+			buffer.setShort(messageLengthStart, length);
+		}
+		
+		buffer.setInt(entryLengthStart, buffer.writerIndex() - entryLengthStart - 4);
+	}
+}
@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An adaptive limit on the number of concurrent invocations of an exported service.
+ * <p>
+ * The limit follows a gradient algorithm. Each method keeps a short-term and a 
+ * long-term moving average of its observed latency. While the short-term latency stays
+ * within the configured tolerance of the long-term latency the limit is allowed to grow,
+ * as long as the service is actually using at least half of it. Once queueing pushes
+ * the short-term latency above the tolerance the limit shrinks in proportion, and a call 
+ * that is dropped by the worker pool halves it. The limit never leaves the configured 
+ * minimum and maximum bounds.
+ * <p>
+ * Calls which arrive when the limit is reached are rejected immediately, allowing the
+ * client to fail fast (or retry elsewhere) rather than waiting in a growing queue.
+ */
+public class ConcurrencyLimiter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+	private static final double SMOOTHING = 0.2d;
+	
+	private static final double MIN_GRADIENT = 0.5d;
+	
+	private static final int SHORT_WINDOW = 10;
+	
+	private static final int LONG_WINDOW = 500;
+	
+	private final int minLimit;
+	private final int maxLimit;
+	private final double latencyTolerance;
+	
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+
+	private volatile int limit;
+
+	/** Guarded by this */
+	private double estimatedLimit;
+	/** Guarded by this */
+	private double[] shortLatency = new double[0];
+	/** Guarded by this */
+	private double[] longLatency = new double[0];
+
+	/**
+	 * Create an adaptive limiter
+	 * 
+	 * @param initialLimit The starting limit
+	 * @param minLimit The smallest limit that will ever be applied
+	 * @param maxLimit The largest limit that will ever be applied
+	 * @param latencyTolerance How many times slower than the long term average latency a 
+	 * call must be before the limit is reduced
+	 */
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+		if(minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("The concurrency limits " + minLimit + " and " + maxLimit + 
+					" are not valid");
+		}
+		if(latencyTolerance < 1.0d) {
+			throw new IllegalArgumentException("The latency tolerance must be at least 1.0, not " + latencyTolerance);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyTolerance = latencyTolerance;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		this.estimatedLimit = limit;
+	}
+	
+	/**
+	 * @return A limiter which never rejects calls
+	 */
+	public static ConcurrencyLimiter unlimited() {
+		return new ConcurrencyLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1.0d);
+	}
+
+	/**
+	 * Attempt to start a call
+	 * 
+	 * @return true if the call may proceed, in which case exactly one of 
+	 * {@link #onSample(int, long)} or {@link #onDropped()} must later be called
+	 */
+	public boolean tryAcquire() {
+		for(;;) {
+			int current = inFlight.get();
+			if(current >= limit) {
+				rejected.increment();
+				return false;
+			}
+			if(inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Complete a call, recording how long it took
+	 * 
+	 * @param method the index of the method that was called
+	 * @param latencyNanos the time taken to complete the call
+	 */
+	public void onSample(int method, long latencyNanos) {
+		int wasInFlight = inFlight.getAndDecrement();
+		if(minLimit == maxLimit) {
+			return;
+		}
+		
+		synchronized (this) {
+			if(method >= shortLatency.length) {
+				int size = Math.max(method + 1, shortLatency.length * 2);
+				double[] s = new double[size];
+				double[] l = new double[size];
+				System.arraycopy(shortLatency, 0, s, 0, shortLatency.length);
+				System.arraycopy(longLatency, 0, l, 0, longLatency.length);
+				shortLatency = s;
+				longLatency = l;
+			}
+			
+			double sample = latencyNanos;
+			double shortRtt = shortLatency[method];
+			double longRtt = longLatency[method];
+			
+			if(longRtt == 0) {
+				shortRtt = sample;
+				longRtt = sample;
+			} else {
+				shortRtt += (sample - shortRtt) / SHORT_WINDOW;
+				longRtt += (sample - longRtt) / LONG_WINDOW;
+				// Recover quickly once a period of high latency has passed 
+				if(longRtt > shortRtt * latencyTolerance) {
+					longRtt = shortRtt * latencyTolerance;
+				}
+			}
+			shortLatency[method] = shortRtt;
+			longLatency[method] = longRtt;
+			
+			// Don't grow the limit if the service is not using it
+			if(wasInFlight * 2 < estimatedLimit && shortRtt <= longRtt * latencyTolerance) {
+				return;
+			}
+			
+			double gradient = Math.max(MIN_GRADIENT, Math.min(1.0d, (latencyTolerance * longRtt) / shortRtt));
+			double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+			
+			updateLimit(estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+		}
+	}
+	
+	/**
+	 * Complete a call which could not be processed by the server
+	 */
+	public void onDropped() {
+		inFlight.decrementAndGet();
+		if(minLimit == maxLimit) {
+			return;
+		}
+		synchronized (this) {
+			updateLimit(estimatedLimit * MIN_GRADIENT);
+		}
+	}
+
+	private void updateLimit(double newLimit) {
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		int oldLimit = limit;
+		limit = (int) estimatedLimit;
+		if(oldLimit != limit && LOG.isDebugEnabled()) {
+			LOG.debug("The concurrency limit changed from {} to {}", oldLimit, limit);
+		}
+	}
+	
+	/**
+	 * @return the number of calls that may currently run concurrently
+	 */
+	public int getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * @return the number of calls currently running
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	/**
+	 * @return the total number of calls that have been rejected by this limiter
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+}
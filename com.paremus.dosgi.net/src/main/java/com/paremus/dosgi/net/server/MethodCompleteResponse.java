@@ -21,7 +21,9 @@ import java.io.IOException;
 import java.util.UUID;
 
 import com.paremus.dosgi.net.message.AbstractPayloadMessage;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.message.BufferSizePredictor;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelPromise;
@@ -32,7 +34,12 @@ public class MethodCompleteResponse extends AbstractPayloadMessage<ServerMessage
 	
 	public MethodCompleteResponse(boolean successful, UUID serviceId, int callId,
 			Serializer serializer, Object response) {
-		super(successful ? SUCCESS : FAILURE, serviceId, callId, serializer);
+		this(successful, serviceId, callId, serializer, response, null);
+	}
+	
+	public MethodCompleteResponse(boolean successful, UUID serviceId, int callId,
+			Serializer serializer, Object response, BufferSizePredictor sizePredictor) {
+		super(successful ? SUCCESS : FAILURE, serviceId, callId, serializer, sizePredictor);
 		this.response = response;
 	}
 
@@ -43,7 +50,7 @@ public class MethodCompleteResponse extends AbstractPayloadMessage<ServerMessage
 	@Override
 	public void write(ByteBuf buffer, ChannelPromise promise) throws IOException {
 		writeHeader(buffer);
-		getSerializer().serializeReturn(buffer, response);
+		SessionSerializer.serializeReturn(getSerializer(), buffer, response, promise.channel());
 		writeLength(buffer);
 	}
 }
@@ -17,7 +17,7 @@ package com.paremus.dosgi.net.server;
 import java.util.UUID;
 import java.util.function.Function;
 
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.channel.Channel;
 import io.netty.util.concurrent.Future;
@@ -32,4 +32,20 @@ public interface RemotingProvider {
 	
 	void registerStream(Channel ch, UUID id, int callId, DataStream stream);
 
+	void invalidateCachedResults(UUID id);
+
+	/**
+	 * @param id the service id
+	 * @return the number of responses from the service which did not fit in their
+	 * predicted buffer size, or zero if the service is not registered
+	 */
+	long getResponseBufferReallocations(UUID id);
+
+	/**
+	 * @param id the service id
+	 * @return the limiter controlling concurrent calls to the service, or 
+	 * <code>null</code> if the service is not registered
+	 */
+	ConcurrencyLimiter getConcurrencyLimiter(UUID id);
+
 }
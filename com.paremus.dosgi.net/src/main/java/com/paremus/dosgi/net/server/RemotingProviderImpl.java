@@ -37,6 +37,7 @@ import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStream;
 
 import io.netty.channel.Channel;
 import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelMatchers;
 
 class RemotingProviderImpl implements RemotingProvider {
 
@@ -165,6 +166,21 @@ class RemotingProviderImpl implements RemotingProvider {
 		handler.registerStream(ch, id, callId, stream);
 	}
 
+	@Override
+	public void invalidateCachedResults(UUID id) {
+		channelGroup.writeAndFlush(new ServerCacheInvalidation(id), ChannelMatchers.isNot(channel), true);
+	}
+
+	@Override
+	public long getResponseBufferReallocations(UUID id) {
+		return handler.getResponseBufferReallocations(id);
+	}
+
+	@Override
+	public ConcurrencyLimiter getConcurrencyLimiter(UUID id) {
+		return handler.getConcurrencyLimiter(id);
+	}
+
 	public void close() {
 		channelGroup.close();
 	}
@@ -21,4 +21,10 @@ interface ReturnHandler {
 	Future<?> success(Channel channel, int callId, Object returnValue);
 
 	Future<?> failure(Channel channel, int callId, Throwable failure);
+
+	/**
+	 * @return the number of messages sent by this handler which outgrew their
+	 * predicted buffer size
+	 */
+	long getBufferReallocations();
 }
@@ -0,0 +1,53 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import static com.paremus.dosgi.net.server.ServerMessageType.ASYNC_PARAM_CREDIT;
+
+import java.util.UUID;
+
+import com.paremus.dosgi.net.message.AbstractRSAMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelPromise;
+
+public class ServerAsyncArgumentCredit extends AbstractRSAMessage<ServerMessageType> {
+
+	private final int parameterIndex;
+	
+	private final int credit; 
+	
+	public ServerAsyncArgumentCredit(UUID serviceId, int callId, int parameterIndex, int credit) {
+		super(ASYNC_PARAM_CREDIT, serviceId, callId);
+		this.parameterIndex = parameterIndex;
+		this.credit = credit;
+	}
+
+	public int getParameterIndex() {
+		return parameterIndex;
+	}
+
+	public int getCredit() {
+		return credit;
+	}
+
+	@Override
+	public void write(ByteBuf buffer, ChannelPromise promise) {
+		writeHeader(buffer);
+		buffer.writeByte(parameterIndex);
+		buffer.writeInt(credit);
+		writeLength(buffer);
+	}
+}
@@ -23,8 +23,12 @@ import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_TO_SERIALIZE_
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_TO_SERIALIZE_SUCCESS;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_UNKNOWN;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.SUCCESS_RESPONSE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.BATCH_RESPONSE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_ASYNC_METHOD_PARAM_CREDIT;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_ASYNC_METHOD_PARAM_ERROR;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_CACHE_INVALIDATION;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_CLOSE_EVENT;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_DATA_BATCH_EVENT;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_DATA_EVENT;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.SERVER_ERROR_EVENT;
 
@@ -44,9 +48,13 @@ public enum ServerMessageType implements MessageType {
 	FAILURE_SERIALIZATION_ERROR(Protocol_V1.VERSION, FAILURE_TO_SERIALIZE_FAILURE, true),
 	UNKNOWN_ERROR(Protocol_V1.VERSION, FAILURE_UNKNOWN, true),
 	ASYNC_PARAM_ERROR(Protocol_V2.VERSION, SERVER_ASYNC_METHOD_PARAM_ERROR, true), 
+	ASYNC_PARAM_CREDIT(Protocol_V2.VERSION, SERVER_ASYNC_METHOD_PARAM_CREDIT, false),
 	STREAM_DATA(Protocol_V2.VERSION, SERVER_DATA_EVENT, false),
+	STREAM_DATA_BATCH(Protocol_V2.VERSION, SERVER_DATA_BATCH_EVENT, false),
 	STREAM_CLOSE(Protocol_V2.VERSION, SERVER_CLOSE_EVENT, false),
-	STREAM_ERROR(Protocol_V2.VERSION, SERVER_ERROR_EVENT, true);
+	STREAM_ERROR(Protocol_V2.VERSION, SERVER_ERROR_EVENT, true),
+	BATCH(Protocol_V2.VERSION, BATCH_RESPONSE, false),
+	CACHE_INVALIDATION(Protocol_V2.VERSION, SERVER_CACHE_INVALIDATION, false);
 	
 	private final byte version;
 	private final byte command;
@@ -22,8 +22,10 @@ import static com.paremus.dosgi.net.wireformat.Protocol_V1.CANCEL;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.ASYNC_METHOD_PARAM_CLOSE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.ASYNC_METHOD_PARAM_DATA;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.ASYNC_METHOD_PARAM_FAILURE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.CALL_BATCH;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.CLIENT_BACK_PRESSURE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.CLIENT_CLOSE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V2.CLIENT_CREDIT;
 import static com.paremus.dosgi.net.wireformat.Protocol_V2.CLIENT_OPEN;
 import static java.util.Optional.ofNullable;
 
@@ -72,13 +74,16 @@ class ServerRequestHandler extends ChannelInboundHandlerAdapter {
 			switch(callType) {
 				case CALL_WITH_RETURN :
 				case CALL_WITHOUT_RETURN:
+				case CALL_BATCH:
 				case CANCEL:
 				case ASYNC_METHOD_PARAM_DATA :
+				case ASYNC_METHOD_PARAM_CLOSE :
 				case ASYNC_METHOD_PARAM_FAILURE :
 					invokerAction(ctx, buf, callType, serviceId, callId);
 					break;
 				case CLIENT_OPEN:
 				case CLIENT_BACK_PRESSURE:
+				case CLIENT_CREDIT:
 				case CLIENT_CLOSE:
 					streamAction(ctx, buf, callType, serviceId, callId);
 					break;
@@ -95,6 +100,18 @@ class ServerRequestHandler extends ChannelInboundHandlerAdapter {
 		}
 	}
 
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if(ctx.channel().isWritable()) {
+			// Resume sending any streamed data which was waiting for the channel
+			StreamScheduler scheduler = StreamScheduler.find(ctx.channel());
+			if(scheduler != null) {
+				scheduler.drain();
+			}
+		}
+		super.channelWritabilityChanged(ctx);
+	}
+
 	private void invokerAction(ChannelHandlerContext ctx, ByteBuf buf, byte callType, UUID serviceId, int callId) {
 		ServiceInvoker invoker = registeredServices.get(serviceId);
 		
@@ -112,18 +129,19 @@ class ServerRequestHandler extends ChannelInboundHandlerAdapter {
 				invoker.call(ctx.channel(), buf, callId);
 				break;
 			case CALL_WITHOUT_RETURN :
-				invoker.call(null, buf, callId);
+				invoker.fireAndForget(ctx.channel(), buf, callId);
+				break;
+			case CALL_BATCH :
+				invoker.batch(ctx.channel(), buf, callId);
 				break;
 			case CANCEL :
 				invoker.cancel(callId, buf.readBoolean());
 				break;
 			case ASYNC_METHOD_PARAM_DATA :
+			case ASYNC_METHOD_PARAM_CLOSE :
 			case ASYNC_METHOD_PARAM_FAILURE :
 				invoker.asyncParam(ctx.channel(), callType, callId, buf.readUnsignedByte(), buf);
 				break;
-//			case ASYNC_METHOD_PARAM_CLOSE :
-//				invoker.asyncParamClose(callId, buf.readUnsignedByte());
-//				break;
 			default :
 				LOG.warn("The RSA distribution provider received an unknown request type {} for service {} and is ignoring it",
 						callType, serviceId);
@@ -133,6 +151,7 @@ class ServerRequestHandler extends ChannelInboundHandlerAdapter {
 	private void missingInvoker(ChannelHandlerContext ctx, byte callType, int callId, UUID serviceId) {
 		switch(callType) {
 			case CALL_WITH_RETURN :
+			case CALL_BATCH :
 				LOG.warn("The RSA distribution provider does not have a service {} registered with transport {};{}", 
 						new Object[] {serviceId, transport.getProtocol(), transport.getConfigurationString()});
 				ctx.channel().writeAndFlush(new ServerErrorResponse(NO_SERVICE, serviceId, callId), ctx.voidPromise());
@@ -158,11 +177,18 @@ class ServerRequestHandler extends ChannelInboundHandlerAdapter {
 		if(dataStream != null) {
 			switch(callType) {
 				case CLIENT_OPEN:
+					if(buf.isReadable()) {
+						// The client wants credit based flow control
+						dataStream.grantCredit(buf.readInt());
+					}
 					dataStream.open();
 					break;
 				case CLIENT_BACK_PRESSURE:
 					dataStream.asyncBackPressure(buf.readLong());
 					break;
+				case CLIENT_CREDIT:
+					dataStream.grantCredit(buf.readInt());
+					break;
 				case CLIENT_CLOSE:
 					dataStream.close();
 				break;
@@ -183,6 +209,16 @@ class ServerRequestHandler extends ChannelInboundHandlerAdapter {
 			.ifPresent(si -> si.close(channel));
 	}
 
+	public long getResponseBufferReallocations(UUID id) {
+		ServiceInvoker invoker = registeredServices.get(id);
+		return invoker == null ? 0 : invoker.getResponseBufferReallocations();
+	}
+
+	public ConcurrencyLimiter getConcurrencyLimiter(UUID id) {
+		ServiceInvoker invoker = registeredServices.get(id);
+		return invoker == null ? null : invoker.getConcurrencyLimiter();
+	}
+
 	public void registerStream(Channel ch, UUID id, int callId, DataStream stream) {
 		CacheKey key = new CacheKey(id, callId);
 		registeredStreams.put(key, stream);
@@ -22,6 +22,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.paremus.dosgi.net.message.AbstractRSAMessage;
+import com.paremus.dosgi.net.message.BufferSizePredictor;
+import com.paremus.dosgi.net.serialize.SerializationSession;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler.Sharable;
@@ -39,19 +41,39 @@ public class ServerResponseSerializer extends ChannelOutboundHandlerAdapter {
 		
 		@SuppressWarnings("unchecked")
 		AbstractRSAMessage<ServerMessageType> response = (AbstractRSAMessage<ServerMessageType>) msg;
+		
+		SerializationSession session = SerializationSession.find(ctx.channel());
+		boolean sessionFrame = session != null && session.beginFrame();
 		try {
 			/* See Protocol_V1 and Protocol_V2 for header structure */
-			ByteBuf buf = ctx.alloc().ioBuffer();
+			BufferSizePredictor predictor = response.getSizePredictor();
+			ByteBuf buf = predictor == null ? ctx.alloc().ioBuffer() : 
+				ctx.alloc().ioBuffer(predictor.nextSize());
+			int initialCapacity = buf.capacity();
 			try {
 				response.write(buf, promise);
 			} catch (Exception e) {
 				buf.clear();
+				if(sessionFrame) {
+					session.abortFrame();
+				}
 				getErrorResponse(response, e).write(buf, promise);
+				predictor = null;
+			}
+			if(sessionFrame) {
+				session.endFrame(buf);
+			}
+			if(predictor != null) {
+				predictor.record(initialCapacity, buf.readableBytes());
 			}
 		
 			ctx.writeAndFlush(buf, promise);
 		} catch (Exception e) {
 			LOG.error("An error occurred when invoking service {} ", response.getServiceId(), e);
+		} finally {
+			if(sessionFrame) {
+				session.releaseFrame();
+			}
 		}
 	}
 
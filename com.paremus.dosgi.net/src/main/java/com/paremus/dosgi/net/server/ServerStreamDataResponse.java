@@ -18,7 +18,9 @@ import java.io.IOException;
 import java.util.UUID;
 
 import com.paremus.dosgi.net.message.AbstractPayloadMessage;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.message.BufferSizePredictor;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelPromise;
@@ -28,18 +30,24 @@ public class ServerStreamDataResponse extends AbstractPayloadMessage<ServerMessa
 	private final Object data;
 	
 	public ServerStreamDataResponse(UUID serviceId, int callId, Serializer serializer, Object data) {
-		super(ServerMessageType.STREAM_DATA, serviceId, callId, serializer);
+		this(serviceId, callId, serializer, data, null);
+	}
+	
+	public ServerStreamDataResponse(UUID serviceId, int callId, Serializer serializer, Object data,
+			BufferSizePredictor sizePredictor) {
+		super(ServerMessageType.STREAM_DATA, serviceId, callId, serializer, sizePredictor);
 		this.data = data;
 	}
 
 	public ServerStreamDataResponse fromTemplate(Object data) {
-		return new ServerStreamDataResponse(getServiceId(), getCallId(), getSerializer(), data);
+		return new ServerStreamDataResponse(getServiceId(), getCallId(), getSerializer(), data,
+				getSizePredictor());
 	}
 	
 	@Override
 	public void write(ByteBuf buffer, ChannelPromise promise) throws IOException {
 		writeHeader(buffer);
-		getSerializer().serializeReturn(buffer, data);
+		SessionSerializer.serializeReturn(getSerializer(), buffer, data, promise.channel());
 		writeLength(buffer);
 	}
 }
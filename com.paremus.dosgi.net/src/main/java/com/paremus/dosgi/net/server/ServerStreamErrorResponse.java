@@ -18,7 +18,8 @@ import java.io.IOException;
 import java.util.UUID;
 
 import com.paremus.dosgi.net.message.AbstractPayloadMessage;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelPromise;
@@ -35,7 +36,7 @@ public class ServerStreamErrorResponse extends AbstractPayloadMessage<ServerMess
 	@Override
 	public void write(ByteBuf buffer, ChannelPromise promise) throws IOException {
 		writeHeader(buffer);
-		getSerializer().serializeReturn(buffer, exception);
+		SessionSerializer.serializeReturn(getSerializer(), buffer, exception, promise.channel());
 		writeLength(buffer);
 	}
 }
@@ -16,38 +16,58 @@ package com.paremus.dosgi.net.server;
 
 import static com.paremus.dosgi.net.server.ServerMessageType.ARGS_SERIALIZATION_ERROR;
 import static com.paremus.dosgi.net.server.ServerMessageType.ASYNC_PARAM_ERROR;
+import static com.paremus.dosgi.net.server.ServerMessageType.FAILURE;
 import static com.paremus.dosgi.net.server.ServerMessageType.NO_METHOD;
 import static com.paremus.dosgi.net.server.ServerMessageType.SERVER_OVERLOADED;
+import static com.paremus.dosgi.net.server.ServerMessageType.SUCCESS;
 import static com.paremus.dosgi.net.server.ServerMessageType.UNKNOWN_ERROR;
+import static com.paremus.dosgi.net.wireformat.Protocol_V1.toSignature;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 import org.osgi.framework.ServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.paremus.dosgi.net.message.AbstractRSAMessage;
+import com.paremus.dosgi.net.message.AbstractRSAMessage.CacheKey;
 import com.paremus.dosgi.net.promise.PromiseFactory;
 import com.paremus.dosgi.net.pushstream.PushStreamFactory;
 import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStreamFactory;
+import com.paremus.dosgi.net.pushstream.PushStreamFactory.OnConnect;
+import com.paremus.dosgi.net.pushstream.StreamCredit;
 import com.paremus.dosgi.net.serialize.CompletedPromise;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.SerializationSession;
+import com.paremus.dosgi.net.serialize.SerializationSession.Snapshot;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 import com.paremus.dosgi.net.wireformat.Protocol_V2;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
@@ -56,6 +76,7 @@ import io.netty.util.collection.IntObjectMap;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 import io.netty.util.concurrent.Promise;
 
 public class ServiceInvoker {
@@ -63,31 +84,88 @@ public class ServiceInvoker {
 	private static final Logger LOG = LoggerFactory.getLogger(ServiceInvoker.class);
 	
 	private interface ArgsHandler {
-		ArgumentResolver[] process(Object[] rawArgs);
+		ArgumentResolver[] process(Object[] rawArgs, Channel channel, int callId);
 	}
 	
 	private interface ArgumentProcessor {
-		ArgumentResolver process(Object[] rawArgs, int index);
+		ArgumentResolver process(Object[] rawArgs, int index, Channel channel, int callId);
 	}
 	
-	private interface ArgumentResolver {
+	interface ArgumentResolver {
 		void resolve(boolean succcess, Object result);
+		
+		/**
+		 * Called when the client closes the argument. Only streamed arguments
+		 * may be closed, other arguments are failed.
+		 */
+		default void close() {
+			resolve(false, new ServiceException("The asynchronous argument was closed without a value", 
+					ServiceException.REMOTE, new IllegalStateException()));
+		}
+		
+		/**
+		 * Called when the server stops waiting for the argument, for example
+		 * because the remote call has completed, timed out or been cancelled
+		 */
+		default void abandon(Exception e) {
+			resolve(false, e);
+		}
 	}
 	
 	private static class RemoteInvocation {
 		public final ArgumentResolver[] resolvers;
 		public final Future<?> runningTask;
 		public final Timeout timeout;
+		public final int methodIndex;
+		public final long startTime;
 		
-		public RemoteInvocation(ArgumentResolver[] resolvers, Future<?> runningTask, Timeout timeout) {
+		public RemoteInvocation(ArgumentResolver[] resolvers, Future<?> runningTask, Timeout timeout,
+				int methodIndex, long startTime) {
 			this.resolvers = resolvers;
 			this.runningTask = runningTask;
 			this.timeout = timeout;
+			this.methodIndex = methodIndex;
+			this.startTime = startTime;
 		}
 	}
 	
+	/**
+	 * Call data which is retained until a worker claims it for deserialization,
+	 * or released if the call is abandoned before the worker runs
+	 */
+	@SuppressWarnings("serial")
+	private static class PendingArgs extends AtomicBoolean {
+		private final ByteBuf buf;
+		/** The session dictionary which the call data may refer to */
+		private final Snapshot session;
+		
+		public PendingArgs(ByteBuf buf, Snapshot session) {
+			this.buf = buf.retain();
+			this.session = session;
+		}
+		
+		/**
+		 * @return the call data, which the caller must release, or <code>null</code>
+		 * if the call has been abandoned
+		 */
+		public ByteBuf claim() {
+			return compareAndSet(false, true) ? buf : null;
+		}
+		
+		public void abandon() {
+			if(compareAndSet(false, true)) {
+				buf.release();
+			}
+		}
+	}
+	
+	/**
+	 * The time in milliseconds that a call may run for if no timeout is configured
+	 */
+	public static final long DEFAULT_CALL_TIMEOUT = 30000;
+	
 	private static final ArgumentResolver[] EMPTY_RESOLVER_ARRAY = new ArgumentResolver[0];
-	private static final ArgsHandler DEFAULT_ARGS_HANDLER = o -> EMPTY_RESOLVER_ARRAY;
+	private static final ArgsHandler DEFAULT_ARGS_HANDLER = (o, c, id) -> EMPTY_RESOLVER_ARRAY;
 	
 	private final RemotingProvider remotingProvider;
 	private final Serializer serializer;
@@ -99,9 +177,12 @@ public class ServiceInvoker {
 	
 	private final EventExecutorGroup worker;
 	private final Timer timer;
+	private final long callTimeout;
 	
 	private final UUID serviceId;
 	private final ArgsHandler[] argsHandlers;
+	private final boolean[] batchable;
+	private final boolean[] singleFlight;
 
 	private final Function<EventExecutor, Promise<Object>> nettyPromiseCreator;
 	private final Function<Object, Future<Object>> toNettyFutureAdapter;
@@ -112,10 +193,55 @@ public class ServiceInvoker {
 	
 	private final Future<?> completeAction;
 	
+	private final ConcurrencyLimiter limiter;
+	
+	private final WorkerSelector workerSelector;
+	
+	private final SingleFlightGroup flights;
+	
 	private final IntObjectMap<RemoteInvocation> runningRemoteInvocations = new IntObjectHashMap<>();
 	
+	/**
+	 * The batches containing each running batched call, guarded by runningRemoteInvocations
+	 */
+	private final IntObjectMap<BatchCompleteResponse> runningBatchedCalls = new IntObjectHashMap<>();
+	
+	private final ConcurrentMap<CacheKey, StreamArgument> streamArguments = new ConcurrentHashMap<>();
+	
+	private final AtomicInteger streamArgumentIds = new AtomicInteger();
+	
 	public ServiceInvoker(RemotingProvider rp, UUID serviceId, Serializer serializer, 
 			Object service, Method[] methods, EventExecutorGroup serverWorkers, Timer timer) {
+		this(rp, serviceId, serializer, service, methods, serverWorkers, timer, 
+				ConcurrencyLimiter.unlimited(), WorkerScheduling.SHARED);
+	}
+
+	public ServiceInvoker(RemotingProvider rp, UUID serviceId, Serializer serializer, 
+			Object service, Method[] methods, EventExecutorGroup serverWorkers, Timer timer,
+			ConcurrencyLimiter limiter, WorkerScheduling scheduling) {
+		this(rp, serviceId, serializer, service, methods, serverWorkers, timer, limiter, scheduling, 
+				Collections.emptySet());
+	}
+
+	public ServiceInvoker(RemotingProvider rp, UUID serviceId, Serializer serializer, 
+			Object service, Method[] methods, EventExecutorGroup serverWorkers, Timer timer,
+			ConcurrencyLimiter limiter, WorkerScheduling scheduling, Collection<String> singleFlightMethods) {
+		this(rp, serviceId, serializer, service, methods, serverWorkers, timer, limiter, scheduling, 
+				singleFlightMethods, StreamBatching.disabled(), StreamCredit.DEFAULT_MAX_HELD);
+	}
+
+	public ServiceInvoker(RemotingProvider rp, UUID serviceId, Serializer serializer, 
+			Object service, Method[] methods, EventExecutorGroup serverWorkers, Timer timer,
+			ConcurrencyLimiter limiter, WorkerScheduling scheduling, Collection<String> singleFlightMethods,
+			StreamBatching streamBatching, int streamCreditBuffer) {
+		this(rp, serviceId, serializer, service, methods, serverWorkers, timer, limiter, scheduling, 
+				singleFlightMethods, streamBatching, streamCreditBuffer, DEFAULT_CALL_TIMEOUT);
+	}
+
+	public ServiceInvoker(RemotingProvider rp, UUID serviceId, Serializer serializer, 
+			Object service, Method[] methods, EventExecutorGroup serverWorkers, Timer timer,
+			ConcurrencyLimiter limiter, WorkerScheduling scheduling, Collection<String> singleFlightMethods,
+			StreamBatching streamBatching, int streamCreditBuffer, long callTimeout) {
 		
 		this.remotingProvider = rp;
 		this.serviceId = serviceId;
@@ -124,6 +250,10 @@ public class ServiceInvoker {
 		this.methodCache = Arrays.copyOf(methods, methods.length);
 		this.worker = serverWorkers;
 		this.timer = timer;
+		this.callTimeout = callTimeout;
+		this.limiter = limiter;
+		this.workerSelector = new WorkerSelector(serverWorkers, scheduling, serviceId);
+		this.flights = new SingleFlightGroup(serviceId, serializer);
 		completeAction = serverWorkers.next().newSucceededFuture(null);
 
 		Function<EventExecutor, Promise<Object>> nettyPromiseCreator = null;
@@ -186,41 +316,59 @@ public class ServiceInvoker {
 		this.returnHandlers = new ReturnHandler[methodCache.length];
 		this.argsHandlers = new ArgsHandler[methodCache.length];
 		
-		setupReturnHandlers(methods);
+		setupReturnHandlers(methods, streamBatching, streamCreditBuffer);
 		setupArgsHandlers(methods, fromNettyFutureAdapter);
-	}
-
-	private void setupReturnHandlers(Method[] methods) {
-		ReturnHandler basicReturnHandler = new BasicReturnHandler(serviceId, serializer, completeAction);
-		ReturnHandler futureReturnHandler = new JavaFutureReturnHandler(serviceId, serializer, 
-				completeAction, worker);
-		ReturnHandler completionStageReturnHandler = new JavaCompletionStageReturnHandler(
-				serviceId, serializer, completeAction, worker);
-		ReturnHandler promiseReturnHandler = new PromiseReturnHandler(serviceId, serializer, 
-				completeAction, toNettyFutureAdapter);
 		
-		ReturnHandler pushStreamReturnHandler = new StreamReturnHandler(serviceId, serializer, 
-				completeAction, remotingProvider, pushStreamConnector);
-
-		ReturnHandler pushEventSourceReturnHandler = new StreamReturnHandler(serviceId, serializer, 
-				completeAction, remotingProvider, pushEventSourceConnector);
+		// Only methods with synchronous arguments and return values may be batched
+		this.batchable = new boolean[methodCache.length];
+		for(int i = 0; i < methodCache.length; i++) {
+			batchable[i] = returnHandlers[i].getClass() == BasicReturnHandler.class && 
+					argsHandlers[i] == DEFAULT_ARGS_HANDLER;
+		}
 		
+		// Single flight methods share one serialized response, so they must also be synchronous
+		this.singleFlight = new boolean[methodCache.length];
+		for(int i = 0; i < methodCache.length; i++) {
+			Method m = methodCache[i];
+			if(singleFlightMethods.contains(m.getName()) || singleFlightMethods.contains(toSignature(m))) {
+				if(batchable[i]) {
+					singleFlight[i] = true;
+				} else {
+					LOG.warn("The method {} of service {} has asynchronous arguments or return values and cannot be coalesced", 
+							m.toGenericString(), serviceId);
+				}
+			}
+		}
+	}
+
+	private void setupReturnHandlers(Method[] methods, StreamBatching streamBatching, 
+			int streamCreditBuffer) {
+		// Each method gets its own handler so that response buffers are sized per method
 		Arrays.setAll(returnHandlers, i -> {
 			
-				ReturnHandler handler = basicReturnHandler;
+				ReturnHandler handler;
 				
 				Class<?> returnType = methods[i].getReturnType();
 				
 				if(PromiseFactory.isPromise(returnType)) {
-					handler = promiseReturnHandler;
+					handler = new PromiseReturnHandler(serviceId, serializer, 
+							completeAction, toNettyFutureAdapter);
 				} else if(PushStreamFactory.isPushStream(returnType)) {
-					handler = pushStreamReturnHandler;
+					handler = new StreamReturnHandler(serviceId, serializer, 
+							completeAction, remotingProvider, pushStreamConnector, streamBatching, 
+							streamCreditBuffer);
 				} else if(PushStreamFactory.isPushEventSource(returnType)) {
-					handler = pushEventSourceReturnHandler;
+					handler = new StreamReturnHandler(serviceId, serializer, 
+							completeAction, remotingProvider, pushEventSourceConnector, streamBatching, 
+							streamCreditBuffer);
 				} else if (CompletionStage.class.isAssignableFrom(returnType)) {
-					handler = completionStageReturnHandler;
+					handler = new JavaCompletionStageReturnHandler(
+							serviceId, serializer, completeAction, worker);
 				} else if (java.util.concurrent.Future.class.isAssignableFrom(returnType)) {
-					handler = futureReturnHandler;
+					handler = new JavaFutureReturnHandler(serviceId, serializer, 
+							completeAction, worker);
+				} else {
+					handler = new BasicReturnHandler(serviceId, serializer, completeAction);
 				}
 				
 				return handler;
@@ -233,6 +381,8 @@ public class ServiceInvoker {
 
 		ArgumentProcessor promiseArgHandler = this::handlePromiseArg;
 		
+		OnConnect<Object> streamArgConnector = this::connectStreamArg;
+		
 		for(int i = 0; i < methods.length; i++) {
 			
 			Class<?>[] parameters = methods[i].getParameterTypes();
@@ -251,6 +401,9 @@ public class ServiceInvoker {
 							CompletionStage.class.equals(parameterType) ||
 							java.util.concurrent.Future.class.equals(parameterType)) {
 					ap = futureArgHandler;
+				} else if (PushStreamFactory.isPushStream(parameterType) || 
+						PushStreamFactory.isPushEventSource(parameterType)) {
+					ap = getStreamArgHandler(methods[i], parameterType, streamArgConnector);
 				}
 				
 				if(ap != null) {
@@ -259,18 +412,56 @@ public class ServiceInvoker {
 				}
 			}
 			
-			argsHandlers[i] =  needsHandler ? o -> {
+			argsHandlers[i] =  needsHandler ? (o, c, id) -> {
 					ArgumentResolver[] toReturn = new ArgumentResolver[processors.length];
 					for(int k = 0; k < processors.length; k++) {
 						toReturn[k] = processors[k] == null ? null :
-							processors[k].process(o, k);
+							processors[k].process(o, k, c, id);
 					}
 					return toReturn;
 				} : DEFAULT_ARGS_HANDLER;
 		}
 	}
 
-	private ArgumentResolver handleFutureArg(Object[] o, int index) {
+	private ArgumentProcessor getStreamArgHandler(Method method, Class<?> parameterType, 
+			OnConnect<Object> streamArgConnector) {
+		Function<Future<?>, Object> streamCreator;
+		try {
+			streamCreator = PushStreamFactory.isPushStream(parameterType) ?
+					PushStreamFactory.pushStreamHandler(parameterType, worker, streamArgConnector, k -> {}) :
+					PushStreamFactory.pushEventSourceHandler(parameterType, worker, streamArgConnector, k -> {});
+		} catch (NoClassDefFoundError | Exception e) {
+			LOG.warn("Unable to support the streamed argument of type {} for the method {} of remote service {}", 
+					parameterType.getName(), method.toGenericString(), serviceId, e);
+			return null;
+		}
+		return (o, index, channel, callId) -> handleStreamArg(streamCreator, o, index, channel, callId);
+	}
+
+	private ArgumentResolver handleStreamArg(Function<Future<?>, Object> streamCreator, Object[] o, int index, 
+			Channel channel, int callId) {
+		CacheKey key = new CacheKey(serviceId, streamArgumentIds.incrementAndGet());
+		StreamArgument argument = new StreamArgument(serviceId, callId, index, channel, 
+				StreamArgument.DEFAULT_WINDOW, () -> streamArguments.remove(key));
+		streamArguments.put(key, argument);
+		o[index] = streamCreator.apply(ImmediateEventExecutor.INSTANCE.newSucceededFuture(
+				new Object[] {key.getId(), key.getCallId()}));
+		return argument;
+	}
+	
+	private void connectStreamArg(CacheKey key, EventExecutor executor, Future<?> closeFuture, 
+			ToLongFunction<Object> pushData, Consumer<Exception> pushClose) {
+		StreamArgument argument = streamArguments.get(key);
+		if(argument != null) {
+			argument.connect(executor, closeFuture, pushData, pushClose);
+		} else {
+			executor.execute(() -> pushClose.accept(new ServiceException(
+					"The streamed argument is no longer available because the remote call has completed", 
+					ServiceException.REMOTE, new IllegalStateException())));
+		}
+	}
+
+	private ArgumentResolver handleFutureArg(Object[] o, int index, Channel channel, int callId) {
 		
 		ArgumentResolver ar;
 		
@@ -304,7 +495,7 @@ public class ServiceInvoker {
 		return ar;
 	}
 
-	private ArgumentResolver handlePromiseArg(Object[] o, int index) {
+	private ArgumentResolver handlePromiseArg(Object[] o, int index, Channel channel, int callId) {
 		
 		ArgumentResolver ar;
 		
@@ -343,10 +534,7 @@ public class ServiceInvoker {
 			try {
 				AbstractRSAMessage<ServerMessageType> message;
 				if(e != null) {
-						String error = String.valueOf(e.getMessage());
-						error = error.length() > 256 ? new StringBuilder(260)
-								.append(error, 0, 256).append("...").toString() : error;
-					message = new ServerErrorMessageResponse(type, serviceId, callId, error);
+					message = new ServerErrorMessageResponse(type, serviceId, callId, toErrorMessage(e));
 				} else {
 					message = new ServerErrorResponse(type, serviceId, callId);
 				}
@@ -357,16 +545,47 @@ public class ServiceInvoker {
 		}
 	}
 
+	private String toErrorMessage(Exception e) {
+		String error = String.valueOf(e.getMessage());
+		return error.length() > 256 ? new StringBuilder(260)
+				.append(error, 0, 256).append("...").toString() : error;
+	}
+
+	/**
+	 * Invoke the service and send the result back to the caller
+	 * 
+	 * @param channel the channel on which the call arrived
+	 * @param buf the call data
+	 * @param callId the call id
+	 */
 	public void call(Channel channel, ByteBuf buf, int callId) {
+		call(channel, channel, buf, callId);
+	}
+
+	/**
+	 * Invoke the service without sending any result back to the caller
+	 * 
+	 * @param channel the channel on which the call arrived
+	 * @param buf the call data
+	 * @param callId the call id
+	 */
+	public void fireAndForget(Channel channel, ByteBuf buf, int callId) {
+		call(channel, null, buf, callId);
+	}
+
+	private void call(Channel source, Channel channel, ByteBuf buf, int callId) {
+		long startTime = System.nanoTime();
+		int idx;
 		Method m;
 		ReturnHandler returnHandler;
 		Object[] args;
 		ArgumentResolver[] resolvers;
+		boolean permitted = false;
 
 		try {
 			ArgsHandler argsPostProcessor;
 			try {
-				int idx = buf.readUnsignedShort();
+				idx = buf.readUnsignedShort();
 				m = methodCache[idx];
 				returnHandler = returnHandlers[idx];
 				argsPostProcessor = argsHandlers[idx];
@@ -375,33 +594,77 @@ public class ServiceInvoker {
 				return;
 			}
 			
+			if(channel != null && singleFlight[idx]) {
+				singleFlight(source, channel, buf, callId, idx, m, startTime);
+				return;
+			}
+			
+			if(!limiter.tryAcquire()) {
+				if(LOG.isDebugEnabled()) {
+					LOG.debug("The service {} has reached its concurrency limit of {} and is rejecting calls", 
+							serviceId, limiter.getLimit());
+				}
+				sendInternalFailureResponse(channel, callId, SERVER_OVERLOADED, new RejectedExecutionException(
+						"The service has reached its concurrency limit of " + limiter.getLimit()));
+				return;
+			}
+			permitted = true;
+			
+			if(argsPostProcessor == DEFAULT_ARGS_HANDLER) {
+				// Asynchronous arguments need their resolvers before the call is registered,
+				// but everything else can be deserialized by the worker
+				PendingArgs pending = new PendingArgs(buf, SerializationSession.snapshot(source));
+				doCall(source, channel, callId, idx, EMPTY_RESOLVER_ARRAY, pending, startTime, 
+						() -> decodeAndRespond(source, channel, callId, m, returnHandler, pending));
+				return;
+			}
+			
 			try {
-				args = serializer.deserializeArgs(buf);
-				resolvers = argsPostProcessor.process(args);
+				args = SessionSerializer.deserializeArgs(serializer, buf, source);
+				resolvers = argsPostProcessor.process(args, source, callId);
 			} catch (Exception e) {
+				limiter.onSample(idx, System.nanoTime() - startTime);
 				LOG.warn("Unable to deserialize the method and arguments for a remote call", e);
 				sendInternalFailureResponse(channel, callId, ARGS_SERIALIZATION_ERROR, e);
 				return;
 			}
 		} catch (Exception e) {
+			if(permitted) {
+				limiter.onDropped();
+			}
 			LOG.warn("An unknown error occurred setting up a remote call for service {}", serviceId, e);
 			sendInternalFailureResponse(channel, callId, UNKNOWN_ERROR, e);
 			return;
 		}
-		doCall(channel, callId, m, returnHandler, args, resolvers);
+		doCall(source, channel, callId, idx, resolvers, null, startTime, 
+				() -> invokeAndRespond(channel, callId, m, args, returnHandler));
+	}
+
+	/**
+	 * @return true if frames read from the channel may use its serialization session
+	 */
+	private static boolean usesSession(Channel source) {
+		SerializationSession session = SerializationSession.find(source);
+		return session != null && session.isEnabled();
 	}
 
-	private void doCall(Channel channel, int callId, Method m, ReturnHandler returnHandler, Object[] args,
-			ArgumentResolver[] resolvers) {
+	private void doCall(Channel source, Channel channel, int callId, int idx, ArgumentResolver[] resolvers, 
+			PendingArgs pending, long startTime, Callable<Future<?>> task) {
 		try {
-			Future<Future<?>> f = worker.submit(() -> invokeAndRespond(channel, callId, m, args, returnHandler));
-			// TODO Use the real timeout
-			Timeout t = timer.newTimeout(x -> timeoutAction(resolvers, f), 30, TimeUnit.SECONDS);
-			RemoteInvocation ri = new RemoteInvocation(resolvers, f, t);
+			Future<Future<?>> f = workerSelector.select(source).submit(task);
+			Timeout t = timer.newTimeout(x -> timeoutAction(resolvers, f), callTimeout, TimeUnit.MILLISECONDS);
+			RemoteInvocation ri = new RemoteInvocation(resolvers, f, t, idx, startTime);
 			synchronized (runningRemoteInvocations) {
 				runningRemoteInvocations.put(callId, ri);
 			}
+			if(pending != null) {
+				// Releases the call data if the call was cancelled before the worker claimed it
+				f.addListener(g -> pending.abandon());
+			}
 			f.addListener(g -> {
+				// The permit covers the time the service spends in the call, not the time 
+				// taken to resolve an asynchronous result, which uses no worker
+				onInvocationReturn(ri);
 				Future<?> gate;
 				if(g.isSuccess()) {
 					gate = (Future<?>) g.getNow();
@@ -415,11 +678,265 @@ public class ServiceInvoker {
 				}
 			});
 		} catch(RejectedExecutionException ree) {
+			if(pending != null) {
+				pending.abandon();
+			}
+			limiter.onDropped();
 			LOG.warn("The RSA distribution provider is overloaded and rejecting calls", ree);
 			sendInternalFailureResponse(channel, callId, SERVER_OVERLOADED, ree);
 		}
 	}
 
+	private Future<?> decodeAndRespond(Channel source, Channel channel, int callId, Method m, 
+			ReturnHandler handler, PendingArgs pending) {
+		ByteBuf buf = pending.claim();
+		if(buf == null) {
+			return completeAction;
+		}
+		
+		Object[] args;
+		pending.session.beginRead();
+		try {
+			args = SessionSerializer.deserializeArgs(serializer, buf, source);
+		} catch (Exception e) {
+			LOG.warn("Unable to deserialize the method and arguments for a remote call", e);
+			sendInternalFailureResponse(channel, callId, ARGS_SERIALIZATION_ERROR, e);
+			return completeAction;
+		} finally {
+			pending.session.endRead();
+			buf.release();
+		}
+		return invokeAndRespond(channel, callId, m, args, handler);
+	}
+
+	/**
+	 * Invoke the service on behalf of every concurrent caller with identical arguments,
+	 * unless another caller is already doing so
+	 */
+	private void singleFlight(Channel source, Channel channel, ByteBuf buf, int callId, int idx, 
+			Method m, long startTime) {
+		byte[] data = ByteBufUtil.getBytes(buf);
+		
+		// Every caller is registered, so that a cancellation or a closing channel
+		// removes it from the flight. The last caller to leave cancels the invocation
+		Promise<Object> waiter = ImmediateEventExecutor.INSTANCE.newPromise();
+		Timeout t = timer.newTimeout(x -> waiter.cancel(true), callTimeout, TimeUnit.MILLISECONDS);
+		RemoteInvocation ri = new RemoteInvocation(EMPTY_RESOLVER_ARRAY, waiter, t, idx, startTime);
+		synchronized (runningRemoteInvocations) {
+			runningRemoteInvocations.put(callId, ri);
+		}
+		waiter.addListener(g -> onCallCompletion(g, callId, ri));
+		
+		// Arguments may refer to the session dictionary of the channel they were read from
+		SingleFlightGroup.Flight flight = flights.join(idx, data, 
+				usesSession(source) ? source : null, channel, callId, waiter);
+		if(flight == null) {
+			// An identical call is already running and will respond to this caller
+			return;
+		}
+		
+		if(!limiter.tryAcquire()) {
+			if(LOG.isDebugEnabled()) {
+				LOG.debug("The service {} has reached its concurrency limit of {} and is rejecting calls", 
+						serviceId, limiter.getLimit());
+			}
+			flight.fail(SERVER_OVERLOADED, "The service has reached its concurrency limit of " + limiter.getLimit());
+			return;
+		}
+		
+		// The call data has already been copied, so the worker can deserialize the copy
+		Snapshot session = SerializationSession.snapshot(source);
+		
+		try {
+			Future<?> f = workerSelector.select(source).submit(() -> {
+					Object[] args;
+					session.beginRead();
+					try {
+						args = SessionSerializer.deserializeArgs(serializer, Unpooled.wrappedBuffer(data), source);
+					} catch (Exception e) {
+						LOG.warn("Unable to deserialize the method and arguments for a remote call", e);
+						flight.fail(ARGS_SERIALIZATION_ERROR, toErrorMessage(e));
+						return;
+					} finally {
+						session.endRead();
+					}
+					try {
+						flight.complete(true, m.invoke(service, args));
+					} catch (InvocationTargetException ite) {
+						if(LOG.isDebugEnabled()) {
+							LOG.debug("The remote call " + m.toGenericString() + 
+								" on object " + service + "failed", ite.getTargetException());
+						}
+						flight.complete(false, ite.getTargetException());
+					} catch (Exception e) {
+						LOG.warn("The remote call " + m.toGenericString() + 
+								" on object " + service + "encountered a serious error", e);
+						flight.complete(false, e);
+					}
+				});
+			flight.running(f);
+			f.addListener(x -> {
+					limiter.onSample(idx, System.nanoTime() - startTime);
+					// Does nothing unless the call was cancelled before it could respond
+					flight.fail(UNKNOWN_ERROR, "The remote call did not complete");
+				});
+		} catch(RejectedExecutionException ree) {
+			limiter.onDropped();
+			LOG.warn("The RSA distribution provider is overloaded and rejecting calls", ree);
+			flight.fail(SERVER_OVERLOADED, toErrorMessage(ree));
+		}
+	}
+
+	/**
+	 * Invoke a batch of calls using a single worker task, sending all of the 
+	 * results back to the caller in a single response
+	 * 
+	 * @param channel the channel on which the batch arrived
+	 * @param buf the batch data
+	 * @param batchId the call id of the batch
+	 */
+	public void batch(Channel channel, ByteBuf buf, int batchId) {
+		long startTime = System.nanoTime();
+		BatchCompleteResponse response;
+		Method[] methods;
+		Object[][] args;
+		ByteBuf[] entries;
+		
+		try {
+			int count = buf.readUnsignedShort();
+			int[] callIds = new int[count];
+			entries = new ByteBuf[count];
+			for(int i = 0; i < count; i++) {
+				callIds[i] = buf.readInt();
+				entries[i] = buf.readSlice(buf.readInt());
+			}
+			
+			response = new BatchCompleteResponse(serviceId, batchId, serializer, callIds);
+			methods = new Method[count];
+			args = new Object[count][];
+			
+			for(int i = 0; i < count; i++) {
+				int idx = entries[i].readUnsignedShort();
+				if(idx >= methodCache.length) {
+					response.complete(i, NO_METHOD, null);
+				} else if (!batchable[idx]) {
+					response.complete(i, FAILURE, new UnsupportedOperationException("The method " + 
+							methodCache[idx].toGenericString() + " cannot be called as part of a batch"));
+				} else {
+					methods[i] = methodCache[idx];
+				}
+			}
+		} catch (Exception e) {
+			LOG.warn("An unknown error occurred setting up a batch of remote calls for service {}", serviceId, e);
+			sendInternalFailureResponse(channel, batchId, UNKNOWN_ERROR, e);
+			return;
+		}
+		
+		if(!limiter.tryAcquire()) {
+			if(LOG.isDebugEnabled()) {
+				LOG.debug("The service {} has reached its concurrency limit of {} and is rejecting calls", 
+						serviceId, limiter.getLimit());
+			}
+			sendInternalFailureResponse(channel, batchId, SERVER_OVERLOADED, new RejectedExecutionException(
+					"The service has reached its concurrency limit of " + limiter.getLimit()));
+			return;
+		}
+		
+		// The entries are slices of the batch data, which stays retained until a worker decodes them
+		PendingArgs pending = new PendingArgs(buf, SerializationSession.snapshot(channel));
+		
+		try {
+			Future<?> f = workerSelector.select(channel).submit(() -> {
+					ByteBuf data = pending.claim();
+					if(data == null) {
+						return;
+					}
+					pending.session.beginRead();
+					try {
+						decodeBatch(channel, response, methods, args, entries);
+					} finally {
+						pending.session.endRead();
+						data.release();
+					}
+					invokeBatch(channel, response, methods, args);
+				});
+			Timeout t = timer.newTimeout(x -> timeoutAction(EMPTY_RESOLVER_ARRAY, f), callTimeout, 
+					TimeUnit.MILLISECONDS);
+			// Batches are sampled separately from the individual methods
+			RemoteInvocation ri = new RemoteInvocation(EMPTY_RESOLVER_ARRAY, f, t, methodCache.length, startTime);
+			synchronized (runningRemoteInvocations) {
+				runningRemoteInvocations.put(batchId, ri);
+				// Individual calls may be cancelled by the client using their own call ids
+				for(int i = 0; i < response.size(); i++) {
+					runningBatchedCalls.put(response.getCallId(i), response);
+				}
+			}
+			f.addListener(g -> pending.abandon());
+			f.addListener(g -> {
+					synchronized (runningRemoteInvocations) {
+						for(int i = 0; i < response.size(); i++) {
+							runningBatchedCalls.remove(response.getCallId(i), response);
+						}
+					}
+					onInvocationReturn(ri);
+					onCallCompletion(g, batchId, ri);
+				});
+		} catch(RejectedExecutionException ree) {
+			pending.abandon();
+			limiter.onDropped();
+			LOG.warn("The RSA distribution provider is overloaded and rejecting calls", ree);
+			sendInternalFailureResponse(channel, batchId, SERVER_OVERLOADED, ree);
+		}
+	}
+
+	private void decodeBatch(Channel channel, BatchCompleteResponse response, Method[] methods, 
+			Object[][] args, ByteBuf[] entries) {
+		for(int i = 0; i < methods.length; i++) {
+			if(methods[i] == null) {
+				continue;
+			}
+			try {
+				args[i] = SessionSerializer.deserializeArgs(serializer, entries[i], channel);
+			} catch (Exception e) {
+				LOG.warn("Unable to deserialize the method and arguments for a batched remote call", e);
+				methods[i] = null;
+				response.complete(i, ARGS_SERIALIZATION_ERROR, toErrorMessage(e));
+			}
+		}
+	}
+
+	private void invokeBatch(Channel channel, BatchCompleteResponse response, Method[] methods, Object[][] args) {
+		for(int i = 0; i < methods.length; i++) {
+			Method m = methods[i];
+			if(m == null) {
+				continue;
+			}
+			if(response.isCancelled(i)) {
+				// The client has already given up on this call, so it is not invoked
+				response.complete(i, FAILURE, new CancellationException("The call was cancelled"));
+				continue;
+			}
+			try {
+				response.complete(i, SUCCESS, m.invoke(service, args[i]));
+			} catch (InvocationTargetException ite) {
+				if(LOG.isDebugEnabled()) {
+					LOG.debug("The remote call " + m.toGenericString() + 
+						" on object " + service + "failed", ite.getTargetException());
+				}
+				response.complete(i, FAILURE, ite.getTargetException());
+			} catch (Exception e) {
+				LOG.warn("The remote call " + m.toGenericString() + 
+						" on object " + service + "encountered a serious error", e);
+				response.complete(i, FAILURE, e);
+			}
+		}
+		channel.writeAndFlush(response, channel.voidPromise());
+	}
+
+	private void onInvocationReturn(RemoteInvocation ri) {
+		limiter.onSample(ri.methodIndex, System.nanoTime() - ri.startTime);
+	}
+
 	private void onCallCompletion(Future<?> completedFuture, int callId, RemoteInvocation ri) {
 		ri.timeout.cancel();
 		synchronized (runningRemoteInvocations) {
@@ -446,7 +963,7 @@ public class ServiceInvoker {
 		if(resolvers != null) {
 			for(ArgumentResolver ar : resolvers) {
 				if(ar != null) {
-					ar.resolve(false, exception);
+					ar.abandon(exception);
 				}
 			}
 		}
@@ -478,11 +995,29 @@ public class ServiceInvoker {
 		return toReturn;
 	}
 
+	/**
+	 * @return the limiter controlling how many calls to this service may run concurrently
+	 */
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * @return the number of responses from this service which did not fit in their
+	 * predicted buffer size, and so had to be copied into a larger buffer
+	 */
+	public long getResponseBufferReallocations() {
+		return Arrays.stream(returnHandlers)
+				.mapToLong(ReturnHandler::getBufferReallocations)
+				.sum();
+	}
+
 	public void close(Channel channel) {
 		List<RemoteInvocation> runningTasks;
 		synchronized (runningRemoteInvocations) {
 			runningTasks = new ArrayList<>(runningRemoteInvocations.values());
 			runningRemoteInvocations.clear();
+			runningBatchedCalls.clear();
 		}
 		ServiceException exception = new ServiceException(
 				"The remote communications channel is closing",
@@ -495,8 +1030,10 @@ public class ServiceInvoker {
 
 	public void cancel(int callId, boolean readBoolean) {
 		RemoteInvocation ri;
+		BatchCompleteResponse batch;
 		synchronized (runningRemoteInvocations) {
 			ri = runningRemoteInvocations.get(callId);
+			batch = runningBatchedCalls.get(callId);
 		}
 		
 		if(ri != null) {
@@ -504,6 +1041,9 @@ public class ServiceInvoker {
 			failAsyncArgs(ri.resolvers, new ServiceException(
 					"The asynchronous argument was not resolved before the remote call was cancelled",
 					ServiceException.REMOTE, new CancellationException()));
+		} else if (batch != null) {
+			// Only this call is cancelled, the rest of the batch still runs
+			batch.cancel(callId);
 		}
 	}
 	
@@ -525,8 +1065,13 @@ public class ServiceInvoker {
 							ServiceException.REMOTE, aioobe);
 				}
 				
+				if(command == Protocol_V2.ASYNC_METHOD_PARAM_CLOSE) {
+					resolver.close();
+					return;
+				}
+				
 				try {
-					value = serializer.deserializeReturn(buf);
+					value = SessionSerializer.deserializeReturn(serializer, buf, channel);
 				} catch (Exception e) {
 					LOG.warn("Unable to deserialize the asynchronous value for a remote call", e);
 					throw new ServiceException("Unable to deserialize the asynchronous value for argument " + idx, 
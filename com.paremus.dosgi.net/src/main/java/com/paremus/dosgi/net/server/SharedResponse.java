@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import java.util.UUID;
+
+import com.paremus.dosgi.net.message.AbstractRSAMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * A response whose body has already been serialized, and which may be shared
+ * with other responses. The body is released once it has been written, or 
+ * by Netty if the response cannot be written.
+ */
+class SharedResponse extends AbstractRSAMessage<ServerMessageType> implements ReferenceCounted {
+
+	private final ByteBuf body;
+	
+	public SharedResponse(ServerMessageType type, UUID serviceId, int callId, ByteBuf body) {
+		super(type, serviceId, callId);
+		this.body = body;
+	}
+
+	@Override
+	public void write(ByteBuf buffer, ChannelPromise promise) {
+		try {
+			writeHeader(buffer);
+			buffer.writeBytes(body, body.readerIndex(), body.readableBytes());
+			writeLength(buffer);
+		} finally {
+			body.release();
+		}
+	}
+
+	@Override
+	public int refCnt() {
+		return body.refCnt();
+	}
+
+	@Override
+	public ReferenceCounted retain() {
+		body.retain();
+		return this;
+	}
+
+	@Override
+	public ReferenceCounted retain(int increment) {
+		body.retain(increment);
+		return this;
+	}
+
+	@Override
+	public ReferenceCounted touch() {
+		body.touch();
+		return this;
+	}
+
+	@Override
+	public ReferenceCounted touch(Object hint) {
+		body.touch(hint);
+		return this;
+	}
+
+	@Override
+	public boolean release() {
+		return body.release();
+	}
+
+	@Override
+	public boolean release(int decrement) {
+		return body.release(decrement);
+	}
+}
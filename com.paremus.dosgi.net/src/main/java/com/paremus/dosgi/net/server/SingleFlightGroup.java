@@ -0,0 +1,260 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import static com.paremus.dosgi.net.server.ServerMessageType.FAILURE;
+import static com.paremus.dosgi.net.server.ServerMessageType.FAILURE_SERIALIZATION_ERROR;
+import static com.paremus.dosgi.net.server.ServerMessageType.RETURN_SERIALIZATION_ERROR;
+import static com.paremus.dosgi.net.server.ServerMessageType.SUCCESS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * Coalesces concurrent calls to the same method with byte-identical serialized
+ * arguments, so that they share a single invocation of the service and a single
+ * serialized response.
+ */
+class SingleFlightGroup {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SingleFlightGroup.class);
+
+	private static final class Key {
+		private final int methodIndex;
+		private final byte[] args;
+		private final Channel session;
+		private final int hash;
+		
+		Key(int methodIndex, byte[] args, Channel session) {
+			this.methodIndex = methodIndex;
+			this.args = args;
+			this.session = session;
+			this.hash = 31 * (31 * methodIndex + Arrays.hashCode(args)) + Objects.hashCode(session);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return methodIndex == other.methodIndex && hash == other.hash && 
+					session == other.session && Arrays.equals(args, other.args);
+		}
+	}
+	
+	private static final class Caller {
+		private final Channel channel;
+		private final int callId;
+		private final Promise<?> waiter;
+
+		Caller(Channel channel, int callId, Promise<?> waiter) {
+			this.channel = channel;
+			this.callId = callId;
+			this.waiter = waiter;
+		}
+	}
+	
+	/**
+	 * A single invocation shared by one or more callers
+	 */
+	final class Flight {
+		private final Key key;
+		private final List<Caller> callers = new ArrayList<>();
+		
+		/** Guarded by flights */
+		private Future<?> task;
+		/** Guarded by flights */
+		private boolean abandoned;
+		
+		private Flight(Key key) {
+			this.key = key;
+		}
+
+		/**
+		 * Record the task running the invocation, so that it can be cancelled
+		 * if every caller goes away
+		 * 
+		 * @param task the running task
+		 */
+		void running(Future<?> task) {
+			boolean cancel;
+			synchronized (flights) {
+				this.task = task;
+				cancel = abandoned;
+			}
+			if(cancel) {
+				task.cancel(true);
+			}
+		}
+
+		/**
+		 * Send the result to all of the callers
+		 * 
+		 * @param successful true if the value is a return value, false if it is a failure 
+		 * @param value the value to send
+		 */
+		void complete(boolean successful, Object value) {
+			List<Caller> toNotify = land(this);
+			if(toNotify == null) {
+				return;
+			}
+			
+			ByteBuf body = toNotify.get(0).channel.alloc().ioBuffer();
+			try {
+				serializer.serializeReturn(body, value);
+			} catch (Exception e) {
+				body.release();
+				LOG.warn("Unable to serialize the shared response from service {}", serviceId, e);
+				sendError(toNotify, successful ? RETURN_SERIALIZATION_ERROR : FAILURE_SERIALIZATION_ERROR, 
+						String.valueOf(e.getMessage()));
+				return;
+			}
+			
+			try {
+				ServerMessageType type = successful ? SUCCESS : FAILURE;
+				for(Caller c : toNotify) {
+					c.channel.writeAndFlush(new SharedResponse(type, serviceId, c.callId, 
+							body.retainedDuplicate()), c.channel.voidPromise());
+				}
+			} finally {
+				body.release();
+				release(toNotify);
+			}
+		}
+
+		/**
+		 * Send an error to all of the callers, unless the flight has already completed
+		 * 
+		 * @param type the error type
+		 * @param message the error message
+		 */
+		void fail(ServerMessageType type, String message) {
+			List<Caller> toNotify = land(this);
+			if(toNotify != null) {
+				sendError(toNotify, type, message);
+				release(toNotify);
+			}
+		}
+	}
+	
+	private final UUID serviceId;
+	
+	private final Serializer serializer;
+	
+	private final Map<Key, Flight> flights = new HashMap<>();
+
+	SingleFlightGroup(UUID serviceId, Serializer serializer) {
+		this.serviceId = serviceId;
+		this.serializer = serializer;
+	}
+	
+	/**
+	 * Join a flight for the supplied call
+	 * 
+	 * @param methodIndex the method being called
+	 * @param args the serialized arguments
+	 * @param session the channel whose serialization session the arguments were written
+	 * with, or <code>null</code> if they do not depend on a session. Arguments written 
+	 * with a session only match other calls from the same channel
+	 * @param channel the channel on which to respond
+	 * @param callId the call id for the response
+	 * @param waiter completed once this caller has been sent a response. Cancelling it 
+	 * removes the caller from the flight, and the last caller to leave cancels the invocation
+	 * @return A new flight which the caller must run, or <code>null</code> if
+	 * an identical call is already running and will respond to this caller
+	 */
+	Flight join(int methodIndex, byte[] args, Channel session, Channel channel, int callId, Promise<?> waiter) {
+		Key key = new Key(methodIndex, args, session);
+		Caller caller = new Caller(channel, callId, waiter);
+		Flight flight;
+		boolean leader;
+		synchronized (flights) {
+			flight = flights.get(key);
+			leader = flight == null;
+			if(leader) {
+				flight = new Flight(key);
+				flights.put(key, flight);
+			}
+			flight.callers.add(caller);
+		}
+		Flight joined = flight;
+		waiter.addListener(f -> {
+				if(f.isCancelled()) {
+					leave(joined, caller);
+				}
+			});
+		return leader ? flight : null;
+	}
+	
+	private void leave(Flight flight, Caller caller) {
+		Future<?> toCancel = null;
+		synchronized (flights) {
+			// Once the flight has landed its callers are being sent the response
+			if(flights.get(flight.key) != flight) {
+				return;
+			}
+			flight.callers.remove(caller);
+			if(flight.callers.isEmpty()) {
+				flights.remove(flight.key);
+				flight.abandoned = true;
+				toCancel = flight.task;
+			}
+		}
+		if(toCancel != null) {
+			toCancel.cancel(true);
+		}
+	}
+	
+	private List<Caller> land(Flight flight) {
+		synchronized (flights) {
+			return flights.remove(flight.key, flight) ? flight.callers : null;
+		}
+	}
+	
+	private void release(List<Caller> callers) {
+		for(Caller c : callers) {
+			c.waiter.trySuccess(null);
+		}
+	}
+	
+	private void sendError(List<Caller> toNotify, ServerMessageType type, String message) {
+		for(Caller c : toNotify) {
+			c.channel.writeAndFlush(new ServerErrorMessageResponse(type, serviceId, c.callId, message), 
+					c.channel.voidPromise());
+		}
+	}
+}
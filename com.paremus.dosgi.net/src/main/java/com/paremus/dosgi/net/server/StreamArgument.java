@@ -0,0 +1,208 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import org.osgi.framework.ServiceException;
+
+import com.paremus.dosgi.net.pushstream.StreamCreditWindow;
+import com.paremus.dosgi.net.server.ServiceInvoker.ArgumentResolver;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+
+/**
+ * A <code>PushStream</code> or <code>PushEventSource</code> method argument whose 
+ * events are streamed from the client while the remote call runs.
+ * <p>
+ * The client sends nothing until the service connects to the argument. After that
+ * the client sends data events using credit based flow control, and credit is only 
+ * returned once the service has consumed an event, so a slow consumer limits the 
+ * number of events in flight. The argument may only be consumed once. It ends when 
+ * the client closes or fails it, when the consumer closes it, or when the remote 
+ * call completes.
+ */
+class StreamArgument implements ArgumentResolver {
+
+	/** The number of events that the client may have in flight */
+	static final int DEFAULT_WINDOW = 256;
+	
+	private final UUID serviceId;
+	private final int callId;
+	private final int index;
+	private final Channel channel;
+	private final int window;
+	private final Runnable onEnd;
+	
+	/** Guarded by this, set when the consumer connects */
+	private EventExecutor worker;
+	/** Guarded by this */
+	private ToLongFunction<Object> pushData;
+	/** Guarded by this */
+	private Consumer<Exception> pushClose;
+	/** Guarded by this */
+	private StreamCreditWindow creditWindow;
+	/** Guarded by this, set once a terminal event has been received */
+	private boolean ended;
+	/** Guarded by this */
+	private Exception terminal;
+	
+	/** Set when the consumer stops accepting events */
+	private volatile boolean consumerClosed;
+
+	/**
+	 * @param serviceId the remote service
+	 * @param callId the remote call which the argument belongs to
+	 * @param index the index of the argument
+	 * @param channel the channel used to send credit to the client
+	 * @param window the number of events that the client may have in flight
+	 * @param onEnd called once the argument has ended
+	 */
+	public StreamArgument(UUID serviceId, int callId, int index, Channel channel, int window, 
+			Runnable onEnd) {
+		this.serviceId = serviceId;
+		this.callId = callId;
+		this.index = index;
+		this.channel = channel;
+		this.window = window;
+		this.onEnd = onEnd;
+	}
+
+	/**
+	 * Connect the consumer of this argument and ask the client to start sending events
+	 */
+	public void connect(EventExecutor executor, Future<?> closeFuture, ToLongFunction<Object> pushData, 
+			Consumer<Exception> pushClose) {
+		Exception failure;
+		synchronized (this) {
+			if(this.pushData != null) {
+				failure = new IllegalStateException("The streamed argument " + index + 
+						" has already been consumed and cannot be opened again");
+			} else {
+				this.worker = executor;
+				this.pushData = pushData;
+				this.pushClose = pushClose;
+				if(!ended) {
+					creditWindow = new StreamCreditWindow(channel, window, this::toCreditMessage);
+					closeFuture.addListener(f -> consumerClosed());
+					channel.writeAndFlush(toCreditMessage(window), channel.voidPromise());
+					return;
+				}
+				// The argument ended before the consumer connected
+				failure = terminal;
+			}
+		}
+		executor.execute(() -> pushClose.accept(failure));
+	}
+
+	private ServerAsyncArgumentCredit toCreditMessage(int credit) {
+		return new ServerAsyncArgumentCredit(serviceId, callId, index, credit);
+	}
+
+	@Override
+	public void resolve(boolean success, Object value) {
+		if(success) {
+			data(value);
+		} else if (value instanceof Exception) {
+			terminal((Exception) value, false);
+		} else {
+			terminal(new ServiceException("The streamed argument " + index + " failed", 
+					ServiceException.REMOTE, (Throwable) value), false);
+		}
+	}
+
+	@Override
+	public void close() {
+		terminal(null, false);
+	}
+
+	@Override
+	public void abandon(Exception e) {
+		terminal(e, true);
+	}
+
+	private void data(Object value) {
+		EventExecutor worker;
+		ToLongFunction<Object> pushData;
+		StreamCreditWindow creditWindow;
+		synchronized (this) {
+			if(ended || this.pushData == null) {
+				// The client must not send data before it is granted credit
+				return;
+			}
+			worker = this.worker;
+			pushData = this.pushData;
+			creditWindow = this.creditWindow;
+		}
+		// Events are delivered by a single worker, so they stay in order
+		worker.execute(() -> {
+				if(consumerClosed) {
+					return;
+				}
+				long bp = pushData.applyAsLong(value);
+				if(bp < 0) {
+					consumerClosed();
+				} else {
+					creditWindow.processed(bp);
+				}
+			});
+	}
+
+	/**
+	 * @param failure the failure, or <code>null</code> if the stream closed normally
+	 * @param stopClient true if the client has not ended the stream, and must stop sending
+	 */
+	private void terminal(Exception failure, boolean stopClient) {
+		EventExecutor worker;
+		Consumer<Exception> pushClose;
+		synchronized (this) {
+			if(ended) {
+				return;
+			}
+			ended = true;
+			terminal = failure;
+			worker = this.worker;
+			pushClose = this.pushClose;
+		}
+		onEnd.run();
+		if(stopClient) {
+			channel.writeAndFlush(toCreditMessage(-1), channel.voidPromise());
+		}
+		if(worker != null) {
+			worker.execute(() -> {
+					if(!consumerClosed) {
+						consumerClosed = true;
+						pushClose.accept(failure);
+					}
+				});
+		}
+	}
+	
+	private void consumerClosed() {
+		consumerClosed = true;
+		synchronized (this) {
+			if(ended) {
+				return;
+			}
+			ended = true;
+		}
+		onEnd.run();
+		channel.writeAndFlush(toCreditMessage(-1), channel.voidPromise());
+	}
+}
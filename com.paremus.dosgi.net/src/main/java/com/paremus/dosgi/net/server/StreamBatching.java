@@ -0,0 +1,73 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+/**
+ * Controls whether the data events of a streamed response are sent as batches.
+ * A batch is sent once it holds the maximum number of events or bytes, or once 
+ * its first event has waited for the linger time, whichever happens first.
+ * <p>
+ * Batched data frames are only understood by clients that support the
+ * {@link com.paremus.dosgi.net.wireformat.Protocol_V2#SERVER_DATA_BATCH_EVENT} 
+ * message, so batching is disabled unless it is explicitly configured.
+ */
+public class StreamBatching {
+
+	private static final StreamBatching DISABLED = new StreamBatching(1, Integer.MAX_VALUE, 0);
+	
+	private final int maxEvents;
+	private final int maxBytes;
+	private final long lingerMillis;
+
+	/**
+	 * @param maxEvents The largest number of events sent in one batch. A value of
+	 * one disables batching.
+	 * @param maxBytes The serialized size at which a batch is sent
+	 * @param lingerMillis How long an event may wait for a batch to fill
+	 */
+	public StreamBatching(int maxEvents, int maxBytes, long lingerMillis) {
+		if(maxEvents < 1 || maxEvents > 0xFFFF) {
+			throw new IllegalArgumentException("The maximum number of events in a batch must be between 1 and 65535, not " 
+					+ maxEvents);
+		}
+		if(maxEvents > 1 && (maxBytes < 1 || lingerMillis < 1)) {
+			throw new IllegalArgumentException("The batch size " + maxBytes + " and linger time " + lingerMillis + 
+					" must both be positive");
+		}
+		this.maxEvents = maxEvents;
+		this.maxBytes = maxBytes;
+		this.lingerMillis = lingerMillis;
+	}
+	
+	public static StreamBatching disabled() {
+		return DISABLED;
+	}
+	
+	public boolean isEnabled() {
+		return maxEvents > 1;
+	}
+
+	public int getMaxEvents() {
+		return maxEvents;
+	}
+
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getLingerMillis() {
+		return lingerMillis;
+	}
+}
@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import static com.paremus.dosgi.net.server.ServerMessageType.STREAM_DATA_BATCH;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+import com.paremus.dosgi.net.server.StreamScheduler.StreamQueue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Collects the data events for one streamed response into batched data frames.
+ * <p>
+ * Events are serialized as they arrive, so that the size of the batch is known. 
+ * The batch is queued while holding the lock, which keeps batches in order 
+ * however the flushes are triggered.
+ */
+class StreamDataBatcher {
+
+	private final UUID serviceId;
+	private final int callId;
+	private final Serializer serializer;
+	private final Channel channel;
+	private final StreamBatching batching;
+	private final StreamQueue queue;
+	
+	/** Guarded by this */
+	private ByteBuf pending;
+	/** Guarded by this */
+	private int count;
+	/** Guarded by this */
+	private ScheduledFuture<?> linger;
+
+	public StreamDataBatcher(UUID serviceId, int callId, Serializer serializer, Channel channel, 
+			StreamBatching batching, StreamQueue queue) {
+		this.serviceId = serviceId;
+		this.callId = callId;
+		this.serializer = serializer;
+		this.channel = channel;
+		this.batching = batching;
+		this.queue = queue;
+	}
+
+	/**
+	 * Add an event to the current batch, sending the batch if it is full
+	 * 
+	 * @param data the event data
+	 * @throws IOException if the data cannot be serialized, in which case the
+	 * batch is unchanged
+	 */
+	public synchronized void add(Object data) throws IOException {
+		if(pending == null) {
+			pending = channel.alloc().ioBuffer();
+			// The event count is set when the batch is sent
+			pending.writeShort(0);
+		}
+		
+		int start = pending.writerIndex();
+		pending.writeInt(0);
+		try {
+			serializer.serializeReturn(pending, data);
+		} catch (IOException | RuntimeException e) {
+			pending.writerIndex(start);
+			throw e;
+		}
+		pending.setInt(start, pending.writerIndex() - start - 4);
+		count++;
+		
+		if(count >= batching.getMaxEvents() || pending.readableBytes() >= batching.getMaxBytes()) {
+			flush();
+		} else if(linger == null) {
+			try {
+				linger = channel.eventLoop().schedule(this::flush, batching.getLingerMillis(), MILLISECONDS);
+			} catch (RejectedExecutionException ree) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Send any events in the current batch
+	 */
+	public synchronized void flush() {
+		if(linger != null) {
+			linger.cancel(false);
+			linger = null;
+		}
+		if(pending == null) {
+			return;
+		}
+		
+		ByteBuf body = pending.setShort(0, count);
+		pending = null;
+		count = 0;
+		
+		queue.data(new SharedResponse(STREAM_DATA_BATCH, serviceId, callId, body), 
+				body.readableBytes());
+	}
+}
@@ -14,62 +14,123 @@
  */
 package com.paremus.dosgi.net.server;
 
+import static com.paremus.dosgi.net.server.ServerMessageType.STREAM_DATA;
+
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 import org.osgi.framework.ServiceException;
 
+import com.paremus.dosgi.net.message.BufferSizePredictor;
 import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStreamFactory;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.pushstream.StreamCredit;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+import com.paremus.dosgi.net.server.StreamScheduler.StreamQueue;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
 
 class StreamReturnHandler extends BasicReturnHandler {
 	
-	private final AtomicInteger notWritableFor = new AtomicInteger(0);
-	
 	private final RemotingProvider remotingProvider;
 	
 	private final DataStreamFactory streamConnector;
 	
+	private final BufferSizePredictor dataSizes = new BufferSizePredictor();
+	
+	private final StreamBatching batching;
+	
+	private final int maxHeldForCredit;
+	
 	public StreamReturnHandler(UUID serviceId, Serializer serializer, Future<?> completeFuture,
 			RemotingProvider remotingProvider, DataStreamFactory streamConnector) {
+		this(serviceId, serializer, completeFuture, remotingProvider, streamConnector, 
+				StreamBatching.disabled(), StreamCredit.DEFAULT_MAX_HELD);
+	}
+	
+	public StreamReturnHandler(UUID serviceId, Serializer serializer, Future<?> completeFuture,
+			RemotingProvider remotingProvider, DataStreamFactory streamConnector, StreamBatching batching,
+			int maxHeldForCredit) {
 		super(serviceId, serializer, completeFuture);
 		this.remotingProvider = remotingProvider;
 		this.streamConnector = streamConnector;
+		this.batching = batching;
+		this.maxHeldForCredit = maxHeldForCredit;
 	}
 
 	@Override
 	public Future<?> success(Channel channel, int callId, Object returnValue) {
 		
-		ServerStreamDataResponse template = new ServerStreamDataResponse(
-				serviceId, callId, serializer, null);
+		GenericFutureListener<Future<? super Void>> onWrite = f -> {
+				if(!f.isSuccess()) {
+					channel.writeAndFlush(new ServerStreamErrorResponse(serviceId, callId, serializer, 
+							new ServiceException("Failed to send data", ServiceException.REMOTE, f.cause())),
+							channel.voidPromise());
+					((AutoCloseable) returnValue).close();
+				}
+			};
+		
+		// Each stream queues its own messages so that it gets a fair share of the channel
+		StreamQueue queue = StreamScheduler.get(channel).newQueue(onWrite);
+		
+		ToLongFunction<Object> onData;
+		Runnable beforeTerminal;
+		if(batching.isEnabled()) {
+			StreamDataBatcher batcher = new StreamDataBatcher(serviceId, callId, serializer, 
+					channel, batching, queue);
+			onData = data -> {
+				try {
+					batcher.add(data);
+				} catch (Exception e) {
+					// Send the events before the one that failed, and then end the stream
+					batcher.flush();
+					serializationFailure(queue, callId, e);
+					return -1;
+				}
+				return queue.backPressure();
+			};
+			beforeTerminal = batcher::flush;
+		} else {
+			onData = data -> {
+				// Serialized here, rather than by the event loop, so that the queued bytes are known
+				ByteBuf body = channel.alloc().ioBuffer(dataSizes.nextSize());
+				int initialCapacity = body.capacity();
+				try {
+					serializer.serializeReturn(body, data);
+				} catch (Exception e) {
+					body.release();
+					serializationFailure(queue, callId, e);
+					return -1;
+				}
+				dataSizes.record(initialCapacity, body.readableBytes());
+				return queue.data(new SharedResponse(STREAM_DATA, serviceId, callId, body), 
+						body.readableBytes());
+			};
+			beforeTerminal = () -> {};
+		}
+		
+		Consumer<Throwable> onTerminal = error -> {
+				beforeTerminal.run();
+				queue.terminal(error == null ? new ServerStreamCloseResponse(serviceId, callId) :
+					new ServerStreamErrorResponse(serviceId, callId, serializer, error));
+			};
 		
 		remotingProvider.registerStream(channel, serviceId, callId, 
-				streamConnector.apply(data -> {
-					channel.writeAndFlush(template.fromTemplate(data))
-						.addListener(f -> {
-								if(!f.isSuccess()) {
-									channel.writeAndFlush(new ServerStreamErrorResponse(serviceId, callId, serializer, 
-											new ServiceException("Failed to send data", ServiceException.REMOTE, f.cause())),
-											channel.voidPromise());
-									((AutoCloseable) returnValue).close();
-								}
-							});
-					return channelBackPressure(channel);
-				}, error -> {
-					channel.writeAndFlush(error == null ? new ServerStreamCloseResponse(serviceId, callId) :
-						new ServerStreamErrorResponse(serviceId, callId, serializer, error), channel.voidPromise());
-				}, returnValue));
+				new StreamCredit(onData, onTerminal, maxHeldForCredit, 
+						(d, t) -> streamConnector.apply(d, t, returnValue)));
 		return super.success(channel, callId, new Object[] {serviceId, callId});
 	}
 	
-	private long channelBackPressure(Channel channel) {
-		if(channel.isOpen()) {
-			int notWritableCount = notWritableFor.getAndUpdate(old -> channel.isWritable() ? 0 : old++);
-			return notWritableCount > 64 ? -1 : (1 << Math.min(notWritableCount / 2, 10)) - 1;
-		}
-		return -1;
+	@Override
+	public long getBufferReallocations() {
+		return super.getBufferReallocations() + dataSizes.getReallocations();
+	}
+	
+	private void serializationFailure(StreamQueue queue, int callId, Exception e) {
+		queue.terminal(new ServerStreamErrorResponse(serviceId, callId, serializer, 
+				new ServiceException("Failed to serialize data", ServiceException.REMOTE, e)));
 	}
 }
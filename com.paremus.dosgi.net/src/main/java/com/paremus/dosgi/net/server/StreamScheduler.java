@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+/**
+ * Shares the outbound capacity of a channel fairly between the streamed responses 
+ * which use it.
+ * <p>
+ * Each stream queues its messages in its own {@link StreamQueue}. The queues are 
+ * served in turn by the event loop, one message from each queue with work, for as 
+ * long as the channel is writable. Once the channel becomes writable again the
+ * next queue in turn continues, so a stream which produces data quickly cannot
+ * starve the other streams on the same connection.
+ * <p>
+ * The back pressure for a stream is based on the bytes waiting in its own queue, 
+ * measured against the write buffer high water mark of the channel. 
+ */
+class StreamScheduler {
+
+	private static final AttributeKey<StreamScheduler> SCHEDULER = 
+			AttributeKey.valueOf(StreamScheduler.class.getName());
+	
+	/** 
+	 * The multiple of the high water mark which a stream may queue before it is failed
+	 */
+	private static final int MAX_QUEUED_MULTIPLE = 64;
+	
+	private final Channel channel;
+	
+	/** Only accessed from the event loop */
+	private final ArrayDeque<StreamQueue> ready = new ArrayDeque<>();
+	
+	StreamScheduler(Channel channel) {
+		this.channel = channel;
+	}
+	
+	/**
+	 * @param channel the channel
+	 * @return The scheduler for the supplied channel, created if necessary
+	 */
+	public static StreamScheduler get(Channel channel) {
+		Attribute<StreamScheduler> attr = channel.attr(SCHEDULER);
+		StreamScheduler scheduler = attr.get();
+		if(scheduler == null) {
+			scheduler = new StreamScheduler(channel);
+			StreamScheduler existing = attr.setIfAbsent(scheduler);
+			if(existing != null) {
+				scheduler = existing;
+			} else {
+				StreamScheduler toClose = scheduler;
+				channel.closeFuture().addListener(f -> toClose.drain());
+			}
+		}
+		return scheduler;
+	}
+
+	/**
+	 * @param channel the channel
+	 * @return The scheduler for the supplied channel, or <code>null</code> if
+	 * no streams have used the channel
+	 */
+	public static StreamScheduler find(Channel channel) {
+		return channel.hasAttr(SCHEDULER) ? channel.attr(SCHEDULER).get() : null;
+	}
+	
+	/**
+	 * Create a queue for a new stream
+	 * 
+	 * @param onWrite a listener to add to the writes of data messages
+	 * @return the queue
+	 */
+	public StreamQueue newQueue(GenericFutureListener<Future<? super Void>> onWrite) {
+		return new StreamQueue(onWrite);
+	}
+	
+	/**
+	 * Write queued messages, taking one from each queue in turn, until the 
+	 * channel is no longer writable or there is nothing left to write. Messages
+	 * which can never be written are released.
+	 * <p>
+	 * Must be called from the event loop
+	 */
+	void drain() {
+		if(!channel.isActive()) {
+			StreamQueue queue;
+			while((queue = ready.poll()) != null) {
+				queue.discard();
+			}
+			return;
+		}
+		
+		boolean written = false;
+		StreamQueue queue;
+		while(channel.isWritable() && (queue = ready.poll()) != null) {
+			written |= queue.writeNext();
+			if(queue.hasNext()) {
+				ready.add(queue);
+			}
+		}
+		if(written) {
+			channel.flush();
+		}
+	}
+	
+	/**
+	 * The outbound messages for one streamed response
+	 */
+	class StreamQueue {
+		
+		private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+		
+		private final AtomicLong queuedBytes = new AtomicLong();
+		
+		/** True while this queue is waiting to be served by the event loop */
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		
+		private final GenericFutureListener<Future<? super Void>> onWrite;
+
+		StreamQueue(GenericFutureListener<Future<? super Void>> onWrite) {
+			this.onWrite = onWrite;
+		}
+		
+		/**
+		 * Queue a data message
+		 * 
+		 * @param message the message
+		 * @param size the number of bytes that the message will write
+		 * @return the back pressure for this stream
+		 */
+		public long data(Object message, int size) {
+			queuedBytes.addAndGet(size);
+			enqueue(new Entry(message, size, true));
+			return backPressure();
+		}
+		
+		/**
+		 * Queue a terminal message, which is sent after any data already queued
+		 * 
+		 * @param message the message
+		 */
+		public void terminal(Object message) {
+			enqueue(new Entry(message, 0, false));
+		}
+		
+		/**
+		 * @return the back pressure in milliseconds, or -1 if so much data is 
+		 * queued that the stream should be ended
+		 */
+		public long backPressure() {
+			if(!channel.isOpen()) {
+				return -1;
+			}
+			long queued = queuedBytes.get();
+			long highWaterMark = Math.max(1, channel.config().getWriteBufferHighWaterMark());
+			if(queued > MAX_QUEUED_MULTIPLE * highWaterMark) {
+				return -1;
+			}
+			return (1L << Math.min(queued / highWaterMark, 10)) - 1;
+		}
+		
+		private void enqueue(Entry entry) {
+			entries.add(entry);
+			if(scheduled.compareAndSet(false, true)) {
+				if(channel.eventLoop().inEventLoop()) {
+					schedule();
+				} else {
+					try {
+						channel.eventLoop().execute(this::schedule);
+					} catch (RejectedExecutionException ree) {
+						discard();
+					}
+				}
+			}
+		}
+		
+		private void schedule() {
+			ready.add(this);
+			drain();
+		}
+		
+		private boolean writeNext() {
+			Entry entry = entries.poll();
+			if(entry == null) {
+				return false;
+			}
+			queuedBytes.addAndGet(-entry.size);
+			if(entry.data) {
+				channel.write(entry.message).addListener(onWrite);
+			} else {
+				channel.write(entry.message, channel.voidPromise());
+			}
+			return true;
+		}
+		
+		/**
+		 * @return true if this queue is still waiting to be served
+		 */
+		private boolean hasNext() {
+			if(!entries.isEmpty()) {
+				return true;
+			}
+			scheduled.set(false);
+			// An entry may have been added before the flag was cleared
+			return !entries.isEmpty() && scheduled.compareAndSet(false, true);
+		}
+		
+		private void discard() {
+			scheduled.set(false);
+			Entry entry;
+			while((entry = entries.poll()) != null) {
+				queuedBytes.addAndGet(-entry.size);
+				ReferenceCountUtil.release(entry.message);
+			}
+		}
+	}
+	
+	private static class Entry {
+		final Object message;
+		final int size;
+		final boolean data;
+		
+		Entry(Object message, int size, boolean data) {
+			this.message = message;
+			this.size = size;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+/**
+ * Controls how the remote calls for an exported service are assigned to
+ * worker threads
+ */
+public enum WorkerScheduling {
+	/** 
+	 * Calls are spread across all of the workers in turn. This is the default.
+	 */
+	SHARED, 
+	/** 
+	 * Calls from a given connection to a given service prefer the same worker,
+	 * improving cache locality. If that worker is busy then the call is 
+	 * given to a less loaded worker instead. This must be enabled explicitly,
+	 * as a single busy connection may be slower than with round robin.
+	 */
+	AFFINE, 
+	/** 
+	 * Calls from a given connection to a given service always use the same worker,
+	 * and so are started in the order that they were sent by the caller.
+	 */
+	ORDERED;
+}
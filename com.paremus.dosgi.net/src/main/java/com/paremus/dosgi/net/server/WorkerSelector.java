@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * Selects the worker that should run a remote call, according to
+ * the {@link WorkerScheduling} for the service
+ */
+class WorkerSelector {
+
+	/**
+	 * The number of queued tasks at which an affine worker is considered
+	 * too busy, and the call may be moved to a different worker
+	 */
+	private static final int BUSY_THRESHOLD = 8;
+	
+	private final EventExecutorGroup group;
+	
+	private final WorkerScheduling scheduling;
+	
+	private final EventExecutor[] workers;
+	
+	private final int serviceHash;
+
+	public WorkerSelector(EventExecutorGroup group, WorkerScheduling scheduling, UUID serviceId) {
+		this.group = group;
+		
+		List<EventExecutor> children = new ArrayList<>();
+		group.forEach(children::add);
+		this.workers = children.toArray(new EventExecutor[0]);
+		
+		// There is no choice to make with only one worker
+		this.scheduling = workers.length < 2 ? WorkerScheduling.SHARED : scheduling;
+		this.serviceHash = serviceId.hashCode();
+	}
+	
+	/**
+	 * Select a worker
+	 * @param channel the channel on which the call arrived, may be null
+	 * @return the worker to use
+	 */
+	public EventExecutor select(Channel channel) {
+		if(channel == null || scheduling == WorkerScheduling.SHARED) {
+			return group.next();
+		}
+		
+		EventExecutor preferred = workers[index(channel)];
+		
+		if(scheduling == WorkerScheduling.AFFINE && pendingTasks(preferred) >= BUSY_THRESHOLD) {
+			return leastLoaded(preferred);
+		}
+		return preferred;
+	}
+
+	private int index(Channel channel) {
+		int h = channel.hashCode() * 31 + serviceHash;
+		// Spread the bits, as channel hashes may not be well distributed
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return (h & Integer.MAX_VALUE) % workers.length;
+	}
+
+	private EventExecutor leastLoaded(EventExecutor preferred) {
+		EventExecutor best = preferred;
+		int bestPending = pendingTasks(preferred);
+		for(EventExecutor e : workers) {
+			int pending = pendingTasks(e);
+			if(pending < bestPending) {
+				best = e;
+				bestPending = pending;
+				if(pending == 0) {
+					break;
+				}
+			}
+		}
+		return best;
+	}
+	
+	private static int pendingTasks(EventExecutor executor) {
+		return executor instanceof SingleThreadEventExecutor ? 
+				((SingleThreadEventExecutor) executor).pendingTasks() : 0;
+	}
+}
@@ -14,6 +14,9 @@
  */
 package com.paremus.dosgi.net.tcp;
 
+import static com.paremus.dosgi.net.serialize.SerializationSession.getProtocolVersion;
+import static com.paremus.dosgi.net.serialize.SerializationSession.readFrameTrailer;
+
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
@@ -28,7 +31,7 @@ public class VersionCheckingLengthFieldBasedFrameDecoder extends ByteToMessageDe
 		while (buf.readableBytes() > 4) {
 			final int offset = buf.readerIndex();
 			final short version = buf.getUnsignedByte(offset);
-	        if(version > 2) {
+	        if(getProtocolVersion(version) > 2) {
 	        	throw new CorruptedFrameException("Unacceptable message version (" + version + ")"); 
 	        }
 	        final int length = buf.getUnsignedMedium(offset + 1);
@@ -37,8 +40,19 @@ public class VersionCheckingLengthFieldBasedFrameDecoder extends ByteToMessageDe
 	        	break;
 	        }
 	        
-        	out.add(buf.retainedSlice(offset + 4, length));
-        	buf.skipBytes(length + 4); 
+	        ByteBuf frame = buf.retainedSlice(offset + 4, length);
+	        buf.skipBytes(length + 4);
+	        try {
+	        	out.add(readFrameTrailer(ctx.channel(), version, frame));
+	        } catch (Exception e) {
+	        	frame.release();
+	        	throw e;
+	        }
+	        
+	        if(version != getProtocolVersion(version)) {
+	        	// Session changes must be processed before the next frame is decoded
+	        	break;
+	        }
         }
 	}
 }
@@ -59,9 +59,10 @@ public class Protocol_V2 {
 	public static final byte ASYNC_METHOD_PARAM_FAILURE = 16;
 	
 	/** 
-	 * Format: | Header |
+	 * Format: | Header | optional initial credit int |
 	 *
-	 * Usage - sent by the client to open a streaming response
+	 * Usage - sent by the client to open a streaming response. If an initial credit 
+	 * is present then the stream uses credit based flow control, see {@link #CLIENT_CREDIT}
 	 */
 	public static final byte CLIENT_OPEN = 17;
 
@@ -99,4 +100,61 @@ public class Protocol_V2 {
 	 * Usage - sent by server to indicate that a streaming response should be failed
 	 */
 	public static final byte SERVER_ERROR_EVENT = 22;
+	
+	/** 
+	 * Format: | Header | call count unsigned short | call entries |
+	 * 
+	 * Call entry format: | call id int | entry length int | method index short | serialized args |
+	 *
+	 * Usage - sent by client to make several method calls, all with an expectation of a 
+	 * return value, in a single message. The call id in the header identifies the batch. 
+	 */
+	public static final byte CALL_BATCH = 23;
+	
+	/** 
+	 * Format: | Header | response count unsigned short | response entries |
+	 * 
+	 * Response entry format: | call id int | response command byte | entry length int | response body |
+	 *
+	 * Usage - sent by server to return the results of all of the calls in a batch. The response
+	 * body for each entry is the same as the body of the equivalent V1 response message
+	 */
+	public static final byte BATCH_RESPONSE = 24;
+	
+	/** 
+	 * Format: | Header |
+	 *
+	 * Usage - sent by server to indicate that any results cached by the client for the 
+	 * identified service are out of date. The call id in the header is unused. 
+	 */
+	public static final byte SERVER_CACHE_INVALIDATION = 25;
+	
+	/** 
+	 * Format: | Header | event count unsigned short | event entries |
+	 * 
+	 * Event entry format: | entry length int | serialized data |
+	 *
+	 * Usage - sent by server to pass several data events to the client in a single message.
+	 * The events must be delivered in the order that they appear in the message
+	 */
+	public static final byte SERVER_DATA_BATCH_EVENT = 26;
+	
+	/** 
+	 * Format: | Header | credit int |
+	 *
+	 * Usage - sent by the client to allow the server to send more data events for a 
+	 * streaming response which was opened with an initial credit. The server only sends
+	 * a data event when it holds credit, and each data event uses one credit
+	 */
+	public static final byte CLIENT_CREDIT = 27;
+	
+	/** 
+	 * Format: | Header | param index unsigned byte | credit int |
+	 *
+	 * Usage - sent by the server to allow the client to send more data events for a 
+	 * streamed argument. The client does not send any data events until it first receives 
+	 * credit, and each data event uses one credit. A negative credit indicates that the 
+	 * server is no longer consuming the argument, and that the client should stop sending
+	 */
+	public static final byte SERVER_ASYNC_METHOD_PARAM_CREDIT = 28;
 }
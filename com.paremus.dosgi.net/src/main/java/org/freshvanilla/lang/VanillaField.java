@@ -22,6 +22,7 @@ import org.freshvanilla.lang.misc.FieldAccessor;
 import org.freshvanilla.lang.misc.AccessUtils;
 
 public class VanillaField<D, T> implements MetaField<D, T> {
+    private final Field _field;
     private final FieldAccessor<T> _accessor;
     private final boolean _primitive;
     private final Class<T> _type;
@@ -29,16 +30,28 @@ public class VanillaField<D, T> implements MetaField<D, T> {
 
     @SuppressWarnings("unchecked")
     public VanillaField(Field field) {
-        this(field.getName(), AccessUtils.getFieldAccessor(field), (Class<T>)field.getType());
+        this(field, field.getName(), AccessUtils.getFieldAccessor(field), (Class<T>)field.getType());
     }
 
     VanillaField(String name, FieldAccessor<T> accessor, Class<T> type) {
+        this(null, name, accessor, type);
+    }
+
+    private VanillaField(Field field, String name, FieldAccessor<T> accessor, Class<T> type) {
+        _field = field;
         _name = name;
         _accessor = accessor;
         _type = type;
         _primitive = MetaClasses.isPrimitive(type);
     }
 
+    /**
+     * @return the accessible field, or <code>null</code> if this field is virtual
+     */
+    public Field getReflectedField() {
+        return _field;
+    }
+
     public String getName() {
         return _name;
     }
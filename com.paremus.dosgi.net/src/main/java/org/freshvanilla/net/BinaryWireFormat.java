@@ -25,16 +25,30 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.io.StreamCorruptedException;
 import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 
 import org.freshvanilla.lang.MetaClass;
 import org.freshvanilla.lang.MetaClasses;
@@ -44,13 +58,16 @@ import org.freshvanilla.utils.Classes;
 import org.freshvanilla.utils.VanillaResource;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 
 public class BinaryWireFormat implements WireFormat {
 
     private static final int BYTES_SIZE = 1024;
+    private static final int MIN_FIXED_ARRAY_LENGTH = 16;
     private static final Object[] NO_OBJECTS = {};
 
     private static final byte SIGNED8_STAG = (byte)~SpecialTag.SIGNED8.ordinal();
+    private static final byte SESSION_STAG = (byte)~SpecialTag.SESSION.ordinal();
     private static final SpecialTag[] SPECIAL_TAGS = SpecialTag.values();
 
     private final byte[] _outBytesArray = new byte[BYTES_SIZE];
@@ -59,11 +76,27 @@ public class BinaryWireFormat implements WireFormat {
     private final ArrayList<Object> seenReadableObjects = new ArrayList<Object>(64);
     private final MetaClasses _metaClasses;
     private final PojoSerializer _serializer;
+    private final boolean _acyclic;
+
+    /** The containers currently being written, used to detect cycles in acyclic mode */
+    private Object[] _ancestors = NO_OBJECTS;
+    private int _depth;
 
     public BinaryWireFormat(MetaClasses metaclasses, PojoSerializer serializer) {
+        this(metaclasses, serializer, false);
+    }
+
+    /**
+     * @param acyclic if <code>true</code> then objects are not tracked by identity, so
+     * shared references are written out in full each time that they are used, and an 
+     * object graph containing a cycle fails with a {@link NotSerializableException}.
+     * Both the writer and the reader must use the same mode.
+     */
+    public BinaryWireFormat(MetaClasses metaclasses, PojoSerializer serializer, boolean acyclic) {
         super();
         _metaClasses = metaclasses;
         _serializer = serializer;
+        _acyclic = acyclic;
     }
 
     public void flush(DataSocket ds, ByteBuf writeBuffer) throws IOException {
@@ -116,6 +149,10 @@ public class BinaryWireFormat implements WireFormat {
             case SIGNED8 :
                 return readBuffer.readLong();
 
+            case VARINT4 :
+            case VARINT8 :
+                return readVarNum(readBuffer);
+
             case FLOAT4 :
                 return (long)readBuffer.readFloat();
 
@@ -156,6 +193,10 @@ public class BinaryWireFormat implements WireFormat {
             case SIGNED8 :
                 return readBuffer.readLong();
 
+            case VARINT4 :
+            case VARINT8 :
+                return readVarNum(readBuffer);
+
             case FLOAT4 :
                 return readBuffer.readFloat();
 
@@ -198,7 +239,7 @@ public class BinaryWireFormat implements WireFormat {
             objects = (Object[])Array.newInstance(componentType.getType(), len);
         }
 
-        seenReadableObjects.add(objects);
+        recordRead(objects);
         
         for (int i = 0; i < len; i++) {
             objects[i] = readObject(readBuffer);
@@ -242,6 +283,12 @@ public class BinaryWireFormat implements WireFormat {
             case SIGNED8 :
                 return readBuffer.readLong();
 
+            case VARINT4 :
+                return (int)readVarNum(readBuffer);
+
+            case VARINT8 :
+                return readVarNum(readBuffer);
+
             case FLOAT4 :
                 return readBuffer.readFloat();
 
@@ -253,12 +300,17 @@ public class BinaryWireFormat implements WireFormat {
 
             case SERIALIZABLE :
                 o = readSerializable0(readBuffer);
-                seenReadableObjects.add(o);
+                recordRead(o);
                 return o;
 
             case STRING :
                 o = readString0(readBuffer);
-                seenReadableObjects.add(o);
+                recordRead(o);
+                return o;
+
+            case UTF8_STRING :
+                o = readUtf8String(readBuffer);
+                recordRead(o);
                 return o;
 
             case TAG :
@@ -329,24 +381,59 @@ public class BinaryWireFormat implements WireFormat {
             case FLOATS :
             	float[] floats = new float[readLen(readBuffer)];
             	for(int i=0; i < floats.length; i++) {
-            		floats[i] = readNum(readBuffer);
+            		floats[i] = (float) readDouble(readBuffer);
             	}
             	return floats;
 
             case DOUBLES :
             	double[] doubles = new double[readLen(readBuffer)];
             	for(int i=0; i < doubles.length; i++) {
-            		doubles[i] = readNum(readBuffer);
+            		doubles[i] = readDouble(readBuffer);
             	}
             	return doubles;
 
+            case FIXED_SHORTS :
+            	return readFixed(readBuffer, new short[readFixedLen(readBuffer, 2)]);
+
+            case FIXED_CHARS :
+            	return readFixed(readBuffer, new char[readFixedLen(readBuffer, 2)]);
+
+            case FIXED_INTS :
+            	return readFixed(readBuffer, new int[readFixedLen(readBuffer, 4)]);
+
+            case FIXED_LONGS :
+            	return readFixed(readBuffer, new long[readFixedLen(readBuffer, 8)]);
+
+            case FIXED_FLOATS :
+            	return readFixed(readBuffer, new float[readFixedLen(readBuffer, 4)]);
+
+            case FIXED_DOUBLES :
+            	return readFixed(readBuffer, new double[readFixedLen(readBuffer, 8)]);
+
             case CLASS :
                 return _metaClasses.loadClass(readString(readBuffer));
 
             case META_CLASS :
                 return _metaClasses.acquireMetaClass(readString(readBuffer));
             case POJO_REF :
+            	if (_acyclic) {
+            		throw new StreamCorruptedException("Received a shared reference in an acyclic message");
+            	}
             	return seenReadableObjects.get(readBuffer.readInt());
+
+            case SESSION :
+                throw new StreamCorruptedException("Received a session message with no session");
+
+            case UUID :
+            case BIG_INTEGER :
+            case BIG_DECIMAL :
+            case INSTANT :
+            case DURATION :
+            case LOCAL_DATE :
+            case LOCAL_TIME :
+            case LOCAL_DATE_TIME :
+            case OPTIONAL :
+                return readValue(readBuffer, stag);
         }
 
         throw new UnsupportedOperationException("Tag " + stag + " not supported.");
@@ -357,7 +444,7 @@ public class BinaryWireFormat implements WireFormat {
         Map<Object, Object> map = len > 0
                         ? new LinkedHashMap<Object, Object>(len * 3 / 2)
                         : Collections.emptyMap();
-        seenReadableObjects.add(map);
+        recordRead(map);
         for (int i = 0; i < len; i++) {
             map.put(readObject(readBuffer), readObject(readBuffer));
         }
@@ -373,7 +460,7 @@ public class BinaryWireFormat implements WireFormat {
     private List<Object> readList(ByteBuf readBuffer) throws ClassNotFoundException, IOException {
         int len = readLen(readBuffer);
         List<Object> list = len > 0 ? new ArrayList<Object>(len) : Collections.emptyList();
-        seenReadableObjects.add(list);
+        recordRead(list);
         for (int i = 0; i < len; i++) {
             list.add(readObject(readBuffer));
         }
@@ -383,7 +470,7 @@ public class BinaryWireFormat implements WireFormat {
     private Set<Object> readSet(ByteBuf readBuffer) throws ClassNotFoundException, IOException {
         int len = readLen(readBuffer);
         Set<Object> set = len > 0 ? new LinkedHashSet<Object>(len * 3 / 2) : Collections.emptySet();
-        seenReadableObjects.add(set);
+        recordRead(set);
         for (int i = 0; i < len; i++) {
             set.add(readObject(readBuffer));
         }
@@ -412,6 +499,112 @@ public class BinaryWireFormat implements WireFormat {
         }
     }
 
+    /**
+     * Write common JDK value types using compact tags rather than Java serialization.
+     * Only the exact types are handled, as subclasses (e.g. <code>java.sql.Timestamp</code>)
+     * may carry extra state. These values are immutable, so they take no part in 
+     * reference tracking. Mutable types such as <code>java.util.Date</code> are left
+     * to Java serialization so that shared instances keep their identity.
+     * 
+     * @return true if the object was written
+     */
+    private boolean writeValue(ByteBuf writeBuffer, Object object) throws IOException {
+        Class<?> type = object.getClass();
+        if (type == UUID.class) {
+            UUID uuid = (UUID)object;
+            writeSTag(writeBuffer, SpecialTag.UUID);
+            writeBuffer.writeLong(uuid.getMostSignificantBits());
+            writeBuffer.writeLong(uuid.getLeastSignificantBits());
+        }
+        else if (type == BigInteger.class) {
+            writeSTag(writeBuffer, SpecialTag.BIG_INTEGER);
+            writeBigInteger(writeBuffer, (BigInteger)object);
+        }
+        else if (type == BigDecimal.class) {
+            BigDecimal decimal = (BigDecimal)object;
+            writeSTag(writeBuffer, SpecialTag.BIG_DECIMAL);
+            writeNum(writeBuffer, decimal.scale());
+            writeBigInteger(writeBuffer, decimal.unscaledValue());
+        }
+        else if (type == Instant.class) {
+            Instant instant = (Instant)object;
+            writeSTag(writeBuffer, SpecialTag.INSTANT);
+            writeNum(writeBuffer, instant.getEpochSecond());
+            writeNum(writeBuffer, instant.getNano());
+        }
+        else if (type == Duration.class) {
+            Duration duration = (Duration)object;
+            writeSTag(writeBuffer, SpecialTag.DURATION);
+            writeNum(writeBuffer, duration.getSeconds());
+            writeNum(writeBuffer, duration.getNano());
+        }
+        else if (type == LocalDate.class) {
+            writeSTag(writeBuffer, SpecialTag.LOCAL_DATE);
+            writeNum(writeBuffer, ((LocalDate)object).toEpochDay());
+        }
+        else if (type == LocalTime.class) {
+            writeSTag(writeBuffer, SpecialTag.LOCAL_TIME);
+            writeNum(writeBuffer, ((LocalTime)object).toNanoOfDay());
+        }
+        else if (type == LocalDateTime.class) {
+            LocalDateTime dateTime = (LocalDateTime)object;
+            writeSTag(writeBuffer, SpecialTag.LOCAL_DATE_TIME);
+            writeNum(writeBuffer, dateTime.toLocalDate().toEpochDay());
+            writeNum(writeBuffer, dateTime.toLocalTime().toNanoOfDay());
+        }
+        else if (type == Optional.class) {
+            writeSTag(writeBuffer, SpecialTag.OPTIONAL);
+            writeObject(writeBuffer, ((Optional<?>)object).orElse(null));
+        }
+        else {
+            return false;
+        }
+        return true;
+    }
+
+    private void writeBigInteger(ByteBuf writeBuffer, BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        writeNum(writeBuffer, bytes.length);
+        writeBuffer.writeBytes(bytes);
+    }
+
+    private Object readValue(ByteBuf readBuffer, SpecialTag stag) throws ClassNotFoundException, IOException {
+        switch (stag) {
+            case UUID :
+                return new UUID(readBuffer.readLong(), readBuffer.readLong());
+            case BIG_INTEGER :
+                return readBigInteger(readBuffer);
+            case BIG_DECIMAL :
+                int scale = (int)readNum(readBuffer);
+                return new BigDecimal(readBigInteger(readBuffer), scale);
+            case INSTANT :
+                return Instant.ofEpochSecond(readNum(readBuffer), readNum(readBuffer));
+            case DURATION :
+                return Duration.ofSeconds(readNum(readBuffer), readNum(readBuffer));
+            case LOCAL_DATE :
+                return LocalDate.ofEpochDay(readNum(readBuffer));
+            case LOCAL_TIME :
+                return LocalTime.ofNanoOfDay(readNum(readBuffer));
+            case LOCAL_DATE_TIME :
+                return LocalDateTime.of(LocalDate.ofEpochDay(readNum(readBuffer)), 
+                    LocalTime.ofNanoOfDay(readNum(readBuffer)));
+            case OPTIONAL :
+                return Optional.ofNullable(readObject(readBuffer));
+            default :
+                throw new StreamCorruptedException("Expected a value type, got a " + stag);
+        }
+    }
+
+    private BigInteger readBigInteger(ByteBuf readBuffer) throws StreamCorruptedException {
+        int len = readLen(readBuffer);
+        if (len == 0 || len > readBuffer.readableBytes()) {
+            throw new StreamCorruptedException("BigInteger length invalid, len=" + len);
+        }
+        byte[] bytes = new byte[len];
+        readBuffer.readBytes(bytes);
+        return new BigInteger(bytes);
+    }
+
     private Object readSerializable0(ByteBuf readBuffer) throws IOException {
         int len = readLen(readBuffer);
 
@@ -435,6 +628,19 @@ public class BinaryWireFormat implements WireFormat {
             return;
         }
 
+        if (_acyclic) {
+            int depth = _depth;
+            try {
+                writeObject0(writeBuffer, object);
+            } finally {
+                // Leave any containers entered while writing this object, 
+                // releasing them so that they are not retained by this format
+                Arrays.fill(_ancestors, depth, _depth, null);
+                _depth = depth;
+            }
+            return;
+        }
+
         Integer i = seenWritableObjects.get(object);
     	if(i != null) {
     		writeSTag(writeBuffer, SpecialTag.POJO_REF);
@@ -442,8 +648,12 @@ public class BinaryWireFormat implements WireFormat {
     		return;
     	}
         
+        writeObject0(writeBuffer, object);
+    }
+
+    private void writeObject0(ByteBuf writeBuffer, Object object) throws IOException {
         if (_serializer.canSerialize(object)) {
-    		seenWritableObjects.put(object, seenWritableObjects.size());
+    		enterContainer(object);
             writeSTag(writeBuffer, SpecialTag.POJO);
             _serializer.serialize(writeBuffer, this, object);
             return;
@@ -465,6 +675,10 @@ public class BinaryWireFormat implements WireFormat {
                 if (value >= 0 && value <= Byte.MAX_VALUE) {
                     writeBuffer.writeByte((byte)value);
                 }
+                else if (_compactEncodings && varNumLength(value) < 4) {
+                    writeSTag(writeBuffer, SpecialTag.VARINT4);
+                    writeVarNum(writeBuffer, value);
+                }
                 else {
                     writeSTag(writeBuffer, SpecialTag.SIGNED4);
                     writeBuffer.writeInt(value);
@@ -472,8 +686,15 @@ public class BinaryWireFormat implements WireFormat {
                 return;
             }
             if (object instanceof Long) {
-                writeSTag(writeBuffer, SpecialTag.SIGNED8);
-                writeBuffer.writeLong((Long)object);
+                long value = (Long)object;
+                if (_compactEncodings && varNumLength(value) < 8) {
+                    writeSTag(writeBuffer, SpecialTag.VARINT8);
+                    writeVarNum(writeBuffer, value);
+                }
+                else {
+                    writeSTag(writeBuffer, SpecialTag.SIGNED8);
+                    writeBuffer.writeLong(value);
+                }
                 return;
             }
             if (object instanceof Float) {
@@ -489,7 +710,7 @@ public class BinaryWireFormat implements WireFormat {
 
         }
         else if (object instanceof Collection<?>) {
-        	seenWritableObjects.put(object, seenWritableObjects.size());
+        	enterContainer(object);
             if (object instanceof Set<?>) {
                 writeCollection(writeBuffer, SpecialTag.SET, (Set<?>)object);
             }
@@ -499,7 +720,7 @@ public class BinaryWireFormat implements WireFormat {
             return;
         }
         else if (object instanceof Map<?, ?>) {
-        	seenWritableObjects.put(object, seenWritableObjects.size());
+        	enterContainer(object);
             writeMap(writeBuffer, (Map<?, ?>)object);
             return;
         }
@@ -516,7 +737,7 @@ public class BinaryWireFormat implements WireFormat {
             return;
         }
         else if (object instanceof String) {
-        	seenWritableObjects.put(object, seenWritableObjects.size());
+        	recordWritten(object);
             writeString(writeBuffer, (String)object);
             return;
         }
@@ -552,8 +773,14 @@ public class BinaryWireFormat implements WireFormat {
         	return;
         } 
         else if (object instanceof short[]) {
-        	writeSTag(writeBuffer, SpecialTag.SHORTS);
         	short[] shorts = (short[])object;
+        	if (_compactEncodings && useFixedWidth(shorts)) {
+        		writeSTag(writeBuffer, SpecialTag.FIXED_SHORTS);
+        		writeNum(writeBuffer, shorts.length);
+        		writeFixed(writeBuffer, shorts);
+        		return;
+        	}
+        	writeSTag(writeBuffer, SpecialTag.SHORTS);
         	writeNum(writeBuffer, shorts.length);
         	for(short s : shorts) {
         		writeNum(writeBuffer, s);
@@ -561,8 +788,14 @@ public class BinaryWireFormat implements WireFormat {
         	return;
         } 
         else if (object instanceof char[]) {
-        	writeSTag(writeBuffer, SpecialTag.CHARS);
         	char[] chars = (char[])object;
+        	if (_compactEncodings && useFixedWidth(chars)) {
+        		writeSTag(writeBuffer, SpecialTag.FIXED_CHARS);
+        		writeNum(writeBuffer, chars.length);
+        		writeFixed(writeBuffer, chars);
+        		return;
+        	}
+        	writeSTag(writeBuffer, SpecialTag.CHARS);
         	writeNum(writeBuffer, chars.length);
         	for(char c : chars) {
         		writeNum(writeBuffer, c);
@@ -570,8 +803,14 @@ public class BinaryWireFormat implements WireFormat {
         	return;
         } 
         else if (object instanceof int[]) {
-        	writeSTag(writeBuffer, SpecialTag.INTS);
         	int[] ints = (int[])object;
+        	if (_compactEncodings && useFixedWidth(ints)) {
+        		writeSTag(writeBuffer, SpecialTag.FIXED_INTS);
+        		writeNum(writeBuffer, ints.length);
+        		writeFixed(writeBuffer, ints);
+        		return;
+        	}
+        	writeSTag(writeBuffer, SpecialTag.INTS);
         	writeNum(writeBuffer, ints.length);
         	for(int j : ints) {
         		writeNum(writeBuffer, j);
@@ -579,8 +818,14 @@ public class BinaryWireFormat implements WireFormat {
         	return;
         } 
         else if (object instanceof long[]) {
-        	writeSTag(writeBuffer, SpecialTag.LONGS);
         	long[] longs = (long[])object;
+        	if (_compactEncodings && useFixedWidth(longs)) {
+        		writeSTag(writeBuffer, SpecialTag.FIXED_LONGS);
+        		writeNum(writeBuffer, longs.length);
+        		writeFixed(writeBuffer, longs);
+        		return;
+        	}
+        	writeSTag(writeBuffer, SpecialTag.LONGS);
         	writeNum(writeBuffer, longs.length);
         	for(long l : longs) {
         		writeNum(writeBuffer, l);
@@ -588,8 +833,14 @@ public class BinaryWireFormat implements WireFormat {
         	return;
         } 
         else if (object instanceof float[]) {
-        	writeSTag(writeBuffer, SpecialTag.FLOATS);
         	float[] floats = (float[])object;
+        	if (_compactEncodings && floats.length > 0) {
+        		writeSTag(writeBuffer, SpecialTag.FIXED_FLOATS);
+        		writeNum(writeBuffer, floats.length);
+        		writeFixed(writeBuffer, floats);
+        		return;
+        	}
+        	writeSTag(writeBuffer, SpecialTag.FLOATS);
         	writeNum(writeBuffer, floats.length);
         	for(float f : floats) {
         		writeDouble(writeBuffer, f);
@@ -597,21 +848,31 @@ public class BinaryWireFormat implements WireFormat {
         	return;
         } 
         else if (object instanceof double[]) {
-        	writeSTag(writeBuffer, SpecialTag.DOUBLES);
         	double[] doubles = (double[])object;
+        	if (_compactEncodings && doubles.length > 0) {
+        		writeSTag(writeBuffer, SpecialTag.FIXED_DOUBLES);
+        		writeNum(writeBuffer, doubles.length);
+        		writeFixed(writeBuffer, doubles);
+        		return;
+        	}
+        	writeSTag(writeBuffer, SpecialTag.DOUBLES);
         	writeNum(writeBuffer, doubles.length);
         	for(double d : doubles) {
         		writeDouble(writeBuffer, d);
         	}
         	return;
         } else if(object.getClass().isArray()) {
-        	seenWritableObjects.put(object, seenWritableObjects.size());
+        	enterContainer(object);
         	writeArray(writeBuffer, Array.getLength(object), (Object[]) object);
         	return;
         }
 
+        if (_compactEncodings && writeValue(writeBuffer, object)) {
+            return;
+        }
+
         if (object instanceof Serializable) {
-        	seenWritableObjects.put(object, seenWritableObjects.size());
+        	recordWritten(object);
             writeSTag(writeBuffer, SpecialTag.SERIALIZABLE);
             writeSerializable0(writeBuffer, object);
             return;
@@ -620,6 +881,212 @@ public class BinaryWireFormat implements WireFormat {
         throw new NotSerializableException("Unable to serialize " + object.getClass());
     }
 
+    /**
+     * Record an object which cannot refer to other objects, so that later 
+     * references to it can be written as a {@link SpecialTag#POJO_REF}
+     */
+    private void recordWritten(Object object) {
+        if (!_acyclic) {
+            seenWritableObjects.put(object, seenWritableObjects.size());
+        }
+    }
+
+    /**
+     * Record an object which may refer to other objects. In acyclic mode the 
+     * object is checked against the containers which are currently being written,
+     * which only costs a scan of the nesting depth, rather than hashing every object.
+     */
+    private void enterContainer(Object object) throws NotSerializableException {
+        if (!_acyclic) {
+            seenWritableObjects.put(object, seenWritableObjects.size());
+            return;
+        }
+        for (int i = 0; i < _depth; i++) {
+            if (_ancestors[i] == object) {
+                throw new NotSerializableException("The " + object.getClass().getName() + 
+                        " refers back to itself, and cycles cannot be written in acyclic mode");
+            }
+        }
+        if (_depth == _ancestors.length) {
+            _ancestors = Arrays.copyOf(_ancestors, Math.max(16, _depth * 2));
+        }
+        _ancestors[_depth++] = object;
+    }
+
+    private void recordRead(Object object) {
+        if (!_acyclic) {
+            seenReadableObjects.add(object);
+        }
+    }
+
+    /**
+     * Integral arrays are only copied at a fixed width if they are long enough
+     * for the bulk copy to matter and if they hold values which would not fit in
+     * a single byte when written one element at a time.
+     */
+    private static boolean useFixedWidth(short[] shorts) {
+        if (shorts.length < MIN_FIXED_ARRAY_LENGTH) return false;
+        for (short s : shorts) {
+            if ((s & ~0x7F) != 0) return true;
+        }
+        return false;
+    }
+
+    private static boolean useFixedWidth(char[] chars) {
+        if (chars.length < MIN_FIXED_ARRAY_LENGTH) return false;
+        for (char c : chars) {
+            if (c > Byte.MAX_VALUE) return true;
+        }
+        return false;
+    }
+
+    private static boolean useFixedWidth(int[] ints) {
+        if (ints.length < MIN_FIXED_ARRAY_LENGTH) return false;
+        for (int i : ints) {
+            if ((i & ~0x7F) != 0) return true;
+        }
+        return false;
+    }
+
+    private static boolean useFixedWidth(long[] longs) {
+        if (longs.length < MIN_FIXED_ARRAY_LENGTH) return false;
+        for (long l : longs) {
+            if ((l & ~0x7FL) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reserve space for a bulk copy of a primitive array.
+     * 
+     * @return a big endian view of the reserved space, or null if the buffer
+     * cannot expose its storage as a single NIO buffer, in which case nothing
+     * has been reserved
+     */
+    private static ByteBuffer reserveFixed(ByteBuf writeBuffer, int length, int width) throws IOException {
+        if ((long)length * width > Integer.MAX_VALUE) {
+            throw new IOException("The array is too large to serialize, length=" + length);
+        }
+        int bytes = length * width;
+        writeBuffer.ensureWritable(bytes);
+        if (writeBuffer.nioBufferCount() != 1) {
+            return null;
+        }
+        int idx = writeBuffer.writerIndex();
+        ByteBuffer view = writeBuffer.nioBuffer(idx, bytes).order(ByteOrder.BIG_ENDIAN);
+        writeBuffer.writerIndex(idx + bytes);
+        return view;
+    }
+
+    private static void writeFixed(ByteBuf writeBuffer, short[] shorts) throws IOException {
+        ByteBuffer view = reserveFixed(writeBuffer, shorts.length, 2);
+        if (view != null) {
+            view.asShortBuffer().put(shorts);
+        }
+        else {
+            for (short s : shorts) writeBuffer.writeShort(s);
+        }
+    }
+
+    private static void writeFixed(ByteBuf writeBuffer, char[] chars) throws IOException {
+        ByteBuffer view = reserveFixed(writeBuffer, chars.length, 2);
+        if (view != null) {
+            view.asCharBuffer().put(chars);
+        }
+        else {
+            for (char c : chars) writeBuffer.writeChar(c);
+        }
+    }
+
+    private static void writeFixed(ByteBuf writeBuffer, int[] ints) throws IOException {
+        ByteBuffer view = reserveFixed(writeBuffer, ints.length, 4);
+        if (view != null) {
+            view.asIntBuffer().put(ints);
+        }
+        else {
+            for (int i : ints) writeBuffer.writeInt(i);
+        }
+    }
+
+    private static void writeFixed(ByteBuf writeBuffer, long[] longs) throws IOException {
+        ByteBuffer view = reserveFixed(writeBuffer, longs.length, 8);
+        if (view != null) {
+            view.asLongBuffer().put(longs);
+        }
+        else {
+            for (long l : longs) writeBuffer.writeLong(l);
+        }
+    }
+
+    private static void writeFixed(ByteBuf writeBuffer, float[] floats) throws IOException {
+        ByteBuffer view = reserveFixed(writeBuffer, floats.length, 4);
+        if (view != null) {
+            view.asFloatBuffer().put(floats);
+        }
+        else {
+            for (float f : floats) writeBuffer.writeFloat(f);
+        }
+    }
+
+    private static void writeFixed(ByteBuf writeBuffer, double[] doubles) throws IOException {
+        ByteBuffer view = reserveFixed(writeBuffer, doubles.length, 8);
+        if (view != null) {
+            view.asDoubleBuffer().put(doubles);
+        }
+        else {
+            for (double d : doubles) writeBuffer.writeDouble(d);
+        }
+    }
+
+    /**
+     * Read the length of a fixed width array, checking that the whole array is
+     * readable before anything is allocated for it.
+     */
+    private int readFixedLen(ByteBuf readBuffer, int width) throws StreamCorruptedException {
+        int len = readLen(readBuffer);
+        if ((long)len * width > readBuffer.readableBytes()) {
+            throw new StreamCorruptedException("Array length invalid, len=" + len);
+        }
+        return len;
+    }
+
+    private static ByteBuffer fixedView(ByteBuf readBuffer, int length, int width) {
+        int bytes = length * width;
+        ByteBuffer view = readBuffer.nioBuffer(readBuffer.readerIndex(), bytes).order(ByteOrder.BIG_ENDIAN);
+        readBuffer.skipBytes(bytes);
+        return view;
+    }
+
+    private static short[] readFixed(ByteBuf readBuffer, short[] shorts) {
+        fixedView(readBuffer, shorts.length, 2).asShortBuffer().get(shorts);
+        return shorts;
+    }
+
+    private static char[] readFixed(ByteBuf readBuffer, char[] chars) {
+        fixedView(readBuffer, chars.length, 2).asCharBuffer().get(chars);
+        return chars;
+    }
+
+    private static int[] readFixed(ByteBuf readBuffer, int[] ints) {
+        fixedView(readBuffer, ints.length, 4).asIntBuffer().get(ints);
+        return ints;
+    }
+
+    private static long[] readFixed(ByteBuf readBuffer, long[] longs) {
+        fixedView(readBuffer, longs.length, 8).asLongBuffer().get(longs);
+        return longs;
+    }
+
+    private static float[] readFixed(ByteBuf readBuffer, float[] floats) {
+        fixedView(readBuffer, floats.length, 4).asFloatBuffer().get(floats);
+        return floats;
+    }
+
+    private static double[] readFixed(ByteBuf readBuffer, double[] doubles) {
+        fixedView(readBuffer, doubles.length, 8).asDoubleBuffer().get(doubles);
+        return doubles;
+    }
+
     private void writeMap(ByteBuf writeBuffer, Map<?, ?> map) throws IOException {
         writeSTag(writeBuffer, SpecialTag.MAP);
         writeNum(writeBuffer, map.size());
@@ -677,6 +1144,10 @@ public class BinaryWireFormat implements WireFormat {
         if (value >= 0 && value <= Byte.MAX_VALUE) {
             writeBuffer.writeByte((byte)value);
         }
+        else if (_compactEncodings && varNumLength(value) < fixedNumLength(value)) {
+            writeSTag(writeBuffer, SpecialTag.VARINT8);
+            writeVarNum(writeBuffer, value);
+        }
         else if (value == (byte)value) {
             writeSTag(writeBuffer, SpecialTag.SIGNED1);
             writeBuffer.writeByte((byte)value);
@@ -697,6 +1168,48 @@ public class BinaryWireFormat implements WireFormat {
         }
     }
 
+    private static int fixedNumLength(long value) {
+        if (value == (byte)value) {
+            return 1;
+        }
+        else if (value == (short)value) {
+            return 2;
+        }
+        else if (value == (int)value) {
+            return 4;
+        }
+        return 8;
+    }
+
+    /**
+     * @return the number of bytes needed to write the value as a zig-zag varint
+     */
+    private static int varNumLength(long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        return (64 - Long.numberOfLeadingZeros(zigZag | 1) + 6) / 7;
+    }
+
+    private static void writeVarNum(ByteBuf writeBuffer, long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            writeBuffer.writeByte((int)((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        writeBuffer.writeByte((int)zigZag);
+    }
+
+    private static long readVarNum(ByteBuf readBuffer) throws StreamCorruptedException {
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readBuffer.readByte();
+            zigZag |= (long)(b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new StreamCorruptedException("Invalid variable length number");
+    }
+
     public static void writeDouble(ByteBuf writeBuffer, double value) {
         if (value == (byte)value) {
             if (value >= 0 && value <= Byte.MAX_VALUE) {
@@ -728,7 +1241,15 @@ public class BinaryWireFormat implements WireFormat {
     private final Map<String, Integer> outTagMap = new LinkedHashMap<String, Integer>();
     private final List<String> inTagList = new ArrayList<String>();
 
+    private TagDictionary _outSession;
+    private TagTable _inSession;
+    private boolean _compactEncodings;
+
     public void writeTag(ByteBuf writeBuffer, String tag) {
+        if (_outSession != null) {
+            writeSessionTag(writeBuffer, tag);
+            return;
+        }
         writeSTag(writeBuffer, SpecialTag.TAG);
         final Integer num = outTagMap.get(tag);
         if (num == null) {
@@ -743,10 +1264,45 @@ public class BinaryWireFormat implements WireFormat {
     }
 
     private void writeString(ByteBuf writeBuffer, String text) {
+        // UTF-8 cannot carry an unpaired surrogate, so such strings keep the char encoding
+        if (_compactEncodings && !hasUnpairedSurrogate(text)) {
+            writeUtf8String(writeBuffer, text);
+            return;
+        }
         writeSTag(writeBuffer, SpecialTag.STRING);
         writeString0(writeBuffer, text);
     }
 
+    /**
+     * Writes the string directly into the buffer as UTF-8, preceded by its length in bytes
+     */
+    private void writeUtf8String(ByteBuf writeBuffer, String text) {
+        writeSTag(writeBuffer, SpecialTag.UTF8_STRING);
+        if (ByteBufUtil.utf8MaxBytes(text) <= Byte.MAX_VALUE) {
+            // The length fits in a single byte, so fill it in afterwards
+            int lengthIndex = writeBuffer.writerIndex();
+            writeBuffer.writeByte(0);
+            writeBuffer.setByte(lengthIndex, ByteBufUtil.writeUtf8(writeBuffer, text));
+        }
+        else {
+            writeNum(writeBuffer, ByteBufUtil.utf8Bytes(text));
+            ByteBufUtil.writeUtf8(writeBuffer, text);
+        }
+    }
+
+    private static boolean hasUnpairedSurrogate(String text) {
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char ch = text.charAt(i);
+            if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+                i++;
+            }
+            else if (Character.isSurrogate(ch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void writeString0(ByteBuf writeBuffer, CharSequence text) {
         int len = text.length();
         writeNum(writeBuffer, len);
@@ -783,6 +1339,59 @@ public class BinaryWireFormat implements WireFormat {
         }
     }
 
+    private void writeSessionTag(ByteBuf writeBuffer, String tag) {
+        int num = _outSession.define(tag);
+        if (num < 0) {
+            // The dictionary is full, so send the tag as a normal string
+            recordWritten(tag);
+            writeString(writeBuffer, tag);
+        }
+        else {
+            writeSTag(writeBuffer, SpecialTag.TAG);
+            writeNum(writeBuffer, num);
+        }
+    }
+
+    /**
+     * Begin writing a message which uses a dictionary of tags shared with the reader 
+     * for the lifetime of a session. New tags are added to the dictionary as they are
+     * written, and must be sent to the reader using {@link TagDictionary#writeDefinitions(ByteBuf)}
+     * before the reader reaches this message. Numbers in session messages are written
+     * as zig-zag varints whenever that is shorter than the fixed width encoding, and 
+     * strings are written as UTF-8. The session ends when this wire format is {@link #reset()}.
+     * 
+     * @param writeBuffer the buffer to write to
+     * @param dictionary the dictionary for the session
+     */
+    public void beginSessionWrite(ByteBuf writeBuffer, TagDictionary dictionary) {
+        writeBuffer.writeByte(SESSION_STAG);
+        _outSession = dictionary;
+        // Anything which understands sessions also understands the compact encodings
+        _compactEncodings = true;
+    }
+
+    /**
+     * @param readBuffer the buffer to check
+     * @return true if the next object in the buffer is a session message
+     */
+    public static boolean isSessionMessage(ByteBuf readBuffer) {
+        return readBuffer.isReadable() && readBuffer.getByte(readBuffer.readerIndex()) == SESSION_STAG;
+    }
+
+    /**
+     * Begin reading a message written using {@link #beginSessionWrite(ByteBuf, TagDictionary)}
+     * 
+     * @param readBuffer the buffer to read from
+     * @param dictionary the dictionary for the session
+     * @throws StreamCorruptedException if this is not a session message
+     */
+    public void beginSessionRead(ByteBuf readBuffer, TagTable dictionary) throws StreamCorruptedException {
+        if (readBuffer.readByte() != SESSION_STAG) {
+            throw new StreamCorruptedException("Expected a session message");
+        }
+        _inSession = dictionary;
+    }
+
     private String readTag0(ByteBuf readBuffer) throws StreamCorruptedException {
         final long num = readNum(readBuffer);
 
@@ -790,6 +1399,10 @@ public class BinaryWireFormat implements WireFormat {
             throw new StreamCorruptedException("Invalid tag num= " + num);
         }
 
+        if (_inSession != null) {
+            return _inSession.get(num);
+        }
+
         final int size = inTagList.size();
         if (num == size) {
             String ret = readString0(readBuffer);
@@ -807,6 +1420,16 @@ public class BinaryWireFormat implements WireFormat {
     private final byte[] inBytesArray = new byte[BYTES_SIZE];
     private final char[] inCharsArray = new char[BYTES_SIZE];
 
+    private String readUtf8String(ByteBuf readBuffer) throws StreamCorruptedException {
+        int len = readLen(readBuffer);
+        if (len > readBuffer.readableBytes()) {
+            throw new StreamCorruptedException("String length invalid, len=" + len);
+        }
+        String s = readBuffer.toString(readBuffer.readerIndex(), len, StandardCharsets.UTF_8);
+        readBuffer.skipBytes(len);
+        return s;
+    }
+
     private String readString0(ByteBuf readBuffer) throws StreamCorruptedException {
         int len = readLen(readBuffer);
         if (len == 0) {
@@ -892,15 +1515,20 @@ public class BinaryWireFormat implements WireFormat {
     }
     
     public void reset() {
+    	_outSession = null;
+    	_inSession = null;
+    	_compactEncodings = false;
     	inTagList.clear();
     	outTagMap.clear();
     	seenWritableObjects.clear();
     	seenReadableObjects.clear();
+    	Arrays.fill(_ancestors, 0, _depth, null);
+    	_depth = 0;
     }
 
     @Override
 	public void registerPojo(Object o) {
-		seenReadableObjects.add(o);
+		recordRead(o);
 	}
 
     @Override
@@ -910,7 +1538,9 @@ public class BinaryWireFormat implements WireFormat {
 
     @Override
     public void registerPojo(int idx, Object o) {
-    	seenReadableObjects.add(idx, o);
+    	if (!_acyclic) {
+    		seenReadableObjects.add(idx, o);
+    	}
     }
 
 	public static class Builder extends VanillaResource implements ObjectBuilder<WireFormat> {
@@ -939,6 +1569,161 @@ public class BinaryWireFormat implements WireFormat {
         }
     }
 
+    /**
+     * The tags which a session message may refer to
+     */
+    public interface TagTable {
+        /**
+         * @param num the number of a tag
+         * @return the tag
+         * @throws StreamCorruptedException if the tag is not defined
+         */
+        String get(long num) throws StreamCorruptedException;
+    }
+
+    /**
+     * A bounded dictionary of tags, such as class names, for one direction of a session. 
+     * The writer adds tags as they are used, and the new definitions are sent to the 
+     * reader ahead of the messages that use them. When the dictionary is full the writer
+     * resets it, and the reset is sent to the reader with the next definitions.
+     */
+    public static class TagDictionary implements TagTable {
+        private static final int RESET = 1;
+
+        private final int _maxSize;
+        private final Map<String, Integer> _ids = new HashMap<String, Integer>();
+        private List<String> _tags = new ArrayList<String>();
+        private int _committed;
+        private boolean _resetPending;
+
+        public TagDictionary(int maxSize) {
+            _maxSize = maxSize;
+        }
+
+        public synchronized int size() {
+            return _tags.size();
+        }
+
+        /**
+         * Reset the dictionary if it is full, ready for writing more messages
+         */
+        public synchronized void beginWrite() {
+            if (_tags.size() >= _maxSize) {
+                reset();
+                _resetPending = true;
+            }
+        }
+
+        /**
+         * @param tag the tag to add to the dictionary
+         * @return the number of the tag, or -1 if the dictionary is full
+         */
+        public synchronized int define(String tag) {
+            Integer num = _ids.get(tag);
+            if (num == null) {
+                if (_tags.size() >= _maxSize) {
+                    return -1;
+                }
+                num = _tags.size();
+                _tags.add(tag);
+                _ids.put(tag, num);
+            }
+            return num;
+        }
+
+        /**
+         * @return true if there are changes which have not been sent to the reader
+         */
+        public synchronized boolean hasPendingDefinitions() {
+            return _resetPending || _committed < _tags.size();
+        }
+
+        /**
+         * Write the changes which have not yet been sent to the reader
+         * 
+         * @param writeBuffer the buffer to write to
+         */
+        public synchronized void writeDefinitions(ByteBuf writeBuffer) {
+            writeBuffer.writeByte(_resetPending ? RESET : 0);
+            writeBuffer.writeShort(_tags.size() - _committed);
+            for (int i = _committed; i < _tags.size(); i++) {
+                byte[] bytes = _tags.get(i).getBytes(StandardCharsets.UTF_8);
+                writeBuffer.writeShort(bytes.length);
+                writeBuffer.writeBytes(bytes);
+            }
+            _committed = _tags.size();
+            _resetPending = false;
+        }
+
+        /**
+         * Discard the tags added since the changes were last written
+         */
+        public synchronized void rollback() {
+            for (int i = _tags.size() - 1; i >= _committed; i--) {
+                _ids.remove(_tags.remove(i));
+            }
+        }
+
+        /**
+         * Apply changes written by {@link #writeDefinitions(ByteBuf)}
+         * 
+         * @param readBuffer the buffer to read from
+         * @throws StreamCorruptedException if the definitions are invalid
+         */
+        public synchronized void readDefinitions(ByteBuf readBuffer) throws StreamCorruptedException {
+            if ((readBuffer.readByte() & RESET) != 0) {
+                reset();
+            }
+            int count = readBuffer.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                if (_tags.size() >= _maxSize) {
+                    throw new StreamCorruptedException("The session dictionary is full");
+                }
+                String tag = readBuffer.readCharSequence(readBuffer.readUnsignedShort(), 
+                        StandardCharsets.UTF_8).toString();
+                _ids.put(tag, _tags.size());
+                _tags.add(tag);
+            }
+            _committed = _tags.size();
+        }
+
+        @Override
+        public synchronized String get(long num) throws StreamCorruptedException {
+            return get(_tags, _tags.size(), num);
+        }
+
+        /**
+         * @return the tags defined so far, which later definitions and resets do not change
+         */
+        public synchronized TagTable snapshot() {
+            final List<String> tags = _tags;
+            final int size = tags.size();
+            return new TagTable() {
+                @Override
+                public String get(long num) throws StreamCorruptedException {
+                    // The list may still be growing, so it is read under the dictionary lock
+                    synchronized (TagDictionary.this) {
+                        return TagDictionary.get(tags, size, num);
+                    }
+                }
+            };
+        }
+
+        private static String get(List<String> tags, int size, long num) throws StreamCorruptedException {
+            if (num >= size) {
+                throw new StreamCorruptedException("Invalid session tag num= " + num);
+            }
+            return tags.get((int)num);
+        }
+
+        private void reset() {
+            _ids.clear();
+            // Snapshots keep the old tags
+            _tags = new ArrayList<String>();
+            _committed = 0;
+        }
+    }
+
     static class SimpleEntry<K, V> implements Entry<K, V> {
         private final K _key;
         private V _value;
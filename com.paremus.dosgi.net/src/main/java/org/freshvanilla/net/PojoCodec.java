@@ -0,0 +1,279 @@
+/*
+ Copyright 2008-2011 the original author or authors
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.freshvanilla.net;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import org.freshvanilla.lang.MetaClass;
+import org.freshvanilla.lang.MetaField;
+import org.freshvanilla.lang.VanillaClass;
+import org.freshvanilla.lang.VanillaField;
+import org.freshvanilla.utils.Classes;
+
+/**
+ * Reads and writes the fields of one {@link MetaClass}. The reads and writes of all
+ * the fields are composed into a single method handle for each direction when the
+ * codec is built, so serializing a pojo does not need to check the type of each field,
+ * or make a call through an interface for each field. The output is identical to 
+ * {@link WireFormat#writeField(ByteBuf, MetaField, Object)}.
+ */
+final class PojoCodec<Pojo> {
+
+    private static final Lookup LOOKUP = MethodHandles.lookup();
+
+    /** The type of each field's read and write, and of the whole codec */
+    private static final MethodType CODEC_TYPE = methodType(void.class, ByteBuf.class, WireFormat.class,
+        Object.class);
+
+    private static final MethodHandle NONE;
+    private static final MethodHandle WRITE_BOOLEAN;
+    private static final MethodHandle WRITE_NUM;
+    private static final MethodHandle WRITE_DOUBLE;
+    private static final MethodHandle WRITE_OBJECT;
+    private static final MethodHandle WRITE_FIELD;
+    private static final MethodHandle READ_BOOLEAN;
+    private static final MethodHandle READ_NUM;
+    private static final MethodHandle READ_DOUBLE;
+    private static final MethodHandle READ_OBJECT;
+    private static final MethodHandle READ_FIELD;
+    private static final MethodHandle PARSE_AS;
+
+    static {
+        try {
+            NONE = LOOKUP.findStatic(PojoCodec.class, "none", CODEC_TYPE);
+            WRITE_BOOLEAN = bufferFirst(LOOKUP.findVirtual(WireFormat.class, "writeBoolean",
+                methodType(void.class, ByteBuf.class, boolean.class)));
+            WRITE_NUM = bufferFirst(LOOKUP.findVirtual(WireFormat.class, "writeNum",
+                methodType(void.class, ByteBuf.class, long.class)));
+            WRITE_DOUBLE = MethodHandles.dropArguments(LOOKUP.findStatic(BinaryWireFormat.class, "writeDouble",
+                methodType(void.class, ByteBuf.class, double.class)), 1, WireFormat.class);
+            WRITE_OBJECT = bufferFirst(LOOKUP.findVirtual(WireFormat.class, "writeObject",
+                methodType(void.class, ByteBuf.class, Object.class)));
+            WRITE_FIELD = LOOKUP.findVirtual(WireFormat.class, "writeField",
+                methodType(void.class, ByteBuf.class, MetaField.class, Object.class));
+            READ_BOOLEAN = bufferFirst(LOOKUP.findVirtual(WireFormat.class, "readBoolean",
+                methodType(boolean.class, ByteBuf.class)));
+            READ_NUM = bufferFirst(LOOKUP.findVirtual(WireFormat.class, "readNum",
+                methodType(long.class, ByteBuf.class)));
+            READ_DOUBLE = bufferFirst(LOOKUP.findVirtual(WireFormat.class, "readDouble",
+                methodType(double.class, ByteBuf.class)));
+            READ_OBJECT = bufferFirst(LOOKUP.findVirtual(WireFormat.class, "readObject",
+                methodType(Object.class, ByteBuf.class)));
+            READ_FIELD = LOOKUP.findVirtual(WireFormat.class, "readField",
+                methodType(void.class, ByteBuf.class, MetaField.class, Object.class));
+            PARSE_AS = LOOKUP.findStatic(PojoCodec.class, "parseAs",
+                methodType(Object.class, Object.class, Class.class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** (ByteBuf, WireFormat, Object)void */
+    private final MethodHandle _write;
+    /** (ByteBuf, WireFormat, Object)void */
+    private final MethodHandle _read;
+
+    private PojoCodec(MethodHandle write, MethodHandle read) {
+        _write = write;
+        _read = read;
+    }
+
+    /**
+     * Build a codec for the supplied class. Classes which do not match the local
+     * class definition, and fields with unexpected types, use the reflective
+     * {@link WireFormat#writeField(ByteBuf, MetaField, Object)} and 
+     * {@link WireFormat#readField(ByteBuf, MetaField, Object)} methods.
+     * 
+     * @param clazz the class
+     * @return the codec
+     */
+    static <Pojo> PojoCodec<Pojo> forClass(MetaClass<Pojo> clazz) {
+        MetaField<Pojo, ?>[] fields = clazz.fields();
+        MethodHandle write = NONE;
+        MethodHandle read = NONE;
+        boolean local = clazz instanceof VanillaClass;
+        try {
+            // Each field is folded in front of the fields after it
+            for (int i = fields.length - 1; i >= 0; i--) {
+                write = MethodHandles.foldArguments(write, local ? writer(fields[i]) : reflectiveWriter(fields[i]));
+                read = MethodHandles.foldArguments(read, local ? reader(fields[i]) : reflectiveReader(fields[i]));
+            }
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to build a codec for " + clazz, e);
+        }
+        return new PojoCodec<Pojo>(write, read);
+    }
+
+    void write(ByteBuf wb, WireFormat wf, Pojo pojo) throws IOException {
+        try {
+            _write.invokeExact(wb, wf, (Object)pojo);
+        }
+        catch (IOException | RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new IOException(t);
+        }
+    }
+
+    void read(ByteBuf rb, WireFormat wf, Pojo pojo) throws ClassNotFoundException, IOException {
+        try {
+            _read.invokeExact(rb, wf, (Object)pojo);
+        }
+        catch (ClassNotFoundException | IOException | RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new IOException(t);
+        }
+    }
+
+    private static MethodHandle writer(MetaField<?, ?> field) throws ReflectiveOperationException {
+        final Class<?> type = field.getType();
+
+        if (!field.isPrimitive()) {
+            return MethodHandles.filterArguments(WRITE_OBJECT, 2, getter(field, Object.class, "get"));
+        }
+        else if (type == boolean.class) {
+            return MethodHandles.filterArguments(WRITE_BOOLEAN, 2, getter(field, boolean.class, "getBoolean"));
+        }
+        else if (type == byte.class || type == char.class || type == short.class || type == int.class
+                 || type == long.class) {
+            return MethodHandles.filterArguments(WRITE_NUM, 2, getter(field, long.class, "getNum"));
+        }
+        else if (type == float.class || type == double.class) {
+            return MethodHandles.filterArguments(WRITE_DOUBLE, 2, getter(field, double.class, "getDouble"));
+        }
+        return reflectiveWriter(field);
+    }
+
+    private static MethodHandle reader(MetaField<?, ?> field) throws ReflectiveOperationException {
+        final Class<?> type = field.getType();
+
+        MethodHandle setter;
+        MethodHandle value;
+        if (!field.isPrimitive()) {
+            setter = setter(field, Object.class, "set");
+            value = type == Object.class ? READ_OBJECT : 
+                MethodHandles.filterReturnValue(READ_OBJECT, MethodHandles.insertArguments(PARSE_AS, 1, type));
+        }
+        else if (type == boolean.class) {
+            setter = setter(field, boolean.class, "setBoolean");
+            value = READ_BOOLEAN;
+        }
+        else if (type == byte.class || type == char.class || type == short.class || type == int.class
+                 || type == long.class) {
+            setter = setter(field, long.class, "setNum");
+            value = READ_NUM;
+        }
+        else if (type == float.class || type == double.class) {
+            setter = setter(field, double.class, "setDouble");
+            value = READ_DOUBLE;
+        }
+        else {
+            return reflectiveReader(field);
+        }
+        // (Object, ByteBuf, WireFormat)void, reordered to match the codec 
+        return MethodHandles.permuteArguments(MethodHandles.collectArguments(setter, 1, value), 
+            CODEC_TYPE, 2, 0, 1);
+    }
+
+    private static MethodHandle reflectiveWriter(MetaField<?, ?> field) {
+        return bufferFirst(MethodHandles.insertArguments(WRITE_FIELD, 2, field));
+    }
+
+    private static MethodHandle reflectiveReader(MetaField<?, ?> field) {
+        return bufferFirst(MethodHandles.insertArguments(READ_FIELD, 2, field));
+    }
+
+    /**
+     * Read the field directly if it is accessible, otherwise use its accessor
+     * 
+     * @return (Object)as
+     */
+    private static MethodHandle getter(MetaField<?, ?> field, Class<?> as, String accessor)
+        throws ReflectiveOperationException {
+        Field f = field instanceof VanillaField ? ((VanillaField<?, ?>)field).getReflectedField() : null;
+        if (f != null) {
+            try {
+                return LOOKUP.unreflectGetter(f).asType(methodType(as, Object.class));
+            }
+            catch (IllegalAccessException e) {
+                // Fall back to the accessor
+            }
+        }
+        return LOOKUP.findVirtual(MetaField.class, accessor, methodType(as, Object.class)).bindTo(field);
+    }
+
+    /**
+     * Write the field directly if it is accessible, otherwise use its accessor. 
+     * Numbers are narrowed to the type of the field, as they are by the accessor.
+     * 
+     * @return (Object, as)void
+     */
+    private static MethodHandle setter(MetaField<?, ?> field, Class<?> as, String accessor)
+        throws ReflectiveOperationException {
+        Field f = field instanceof VanillaField ? ((VanillaField<?, ?>)field).getReflectedField() : null;
+        if (f != null) {
+            try {
+                return MethodHandles.explicitCastArguments(LOOKUP.unreflectSetter(f), 
+                    methodType(void.class, Object.class, as));
+            }
+            catch (IllegalAccessException e) {
+                // Fall back to the accessor
+            }
+        }
+        return LOOKUP.findVirtual(MetaField.class, accessor, methodType(void.class, Object.class, as))
+            .bindTo(field);
+    }
+
+    /**
+     * Move the WireFormat receiver of a method after its ByteBuf argument
+     */
+    private static MethodHandle bufferFirst(MethodHandle mh) {
+        MethodType type = mh.type();
+        int[] reorder = new int[type.parameterCount()];
+        reorder[0] = 1;
+        reorder[1] = 0;
+        for (int i = 2; i < reorder.length; i++) {
+            reorder[i] = i;
+        }
+        return MethodHandles.permuteArguments(mh, 
+            type.changeParameterType(0, ByteBuf.class).changeParameterType(1, WireFormat.class), reorder);
+    }
+
+    @SuppressWarnings("unused")
+    private static void none(ByteBuf wb, WireFormat wf, Object pojo) {
+        // The codec for a class with no fields
+    }
+
+    @SuppressWarnings("unused")
+    private static Object parseAs(Object value, Class<?> type) {
+        return value == null || type.isInstance(value) ? value : Classes.parseAs(value, type);
+    }
+}
@@ -19,5 +19,7 @@ package org.freshvanilla.net;
 enum SpecialTag {
     NULL, TRUE, FALSE, SIGNED1, BYTES, SIGNED2, SIGNED4, SIGNED8, CHAR, FLOAT4, FLOAT8, ARRAY, TAG, STRING,
     LIST, SET, MAP, ENTRY, ENUM, SERIALIZABLE, CLASS, META_CLASS, POJO, POJO_REF, BOOLEANS, SHORTS, CHARS,
-    INTS, LONGS, FLOATS, DOUBLES
+    INTS, LONGS, FLOATS, DOUBLES, SESSION, VARINT4, VARINT8, UTF8_STRING,
+    FIXED_SHORTS, FIXED_CHARS, FIXED_INTS, FIXED_LONGS, FIXED_FLOATS, FIXED_DOUBLES,
+    UUID, BIG_INTEGER, BIG_DECIMAL, INSTANT, DURATION, LOCAL_DATE, LOCAL_TIME, LOCAL_DATE_TIME, OPTIONAL
 }
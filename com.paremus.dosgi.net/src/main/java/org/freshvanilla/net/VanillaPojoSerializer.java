@@ -20,14 +20,16 @@ import io.netty.buffer.ByteBuf;
 
 import java.io.IOException;
 import java.io.NotSerializableException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.freshvanilla.lang.MetaClass;
 import org.freshvanilla.lang.MetaClasses;
-import org.freshvanilla.lang.MetaField;
 
 public class VanillaPojoSerializer implements PojoSerializer {
 
     protected final MetaClasses _metaClasses;
+    private final ConcurrentMap<MetaClass<?>, PojoCodec<?>> _codecs = new ConcurrentHashMap<MetaClass<?>, PojoCodec<?>>();
 
     public VanillaPojoSerializer(MetaClasses metaclasses) {
         super();
@@ -47,10 +49,7 @@ public class VanillaPojoSerializer implements PojoSerializer {
     public <Pojo> void serialize(ByteBuf wb, WireFormat wf, Pojo pojo) throws IOException {
         MetaClass<Pojo> clazz = _metaClasses.acquireMetaClass((Class<Pojo>)pojo.getClass());
         wf.writeTag(wb, clazz.nameWithParameters());
-
-        for (MetaField<Pojo, ?> field : clazz.fields()) {
-            wf.writeField(wb, field, pojo);
-        }
+        acquireCodec(clazz).write(wb, wf, pojo);
     }
 
     public <Pojo> Pojo deserialize(ByteBuf rb, WireFormat wf) throws ClassNotFoundException, IOException {
@@ -76,11 +75,22 @@ public class VanillaPojoSerializer implements PojoSerializer {
             throw new NotSerializableException("Exception attempting to create " + clazz + ' ' + e);
         }
 
-        for (MetaField<Pojo, ?> field : clazz.fields()) {
-            wf.readField(rb, field, pojo);
-        }
+        acquireCodec(clazz).read(rb, wf, pojo);
 
         return pojo;
 	}
 
+    @SuppressWarnings("unchecked")
+    private <Pojo> PojoCodec<Pojo> acquireCodec(MetaClass<Pojo> clazz) {
+        PojoCodec<Pojo> codec = (PojoCodec<Pojo>)_codecs.get(clazz);
+        if (codec == null) {
+            codec = PojoCodec.forClass(clazz);
+            PojoCodec<Pojo> prev = (PojoCodec<Pojo>)_codecs.putIfAbsent(clazz, codec);
+            if (prev != null) {
+                codec = prev;
+            }
+        }
+        return codec;
+    }
+
 }
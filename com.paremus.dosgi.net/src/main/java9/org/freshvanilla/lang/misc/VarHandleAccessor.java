@@ -0,0 +1,111 @@
+/*
+ Copyright 2008-2011 the original author or authors
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.freshvanilla.lang.misc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.invoke.VarHandle.AccessMode;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Accesses fields using VarHandles, which is much faster than reflection. VarHandles 
+ * cannot create objects without running a constructor, or write to final fields, so
+ * these operations are passed to the fallback accessor.
+ * <p>
+ * The field accessors take the VarHandle's get and set method handles, adapted once
+ * to accept an {@link Object} receiver, and call them with 
+ * {@link MethodHandle#invokeExact(Object...)}. Calling the VarHandle itself with an
+ * erased receiver would adapt the call type on every access.
+ */
+class VarHandleAccessor implements Accessor {
+
+	private final Accessor fallback;
+
+	VarHandleAccessor(Accessor fallback) {
+		this.fallback = fallback;
+	}
+
+	@Override
+	public <T> T newInstance(Class<T> clazz) throws InstantiationException {
+		return fallback.newInstance(clazz);
+	}
+
+	@Override
+	public FieldAccessor<?> getFieldAccessor(Field field) {
+		if (Modifier.isFinal(field.getModifiers())) {
+			return fallback.getFieldAccessor(field);
+		}
+		
+		VarHandle handle;
+		try {
+			handle = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup())
+					.unreflectVarHandle(field);
+		} catch (IllegalAccessException | SecurityException e) {
+			return fallback.getFieldAccessor(field);
+		}
+		
+		Class<?> type = field.getType();
+        if (type == boolean.class) {
+            return new VarHandleBooleanFieldAccessor(handle);
+        }
+        if (type == byte.class) {
+            return new VarHandleByteFieldAccessor(handle);
+        }
+        if (type == char.class) {
+            return new VarHandleCharFieldAccessor(handle);
+        }
+        if (type == short.class) {
+            return new VarHandleShortFieldAccessor(handle);
+        }
+        if (type == int.class) {
+            return new VarHandleIntFieldAccessor(handle);
+        }
+        if (type == float.class) {
+            return new VarHandleFloatFieldAccessor(handle);
+        }
+        if (type == long.class) {
+            return new VarHandleLongFieldAccessor(handle);
+        }
+        if (type == double.class) {
+            return new VarHandleDoubleFieldAccessor(handle);
+        }
+        return new VarHandleObjectFieldAccessor(handle);
+	}
+
+	static MethodHandle getter(VarHandle handle, Class<?> type) {
+		return handle.toMethodHandle(AccessMode.GET)
+				.asType(MethodType.methodType(type, Object.class));
+	}
+
+	static MethodHandle setter(VarHandle handle, Class<?> type) {
+		return handle.toMethodHandle(AccessMode.SET)
+				.asType(MethodType.methodType(void.class, Object.class, type));
+	}
+
+	static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException) {
+			return (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new RuntimeException(t);
+	}
+}
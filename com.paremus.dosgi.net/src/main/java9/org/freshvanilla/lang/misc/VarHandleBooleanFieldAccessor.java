@@ -0,0 +1,80 @@
+/*
+ Copyright 2008-2011 the original author or authors
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.freshvanilla.lang.misc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+
+class VarHandleBooleanFieldAccessor implements FieldAccessor<Boolean> {
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    VarHandleBooleanFieldAccessor(VarHandle handle) {
+        getter = VarHandleAccessor.getter(handle, boolean.class);
+        setter = VarHandleAccessor.setter(handle, boolean.class);
+    }
+
+    private boolean get(Object pojo) {
+        try {
+            return (boolean) getter.invokeExact(pojo);
+        }
+        catch (Throwable t) {
+            throw VarHandleAccessor.rethrow(t);
+        }
+    }
+
+    private void set(Object pojo, boolean value) {
+        try {
+            setter.invokeExact(pojo, value);
+        }
+        catch (Throwable t) {
+            throw VarHandleAccessor.rethrow(t);
+        }
+    }
+
+	public <Pojo> Boolean getField(Pojo pojo) {
+        return get(pojo);
+    }
+
+    public <Pojo> boolean getBoolean(Pojo pojo) {
+        return get(pojo);
+    }
+
+    public <Pojo> long getNum(Pojo pojo) {
+        return get(pojo) ? 1 : 0;
+    }
+
+    public <Pojo> double getDouble(Pojo pojo) {
+        return get(pojo) ? 1 : 0;
+    }
+
+    public <Pojo> void setField(Pojo pojo, Boolean object) {
+        set(pojo, (boolean) object);
+    }
+
+    public <Pojo> void setBoolean(Pojo pojo, boolean flag) {
+        set(pojo, (boolean) flag);
+    }
+
+    public <Pojo> void setNum(Pojo pojo, long value) {
+        set(pojo, (boolean) (value != 0));
+    }
+
+    public <Pojo> void setDouble(Pojo pojo, double value) {
+        set(pojo, (boolean) (value != 0));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+/*
+ Copyright 2008-2011 the original author or authors
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.freshvanilla.lang.misc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+
+class VarHandleCharFieldAccessor implements FieldAccessor<Character> {
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    VarHandleCharFieldAccessor(VarHandle handle) {
+        getter = VarHandleAccessor.getter(handle, char.class);
+        setter = VarHandleAccessor.setter(handle, char.class);
+    }
+
+    private char get(Object pojo) {
+        try {
+            return (char) getter.invokeExact(pojo);
+        }
+        catch (Throwable t) {
+            throw VarHandleAccessor.rethrow(t);
+        }
+    }
+
+    private void set(Object pojo, char value) {
+        try {
+            setter.invokeExact(pojo, value);
+        }
+        catch (Throwable t) {
+            throw VarHandleAccessor.rethrow(t);
+        }
+    }
+
+    public <Pojo> Character getField(Pojo pojo) {
+        return get(pojo);
+    }
+
+    public <Pojo> boolean getBoolean(Pojo pojo) {
+        return get(pojo) != 0;
+    }
+
+    public <Pojo> long getNum(Pojo pojo) {
+        return get(pojo);
+    }
+
+    public <Pojo> double getDouble(Pojo pojo) {
+        return get(pojo);
+    }
+
+    public <Pojo> void setField(Pojo pojo, Character value) {
+        set(pojo, (char) value);
+    }
+
+    public <Pojo> void setBoolean(Pojo pojo, boolean value) {
+        set(pojo, (char)(value ? 1 : 0));
+    }
+
+    public <Pojo> void setNum(Pojo pojo, long value) {
+        set(pojo, (char)value);
+    }
+
+    public <Pojo> void setDouble(Pojo pojo, double value) {
+        set(pojo, (char)value);
+    }
+}
\ No newline at end of file
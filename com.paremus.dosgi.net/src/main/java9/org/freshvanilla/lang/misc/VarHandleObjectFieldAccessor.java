@@ -0,0 +1,84 @@
+/*
+ Copyright 2008-2011 the original author or authors
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.freshvanilla.lang.misc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+
+class VarHandleObjectFieldAccessor implements FieldAccessor<Object> {
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    VarHandleObjectFieldAccessor(VarHandle handle) {
+        getter = VarHandleAccessor.getter(handle, Object.class);
+        setter = VarHandleAccessor.setter(handle, Object.class);
+    }
+
+    private Object get(Object pojo) {
+        try {
+            return (Object) getter.invokeExact(pojo);
+        }
+        catch (Throwable t) {
+            throw VarHandleAccessor.rethrow(t);
+        }
+    }
+
+    private void set(Object pojo, Object value) {
+        try {
+            setter.invokeExact(pojo, value);
+        }
+        catch (Throwable t) {
+            throw VarHandleAccessor.rethrow(t);
+        }
+    }
+
+    public <Pojo> Object getField(Pojo pojo) {
+        return get(pojo);
+    }
+
+    public <Pojo> boolean getBoolean(Pojo pojo) {
+        return Boolean.TRUE.equals(get(pojo));
+    }
+
+    public <Pojo> long getNum(Pojo pojo) {
+        Object obj = get(pojo);
+        if (obj instanceof Number) return ((Number)obj).longValue();
+        throw new AssertionError("Cannot convert " + obj + " to long.");
+    }
+
+    public <Pojo> double getDouble(Pojo pojo) {
+        Object obj = get(pojo);
+        if (obj instanceof Number) return ((Number)obj).doubleValue();
+        throw new AssertionError("Cannot convert " + obj + " to double.");
+    }
+
+    public <Pojo> void setField(Pojo pojo, Object value) {
+        set(pojo, (Object) value);
+    }
+
+    public <Pojo> void setBoolean(Pojo pojo, boolean value) {
+        set(pojo, (Object) value);
+    }
+
+    public <Pojo> void setNum(Pojo pojo, long value) {
+        set(pojo, (Object) value);
+    }
+
+    public <Pojo> void setDouble(Pojo pojo, double value) {
+        set(pojo, (Object) value);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.dsw.net.serialization;
+
+public class FinalFieldPojo {
+
+	private final int count;
+	
+	private final String name;
+	
+	private final float ratio;
+
+	public FinalFieldPojo(int count, String name, float ratio) {
+		this.count = count;
+		this.name = name;
+		this.ratio = ratio;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public float getRatio() {
+		return ratio;
+	}
+}
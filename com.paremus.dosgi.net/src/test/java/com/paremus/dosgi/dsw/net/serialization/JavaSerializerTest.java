@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.dsw.net.serialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.framework.Bundle;
+
+import com.paremus.dosgi.net.serialize.SerializationSession;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
+import com.paremus.dosgi.net.serialize.java.JavaSerializerFactory;
+import com.paremus.dosgi.net.tcp.VersionCheckingLengthFieldBasedFrameDecoder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.DefaultAttributeMap;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JavaSerializerTest {
+
+	@SuppressWarnings("serial")
+	public static class Payload implements Serializable {
+		private final String name;
+		private final List<Date> dates;
+		
+		public Payload(String name, List<Date> dates) {
+			this.name = name;
+			this.dates = dates;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Payload && name.equals(((Payload)obj).name) && 
+					dates.equals(((Payload)obj).dates);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, dates);
+		}
+	}
+	
+	@Mock
+	private Bundle bundle;
+
+	SessionSerializer serializer;
+
+	@Before
+	public void setUp() throws Exception {
+		when(bundle.loadClass(anyString())).then(i -> Class.forName(i.getArgument(0)));
+		serializer = (SessionSerializer) new JavaSerializerFactory().create(bundle);
+	}
+
+	@Test
+	public void testPlainMessages() throws IOException, ClassNotFoundException {
+		Payload payload = new Payload("foo", Arrays.asList(new Date(0), new Date(1)));
+		
+		Channel channel = mock(Channel.class);
+		
+		ByteBuf bb = Unpooled.buffer(4096);
+		serializer.serializeArgs(bb, new Object[] {payload, 42}, channel);
+		serializer.serializeReturn(bb, payload);
+		
+		assertArrayEquals(new Object[] {payload, 42}, serializer.deserializeArgs(bb, channel));
+		assertEquals(payload, serializer.deserializeReturn(bb));
+		assertFalse(bb.isReadable());
+		
+		// Classes are only loaded from the bundle once
+		verify(bundle, times(1)).loadClass(Payload.class.getName());
+	}
+	
+	@Test
+	public void testSessionFramesShareDescriptors() throws IOException, ClassNotFoundException {
+		Channel writer = sessionChannel();
+		SerializationSession session = SerializationSession.get(writer);
+		session.enable();
+		
+		EmbeddedChannel reader = new EmbeddedChannel(new VersionCheckingLengthFieldBasedFrameDecoder());
+		
+		Payload payload = new Payload("foo", Arrays.asList(new Date(0), new Date(1)));
+		
+		ByteBuf plain = Unpooled.buffer(4096);
+		serializer.serializeReturn(plain, payload);
+		
+		ByteBuf first = sessionFrame(session, writer, payload);
+		ByteBuf second = sessionFrame(session, writer, payload);
+		
+		// The class descriptors are only sent once
+		assertTrue(second.readableBytes() * 2 < first.readableBytes());
+		assertTrue(second.readableBytes() * 3 < plain.readableBytes());
+		
+		assertTrue(reader.writeInbound(first, second));
+		
+		assertEquals(payload, readSessionFrame(reader));
+		assertEquals(payload, readSessionFrame(reader));
+	}
+	
+	private Channel sessionChannel() {
+		Channel channel = mock(Channel.class);
+		EventLoop eventLoop = mock(EventLoop.class);
+		DefaultAttributeMap attributes = new DefaultAttributeMap();
+		when(channel.attr(any())).then(i -> attributes.attr(i.getArgument(0)));
+		when(channel.eventLoop()).thenReturn(eventLoop);
+		return channel;
+	}
+
+	private ByteBuf sessionFrame(SerializationSession session, Channel channel, Object o) throws IOException {
+		ByteBuf buf = Unpooled.buffer(4096);
+		assertTrue(session.beginFrame());
+		try {
+			// A version 2 header with a dummy command
+			buf.writeByte(2).writeMedium(0).writeByte(0);
+			serializer.serializeReturn(buf, o, channel);
+			buf.setMedium(1, buf.readableBytes() - 4);
+			session.endFrame(buf);
+		} finally {
+			session.releaseFrame();
+		}
+		return buf;
+	}
+	
+	private Object readSessionFrame(EmbeddedChannel reader) throws IOException, ClassNotFoundException {
+		ByteBuf frame = reader.readInbound();
+		try {
+			frame.skipBytes(1);
+			return serializer.deserializeReturn(frame, reader);
+		} finally {
+			frame.release();
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.dsw.net.serialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.framework.Bundle;
+
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Timestamp;
+import com.paremus.dosgi.net.serialize.protobuf.ProtobufSerializerFactory;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProtoBufSerializerTest {
+
+	@Mock
+	private Bundle bundle;
+
+	Serializer serializer;
+
+	@Before
+	public void setUp() throws Exception {
+		when(bundle.loadClass(anyString())).then(i -> Class.forName(i.getArgument(0)));
+		serializer = new ProtobufSerializerFactory().create(bundle);
+	}
+
+	@Test
+	public void testLargePrimitiveArrays() throws IOException, ClassNotFoundException {
+		double[] doubles = new double[1000];
+		int[] ints = new int[300];
+		char[] chars = new char[256];
+		for(int i = 0; i < doubles.length; i++) {
+			doubles[i] = Math.sqrt(i);
+		}
+		for(int i = 0; i < ints.length; i++) {
+			ints[i] = i * 1000003;
+		}
+		Arrays.fill(chars, '\u20ac');
+		
+		ByteBuf bb = Unpooled.buffer(16384);
+		serializer.serializeArgs(bb, new Object[] {doubles, ints, chars, new byte[500]});
+
+		Object[] args = serializer.deserializeArgs(bb);
+		assertArrayEquals(doubles, (double[]) args[0], 0d);
+		assertArrayEquals(ints, (int[]) args[1]);
+		assertArrayEquals(chars, (char[]) args[2]);
+		assertArrayEquals(new byte[500], (byte[]) args[3]);
+		assertFalse(bb.isReadable());
+	}
+
+	@Test
+	public void testStrings() throws IOException, ClassNotFoundException {
+		char[] chars = new char[70000];
+		Arrays.fill(chars, '\u65e5');
+		String large = new String(chars);
+		
+		ByteBuf bb = Unpooled.buffer(16384);
+		serializer.serializeArgs(bb, new Object[] {large, new String[] {"caf\u00e9", null}, null});
+		
+		Object[] args = serializer.deserializeArgs(bb);
+		assertEquals(large, args[0]);
+		assertArrayEquals(new String[] {"caf\u00e9", null}, (String[]) args[1]);
+		assertEquals(null, args[2]);
+		assertFalse(bb.isReadable());
+	}
+
+	@Test
+	public void testMessagesAreLengthDelimited() throws IOException, ClassNotFoundException {
+		Timestamp timestamp = Timestamp.newBuilder().setSeconds(1234567890L).setNanos(42).build();
+		StringValue string = StringValue.newBuilder().setValue("hello").build();
+		List<Object> list = Arrays.asList(timestamp, string, "trailing", Arrays.asList(timestamp, 7L));
+		
+		ByteBuf bb = Unpooled.buffer(16384);
+		serializer.serializeReturn(bb, list);
+		
+		// Buffers with more than one component are written through streams
+		ByteBuf composite = Unpooled.compositeBuffer().addComponents(true, 
+				Unpooled.buffer(8, 8), Unpooled.buffer(8, 8));
+		serializer.serializeReturn(composite, list);
+		assertEquals(ByteBufUtil.hexDump(bb), ByteBufUtil.hexDump(composite));
+		
+		ByteBuf single = Unpooled.buffer(64);
+		serializer.serializeReturn(single, timestamp);
+		// The last value needs no length prefix, just the tag and the type name, then the message
+		assertEquals(1 + 2 + Timestamp.class.getName().length() + timestamp.getSerializedSize(), 
+				single.readableBytes());
+		
+		assertEquals(list, serializer.deserializeReturn(bb));
+		assertFalse(bb.isReadable());
+		assertEquals(list, serializer.deserializeReturn(composite));
+		assertFalse(composite.isReadable());
+	}
+
+	@Test
+	public void testJavaObjectsAndArrays() throws IOException, ClassNotFoundException {
+		MyEnum[] enums = {MyEnum.FOO, null, MyEnum.BAR};
+		
+		ByteBuf bb = Unpooled.buffer(16384);
+		serializer.serializeArgs(bb, new Object[] {enums, Timestamp.getDefaultInstance(), 
+				new java.util.Date(0)});
+		
+		Object[] args = serializer.deserializeArgs(bb);
+		assertArrayEquals(enums, (MyEnum[]) args[0]);
+		assertEquals(Timestamp.getDefaultInstance(), args[1]);
+		assertEquals(new java.util.Date(0), args[2]);
+		assertFalse(bb.isReadable());
+	}
+
+	@Test
+	public void testLegacyTagsAreRead() throws IOException, ClassNotFoundException {
+		Timestamp timestamp = Timestamp.newBuilder().setSeconds(1234567890L).build();
+		
+		// The encodings written by earlier versions, which used writeUTF and did not 
+		// prefix messages or serialized objects with their length
+		ByteBuf bb = Unpooled.buffer(16384);
+		ByteBufOutputStream bbos = new ByteBufOutputStream(bb);
+		bbos.writeInt(4);
+		bbos.write(0x09);
+		bbos.writeUTF("caf\u00e9");
+		bbos.write(0x12);
+		bbos.writeInt(2);
+		bbos.writeUTF("a");
+		bbos.writeUTF("b");
+		bbos.write(0x13);
+		bbos.writeUTF(MyEnum.class.getName());
+		bbos.writeInt(1);
+		bbos.write(0x00);
+		bbos.write(0x19);
+		bbos.writeUTF(Timestamp.class.getName());
+		timestamp.writeTo(bbos);
+		
+		Object[] args = serializer.deserializeArgs(bb);
+		assertEquals("caf\u00e9", args[0]);
+		assertArrayEquals(new String[] {"a", "b"}, (String[]) args[1]);
+		assertArrayEquals(new MyEnum[1], (MyEnum[]) args[2]);
+		assertEquals(timestamp, args[3]);
+		
+		bb.clear();
+		bb.writeByte(0x1A);
+		try (ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(bb))) {
+			oos.writeObject(new java.util.Date(0));
+		}
+		assertEquals(new java.util.Date(0), serializer.deserializeReturn(bb));
+	}
+
+	@Test
+	public void testOlderPeersCanReadCommonValues() throws IOException, ClassNotFoundException {
+		Timestamp timestamp = Timestamp.newBuilder().setSeconds(1234567890L).build();
+		
+		ByteBuf bb = Unpooled.buffer(16384);
+		serializer.serializeArgs(bb, new Object[] {"caf\u00e9\u0000", new MyEnum[] {null}, timestamp});
+		
+		// The same bytes that earlier versions wrote, which they can therefore read 
+		ByteBuf expected = Unpooled.buffer(16384);
+		ByteBufOutputStream bbos = new ByteBufOutputStream(expected);
+		bbos.writeInt(3);
+		bbos.write(0x09);
+		bbos.writeUTF("caf\u00e9\u0000");
+		bbos.write(0x13);
+		bbos.writeUTF(MyEnum.class.getName());
+		bbos.writeInt(1);
+		bbos.write(0x00);
+		bbos.write(0x19);
+		bbos.writeUTF(Timestamp.class.getName());
+		timestamp.writeTo(bbos);
+		assertEquals(ByteBufUtil.hexDump(expected), ByteBufUtil.hexDump(bb));
+		
+		bb.clear();
+		serializer.serializeReturn(bb, new java.util.Date(0));
+		assertEquals(0x1A, bb.getByte(0));
+		assertEquals(new java.util.Date(0), serializer.deserializeReturn(bb));
+		
+		// Values that earlier versions could not write use the new tags
+		char[] chars = new char[70000];
+		Arrays.fill(chars, 'x');
+		String large = new String(chars);
+		bb.clear();
+		serializer.serializeReturn(bb, large);
+		assertEquals(0x1B, bb.getByte(0));
+		assertEquals(large, serializer.deserializeReturn(bb));
+		
+		bb.clear();
+		serializer.serializeArgs(bb, new Object[] {timestamp, new java.util.Date(0)});
+		assertEquals(0x1E, bb.getByte(4));
+		Object[] args = serializer.deserializeArgs(bb);
+		assertEquals(timestamp, args[0]);
+		assertEquals(new java.util.Date(0), args[1]);
+		assertFalse(bb.isReadable());
+	}
+}
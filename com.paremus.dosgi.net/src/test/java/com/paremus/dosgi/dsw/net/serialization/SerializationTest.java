@@ -19,42 +19,72 @@ import static com.paremus.dosgi.dsw.net.serialization.MyEnum.FOO;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 
+import org.freshvanilla.lang.MetaClass;
 import org.freshvanilla.lang.MetaClasses;
+import org.freshvanilla.lang.MetaField;
 import org.freshvanilla.net.BinaryWireFormat;
+import org.freshvanilla.net.BinaryWireFormat.TagDictionary;
+import org.freshvanilla.net.BinaryWireFormat.TagTable;
+import org.freshvanilla.net.PojoSerializer;
+import org.freshvanilla.net.VanillaPojoSerializer;
 import org.freshvanilla.net.VersionAwareVanillaPojoSerializer;
+import org.freshvanilla.net.WireFormat;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Version;
 import org.osgi.framework.wiring.BundleWiring;
 
+import com.paremus.dosgi.net.serialize.SerializationSession;
 import com.paremus.dosgi.net.serialize.freshvanilla.MetaClassesClassLoader;
 import com.paremus.dosgi.net.serialize.freshvanilla.VanillaRMISerializer;
 import com.paremus.dosgi.net.serialize.freshvanilla.VanillaRMISerializerFactory;
+import com.paremus.dosgi.net.tcp.VersionCheckingLengthFieldBasedFrameDecoder;
 import com.paremus.fabric.v2.dto.Fibre;
 
 import aQute.lib.converter.Converter;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.DefaultAttributeMap;
 
 @RunWith(MockitoJUnitRunner.class)
 public class SerializationTest {
@@ -269,6 +299,75 @@ public class SerializationTest {
 		assertSame(cp3[0], cp3[0].getPojo().getPojo());
 	}
 
+	@Test
+	public void testAcyclicSharedReferences() throws IOException, ClassNotFoundException {
+		VanillaRMISerializer acyclic = (VanillaRMISerializer) new VanillaRMISerializerFactory(true).create(bundle);
+		
+		CyclePojo leaf = new CyclePojo();
+		CyclePojo cp = new CyclePojo();
+		cp.setPojo(leaf);
+		
+		ByteBuf bb = Unpooled.buffer(16384);
+		acyclic.serializeReturn(bb, new Object[] { cp, cp, Arrays.asList(leaf, leaf) });
+		
+		Object[] o = (Object[]) acyclic.deserializeReturn(bb);
+		
+		// Shared references are sent in full, so they arrive as copies
+		assertNotSame(o[0], o[1]);
+		assertTrue(((CyclePojo) o[0]).getPojo() instanceof CyclePojo);
+		List<?> list = (List<?>) o[2];
+		assertEquals(2, list.size());
+		assertNotSame(list.get(0), list.get(1));
+	}
+
+	@Test
+	public void testAcyclicRejectsCycles() throws IOException, ClassNotFoundException {
+		VanillaRMISerializer acyclic = (VanillaRMISerializer) new VanillaRMISerializerFactory(true).create(bundle);
+		
+		CyclePojo cp = new CyclePojo();
+		CyclePojo cp2 = new CyclePojo();
+		cp.setPojo(cp2);
+		cp2.setPojo(cp);
+		
+		try {
+			acyclic.serializeReturn(Unpooled.buffer(16384), cp);
+			fail("The cycle should be detected");
+		} catch (NotSerializableException nse) {
+			// Expected
+		}
+		
+		List<Object> list = new ArrayList<>();
+		list.add(list);
+		try {
+			acyclic.serializeReturn(Unpooled.buffer(16384), list);
+			fail("The cycle should be detected");
+		} catch (NotSerializableException nse) {
+			// Expected
+		}
+		
+		// The serializer is still usable after a failure
+		ByteBuf bb = Unpooled.buffer(16384);
+		acyclic.serializeReturn(bb, new CyclePojo());
+		assertTrue(acyclic.deserializeReturn(bb) instanceof CyclePojo);
+	}
+
+	@Test
+	public void testAcyclicReleasesContainers() throws Exception {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat wf = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc), true);
+		
+		CyclePojo cp = new CyclePojo();
+		cp.setPojo(new CyclePojo());
+		wf.writeObject(Unpooled.buffer(4096), Arrays.asList(cp, Arrays.asList(cp.getPojo())));
+		
+		// Nothing that was written is retained once the write completes
+		Field f = BinaryWireFormat.class.getDeclaredField("_ancestors");
+		f.setAccessible(true);
+		for (Object o : (Object[]) f.get(wf)) {
+			assertNull(o);
+		}
+	}
+
 	@Test
 	public void testClasses() throws IOException, ClassNotFoundException {
 		Class<?> clazz = CyclePojo.class;
@@ -594,4 +693,459 @@ public class SerializationTest {
 		
 		assertEquals(toTest, serializer.deserializeReturn(bb));
 	}
+
+	@Test
+	public void testGeneratedPojoCodecsAreWireCompatible() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		
+		// The original field by field serializer
+		PojoSerializer reflective = new VanillaPojoSerializer(mc) {
+			@Override
+			@SuppressWarnings("unchecked")
+			public <Pojo> void serialize(ByteBuf wb, WireFormat wf, Pojo pojo) throws IOException {
+				MetaClass<Pojo> clazz = mc.acquireMetaClass((Class<Pojo>)pojo.getClass());
+				wf.writeTag(wb, clazz.nameWithParameters());
+				for (MetaField<Pojo, ?> field : clazz.fields()) {
+					wf.writeField(wb, field, pojo);
+				}
+			}
+
+			@Override
+			public <Pojo> Pojo deserialize(ByteBuf rb, WireFormat wf) throws ClassNotFoundException, IOException {
+				MetaClass<Pojo> clazz = mc.acquireMetaClass((String) wf.readObject(rb));
+				try {
+					Pojo pojo = clazz.newInstance();
+					wf.registerPojo(pojo);
+					for (MetaField<Pojo, ?> field : clazz.fields()) {
+						wf.readField(rb, field, pojo);
+					}
+					return pojo;
+				} catch (InstantiationException e) {
+					throw new IOException(e);
+				}
+			}
+		};
+		
+		BinaryWireFormat reflectiveWF = new BinaryWireFormat(mc, reflective);
+		BinaryWireFormat generatedWF = new BinaryWireFormat(mc, new VanillaPojoSerializer(mc));
+		
+		Object[] pojos = {new PrimitivePojo(true, (byte) 2, (short) 3, 'a', 4, 5, 6, 7),
+				new WrapperPojo(true, (byte) 2, (short) 3, 'a', 4, (float) 5, (long) 6, (double) 7, "foo"),
+				new WrapperPojo(null, null, null, null, null, null, null, null, null),
+				new FinalFieldPojo(3, "bar", 1.5f), new CyclePojo()};
+		
+		for(Object pojo : pojos) {
+			ByteBuf expected = Unpooled.buffer(16384);
+			reflectiveWF.writeObject(expected, pojo);
+			reflectiveWF.reset();
+			
+			ByteBuf actual = Unpooled.buffer(16384);
+			generatedWF.writeObject(actual, pojo);
+			generatedWF.reset();
+			
+			assertEquals(expected, actual);
+			
+			assertTrue(MetaClasses.equals(mc, pojo, generatedWF.readObject(expected)));
+			generatedWF.reset();
+			assertTrue(MetaClasses.equals(mc, pojo, reflectiveWF.readObject(actual)));
+			reflectiveWF.reset();
+		}
+	}
+
+	@Test
+	public void testSessionVariableLengthNumbers() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat wf = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		
+		List<Object> values = Arrays.asList(0, -1, 127, 128, 300, -300, 70000, Integer.MAX_VALUE, Integer.MIN_VALUE, 
+				0L, -1L, 300L, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE, (short) -200, new int[] {1, 200, -70000}, 
+				new long[] {5L, 1L << 50, -1L}, new PrimitivePojo(false, (byte) -3, (short) 1000, 'z', 65536, 1.5f, 
+						1L << 33, -0.25d));
+		
+		ByteBuf fixed = Unpooled.buffer(16384);
+		wf.writeObject(fixed, values);
+		wf.reset();
+		
+		TagDictionary dictionary = new TagDictionary(16);
+		ByteBuf variable = Unpooled.buffer(16384);
+		wf.beginSessionWrite(variable, dictionary);
+		wf.writeObject(variable, values);
+		wf.reset();
+		
+		assertTrue(variable.readableBytes() < fixed.readableBytes());
+		
+		wf.beginSessionRead(variable, dictionary);
+		List<?> read = (List<?>) wf.readObject(variable);
+		wf.reset();
+		
+		assertEquals(values.size(), read.size());
+		for(int i = 0; i < values.size(); i++) {
+			Object expected = values.get(i);
+			if(expected instanceof int[]) {
+				assertArrayEquals((int[]) expected, (int[]) read.get(i));
+			} else if(expected instanceof long[]) {
+				assertArrayEquals((long[]) expected, (long[]) read.get(i));
+			} else {
+				assertTrue(expected + " != " + read.get(i), MetaClasses.equals(mc, expected, read.get(i)));
+			}
+		}
+	}
+
+	@Test
+	public void testSessionUtf8Strings() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat wf = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < 3000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		
+		List<String> values = Arrays.asList("", "hello", "caf\u00e9 \u00ff", "\u65e5\u672c\u8a9e", 
+				"\ud83d\ude00 smile", sb.toString(), sb.toString() + "\u20ac");
+		
+		ByteBuf fixed = Unpooled.buffer(16384);
+		wf.writeObject(fixed, values);
+		wf.reset();
+		
+		TagDictionary dictionary = new TagDictionary(16);
+		ByteBuf utf8 = Unpooled.buffer(16384);
+		wf.beginSessionWrite(utf8, dictionary);
+		wf.writeObject(utf8, values);
+		wf.reset();
+		
+		assertTrue(utf8.readableBytes() < fixed.readableBytes());
+		
+		assertEquals(values, wf.readObject(fixed));
+		wf.reset();
+		
+		wf.beginSessionRead(utf8, dictionary);
+		assertEquals(values, wf.readObject(utf8));
+		wf.reset();
+		assertFalse(utf8.isReadable());
+	}
+
+	@Test
+	public void testSessionUnpairedSurrogates() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat wf = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		
+		// These are not valid UTF-8, but must still arrive exactly as they were sent
+		List<String> values = Arrays.asList("\ud83d", "\ude00", "a\ud83d b", "\ude00\ud83d", 
+				"\ud83d\ude00\ud83d", "\ud83d\ude00 smile");
+		
+		TagDictionary dictionary = new TagDictionary(16);
+		ByteBuf utf8 = Unpooled.buffer(4096);
+		wf.beginSessionWrite(utf8, dictionary);
+		wf.writeObject(utf8, values);
+		wf.reset();
+		
+		wf.beginSessionRead(utf8, dictionary);
+		assertEquals(values, wf.readObject(utf8));
+		wf.reset();
+		assertFalse(utf8.isReadable());
+	}
+
+	@Test
+	public void testSessionFixedWidthArrays() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat wf = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		
+		double[] doubles = new double[100000];
+		float[] floats = new float[1000];
+		long[] longs = new long[1000];
+		int[] ints = new int[1000];
+		short[] shorts = new short[1000];
+		char[] chars = new char[1000];
+		int[] smallInts = new int[1000];
+		for(int i = 0; i < doubles.length; i++) {
+			doubles[i] = Math.sqrt(i) - 100;
+		}
+		for(int i = 0; i < 1000; i++) {
+			floats[i] = i / 7f;
+			longs[i] = -1L << (i % 64);
+			ints[i] = i * 1000003;
+			shorts[i] = (short) (i * 31);
+			chars[i] = (char) ('\u3000' + i);
+			smallInts[i] = i % 100;
+		}
+		List<Object> values = Arrays.asList(doubles, floats, longs, ints, shorts, chars, smallInts);
+		
+		ByteBuf plain = Unpooled.buffer(1 << 20);
+		wf.writeObject(plain, values);
+		wf.reset();
+		
+		TagDictionary dictionary = new TagDictionary(16);
+		ByteBuf fixed = Unpooled.buffer(1 << 20);
+		wf.beginSessionWrite(fixed, dictionary);
+		wf.writeObject(fixed, values);
+		wf.reset();
+		
+		assertTrue(fixed.readableBytes() < plain.readableBytes());
+		
+		// Small values stay in the element-wise form
+		ByteBuf small = Unpooled.buffer(2048);
+		wf.beginSessionWrite(small, dictionary);
+		wf.writeObject(small, smallInts);
+		wf.reset();
+		assertTrue(small.readableBytes() < smallInts.length * 2);
+		
+		// Buffers with more than one component are written element by element
+		ByteBuf composite = Unpooled.compositeBuffer().addComponents(true, 
+				Unpooled.buffer(8, 8), Unpooled.buffer(8, 8));
+		wf.beginSessionWrite(composite, dictionary);
+		wf.writeObject(composite, values);
+		wf.reset();
+		assertTrue(ByteBufUtil.equals(fixed, composite));
+		
+		assertFixedWidthArrays(values, wf.readObject(plain));
+		wf.reset();
+		
+		wf.beginSessionRead(fixed, dictionary);
+		assertFixedWidthArrays(values, wf.readObject(fixed));
+		wf.reset();
+		assertFalse(fixed.isReadable());
+	}
+
+	private void assertFixedWidthArrays(List<Object> expected, Object actual) {
+		List<?> list = (List<?>) actual;
+		assertEquals(expected.size(), list.size());
+		assertArrayEquals((double[]) expected.get(0), (double[]) list.get(0), 0d);
+		assertArrayEquals((float[]) expected.get(1), (float[]) list.get(1), 0f);
+		assertArrayEquals((long[]) expected.get(2), (long[]) list.get(2));
+		assertArrayEquals((int[]) expected.get(3), (int[]) list.get(3));
+		assertArrayEquals((short[]) expected.get(4), (short[]) list.get(4));
+		assertArrayEquals((char[]) expected.get(5), (char[]) list.get(5));
+		assertArrayEquals((int[]) expected.get(6), (int[]) list.get(6));
+	}
+
+	@Test
+	public void testSessionValueTypes() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat wf = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		
+		List<Object> values = Arrays.asList(UUID.randomUUID(), new BigInteger("-123456789012345678901234567890"),
+				new BigDecimal("3.14159265358979323846"), BigDecimal.valueOf(42, -3), Instant.now(), 
+				Instant.ofEpochSecond(-1000, 999), Duration.ofMillis(-1500), LocalDate.of(1969, 7, 20), 
+				LocalTime.of(23, 59, 59, 999999999), LocalDateTime.of(2001, 9, 9, 1, 46, 40), 
+				new Date(), new java.sql.Date(0), Optional.of("hello"), Optional.empty());
+		
+		ByteBuf plain = Unpooled.buffer(4096);
+		wf.writeObject(plain, values.subList(0, values.size() - 2));
+		wf.reset();
+		
+		TagDictionary dictionary = new TagDictionary(16);
+		ByteBuf compact = Unpooled.buffer(4096);
+		wf.beginSessionWrite(compact, dictionary);
+		wf.writeObject(compact, values);
+		wf.reset();
+		
+		assertTrue(compact.readableBytes() * 5 < plain.readableBytes());
+		
+		wf.beginSessionRead(compact, dictionary);
+		assertEquals(values, wf.readObject(compact));
+		wf.reset();
+		assertFalse(compact.isReadable());
+	}
+
+	@Test
+	public void testSessionSharedDate() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat wf = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+
+		Date date = new Date(1234567890L);
+
+		TagDictionary dictionary = new TagDictionary(16);
+		ByteBuf compact = Unpooled.buffer(4096);
+		wf.beginSessionWrite(compact, dictionary);
+		wf.writeObject(compact, Arrays.asList(date, date));
+		wf.reset();
+
+		wf.beginSessionRead(compact, dictionary);
+		List<?> read = (List<?>) wf.readObject(compact);
+		wf.reset();
+
+		// A Date is mutable, so a shared instance must stay shared
+		assertEquals(date, read.get(0));
+		assertSame(read.get(0), read.get(1));
+	}
+
+	@Test
+	public void testSessionFrames()throws IOException, ClassNotFoundException {
+		Channel writer = sessionChannel();
+		SerializationSession session = SerializationSession.get(writer);
+		session.enable();
+		
+		EmbeddedChannel reader = new EmbeddedChannel(new VersionCheckingLengthFieldBasedFrameDecoder());
+		
+		NestedEnumPojo nep = new NestedEnumPojo();
+		nep.setPojo(new EnumPojo());
+		nep.getPojo().setMyEnum(MyEnum.BAR);
+		
+		ByteBuf first = sessionFrame(session, writer, nep);
+		ByteBuf second = sessionFrame(session, writer, nep);
+		
+		// The class names are only sent once
+		assertTrue(second.readableBytes() < first.readableBytes());
+		
+		assertTrue(reader.writeInbound(first, second));
+		assertTrue(SerializationSession.get(reader).isEnabled());
+		
+		assertSame(MyEnum.BAR, readSessionFrame(reader).getPojo().getMyEnum());
+		assertSame(MyEnum.BAR, readSessionFrame(reader).getPojo().getMyEnum());
+	}
+
+	@Test
+	public void testSessionFramesSurviveDiscardedMessages() throws IOException, ClassNotFoundException {
+		Channel writer = sessionChannel();
+		SerializationSession session = SerializationSession.get(writer);
+		session.enable();
+		
+		EmbeddedChannel reader = new EmbeddedChannel(new VersionCheckingLengthFieldBasedFrameDecoder());
+		
+		NestedEnumPojo nep = new NestedEnumPojo();
+		nep.setPojo(new EnumPojo());
+		nep.getPojo().setMyEnum(MyEnum.FOO);
+		
+		// A partially written frame must not leave definitions behind
+		ByteBuf aborted = Unpooled.buffer();
+		assertTrue(session.beginFrame());
+		try {
+			serializer.serializeReturn(aborted, nep, writer);
+		} finally {
+			session.releaseFrame();
+		}
+		
+		assertTrue(reader.writeInbound(sessionFrame(session, writer, nep), 
+				sessionFrame(session, writer, nep)));
+		
+		// The receiver drops the first message without deserializing it
+		ByteBuf dropped = reader.readInbound();
+		dropped.release();
+		
+		assertSame(MyEnum.FOO, readSessionFrame(reader).getPojo().getMyEnum());
+	}
+
+	@Test
+	public void testSessionDictionaryReset() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat writeWF = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		BinaryWireFormat readWF = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		
+		TagDictionary writeDictionary = new TagDictionary(1);
+		TagDictionary readDictionary = new TagDictionary(1);
+		
+		EnumPojo ep = new EnumPojo();
+		ep.setMyEnum(MyEnum.BAR);
+		
+		ByteBuf bb = Unpooled.buffer(16384);
+		ByteBuf definitions = Unpooled.buffer(16384);
+		
+		// Tags which do not fit in the dictionary are sent in full
+		writeDictionary.beginWrite();
+		writeWF.beginSessionWrite(bb, writeDictionary);
+		writeWF.writeObject(bb, ep);
+		writeWF.reset();
+		writeDictionary.writeDefinitions(definitions);
+		
+		readDictionary.readDefinitions(definitions);
+		readWF.beginSessionRead(bb, readDictionary);
+		assertSame(MyEnum.BAR, ((EnumPojo) readWF.readObject(bb)).getMyEnum());
+		readWF.reset();
+		assertEquals(1, readDictionary.size());
+		
+		// The full dictionary is reset for the next message
+		PrimitivePojo pp = new PrimitivePojo(true, (byte) 2, (short) 3, 'a', 4, 5, 6, 7);
+		bb.clear();
+		writeDictionary.beginWrite();
+		writeWF.beginSessionWrite(bb, writeDictionary);
+		writeWF.writeObject(bb, pp);
+		writeWF.reset();
+		writeDictionary.writeDefinitions(definitions);
+		
+		readDictionary.readDefinitions(definitions);
+		readWF.beginSessionRead(bb, readDictionary);
+		assertEquals(pp.intField, ((PrimitivePojo) readWF.readObject(bb)).intField);
+		readWF.reset();
+		assertEquals(1, readDictionary.size());
+		assertFalse(definitions.isReadable());
+	}
+
+	@Test
+	public void testSessionSnapshotSurvivesReset() throws IOException, ClassNotFoundException {
+		MetaClasses mc = new MetaClasses(new MetaClassesClassLoader(bundle));
+		BinaryWireFormat writeWF = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		BinaryWireFormat readWF = new BinaryWireFormat(mc, new VersionAwareVanillaPojoSerializer(mc));
+		
+		TagDictionary writeDictionary = new TagDictionary(1);
+		TagDictionary readDictionary = new TagDictionary(1);
+		
+		EnumPojo ep = new EnumPojo();
+		ep.setMyEnum(MyEnum.BAR);
+		PrimitivePojo pp = new PrimitivePojo(true, (byte) 2, (short) 3, 'a', 4, 5, 6, 7);
+		
+		ByteBuf first = Unpooled.buffer(16384);
+		ByteBuf second = Unpooled.buffer(16384);
+		ByteBuf definitions = Unpooled.buffer(16384);
+		
+		writeDictionary.beginWrite();
+		writeWF.beginSessionWrite(first, writeDictionary);
+		writeWF.writeObject(first, ep);
+		writeWF.reset();
+		writeDictionary.writeDefinitions(definitions);
+		readDictionary.readDefinitions(definitions);
+		
+		// The first message is decoded later, so it uses a snapshot
+		TagTable snapshot = readDictionary.snapshot();
+		
+		// The second message resets the dictionary, reusing the first tag number
+		writeDictionary.beginWrite();
+		writeWF.beginSessionWrite(second, writeDictionary);
+		writeWF.writeObject(second, pp);
+		writeWF.reset();
+		writeDictionary.writeDefinitions(definitions);
+		readDictionary.readDefinitions(definitions);
+		
+		readWF.beginSessionRead(first, snapshot);
+		assertSame(MyEnum.BAR, ((EnumPojo) readWF.readObject(first)).getMyEnum());
+		readWF.reset();
+		
+		readWF.beginSessionRead(second, readDictionary);
+		assertEquals(pp.intField, ((PrimitivePojo) readWF.readObject(second)).intField);
+		readWF.reset();
+	}
+
+	private Channel sessionChannel() {
+		Channel channel = Mockito.mock(Channel.class);
+		EventLoop eventLoop = Mockito.mock(EventLoop.class);
+		DefaultAttributeMap attributes = new DefaultAttributeMap();
+		Mockito.when(channel.attr(Mockito.any())).then(i -> attributes.attr(i.getArgument(0)));
+		Mockito.when(channel.eventLoop()).thenReturn(eventLoop);
+		return channel;
+	}
+	
+	private ByteBuf sessionFrame(SerializationSession session, Channel channel, Object o) throws IOException {
+		ByteBuf buf = Unpooled.buffer(16384);
+		assertTrue(session.beginFrame());
+		try {
+			// A version 2 header with a dummy command
+			buf.writeByte(2).writeMedium(0).writeByte(0);
+			serializer.serializeReturn(buf, o, channel);
+			buf.setMedium(1, buf.readableBytes() - 4);
+			session.endFrame(buf);
+		} finally {
+			session.releaseFrame();
+		}
+		return buf;
+	}
+
+	private NestedEnumPojo readSessionFrame(EmbeddedChannel reader) throws IOException, ClassNotFoundException {
+		ByteBuf frame = reader.readInbound();
+		try {
+			frame.skipBytes(1);
+			return (NestedEnumPojo) serializer.deserializeReturn(frame, reader);
+		} finally {
+			frame.release();
+		}
+	}
 }
@@ -82,8 +82,8 @@ import com.paremus.dosgi.net.impl.ImportRegistrationImpl;
 import com.paremus.dosgi.net.message.AbstractRSAMessage;
 import com.paremus.dosgi.net.promise.PromiseFactory;
 import com.paremus.dosgi.net.serialize.CompletedPromise;
-import com.paremus.dosgi.net.serialize.Serializer;
 import com.paremus.dosgi.net.serialize.freshvanilla.VanillaRMISerializerFactory;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 import com.paremus.dosgi.net.test.AbstractLeakCheckingTest;
 import com.paremus.dosgi.net.wireformat.Protocol_V1;
 import com.paremus.dosgi.net.wireformat.Protocol_V2;
@@ -30,8 +30,8 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
-import com.paremus.dosgi.net.serialize.Serializer;
 import com.paremus.dosgi.net.serialize.freshvanilla.VanillaRMISerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 import com.paremus.dosgi.net.wireformat.Protocol_V2;
 
 import io.netty.buffer.ByteBuf;
@@ -93,4 +93,24 @@ public class BeginStreamingTest {
 		assertEquals(callId, buffer.readInt());
 		assertFalse(buffer.isReadable());
 	}
+
+	@Test
+	public void testOpenStreamWithCredit() {
+		BeginStreamingInvocation bsi = new BeginStreamingInvocation(serviceId, callId, 
+				serializer, ImmediateEventExecutor.INSTANCE, data::add, failure::set, closePromise, 32);
+		
+		ByteBuf buffer = Unpooled.buffer();
+		
+		bsi.write(buffer, promise);
+		
+		assertEquals(Protocol_V2.VERSION, buffer.readByte());
+		int length = buffer.readUnsignedMedium();
+		assertEquals(buffer.readableBytes(), length);
+		assertEquals(Protocol_V2.CLIENT_OPEN, buffer.readByte());
+		assertEquals(serviceId.getMostSignificantBits(), buffer.readLong());
+		assertEquals(serviceId.getLeastSignificantBits(), buffer.readLong());
+		assertEquals(callId, buffer.readInt());
+		assertEquals(32, buffer.readInt());
+		assertFalse(buffer.isReadable());
+	}
 }
@@ -0,0 +1,196 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.client;
+
+import static com.paremus.dosgi.net.client.CircuitBreaker.State.CLOSED;
+import static com.paremus.dosgi.net.client.CircuitBreaker.State.HALF_OPEN;
+import static com.paremus.dosgi.net.client.CircuitBreaker.State.OPEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.osgi.framework.ServiceException;
+
+public class CircuitBreakerTest {
+
+	private static final ServiceException REMOTE_FAILURE = 
+			new ServiceException("bang", ServiceException.REMOTE, new TimeoutException());
+
+	@Test
+	public void testOpensAtFailureThreshold() {
+		CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 4, 10, 60000, 1);
+		
+		for(int i = 0; i < 3; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onComplete(false, REMOTE_FAILURE);
+		}
+		// Not enough calls yet
+		assertEquals(CLOSED, breaker.getState());
+		
+		assertTrue(breaker.tryAcquire());
+		breaker.onComplete(true, null);
+		
+		assertEquals(OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		assertFalse(breaker.isCallPermitted());
+	}
+
+	@Test
+	public void testApplicationFailuresDoNotOpen() {
+		CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 1, 10, 60000, 1);
+		
+		for(int i = 0; i < 10; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onComplete(false, new IllegalArgumentException());
+		}
+		assertEquals(CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testLinkFailuresOpen() {
+		Throwable[] failures = { 
+				new ServiceException("Timed out", ServiceException.REMOTE, new TimeoutException()), 
+				new SendFailedException("Failed to send", new IOException()), 
+				new ServiceException("Overloaded", ServiceException.REMOTE, new ServerOverloadedException("busy")), 
+				new ServiceException("Connection lost", ServiceException.REMOTE, new ClosedChannelException()) 
+			};
+		
+		for(Throwable failure : failures) {
+			CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 1, 10, 60000, 1);
+			
+			assertTrue(breaker.tryAcquire());
+			breaker.onComplete(false, failure);
+			assertEquals(failure.getMessage(), OPEN, breaker.getState());
+		}
+	}
+
+	@Test
+	public void testSerializationAndRemoteFailuresDoNotOpen() {
+		CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 1, 10, 60000, 1);
+		
+		Throwable[] failures = { 
+				// An application exception of the same type as a communications failure
+				new ServiceException("bang", ServiceException.REMOTE),
+				new ServiceException("Failed to deserialize the remote return value", 
+						ServiceException.REMOTE, new IOException()),
+				new ServiceException("The server could not serialise the method return value", 
+						ServiceException.REMOTE, new IllegalArgumentException()),
+				new ServiceException("Failed to serialize the remote invocation", 
+						ServiceException.REMOTE, new NotSerializableException())
+			};
+		
+		for(Throwable failure : failures) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onComplete(false, failure);
+			assertEquals(failure.getMessage(), CLOSED, breaker.getState());
+		}
+	}
+
+	@Test
+	public void testOldFailuresLeaveTheWindow() {
+		CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 4, 4, 60000, 1);
+		
+		assertTrue(breaker.tryAcquire());
+		breaker.onComplete(false, REMOTE_FAILURE);
+		
+		for(int i = 0; i < 10; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onComplete(true, null);
+		}
+		
+		assertTrue(breaker.tryAcquire());
+		breaker.onComplete(false, REMOTE_FAILURE);
+		
+		assertEquals(CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void testDisabledNeverOpens() {
+		CircuitBreaker breaker = CircuitBreaker.disabled();
+		
+		for(int i = 0; i < 10; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onComplete(false, REMOTE_FAILURE);
+		}
+		assertEquals(CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenProbesClose() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 1, 10, 0, 2);
+		
+		assertTrue(breaker.tryAcquire());
+		breaker.onComplete(false, REMOTE_FAILURE);
+		assertEquals(OPEN, breaker.getState());
+		
+		assertTrue(breaker.tryAcquire());
+		assertEquals(HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+		
+		breaker.onComplete(true, null);
+		assertEquals(HALF_OPEN, breaker.getState());
+		breaker.onComplete(true, null);
+		assertEquals(CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenProbeFailureReopens() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 1, 10, 0, 2);
+		
+		assertTrue(breaker.tryAcquire());
+		breaker.onComplete(false, REMOTE_FAILURE);
+		
+		assertTrue(breaker.tryAcquire());
+		assertEquals(HALF_OPEN, breaker.getState());
+		breaker.onComplete(false, REMOTE_FAILURE);
+		assertEquals(OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testCancelledProbeIsReturned() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 1, 10, 0, 1);
+		
+		assertTrue(breaker.tryAcquire());
+		breaker.onComplete(false, REMOTE_FAILURE);
+		
+		assertTrue(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+		breaker.onComplete(false, new CancellationException());
+		
+		assertEquals(HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+	}
+
+	@Test
+	public void testUpdateDisablesOpenBreaker() {
+		CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 1, 10, 60000, 1);
+		
+		assertTrue(breaker.tryAcquire());
+		breaker.onComplete(false, REMOTE_FAILURE);
+		assertEquals(OPEN, breaker.getState());
+		
+		breaker.update(false, 0.5d, 1, 10, 60000, 1);
+		assertEquals(CLOSED, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+	}
+}
@@ -14,6 +14,7 @@
  */
 package com.paremus.dosgi.net.client;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -23,6 +24,8 @@ import java.io.IOException;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 import org.freshvanilla.lang.MetaClasses;
 import org.junit.Assert;
@@ -38,9 +41,11 @@ import org.osgi.util.promise.Deferred;
 import org.osgi.util.promise.Promise;
 
 import com.paremus.dosgi.net.promise.PromiseFactory;
+import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStream;
+import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStreamFactory;
 import com.paremus.dosgi.net.serialize.CompletedPromise;
-import com.paremus.dosgi.net.serialize.Serializer;
 import com.paremus.dosgi.net.serialize.freshvanilla.VanillaRMISerializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 import com.paremus.dosgi.net.wireformat.Protocol_V1;
 import com.paremus.dosgi.net.wireformat.Protocol_V2;
 
@@ -72,6 +77,12 @@ public class ClientInvocationTest {
 	
 	CompletableFuture<Long> cf = new CompletableFuture<Long>();
 	
+	@Mock
+	DataStreamFactory streamFactory;
+	
+	@Mock
+	DataStream dataStream;
+	
 	@Before
 	public void setUp() {
 		promise = new DefaultChannelPromise(channel, ImmediateEventExecutor.INSTANCE);
@@ -108,6 +119,32 @@ public class ClientInvocationTest {
 		assertFalse(ci.getResult().isDone());
 	}
 
+	@Test
+	public void testBatchedInvocationCancelled() throws Exception {
+		ClientInvocation ci1 = new ClientInvocation(true, serviceId, 1, 1, 
+				new Object[] {result}, new int[0], new int[0], serializer, 
+				PromiseFactory.toNettyFutureAdapter(Promise.class), 
+				ImmediateEventExecutor.INSTANCE.newPromise(), new AtomicLong(5000), "test[long]");
+		ClientInvocation ci2 = new ClientInvocation(true, serviceId, 1, 2, 
+				new Object[] {result}, new int[0], new int[0], serializer, 
+				PromiseFactory.toNettyFutureAdapter(Promise.class), 
+				ImmediateEventExecutor.INSTANCE.newPromise(), new AtomicLong(5000), "test[long]");
+		
+		BatchInvocation batch = new BatchInvocation(serviceId, callId, serializer, asList(ci1, ci2));
+		batch.write(Unpooled.buffer(), promise);
+		promise.trySuccess();
+		
+		Mockito.verifyZeroInteractions(channel);
+		
+		// Only the cancelled call is cancelled on the remote node
+		ci2.getResult().cancel(true);
+		
+		ArgumentCaptor<InvocationCancellation> captor = ArgumentCaptor.forClass(InvocationCancellation.class);
+		Mockito.verify(channel).writeAndFlush(captor.capture(), Mockito.any());
+		assertEquals(2, captor.getValue().getCallId());
+		assertFalse(ci1.getResult().isDone());
+	}
+
 	@Test
 	public void testSimpleInvocationCommsFail() throws Exception {
 		ClientInvocation ci = new ClientInvocation(true, serviceId, 1, callId, 
@@ -535,4 +572,111 @@ public class ClientInvocationTest {
 		
 		Mockito.verifyZeroInteractions(channel);
 	}
+
+	@Test
+	public void testSimpleInvocationStreamArg() throws Exception {
+		Object source = new Object();
+		
+		ClientInvocation ci = new ClientInvocation(true, serviceId, 1, callId, 
+				new Object[] {source}, new int[0], new int[0], serializer, 
+				PromiseFactory.toNettyFutureAdapter(Promise.class), 
+				ImmediateEventExecutor.INSTANCE.newPromise(), new AtomicLong(5000), 
+				"test[org.osgi.util.pushstream.PushStream]", null, new int[] {0}, 
+				new DataStreamFactory[] {streamFactory});
+		
+		ByteBuf buffer = Unpooled.buffer();
+		ci.write(buffer, promise);
+		
+		assertEquals(Protocol_V1.VERSION, buffer.readByte());
+		int length = buffer.readUnsignedMedium();
+		assertEquals(buffer.readableBytes(), length);
+		assertEquals(Protocol_V1.CALL_WITH_RETURN, buffer.readByte());
+		assertEquals(serviceId.getMostSignificantBits(), buffer.readLong());
+		assertEquals(serviceId.getLeastSignificantBits(), buffer.readLong());
+		assertEquals(callId, buffer.readInt());
+		assertEquals(1, buffer.readUnsignedShort());
+		assertArrayEquals(new Object[] {null}, serializer.deserializeArgs(buffer));
+		assertFalse(buffer.isReadable());
+		
+		promise.trySuccess();
+		
+		// Nothing is streamed until the server grants credit
+		Mockito.verifyZeroInteractions(channel, streamFactory);
+		
+		Mockito.when(streamFactory.apply(Mockito.any(), Mockito.any(), Mockito.same(source)))
+			.thenReturn(dataStream);
+		
+		ci.streamCredit(channel, 0, 1);
+		
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<ToLongFunction<Object>> onData = ArgumentCaptor.forClass(ToLongFunction.class);
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Consumer<Throwable>> onTerminal = ArgumentCaptor.forClass(Consumer.class);
+		Mockito.verify(streamFactory).apply(onData.capture(), onTerminal.capture(), Mockito.same(source));
+		Mockito.verify(dataStream).open();
+		
+		assertEquals(0, onData.getValue().applyAsLong(result));
+		
+		ArgumentCaptor<AsyncArgumentCompletion> captor = ArgumentCaptor.forClass(AsyncArgumentCompletion.class);
+		Mockito.verify(channel).writeAndFlush(captor.capture());
+		
+		AsyncArgumentCompletion completion = captor.getValue();
+		assertEquals(Protocol_V2.ASYNC_METHOD_PARAM_DATA, completion.getType().getCommand());
+		assertEquals(0, completion.getParameterIndex());
+		assertEquals(result, completion.getResult());
+		
+		// The credit is used up, so the next event must wait
+		assertTrue(onData.getValue().applyAsLong(result) > 0);
+		Mockito.verifyNoMoreInteractions(channel);
+		
+		ci.streamCredit(channel, 0, 1);
+		Mockito.verify(channel, Mockito.times(2)).writeAndFlush(Mockito.any(AsyncArgumentCompletion.class));
+		
+		onTerminal.getValue().accept(null);
+		
+		ArgumentCaptor<Object> closeCaptor = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(channel, Mockito.times(3)).writeAndFlush(closeCaptor.capture());
+		
+		buffer.clear();
+		((AsyncArgumentClose) closeCaptor.getValue()).write(buffer, promise2);
+		
+		assertEquals(Protocol_V2.VERSION, buffer.readByte());
+		length = buffer.readUnsignedMedium();
+		assertEquals(buffer.readableBytes(), length);
+		assertEquals(Protocol_V2.ASYNC_METHOD_PARAM_CLOSE, buffer.readByte());
+		assertEquals(serviceId.getMostSignificantBits(), buffer.readLong());
+		assertEquals(serviceId.getLeastSignificantBits(), buffer.readLong());
+		assertEquals(callId, buffer.readInt());
+		assertEquals(0, buffer.readUnsignedByte());
+		assertFalse(buffer.isReadable());
+	}
+	
+	@Test
+	public void testStreamArgStoppedByServer() throws Exception {
+		Object source = new Object();
+		
+		ClientInvocation ci = new ClientInvocation(true, serviceId, 1, callId, 
+				new Object[] {source}, new int[0], new int[0], serializer, 
+				PromiseFactory.toNettyFutureAdapter(Promise.class), 
+				ImmediateEventExecutor.INSTANCE.newPromise(), new AtomicLong(5000), 
+				"test[org.osgi.util.pushstream.PushStream]", null, new int[] {0}, 
+				new DataStreamFactory[] {streamFactory});
+		
+		ci.write(Unpooled.buffer(), promise);
+		promise.trySuccess();
+		
+		Mockito.when(streamFactory.apply(Mockito.any(), Mockito.any(), Mockito.same(source)))
+			.thenReturn(dataStream);
+		
+		ci.streamCredit(channel, 0, 10);
+		Mockito.verify(dataStream).open();
+		
+		ci.streamCredit(channel, 0, -1);
+		Mockito.verify(dataStream).close();
+		
+		// A completed call does not start a new upload
+		ci.getResult().trySuccess(result);
+		ci.streamCredit(channel, 0, 10);
+		Mockito.verify(streamFactory).apply(Mockito.any(), Mockito.any(), Mockito.any());
+	}
 }
@@ -14,19 +14,26 @@
  */
 package com.paremus.dosgi.net.client;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.timeout;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import javax.sound.sampled.UnsupportedAudioFileException;
 
+import org.freshvanilla.net.BinaryWireFormat.TagTable;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -35,15 +42,19 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.framework.ServiceException;
 
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.SerializationSession;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
 import com.paremus.dosgi.net.wireformat.Protocol_V1;
+import com.paremus.dosgi.net.wireformat.Protocol_V2;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.DefaultAttributeMap;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.TimerTask;
@@ -63,7 +74,7 @@ public class ClientResponseHandlerTest {
 	@Mock
 	ChannelHandlerContext ctx;
 	@Mock
-	Serializer serializer;
+	SessionSerializer serializer;
 	@Mock
 	ClientConnectionManager ccm;
 	
@@ -101,7 +112,7 @@ public class ClientResponseHandlerTest {
 	@Test
 	public void testFailureResponseCleansUp() throws Exception {
 		ByteBuf buffer = allocator.buffer(0);
-		Mockito.when(serializer.deserializeReturn(buffer)).thenReturn(new UnsupportedAudioFileException());
+		Mockito.when(serializer.deserializeReturn(Mockito.eq(buffer), any())).thenReturn(new UnsupportedAudioFileException());
 		doTestResponseCleansUp(Protocol_V1.SUCCESS_RESPONSE, buffer);
 	}
 
@@ -163,6 +174,257 @@ public class ClientResponseHandlerTest {
 		
 	}
 
+	@Test
+	public void testServerOverloaded() throws Exception {
+		ClientInvocation ci = new ClientInvocation(true, serviceId, -1, 42, new Object[0], 
+				new int[0], new int[0], serializer, null, nettyPromiseSupplier.get(), new AtomicLong(3000), "test");
+		
+		impl.registerInvocation(ci);
+		
+		ByteBuf buf = allocator.heapBuffer();
+		buf.writeByte(Protocol_V1.FAILURE_SERVER_OVERLOADED);
+		buf.writeLong(serviceId.getMostSignificantBits());
+		buf.writeLong(serviceId.getLeastSignificantBits());
+		buf.writeInt(42);
+		byte[] message = "Too busy".getBytes(StandardCharsets.UTF_8);
+		buf.writeShort(message.length);
+		buf.writeBytes(message);
+		
+		impl.channelRead(ctx, buf);
+		
+		assertTrue(ci.getResult().isDone());
+		Throwable failure = ci.getResult().cause();
+		assertTrue(failure instanceof ServiceException);
+		assertTrue(failure.getCause() instanceof ServerOverloadedException);
+		assertTrue("Too busy".equals(failure.getCause().getMessage()));
+		Mockito.verify(timeout, timeout(100)).cancel();
+	}
+
+	@Test
+	public void testWorkerDecoding() throws Exception {
+		impl = new ClientResponseHandler(ccm, timer, executor);
+		Mockito.when(ctx.channel()).thenReturn(channel);
+		
+		ClientInvocation ci = new ClientInvocation(true, serviceId, -1, 42, new Object[0], 
+				new int[0], new int[0], serializer, null, nettyPromiseSupplier.get(), new AtomicLong(3000), "test");
+		
+		impl.registerInvocation(ci);
+		
+		Mockito.when(serializer.deserializeReturn(any(), Mockito.eq(channel)))
+			.thenAnswer(i -> executor.inEventLoop() ? "worker" : "io");
+		
+		ByteBuf buf = allocator.heapBuffer();
+		buf.writeByte(Protocol_V1.SUCCESS_RESPONSE);
+		buf.writeLong(serviceId.getMostSignificantBits());
+		buf.writeLong(serviceId.getLeastSignificantBits());
+		buf.writeInt(42);
+		
+		impl.channelRead(ctx, buf);
+		
+		assertTrue(ci.getResult().await(1, TimeUnit.SECONDS));
+		assertTrue("worker".equals(ci.getResult().getNow()));
+		
+		// The buffer is released once the worker has finished with it
+		executor.submit(() -> null).sync();
+		assertTrue(buf.refCnt() == 0);
+	}
+
+	@Test
+	public void testWorkerDecodingWithSession() throws Exception {
+		impl = new ClientResponseHandler(ccm, timer, executor);
+		Mockito.when(ctx.channel()).thenReturn(channel);
+		
+		DefaultAttributeMap attributes = new DefaultAttributeMap();
+		Mockito.when(channel.hasAttr(any())).then(i -> attributes.hasAttr(i.getArgument(0)));
+		Mockito.when(channel.attr(any())).then(i -> attributes.attr(i.getArgument(0)));
+		SerializationSession session = SerializationSession.get(channel);
+		session.enable();
+		TagTable live = session.incoming();
+		
+		ClientInvocation ci = new ClientInvocation(true, serviceId, -1, 42, new Object[0], 
+				new int[0], new int[0], serializer, null, nettyPromiseSupplier.get(), new AtomicLong(3000), "test");
+		
+		impl.registerInvocation(ci);
+		
+		// The worker reads the dictionary as it was when the response arrived
+		Mockito.when(serializer.deserializeReturn(any(), Mockito.eq(channel)))
+			.thenAnswer(i -> executor.inEventLoop() && session.incoming() != live ? "worker" : "io");
+		
+		ByteBuf buf = allocator.heapBuffer();
+		buf.writeByte(Protocol_V1.SUCCESS_RESPONSE);
+		buf.writeLong(serviceId.getMostSignificantBits());
+		buf.writeLong(serviceId.getLeastSignificantBits());
+		buf.writeInt(42);
+		
+		impl.channelRead(ctx, buf);
+		
+		assertTrue(ci.getResult().await(1, TimeUnit.SECONDS));
+		assertTrue("worker".equals(ci.getResult().getNow()));
+		
+		// The snapshot is only used while decoding
+		executor.submit(() -> assertSame(live, session.incoming())).sync();
+	}
+
+	@Test
+	public void testBatchResponse() throws Exception {
+		ClientInvocation ci1 = new ClientInvocation(true, serviceId, 1, 1, new Object[0], 
+				new int[0], new int[0], serializer, null, nettyPromiseSupplier.get(), new AtomicLong(3000), "test1");
+		ClientInvocation ci2 = new ClientInvocation(true, serviceId, 2, 2, new Object[0], 
+				new int[0], new int[0], serializer, null, nettyPromiseSupplier.get(), new AtomicLong(3000), "test2");
+		ClientInvocation ci3 = new ClientInvocation(true, serviceId, 3, 3, new Object[0], 
+				new int[0], new int[0], serializer, null, nettyPromiseSupplier.get(), new AtomicLong(3000), "test3");
+		
+		impl.registerInvocation(new BatchInvocation(serviceId, 42, serializer, asList(ci1, ci2, ci3)));
+		
+		Mockito.when(serializer.deserializeReturn(any(), any())).then(i -> (int) i.<ByteBuf>getArgument(0).readByte());
+		
+		ByteBuf buf = allocator.heapBuffer();
+		buf.writeByte(Protocol_V2.BATCH_RESPONSE);
+		buf.writeLong(serviceId.getMostSignificantBits());
+		buf.writeLong(serviceId.getLeastSignificantBits());
+		buf.writeInt(42);
+		buf.writeShort(2);
+		buf.writeInt(1);
+		buf.writeByte(Protocol_V1.SUCCESS_RESPONSE);
+		buf.writeInt(1);
+		buf.writeByte(7);
+		buf.writeInt(2);
+		buf.writeByte(Protocol_V1.FAILURE_NO_METHOD);
+		buf.writeInt(0);
+		
+		impl.channelRead(ctx, buf);
+		
+		assertTrue(ci1.getResult().isSuccess());
+		assertTrue(Integer.valueOf(7).equals(ci1.getResult().getNow()));
+		
+		assertTrue(ci2.getResult().cause().getCause() instanceof MissingMethodException);
+		Mockito.verify(ccm).notifyFailedService(any(), Mockito.eq(serviceId), any());
+		
+		// No response for the third call means that it must fail
+		assertTrue(ci3.getResult().cause() instanceof ServiceException);
+		Mockito.verify(timeout, timeout(100)).cancel();
+	}
+
+	@Test
+	public void testStreamDataBatch() throws Exception {
+		List<Object> received = new CopyOnWriteArrayList<>();
+		
+		BeginStreamingInvocation bsi = new BeginStreamingInvocation(serviceId, 42, serializer, executor, 
+				received::add, e -> {}, executor.newPromise());
+		
+		impl.registerInvocation(bsi);
+		
+		Mockito.when(serializer.deserializeReturn(any(), any())).then(i -> (int) i.<ByteBuf>getArgument(0).readByte());
+		
+		ByteBuf buf = allocator.heapBuffer();
+		buf.writeByte(Protocol_V2.SERVER_DATA_BATCH_EVENT);
+		buf.writeLong(serviceId.getMostSignificantBits());
+		buf.writeLong(serviceId.getLeastSignificantBits());
+		buf.writeInt(42);
+		buf.writeShort(3);
+		for(int i = 1; i <= 3; i++) {
+			buf.writeInt(1);
+			buf.writeByte(i);
+		}
+		
+		impl.channelRead(ctx, buf);
+		
+		// The stream is still open, so later batches are delivered too
+		buf = allocator.heapBuffer();
+		buf.writeByte(Protocol_V2.SERVER_DATA_BATCH_EVENT);
+		buf.writeLong(serviceId.getMostSignificantBits());
+		buf.writeLong(serviceId.getLeastSignificantBits());
+		buf.writeInt(42);
+		buf.writeShort(1);
+		buf.writeInt(1);
+		buf.writeByte(4);
+		
+		impl.channelRead(ctx, buf);
+		
+		executor.submit(() -> null).sync();
+		assertTrue(asList(1, 2, 3, 4).equals(received));
+		assertEquals(0, buf.refCnt());
+	}
+
+	@Test
+	public void testStreamDataFailsWhenWorkersReject() throws Exception {
+		EventExecutor workers = new DefaultEventExecutor();
+		workers.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS).await(1, TimeUnit.SECONDS);
+		impl = new ClientResponseHandler(ccm, timer, workers);
+		Mockito.when(ctx.channel()).thenReturn(channel);
+		
+		List<Object> received = new CopyOnWriteArrayList<>();
+		List<Exception> closed = new CopyOnWriteArrayList<>();
+		
+		BeginStreamingInvocation bsi = new BeginStreamingInvocation(serviceId, 42, serializer, executor, 
+				received::add, closed::add, executor.newPromise());
+		
+		impl.registerInvocation(bsi);
+		
+		for(int i = 1; i <= 2; i++) {
+			ByteBuf buf = allocator.heapBuffer();
+			buf.writeByte(Protocol_V2.SERVER_DATA_EVENT);
+			buf.writeLong(serviceId.getMostSignificantBits());
+			buf.writeLong(serviceId.getLeastSignificantBits());
+			buf.writeInt(42);
+			buf.writeByte(i);
+			
+			impl.channelRead(ctx, buf);
+			assertEquals(0, buf.refCnt());
+		}
+		
+		// The events are never decoded on the IO thread, and the stream is closed once
+		executor.submit(() -> null).sync();
+		Mockito.verify(serializer, Mockito.never()).deserializeReturn(any(), any());
+		assertTrue(received.isEmpty());
+		assertTrue(closed.size() == 1);
+		assertTrue(closed.get(0) instanceof ServiceException);
+		assertTrue(closed.get(0).getCause() instanceof RejectedExecutionException);
+	}
+
+	@Test
+	public void testResponseDecodedInlineWhenWorkersReject() throws Exception {
+		EventExecutor workers = new DefaultEventExecutor();
+		workers.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS).await(1, TimeUnit.SECONDS);
+		impl = new ClientResponseHandler(ccm, timer, workers);
+		Mockito.when(ctx.channel()).thenReturn(channel);
+		
+		ClientInvocation ci = new ClientInvocation(true, serviceId, -1, 42, new Object[0], 
+				new int[0], new int[0], serializer, null, nettyPromiseSupplier.get(), new AtomicLong(3000), "test");
+		
+		impl.registerInvocation(ci);
+		
+		Mockito.when(serializer.deserializeReturn(any(), Mockito.eq(channel))).thenReturn("io");
+		
+		ByteBuf buf = allocator.heapBuffer();
+		buf.writeByte(Protocol_V1.SUCCESS_RESPONSE);
+		buf.writeLong(serviceId.getMostSignificantBits());
+		buf.writeLong(serviceId.getLeastSignificantBits());
+		buf.writeInt(42);
+		
+		impl.channelRead(ctx, buf);
+		
+		assertTrue(ci.getResult().await(1, TimeUnit.SECONDS));
+		assertTrue("io".equals(ci.getResult().getNow()));
+		assertEquals(0, buf.refCnt());
+	}
+
+	@Test
+	public void testCacheInvalidation() throws Exception {
+		Mockito.when(ctx.channel()).thenReturn(channel);
+		
+		ByteBuf buf = allocator.heapBuffer();
+		buf.writeByte(Protocol_V2.SERVER_CACHE_INVALIDATION);
+		buf.writeLong(serviceId.getMostSignificantBits());
+		buf.writeLong(serviceId.getLeastSignificantBits());
+		buf.writeInt(0);
+		
+		impl.channelRead(ctx, buf);
+		
+		Mockito.verify(ccm).notifyCacheInvalidation(channel, serviceId);
+		assertEquals(0, buf.refCnt());
+	}
+
 	@Test
 	public void testTimeoutCleansUp() throws Exception {
 		ClientInvocation ci = new ClientInvocation(true, serviceId, -1, 42, new Object[0], 
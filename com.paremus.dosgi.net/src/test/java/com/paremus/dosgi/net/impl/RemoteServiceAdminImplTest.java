@@ -19,6 +19,7 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -71,7 +72,10 @@ import org.osgi.util.converter.Converters;
 
 import com.paremus.dosgi.net.client.ClientConnectionManager;
 import com.paremus.dosgi.net.config.TransportConfig;
+import com.paremus.dosgi.net.message.BufferSizePredictor;
+import com.paremus.dosgi.net.server.ConcurrencyLimiter;
 import com.paremus.dosgi.net.server.RemotingProvider;
+import com.paremus.dosgi.net.server.ServiceInvoker;
 
 import io.netty.util.Timer;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
@@ -160,7 +164,7 @@ public class RemoteServiceAdminImplTest {
         _rsa = new RemoteServiceAdminImpl(_factory, _framework, _publisher, asList(_insecureProvider, _secureProvider), 
         		_clientConnectionManager, intents, _proxyHostBundleFactory,
         		_serverWorkers, _clientWorkers, _timer, Converters.standardConverter().convert(
-        				Collections.emptyMap()).to(TransportConfig.class));
+        				Collections.emptyMap()).to(TransportConfig.class), new SerializerRegistry());
         
         Mockito.when(_factory.getRemoteServiceAdmins()).thenReturn(Collections.singletonList(_rsa));
     }
@@ -437,6 +441,106 @@ public class RemoteServiceAdminImplTest {
 		assertEquals(_rootFrameworkId.toString(), exportedEndpoint.getFrameworkUUID());
     }
 
+    @Test
+    public void testExportSessionsAreOptIn() throws Exception {
+    	// we need a valid service for this test
+    	when(_serviceContext.getService(_serviceReference)).thenReturn("MyServiceObject");
+    	
+    	Collection<ExportRegistration> exRefs = _rsa.exportService(_serviceReference, null);
+    	assertEquals(1, exRefs.size());
+    	assertNull(exRefs.iterator().next().getExportReference().getExportedEndpoint()
+    			.getProperties().get("com.paremus.dosgi.net.serialization.sessions"));
+    	exRefs.iterator().next().close();
+    	
+    	exRefs = _rsa.exportService(_serviceReference, 
+    			Collections.singletonMap("com.paremus.dosgi.net.serialization.sessions", true));
+    	assertEquals(1, exRefs.size());
+    	assertEquals(Boolean.TRUE, exRefs.iterator().next().getExportReference().getExportedEndpoint()
+    			.getProperties().get("com.paremus.dosgi.net.serialization.sessions"));
+    }
+
+    @Test
+    public void testExportSessionsNotAdvertisedForSessionlessSerializer() throws Exception {
+    	// we need a valid service for this test
+    	when(_serviceContext.getService(_serviceReference)).thenReturn("MyServiceObject");
+    	
+    	Map<String, Object> props = new HashMap<>();
+    	props.put("com.paremus.dosgi.net.serialization.sessions", true);
+    	props.put("com.paremus.dosgi.net.serialization", "PROTOCOL_BUFFERS");
+    	
+    	Collection<ExportRegistration> exRefs = _rsa.exportService(_serviceReference, props);
+    	assertEquals(1, exRefs.size());
+    	assertNull(exRefs.iterator().next().getExportReference().getExportedEndpoint()
+    			.getProperties().get("com.paremus.dosgi.net.serialization.sessions"));
+    }
+
+    @Test
+    public void testExportClosedWhenSerializerRemoved() throws Exception {
+    	// we need a valid service for this test
+    	when(_serviceContext.getService(_serviceReference)).thenReturn("MyServiceObject");
+    	
+    	Collection<ExportRegistration> exRefs = _rsa.exportService(_serviceReference, 
+    			Collections.singletonMap("com.paremus.dosgi.net.serialization", "PROTOCOL_BUFFERS"));
+    	assertEquals(1, exRefs.size());
+    	ExportRegistration reg = exRefs.iterator().next();
+    	
+    	_rsa.serializerRemoved("FAST_BINARY");
+    	assertNotNull(reg.getExportReference());
+    	assertEquals(1, _rsa.getExportedServices().size());
+    	
+    	_rsa.serializerRemoved("PROTOCOL_BUFFERS");
+    	assertNull(reg.getExportReference());
+    	assertEquals(0, _rsa.getExportedServices().size());
+    }
+
+    @Test
+    public void testExportConcurrencyLimit() throws Exception {
+    	Map<String, Object> config = new HashMap<>();
+    	config.put("server.adaptive.concurrency", true);
+    	config.put("server.concurrency.initial.limit", 1);
+    	config.put("server.concurrency.min.limit", 1);
+    	config.put("server.concurrency.max.limit", 1);
+    	
+    	_rsa = new RemoteServiceAdminImpl(_factory, _framework, _publisher, asList(_insecureProvider, _secureProvider), 
+    			_clientConnectionManager, intents, _proxyHostBundleFactory,
+    			_serverWorkers, _clientWorkers, _timer, Converters.standardConverter().convert(
+    					config).to(TransportConfig.class), new SerializerRegistry());
+    	
+    	// we need a valid service for this test
+    	when(_serviceContext.getService(_serviceReference)).thenReturn("MyServiceObject");
+    	
+    	Collection<ExportRegistration> exRefs = _rsa.exportService(_serviceReference, null);
+    	assertEquals(1, exRefs.size());
+    	ExportRegistrationImpl reg = (ExportRegistrationImpl) exRefs.iterator().next();
+    	
+    	ArgumentCaptor<ServiceInvoker> invoker = ArgumentCaptor.forClass(ServiceInvoker.class);
+    	verify(_insecureProvider).registerService(Mockito.eq(reg.getId()), invoker.capture());
+    	ConcurrencyLimiter limiter = invoker.getValue().getConcurrencyLimiter();
+    	when(_insecureProvider.getConcurrencyLimiter(reg.getId())).thenReturn(limiter);
+    	
+    	assertEquals(1, reg.getConcurrencyLimit());
+    	assertEquals(0, reg.getRejectedCallCount());
+    	
+    	assertTrue(limiter.tryAcquire());
+    	assertFalse(limiter.tryAcquire());
+    	assertEquals(1, reg.getRejectedCallCount());
+    }
+
+    @Test
+    public void testExportResponseBufferReallocations() throws Exception {
+    	// we need a valid service for this test
+    	when(_serviceContext.getService(_serviceReference)).thenReturn("MyServiceObject");
+    	
+    	Collection<ExportRegistration> exRefs = _rsa.exportService(_serviceReference, null);
+    	assertEquals(1, exRefs.size());
+    	ExportRegistrationImpl reg = (ExportRegistrationImpl) exRefs.iterator().next();
+    	
+    	when(_insecureProvider.getResponseBufferReallocations(reg.getId())).thenReturn(2L);
+    	when(_secureProvider.getResponseBufferReallocations(reg.getId())).thenReturn(3L);
+    	
+    	assertEquals(5, reg.getResponseBufferReallocations());
+    }
+
     @Test
     public void testSecureExportGetsSecureURI() throws Exception {
     	// we need a valid service for this test
@@ -587,6 +691,51 @@ public class RemoteServiceAdminImplTest {
         assertEquals(0, _rsa.getImportedEndpoints().size());
     }
     
+    @Test
+    public void testImportRequestSizePredictorsShared() throws Exception {
+        Map<String, Object> p = new HashMap<String, Object>();
+        p.put(RemoteConstants.ENDPOINT_ID, new UUID(78, 910).toString());
+        p.put(Constants.OBJECTCLASS, new String[]{"my.primary.role", "my.secondary.role"});
+        p.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "com.paremus.dosgi.net");
+        p.put("com.paremus.dosgi.net", "ptcp://localhost:1234");
+        p.put("com.paremus.dosgi.net.methods", new String[] {"1=length[]","2=subSequence[int,int]"});
+        EndpointDescription epd = new EndpointDescription(p);
+        
+        Mockito.when(_clientConnectionManager.getChannelFor( Mockito.eq(new URI("ptcp://localhost:1234")), 
+        		Mockito.any())).thenAnswer(Mockito.RETURNS_MOCKS);
+        
+        ImportRegistrationImpl ireg = (ImportRegistrationImpl) _rsa.importService(epd);
+        assertNotNull(ireg);
+        
+        BufferSizePredictor predictor = ireg.getRequestSizePredictor(2);
+        assertSame(predictor, ireg.getRequestSizePredictor(2));
+        assertNotSame(predictor, ireg.getRequestSizePredictor(1));
+        
+        predictor.record(predictor.nextSize(), predictor.nextSize() + 1);
+        ireg.getRequestSizePredictor(1).record(16, 32);
+        ireg.getRequestSizePredictor(1).record(64, 32);
+        
+        assertEquals(2, ireg.getRequestBufferReallocations());
+        
+        ireg.close();
+    }
+    
+    @Test
+    public void testNoImportWithUnavailableSerializer() throws Exception {
+        Map<String, Object> p = new HashMap<String, Object>();
+        p.put(RemoteConstants.ENDPOINT_ID, new UUID(78, 910).toString());
+        p.put(Constants.OBJECTCLASS, new String[]{"my.primary.role", "my.secondary.role"});
+        p.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "com.paremus.dosgi.net");
+        p.put("com.paremus.dosgi.net", "ptcp://localhost:1234");
+        p.put("com.paremus.dosgi.net.methods", new String[] {"1=length[]","2=subSequence[int,int]"});
+        p.put("com.paremus.dosgi.net.serialization", "unsupported.serializer");
+        EndpointDescription epd = new EndpointDescription(p);
+        
+        // must be null as the serializer is not available locally
+        assertNull(_rsa.importService(epd));
+        assertEquals(0, _rsa.getImportedEndpoints().size());
+    }
+    
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Test
 	public void testUpdateImport() throws Exception {
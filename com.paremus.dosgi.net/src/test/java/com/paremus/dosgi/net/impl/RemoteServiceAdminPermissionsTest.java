@@ -117,7 +117,7 @@ public class RemoteServiceAdminPermissionsTest {
         _rsa = new RemoteServiceAdminImpl(_factory, _framework, _publisher, asList(_insecureProvider, _secureProvider), 
         		_clientConnectionManager, Collections.singletonList("asyncInvocation"), _proxyHostBundleFactory, 
         		_serverWorkers, _clientWorkers, _timer, Converters.standardConverter().convert(
-        				Collections.emptyMap()).to(TransportConfig.class));
+        				Collections.emptyMap()).to(TransportConfig.class), new SerializerRegistry());
         
         Mockito.when(_factory.getRemoteServiceAdmins()).thenReturn(Collections.singletonList(_rsa));
     }
@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.impl;
+
+import static com.paremus.dosgi.net.serialize.spi.SerializerFactory.SERIALIZATION_NAME;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.osgi.framework.ServiceEvent.UNREGISTERING;
+
+import java.util.function.Consumer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+import com.paremus.dosgi.net.serialize.SerializationType;
+import com.paremus.dosgi.net.serialize.spi.SerializerFactory;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SerializerRegistryTest {
+
+	@Mock
+	BundleContext context;
+
+	@Mock
+	ServiceReference<SerializerFactory> reference;
+
+	@Mock
+	SerializerFactory factory;
+
+	@Mock
+	Consumer<String> listener;
+
+	@Test
+	public void testBuiltInSerializers() {
+		SerializerRegistry registry = new SerializerRegistry();
+
+		for(SerializationType type : SerializationType.values()) {
+			assertSame(type.getFactory(), registry.getFactory(type.name()));
+		}
+		assertNull(registry.getFactory("my.serializer"));
+	}
+
+	@Test
+	public void testWhiteboardSerializer() throws Exception {
+		when(reference.getProperty(SERIALIZATION_NAME)).thenReturn(new String[] {"my.serializer", "FAST_BINARY"});
+		doReturn(new ServiceReference<?>[] {reference}).when(context)
+			.getServiceReferences(SerializerFactory.class.getName(), null);
+		when(context.getService(reference)).thenReturn(factory);
+
+		SerializerRegistry registry = new SerializerRegistry(context);
+		registry.addListener(listener);
+		registry.open();
+
+		assertSame(factory, registry.getFactory("my.serializer"));
+		// The built in serializers cannot be replaced
+		assertSame(SerializationType.FAST_BINARY.getFactory(), registry.getFactory("FAST_BINARY"));
+
+		ArgumentCaptor<ServiceListener> captor = ArgumentCaptor.forClass(ServiceListener.class);
+		verify(context).addServiceListener(captor.capture(), anyString());
+
+		captor.getValue().serviceChanged(new ServiceEvent(UNREGISTERING, reference));
+
+		assertNull(registry.getFactory("my.serializer"));
+		verify(listener).accept("my.serializer");
+		verify(context).ungetService(reference);
+
+		registry.close();
+	}
+
+	@Test
+	public void testUnnamedSerializerIgnored() throws Exception {
+		doReturn(new ServiceReference<?>[] {reference}).when(context)
+			.getServiceReferences(SerializerFactory.class.getName(), null);
+
+		SerializerRegistry registry = new SerializerRegistry(context);
+		registry.open();
+
+		verify(context, never()).getService(any());
+
+		registry.close();
+	}
+}
@@ -0,0 +1,59 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BufferSizePredictorTest {
+
+	@Test
+	public void testGrowsToFitLargeMessages() {
+		BufferSizePredictor predictor = new BufferSizePredictor();
+		
+		int initial = predictor.nextSize();
+		assertEquals(256, initial);
+		
+		predictor.record(initial, 5000);
+		assertEquals(1, predictor.getReallocations());
+		assertTrue(predictor.nextSize() >= 5000);
+		
+		predictor.record(predictor.nextSize(), 5000);
+		assertEquals(1, predictor.getReallocations());
+	}
+
+	@Test
+	public void testShrinksAfterTwoSmallMessages() {
+		BufferSizePredictor predictor = new BufferSizePredictor();
+		
+		predictor.record(predictor.nextSize(), 5000);
+		int large = predictor.nextSize();
+		
+		predictor.record(large, 100);
+		assertEquals(large, predictor.nextSize());
+		
+		predictor.record(large, 100);
+		assertTrue(predictor.nextSize() < large);
+		
+		// Never shrinks below the minimum size
+		for(int i = 0; i < 100; i++) {
+			predictor.record(predictor.nextSize(), 1);
+		}
+		assertEquals(64, predictor.nextSize());
+		assertEquals(1, predictor.getReallocations());
+	}
+}
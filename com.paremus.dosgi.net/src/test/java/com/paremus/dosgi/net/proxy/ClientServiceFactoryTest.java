@@ -53,6 +53,7 @@ import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.osgi.util.promise.Deferred;
 import org.osgi.util.promise.Promise;
 
+import com.paremus.dosgi.net.client.CircuitBreaker;
 import com.paremus.dosgi.net.impl.ImportRegistrationImpl;
 import com.paremus.dosgi.net.serialize.freshvanilla.VanillaRMISerializerFactory;
 
@@ -107,7 +108,7 @@ public class ClientServiceFactoryTest {
         when(_importRegistration.getMethodMappings()).thenReturn(methods);
 
         _csf = new ClientServiceFactory(_importRegistration, _endpointDescription, _channel,
-        		new VanillaRMISerializerFactory(), new AtomicLong(3000), executor, timer);
+        		new VanillaRMISerializerFactory(), new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
         
 
         when(_callingBundle.getBundleContext()).thenReturn(_callingContext);
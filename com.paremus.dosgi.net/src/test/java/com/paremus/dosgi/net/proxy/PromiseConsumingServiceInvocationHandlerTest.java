@@ -53,10 +53,11 @@ import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.osgi.util.promise.Deferred;
 import org.osgi.util.promise.Promise;
 
+import com.paremus.dosgi.net.client.CircuitBreaker;
 import com.paremus.dosgi.net.client.ClientInvocation;
 import com.paremus.dosgi.net.client.ClientMessageType;
 import com.paremus.dosgi.net.impl.ImportRegistrationImpl;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.channel.Channel;
 import io.netty.channel.DefaultChannelPromise;
@@ -190,7 +191,7 @@ public class PromiseConsumingServiceInvocationHandlerTest {
     	
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, false, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
         TestConsumesAsyncTypes proxy = (TestConsumesAsyncTypes) createProxy(_proxyClass, sih);
         
@@ -213,7 +214,7 @@ public class PromiseConsumingServiceInvocationHandlerTest {
 		
 		ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, false, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 		TestConsumesAsyncTypes proxy = (TestConsumesAsyncTypes) createProxy(_proxyClass, sih);
         
@@ -236,7 +237,7 @@ public class PromiseConsumingServiceInvocationHandlerTest {
     	
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassWithDifferentPromiseInterfaces, _differentPromise, false, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
         Object proxy = createProxy(_proxyClassWithDifferentPromise, sih);
         
@@ -50,10 +50,11 @@ import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.osgi.util.promise.Promise;
 
+import com.paremus.dosgi.net.client.CircuitBreaker;
 import com.paremus.dosgi.net.client.ClientInvocation;
 import com.paremus.dosgi.net.client.ClientMessageType;
 import com.paremus.dosgi.net.impl.ImportRegistrationImpl;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.channel.Channel;
 import io.netty.channel.DefaultChannelPromise;
@@ -186,7 +187,7 @@ public class PromiseReturningServiceInvocationHandlerTest {
     	
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, false, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
         TestReturnsAsyncTypes proxy = (TestReturnsAsyncTypes) createProxy(_proxyClass, sih);
         
@@ -207,7 +208,7 @@ public class PromiseReturningServiceInvocationHandlerTest {
 		
 		ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
 				_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, false, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 		
 		TestReturnsAsyncTypes proxy = (TestReturnsAsyncTypes) createProxy(_proxyClass, sih);
 		
@@ -228,7 +229,7 @@ public class PromiseReturningServiceInvocationHandlerTest {
 		
 		ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, false, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
         TestReturnsAsyncTypes proxy = (TestReturnsAsyncTypes) createProxy(_proxyClass, sih);
         
@@ -249,7 +250,7 @@ public class PromiseReturningServiceInvocationHandlerTest {
     	
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassWithDifferentPromiseInterfaces, _differentPromise, false, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
         Object proxy = createProxy(_proxyClassWithDifferentPromise, sih);
         
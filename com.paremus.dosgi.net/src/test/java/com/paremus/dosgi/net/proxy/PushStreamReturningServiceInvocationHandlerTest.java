@@ -58,10 +58,11 @@ import org.osgi.util.pushstream.PushStream;
 import org.osgi.util.pushstream.PushStreamProvider;
 
 import com.paremus.dosgi.net.client.AbstractClientInvocationWithResult;
+import com.paremus.dosgi.net.client.CircuitBreaker;
 import com.paremus.dosgi.net.client.ClientInvocation;
 import com.paremus.dosgi.net.client.ClientMessageType;
 import com.paremus.dosgi.net.impl.ImportRegistrationImpl;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -215,7 +216,7 @@ public class PushStreamReturningServiceInvocationHandlerTest {
     	
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, false, PushStream.class, 
-        		PushEventConsumer.class, _ch, _serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		PushEventConsumer.class, _ch, _serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
         TestReturnsPushStreamTypes proxy = (TestReturnsPushStreamTypes) createProxy(_proxyClass, sih);
         
@@ -253,7 +254,7 @@ public class PushStreamReturningServiceInvocationHandlerTest {
     	
     	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
     			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, false, PushStream.class, 
-    			PushEventSource.class, _ch, _serializer, () -> 1, new AtomicLong(3000), executor, timer);
+    			PushEventSource.class, _ch, _serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
     	
     	TestReturnsPushStreamTypes proxy = (TestReturnsPushStreamTypes) createProxy(_proxyClass, sih);
     	
@@ -291,7 +292,7 @@ public class PushStreamReturningServiceInvocationHandlerTest {
     	
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClassWithDifferentPushStream, _proxyClassWithDifferentPushStreamInterfaces, _differentPromise, false, _differentPushStream, _differentPushEventSource, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
         Object proxy = createProxy(_proxyClassWithDifferentPushStream, sih);
         
@@ -332,7 +333,7 @@ public class PushStreamReturningServiceInvocationHandlerTest {
 		
 		ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
 				_callingContext, _proxyClassWithDifferentPushStream, _proxyClassWithDifferentPushStreamInterfaces, _differentPromise, false, _differentPushStream, _differentPushEventSource, _ch, 
-				_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+				_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 		
 		Object proxy = createProxy(_proxyClassWithDifferentPushStream, sih);
 		
@@ -379,7 +380,7 @@ public class PushStreamReturningServiceInvocationHandlerTest {
 		
 		ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
 				_callingContext, _proxyClassWithDifferentPushStream, _proxyClassWithDifferentPushStreamInterfaces, _differentPromise, false, _differentPushStream, _differentPushEventSource, _ch, 
-				_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+				_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 		
 		Object proxy = createProxy(_proxyClassWithDifferentPushStream, sih);
 		
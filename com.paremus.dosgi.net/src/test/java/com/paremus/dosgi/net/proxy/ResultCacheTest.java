@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.paremus.dosgi.net.proxy.ResultCache.Key;
+
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+public class ResultCacheTest {
+
+	private final AtomicLong generation = new AtomicLong();
+	
+	private Future<Object> result(Object o) {
+		return ImmediateEventExecutor.INSTANCE.newSucceededFuture(o);
+	}
+
+	@Test
+	public void testKeysUseArgumentBytes() {
+		ResultCache cache = new ResultCache(60000, 10, generation::get);
+		
+		Future<Object> result = result("foo");
+		cache.put(new Key(1, new byte[] {1, 2, 3}), result, cache.getGeneration());
+		
+		assertSame(result, cache.get(new Key(1, new byte[] {1, 2, 3})));
+		assertNull(cache.get(new Key(2, new byte[] {1, 2, 3})));
+		assertNull(cache.get(new Key(1, new byte[] {1, 2, 4})));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		ResultCache cache = new ResultCache(50, 10, generation::get);
+		
+		Key key = new Key(1, new byte[] {1});
+		cache.put(key, result("foo"), cache.getGeneration());
+		assertEquals(1, cache.size());
+		
+		Thread.sleep(100);
+		
+		assertNull(cache.get(key));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		ResultCache cache = new ResultCache(60000, 2, generation::get);
+		
+		Key a = new Key(1, new byte[] {1});
+		Key b = new Key(1, new byte[] {2});
+		Key c = new Key(1, new byte[] {3});
+		
+		cache.put(a, result("a"), cache.getGeneration());
+		cache.put(b, result("b"), cache.getGeneration());
+		
+		// Touch a so that b is the least recently used
+		cache.get(a);
+		cache.put(c, result("c"), cache.getGeneration());
+		
+		assertEquals(2, cache.size());
+		assertEquals("a", cache.get(a).getNow());
+		assertNull(cache.get(b));
+		assertEquals("c", cache.get(c).getNow());
+	}
+
+	@Test
+	public void testInvalidation() {
+		ResultCache cache = new ResultCache(60000, 10, generation::get);
+		
+		Key key = new Key(1, new byte[] {1});
+		cache.put(key, result("foo"), cache.getGeneration());
+		
+		generation.incrementAndGet();
+		
+		assertNull(cache.get(key));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testStaleResultNotCached() {
+		ResultCache cache = new ResultCache(60000, 10, generation::get);
+		
+		Key key = new Key(1, new byte[] {1});
+		long before = cache.getGeneration();
+		
+		// The cache is invalidated while the call is in flight
+		generation.incrementAndGet();
+		cache.put(key, result("foo"), before);
+		
+		assertNull(cache.get(key));
+	}
+
+	@Test
+	public void testRemoveOnlyMatchingResult() {
+		ResultCache cache = new ResultCache(60000, 10, generation::get);
+		
+		Key key = new Key(1, new byte[] {1});
+		Future<Object> first = result("foo");
+		Future<Object> second = result("bar");
+		cache.put(key, second, cache.getGeneration());
+		
+		cache.remove(key, first);
+		assertSame(second, cache.get(key));
+		
+		cache.remove(key, second);
+		assertNull(cache.get(key));
+	}
+}
@@ -15,12 +15,17 @@
 
 package com.paremus.dosgi.net.proxy;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static java.util.Arrays.deepEquals;
+import static java.util.Arrays.stream;
+import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -36,15 +41,22 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -58,11 +70,16 @@ import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.osgi.util.promise.Promise;
 
+import com.paremus.dosgi.net.client.BatchInvocation;
+import com.paremus.dosgi.net.client.CircuitBreaker;
 import com.paremus.dosgi.net.client.ClientInvocation;
 import com.paremus.dosgi.net.client.ClientMessageType;
 import com.paremus.dosgi.net.impl.ImportRegistrationImpl;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+import com.paremus.dosgi.scoping.rsa.RemoteCallBatch;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.DefaultChannelPromise;
@@ -70,6 +87,7 @@ import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timer;
 import io.netty.util.concurrent.DefaultEventExecutor;
 import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ServiceInvocationHandlerTest {
@@ -193,7 +211,7 @@ public class ServiceInvocationHandlerTest {
     	
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 
         CharSequence proxy = createProxy(_proxyClass, sih);
@@ -214,7 +232,7 @@ public class ServiceInvocationHandlerTest {
     	
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 
         CharSequence proxy = createProxy(_proxyClass, sih);
@@ -238,7 +256,7 @@ public class ServiceInvocationHandlerTest {
 		
 		ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
 				_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 		
 		CharSequence proxy = createProxy(_proxyClass, sih);
@@ -251,11 +269,388 @@ public class ServiceInvocationHandlerTest {
 				new Object[] {5, 10})), any());
 	}
 
+    @Test
+	public void testCircuitBreakerRejectsCalls() throws Exception {
+    	
+    	CircuitBreaker breaker = new CircuitBreaker("test", true, 0.5d, 1, 1, 60000, 1);
+    	
+    	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
+    			_serializer, () -> 1, new AtomicLong(3000), breaker, executor, timer);
+    	
+    	CharSequence proxy = createProxy(_proxyClass, sih);
+    	
+    	when(_ch.writeAndFlush(argThat(isInvocationWith(ClientMessageType.WITH_RETURN, 
+    			CharSequence.class.getMethod("length").toString(), new Object[0])), any()))
+	    	.then(i -> {
+	    		i.<ClientInvocation>getArgument(0).getResult()
+	    			.setFailure(new ServiceException("Timed out", ServiceException.REMOTE, 
+	    				new TimeoutException()));
+	    		return null;
+	    	});
+    	
+    	try {
+    		proxy.length();
+    		fail("expected ServiceException(REMOTE)");
+    	} catch (ServiceException se) {
+    		assertEquals("Timed out", se.getMessage());
+    	}
+    	
+    	// The outcome is recorded asynchronously
+    	for(int i = 0; i < 100 && breaker.getState() != CircuitBreaker.State.OPEN; i++) {
+    		Thread.sleep(10);
+    	}
+    	assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    	
+    	try {
+    		proxy.length();
+    		fail("expected ServiceException(REMOTE)");
+    	} catch (ServiceException se) {
+    		assertEquals(ServiceException.REMOTE, se.getType());
+    	}
+    	
+    	verify(_ch, Mockito.times(1)).writeAndFlush(any(), any());
+    }
+
+    @Test
+	public void testHedgedInvocation() throws Exception {
+    	
+    	Map<String, Object> map = new HashMap<String, Object>(_endpointDescription.getProperties());
+    	map.put("com.paremus.dosgi.net.idempotent", new String[] {"length"});
+    	map.put("com.paremus.dosgi.net.hedge.delay", 0L);
+    	
+    	ImportRegistrationImpl replica = Mockito.mock(ImportRegistrationImpl.class);
+    	Channel replicaChannel = Mockito.mock(Channel.class);
+    	UUID replicaId = UUID.randomUUID();
+    	
+    	when(_importRegistration.getReplicas()).thenReturn(asList(replica));
+    	when(replica.getChannel()).thenReturn(replicaChannel);
+    	when(replica.getId()).thenReturn(replicaId);
+    	when(replica.getMethodMappings()).thenReturn(singletonMap(7, "length[]"));
+    	when(replica.getCircuitBreaker()).thenReturn(CircuitBreaker.disabled());
+    	when(replicaChannel.isActive()).thenReturn(true);
+    	when(replicaChannel.newPromise()).then(x -> new DefaultChannelPromise(replicaChannel, executor));
+    	
+    	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, new EndpointDescription(map),
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
+    			_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
+    	
+    	CharSequence proxy = createProxy(_proxyClass, sih);
+    	
+    	// The primary never responds
+    	when(replicaChannel.writeAndFlush(argThat(isInvocationWith(ClientMessageType.WITH_RETURN, 
+    			CharSequence.class.getMethod("length").toString(), new Object[0])), any()))
+	    	.then(i -> {
+	    		ClientInvocation ci = i.<ClientInvocation>getArgument(0);
+	    		assertEquals(replicaId, ci.getServiceId());
+	    		assertEquals(7, ci.getMethodId());
+	    		ci.getResult().setSuccess(42);
+	    		return null;
+	    	});
+    	
+    	assertEquals(42, proxy.length());
+    	
+    	ArgumentCaptor<ClientInvocation> primary = ArgumentCaptor.forClass(ClientInvocation.class);
+    	verify(_ch).writeAndFlush(primary.capture(), any());
+    	
+    	// The losing call is cancelled asynchronously
+    	Future<Object> losingResult = primary.getValue().getResult();
+    	for(int i = 0; i < 100 && !losingResult.isCancelled(); i++) {
+    		Thread.sleep(10);
+    	}
+    	assertTrue(losingResult.isCancelled());
+    }
+
+    @Test
+	public void testHedgeUsesReplicaCallIds() throws Exception {
+    	
+    	Map<String, Object> map = new HashMap<String, Object>(_endpointDescription.getProperties());
+    	map.put("com.paremus.dosgi.net.idempotent", new String[] {"length"});
+    	map.put("com.paremus.dosgi.net.hedge.delay", 0L);
+    	
+    	ImportRegistrationImpl replica = Mockito.mock(ImportRegistrationImpl.class);
+    	Channel replicaChannel = Mockito.mock(Channel.class);
+    	UUID replicaId = UUID.randomUUID();
+    	// The replica has already made one call of its own
+    	AtomicInteger replicaCallIds = new AtomicInteger(1);
+    	
+    	when(_importRegistration.getReplicas()).thenReturn(asList(replica));
+    	when(replica.getChannel()).thenReturn(replicaChannel);
+    	when(replica.getId()).thenReturn(replicaId);
+    	when(replica.getMethodMappings()).thenReturn(singletonMap(7, "length[]"));
+    	when(replica.getCircuitBreaker()).thenReturn(CircuitBreaker.disabled());
+    	when(replica.nextCallId()).then(x -> replicaCallIds.getAndIncrement());
+    	when(replicaChannel.isActive()).thenReturn(true);
+    	when(replicaChannel.newPromise()).then(x -> new DefaultChannelPromise(replicaChannel, executor));
+    	
+    	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, new EndpointDescription(map),
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
+    			_serializer, new AtomicInteger()::getAndIncrement, new AtomicLong(3000), CircuitBreaker.disabled(), 
+    			executor, timer);
+    	ServiceInvocationHandler replicaSih = new ServiceInvocationHandler(replica, _endpointDescription,
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, replicaChannel, 
+    			_serializer, replica::nextCallId, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
+    	
+    	CharSequence proxy = createProxy(_proxyClass, sih);
+    	CharSequence replicaProxy = createProxy(_proxyClass, replicaSih);
+    	
+    	// The replica only answers once the hedge and its own call are both outstanding
+    	List<ClientInvocation> replicaCalls = new ArrayList<>();
+    	when(replicaChannel.writeAndFlush(any(), any())).then(i -> {
+    			synchronized (replicaCalls) {
+    				replicaCalls.add(i.getArgument(0));
+    				if(replicaCalls.size() == 2) {
+    					replicaCalls.forEach(ci -> ci.getResult().setSuccess(42));
+    				}
+    			}
+	    		return null;
+	    	});
+    	
+    	CompletableFuture<Integer> direct = CompletableFuture.supplyAsync(replicaProxy::length);
+    	
+    	assertEquals(42, proxy.length());
+    	assertEquals(42, direct.get(5, SECONDS).intValue());
+    	
+    	assertEquals(2, replicaCalls.size());
+    	assertEquals(replicaId, replicaCalls.get(0).getServiceId());
+    	assertEquals(replicaId, replicaCalls.get(1).getServiceId());
+    	assertNotEquals(replicaCalls.get(0).getCallId(), replicaCalls.get(1).getCallId());
+    }
+
+    @Test
+	public void testHedgeNotSentToFailingReplica() throws Exception {
+    	
+    	Map<String, Object> map = new HashMap<String, Object>(_endpointDescription.getProperties());
+    	map.put("com.paremus.dosgi.net.idempotent", new String[] {"length"});
+    	map.put("com.paremus.dosgi.net.hedge.delay", 0L);
+    	
+    	ImportRegistrationImpl replica = Mockito.mock(ImportRegistrationImpl.class);
+    	Channel replicaChannel = Mockito.mock(Channel.class);
+    	
+    	CircuitBreaker replicaBreaker = new CircuitBreaker("replica", true, 0.5d, 1, 1, 60000, 1);
+    	replicaBreaker.onFailure();
+    	
+    	when(_importRegistration.getReplicas()).thenReturn(asList(replica));
+    	when(replica.getChannel()).thenReturn(replicaChannel);
+    	when(replica.getMethodMappings()).thenReturn(singletonMap(7, "length[]"));
+    	CountDownLatch hedged = new CountDownLatch(1);
+    	when(replica.getCircuitBreaker()).then(x -> {
+	    		hedged.countDown();
+	    		return replicaBreaker;
+	    	});
+    	when(replicaChannel.isActive()).thenReturn(true);
+    	
+    	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, new EndpointDescription(map),
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
+    			_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
+    	
+    	CharSequence proxy = createProxy(_proxyClass, sih);
+    	
+    	// The primary responds once the call has tried to hedge
+    	when(_ch.writeAndFlush(argThat(isInvocationWith(ClientMessageType.WITH_RETURN, 
+    			CharSequence.class.getMethod("length").toString(), new Object[0])), any()))
+	    	.then(i -> {
+	    		io.netty.util.concurrent.Promise<Object> result = i.<ClientInvocation>getArgument(0).getResult();
+	    		executor.execute(() -> {
+		    			try {
+		    				hedged.await(5, SECONDS);
+		    			} catch (InterruptedException e) {
+		    				Thread.currentThread().interrupt();
+		    			}
+		    			result.setSuccess(5);
+		    		});
+	    		return null;
+	    	});
+    	
+    	assertEquals(5, proxy.length());
+    	
+    	// The replica's circuit breaker is open, so the call is not hedged
+    	verify(replicaChannel, Mockito.never()).writeAndFlush(any(), any());
+    	assertEquals(CircuitBreaker.State.OPEN, replicaBreaker.getState());
+    }
+
+    @Test
+	public void testCachedInvocation() throws Exception {
+    	
+    	Map<String, Object> map = new HashMap<String, Object>(_endpointDescription.getProperties());
+    	map.put("com.paremus.dosgi.net.cacheable", new String[] {"subSequence"});
+    	
+    	AtomicLong generation = new AtomicLong();
+    	when(_importRegistration.getCacheGeneration()).then(i -> generation.get());
+    	
+    	// The cache keys are the serialized arguments
+    	Mockito.doAnswer(i -> {
+	    		ByteBuf buf = i.getArgument(0);
+	    		stream(i.<Object[]>getArgument(1)).forEach(o -> buf.writeInt((Integer) o));
+	    		return null;
+	    	}).when(_serializer).serializeArgs(any(), any());
+    	stubResultSerialization();
+    	
+    	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, new EndpointDescription(map),
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
+    			_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
+    	
+    	CharSequence proxy = createProxy(_proxyClass, sih);
+    	
+    	when(_ch.writeAndFlush(any(), any()))
+	    	.then(i -> {
+	    		ClientInvocation ci = i.<ClientInvocation>getArgument(0);
+	    		ci.getResult().setSuccess("hello".subSequence((Integer) ci.getArgs()[0], 
+	    				(Integer) ci.getArgs()[1]));
+	    		return null;
+	    	});
+    	
+    	assertEquals("el", proxy.subSequence(1, 3).toString());
+    	assertEquals("el", proxy.subSequence(1, 3).toString());
+    	verify(_ch, Mockito.times(1)).writeAndFlush(any(), any());
+    	
+    	// Different arguments are cached separately
+    	assertEquals("ell", proxy.subSequence(1, 4).toString());
+    	assertEquals("ell", proxy.subSequence(1, 4).toString());
+    	verify(_ch, Mockito.times(2)).writeAndFlush(any(), any());
+    	
+    	// Invalidation discards the cached results
+    	generation.incrementAndGet();
+    	assertEquals("el", proxy.subSequence(1, 3).toString());
+    	verify(_ch, Mockito.times(3)).writeAndFlush(any(), any());
+    }
+
+    @Test
+	public void testCachedResultsAreNotShared() throws Exception {
+    	
+    	Map<String, Object> map = new HashMap<String, Object>(_endpointDescription.getProperties());
+    	map.put("com.paremus.dosgi.net.cacheable", new String[] {"subSequence"});
+    	
+    	Mockito.doAnswer(i -> {
+	    		ByteBuf buf = i.getArgument(0);
+	    		stream(i.<Object[]>getArgument(1)).forEach(o -> buf.writeInt((Integer) o));
+	    		return null;
+	    	}).when(_serializer).serializeArgs(any(), any());
+    	stubResultSerialization();
+    	when(_importRegistration.getId()).thenReturn(UUID.randomUUID());
+    	
+    	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, new EndpointDescription(map),
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
+    			_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
+    	
+    	CharSequence proxy = createProxy(_proxyClass, sih);
+    	
+    	ArgumentCaptor<ClientInvocation> sent = ArgumentCaptor.forClass(ClientInvocation.class);
+    	when(_ch.writeAndFlush(sent.capture(), any()))
+	    	.then(i -> {
+	    		i.<ClientInvocation>getArgument(0).getResult().setSuccess(new StringBuilder("el"));
+	    		return null;
+	    	});
+    	
+    	// The result is mutable, so changing it must not change the cached value
+    	StringBuilder first = (StringBuilder) proxy.subSequence(1, 3);
+    	first.append("lo");
+    	StringBuilder second = (StringBuilder) proxy.subSequence(1, 3);
+    	assertNotSame(first, second);
+    	assertEquals("el", second.toString());
+    	
+    	// The arguments were serialized once per call, to make the cache key
+    	verify(_serializer, Mockito.times(2)).serializeArgs(any(), any());
+    	
+    	// The invocation sends the already serialized arguments
+    	ByteBuf buf = Unpooled.buffer();
+    	sent.getValue().write(buf, new DefaultChannelPromise(_ch, executor));
+    	verify(_serializer, Mockito.times(2)).serializeArgs(any(), any());
+    	assertEquals(1, buf.getInt(buf.readableBytes() - 8));
+    	assertEquals(3, buf.getInt(buf.readableBytes() - 4));
+    }
+
+    private void stubResultSerialization() throws Exception {
+    	Mockito.doAnswer(i -> {
+	    		i.<ByteBuf>getArgument(0).writeCharSequence(i.getArgument(1).toString(), UTF_8);
+	    		return null;
+	    	}).when(_serializer).serializeReturn(any(), any());
+    	when(_serializer.deserializeReturn(any())).then(i -> {
+	    		ByteBuf buf = i.getArgument(0);
+	    		return new StringBuilder(buf.readCharSequence(buf.readableBytes(), UTF_8));
+	    	});
+    }
+
+    @Test
+	public void testBatchedInvocation() throws Exception {
+    	
+    	AtomicInteger callIds = new AtomicInteger();
+    	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
+    			_serializer, callIds::incrementAndGet, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
+    	
+    	CharSequence proxy = createProxy(_proxyClass, sih);
+    	
+    	RemoteCallBatch<CharSequence> batch = sih.createBatch(proxy);
+    	
+    	CompletableFuture<Integer> length = batch.call(CharSequence::length);
+    	CompletableFuture<CharSequence> subSequence = batch.call(cs -> cs.subSequence(1, 3));
+    	
+    	try {
+    		batch.call(CharSequence::chars);
+    		fail("A method not known to the remote service cannot be batched");
+    	} catch (IllegalArgumentException iae) {
+    		// Expected
+    	}
+    	
+    	assertEquals(2, batch.size());
+    	
+    	when(_ch.writeAndFlush(any(BatchInvocation.class), any()))
+	    	.then(i -> {
+	    		BatchInvocation bi = i.<BatchInvocation>getArgument(0);
+	    		assertEquals(ClientMessageType.BATCH, bi.getType());
+	    		bi.getInvocation(1).getResult().setSuccess(5);
+	    		assertTrue(deepEquals(new Object[] {1, 3}, bi.getInvocation(2).getArgs()));
+	    		bi.getInvocation(2).getResult().setSuccess("el");
+	    		return null;
+	    	});
+    	
+    	batch.send();
+    	
+    	assertEquals(0, batch.size());
+    	assertEquals(Integer.valueOf(5), length.get(1, SECONDS));
+    	assertEquals("el", subSequence.get(1, SECONDS));
+    	verify(_ch).writeAndFlush(any(BatchInvocation.class), any());
+    }
+
+    @Test
+	public void testBatchedInvocationCancelled() throws Exception {
+    	
+    	AtomicInteger callIds = new AtomicInteger();
+    	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
+    			_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
+    			_serializer, callIds::incrementAndGet, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
+    	
+    	CharSequence proxy = createProxy(_proxyClass, sih);
+    	
+    	RemoteCallBatch<CharSequence> batch = sih.createBatch(proxy);
+    	
+    	CompletableFuture<Integer> length = batch.call(CharSequence::length);
+    	CompletableFuture<CharSequence> subSequence = batch.call(cs -> cs.subSequence(1, 3));
+    	
+    	// A call which has not been sent is removed from the batch
+    	assertTrue(length.cancel(true));
+    	assertEquals(1, batch.size());
+    	
+    	when(_ch.writeAndFlush(argThat(isInvocationWith(ClientMessageType.WITH_RETURN, 
+        		CharSequence.class.getMethod("subSequence", int.class, int.class).toString(), 
+        		new Object[] {1, 3})), any())).thenReturn(null);
+    	
+    	batch.send();
+    	
+    	ArgumentCaptor<ClientInvocation> captor = ArgumentCaptor.forClass(ClientInvocation.class);
+    	verify(_ch).writeAndFlush(captor.capture(), any());
+    	
+    	// A sent call is cancelled on the remote node
+    	assertTrue(subSequence.cancel(true));
+    	assertTrue(captor.getValue().getResult().isCancelled());
+    }
+
     @Test
 	public void testInvocationFailureWithUndeclaredThrowable() throws Exception {
     	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 
         CharSequence proxy = createProxy(_proxyClass, sih);
@@ -286,7 +681,7 @@ public class ServiceInvocationHandlerTest {
     public void testInvocationFailureWithForwardedException() {
     	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 
         CharSequence proxy = createProxy(_proxyClass, sih);
@@ -312,7 +707,7 @@ public class ServiceInvocationHandlerTest {
 	public void testMethodsInObjectClassAreNotPropagated() throws Exception {
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 
         CharSequence proxy = createProxy(_proxyClass, sih);
@@ -353,7 +748,7 @@ public class ServiceInvocationHandlerTest {
         ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClassWithDifferentAsyncDelegate, 
         		_proxyClassWithDifferentAsyncDelegateInterfaces, _differentPromise, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 
         CharSequence proxy = createProxy(_proxyClassWithDifferentAsyncDelegate, sih);
@@ -381,7 +776,7 @@ public class ServiceInvocationHandlerTest {
 		ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClassWithDifferentAsyncDelegate, 
         		_proxyClassWithDifferentAsyncDelegateInterfaces, _differentPromise, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 
         CharSequence proxy = createProxy(_proxyClassWithDifferentAsyncDelegate, sih);
@@ -401,7 +796,7 @@ public class ServiceInvocationHandlerTest {
     	
     	ServiceInvocationHandler sih = new ServiceInvocationHandler(_importRegistration, _endpointDescription,
         		_callingContext, _proxyClass, _proxyClassInterfaces, Promise.class, true, null, null, _ch, 
-        		_serializer, () -> 1, new AtomicLong(3000), executor, timer);
+        		_serializer, () -> 1, new AtomicLong(3000), CircuitBreaker.disabled(), executor, timer);
 
 
         CharSequence proxy = createProxy(_proxyClass, sih);
@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.pushstream;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.paremus.dosgi.net.pushstream.PushStreamFactory.DataStream;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamCreditTest {
+
+	private static final Throwable NOT_TERMINATED = new Throwable();
+	
+	@Mock
+	DataStream stream;
+	
+	List<Object> sent = new CopyOnWriteArrayList<>();
+	
+	AtomicReference<Throwable> terminal = new AtomicReference<>(NOT_TERMINATED);
+	
+	ToLongFunction<Object> data;
+	
+	Consumer<Throwable> onTerminal;
+	
+	StreamCredit credit;
+	
+	@Before
+	public void setUp() {
+		credit = new StreamCredit(o -> { sent.add(o); return 0; }, terminal::set, 2, 
+				(d, t) -> {
+					data = d;
+					onTerminal = t;
+					return stream;
+				});
+	}
+	
+	@Test
+	public void testNoCreditUsesTimeBasedBackPressure() {
+		for(int i = 0; i < 5; i++) {
+			assertEquals(0, data.applyAsLong(i));
+		}
+		assertEquals(asList(0, 1, 2, 3, 4), sent);
+		
+		onTerminal.accept(null);
+		assertNull(terminal.get());
+	}
+
+	@Test
+	public void testEventsOnlySentWithCredit() {
+		credit.grantCredit(2);
+		credit.open();
+		verify(stream).open();
+		
+		assertEquals(0, data.applyAsLong(1));
+		assertEquals(0, data.applyAsLong(2));
+		assertTrue(data.applyAsLong(3) > 0);
+		assertEquals(asList(1, 2), sent);
+		
+		// The terminal event must wait for the held event
+		onTerminal.accept(null);
+		assertEquals(NOT_TERMINATED, terminal.get());
+		
+		credit.grantCredit(1);
+		assertEquals(asList(1, 2, 3), sent);
+		assertNull(terminal.get());
+	}
+
+	@Test
+	public void testHeldEventsAreBounded() {
+		credit.grantCredit(1);
+		
+		assertEquals(0, data.applyAsLong(1));
+		assertTrue(data.applyAsLong(2) > 0);
+		assertTrue(data.applyAsLong(3) > 0);
+		assertEquals(-1, data.applyAsLong(4));
+		
+		assertEquals(asList(1), sent);
+		assertNotNull(terminal.get());
+		verify(stream).close();
+		
+		// Nothing more is sent once the stream has failed
+		credit.grantCredit(10);
+		assertEquals(asList(1), sent);
+	}
+
+	@Test
+	public void testCloseDiscardsHeldEvents() {
+		credit.grantCredit(1);
+		
+		data.applyAsLong(1);
+		data.applyAsLong(2);
+		credit.close();
+		verify(stream).close();
+		
+		credit.grantCredit(1);
+		onTerminal.accept(null);
+		assertEquals(asList(1), sent);
+		assertEquals(NOT_TERMINATED, terminal.get());
+		verify(stream, never()).open();
+	}
+}
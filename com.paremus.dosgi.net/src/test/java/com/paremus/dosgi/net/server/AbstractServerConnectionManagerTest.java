@@ -15,23 +15,30 @@
 package com.paremus.dosgi.net.server;
 
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.CALL_WITHOUT_RETURN;
+import static com.paremus.dosgi.net.wireformat.Protocol_V1.CANCEL;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.CALL_WITH_RETURN;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_NO_METHOD;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_NO_SERVICE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_RESPONSE;
+import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_SERVER_OVERLOADED;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_TO_DESERIALIZE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_TO_SERIALIZE_FAILURE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.FAILURE_TO_SERIALIZE_SUCCESS;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.SIZE_WIDTH_IN_BYTES;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.SUCCESS_RESPONSE;
 import static com.paremus.dosgi.net.wireformat.Protocol_V1.VERSION;
+import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.osgi.util.promise.Promises.failed;
 import static org.osgi.util.promise.Promises.resolved;
@@ -48,10 +55,13 @@ import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 
 import org.junit.After;
@@ -63,14 +73,16 @@ import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.osgi.framework.Bundle;
 import org.osgi.util.converter.Converters;
+import org.osgi.util.promise.Deferred;
 import org.osgi.util.promise.Promise;
 import org.osgi.util.promise.Promises;
+import org.osgi.util.pushstream.PushStream;
 
 import com.paremus.dosgi.net.config.TransportConfig;
 import com.paremus.dosgi.net.serialize.CompletedPromise;
 import com.paremus.dosgi.net.serialize.CompletedPromise.State;
 import com.paremus.dosgi.net.serialize.SerializationType;
-import com.paremus.dosgi.net.serialize.Serializer;
+import com.paremus.dosgi.net.serialize.SessionSerializer;
 import com.paremus.dosgi.net.test.AbstractLeakCheckingTest;
 import com.paremus.dosgi.net.wireformat.Protocol_V2;
 import com.paremus.netty.tls.ParemusNettyTLS;
@@ -78,7 +90,9 @@ import com.paremus.netty.tls.ParemusNettyTLS;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.util.HashedWheelTimer;
@@ -98,7 +112,7 @@ public abstract class AbstractServerConnectionManagerTest extends AbstractLeakCh
 	protected ServerTestService serviceObject;
 	protected ServerTestService mockServiceObject;
 	
-	protected Serializer serializer;
+	protected SessionSerializer serializer;
 	
 	protected ServerConnectionManager scm;
 	protected RemotingProvider rp;
@@ -121,18 +135,19 @@ public abstract class AbstractServerConnectionManagerTest extends AbstractLeakCh
 				.convert(getConfig()).to(TransportConfig.class), tls, PooledByteBufAllocator.DEFAULT, ioWorker, timer);
 		rp = scm.getConfiguredProviders().get(0);
 		
-		serializer = Mockito.spy(SerializationType.FAST_BINARY.getFactory().create(hostBundle));
+		serializer = (SessionSerializer) Mockito.spy(SerializationType.FAST_BINARY.getFactory().create(hostBundle));
 		
 		serviceObject = new ServerTestServiceImpl(TEST_STRING);
 		mockServiceObject = Mockito.spy(serviceObject);
 		
 		
-		methodMappings = new Method[5];
+		methodMappings = new Method[6];
 		methodMappings[0] = CharSequence.class.getMethod("length"); 
 		methodMappings[1] = CharSequence.class.getMethod("subSequence", int.class, int.class); 
 		methodMappings[2] = ServerTestService.class.getMethod("subSequence", Promise.class, CompletionStage.class); 
 		methodMappings[3] = ServerTestService.class.getMethod("streamOfCharacters", int.class); 
 		methodMappings[4] = ServerTestService.class.getMethod("reusableStreamOfCharacters", int.class); 
+		methodMappings[5] = ServerTestService.class.getMethod("concatenate", PushStream.class); 
 		
 		ServiceInvoker invoker = new ServiceInvoker(rp, SERVICE_ID, serializer, serviceObject, methodMappings, worker, timer);
 		
@@ -279,6 +294,84 @@ public abstract class AbstractServerConnectionManagerTest extends AbstractLeakCh
  		assertEquals("ello World", serializer.deserializeReturn(Unpooled.wrappedBuffer(returned)));
 	}
 
+	@Test
+	public void testArgumentsDeserializedOnWorker() throws IOException, ClassNotFoundException {
+		
+		Mockito.doAnswer(i -> {
+				assertTrue("Arguments should be deserialized by a worker", worker.inEventLoop());
+				return i.callRealMethod();
+			}).when(serializer).deserializeArgs(Mockito.any(), Mockito.any());
+		
+		ByteChannel channel = getCommsChannel(serviceUri);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put(VERSION);
+		for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+			buffer.put((byte)0);
+		}
+		buffer.put(CALL_WITH_RETURN);
+		buffer.putLong(123);
+		buffer.putLong(456);
+		buffer.putInt(789);
+		buffer.putShort((short)1);
+		ByteBuf wrappedBuffer = Unpooled.wrappedBuffer(buffer);
+		serializer.serializeArgs(wrappedBuffer.writerIndex(wrappedBuffer.readerIndex()), new Object[] {1, 11});
+		buffer.position(buffer.position() + wrappedBuffer.writerIndex());
+		buffer.flip();
+		
+		sendData(channel, buffer);
+		
+		ByteBuffer returned = doRead(channel);
+		
+		assertEquals(SUCCESS_RESPONSE, returned.get());
+		assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+		assertEquals(789, returned.getInt());
+		
+		assertEquals("ello World", serializer.deserializeReturn(Unpooled.wrappedBuffer(returned)));
+	}
+
+	@Test
+	public void testSessionArgumentsDeserializedOnWorker() throws IOException, ClassNotFoundException {
+		
+		Mockito.doAnswer(i -> {
+				assertTrue("Arguments should be deserialized by a worker", worker.inEventLoop());
+				return i.callRealMethod();
+			}).when(serializer).deserializeArgs(Mockito.any(), Mockito.any());
+		
+		ByteChannel channel = getCommsChannel(serviceUri);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put((byte) (VERSION | 0x80));
+		for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+			buffer.put((byte)0);
+		}
+		buffer.put(CALL_WITH_RETURN);
+		buffer.putLong(123);
+		buffer.putLong(456);
+		buffer.putInt(789);
+		buffer.putShort((short)1);
+		ByteBuf wrappedBuffer = Unpooled.wrappedBuffer(buffer);
+		serializer.serializeArgs(wrappedBuffer.writerIndex(wrappedBuffer.readerIndex()), new Object[] {1, 11});
+		buffer.position(buffer.position() + wrappedBuffer.writerIndex());
+		// An empty session trailer, which enables the session for the connection
+		buffer.put((byte)0);
+		buffer.putShort((short)0);
+		buffer.putInt(3);
+		buffer.flip();
+		
+		sendData(channel, buffer);
+		
+		ByteBuffer returned = doRead(channel);
+		
+		assertEquals(SUCCESS_RESPONSE, returned.get());
+		assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+		assertEquals(789, returned.getInt());
+		
+		// The response is written using the session, which needs no new definitions
+		assertEquals("ello World", serializer.deserializeReturn(Unpooled.wrappedBuffer(returned), 
+				new EmbeddedChannel()));
+	}
+
 	@Test
 	public void testComplexFailingCall() throws IOException, ClassNotFoundException {
 		
@@ -435,6 +528,501 @@ public abstract class AbstractServerConnectionManagerTest extends AbstractLeakCh
  		Mockito.verify(mockServiceObject, timeout(1000)).subSequence(1, 11);
 	}
 
+	@Test
+	public void testResponseBufferReallocationsCounted() throws IOException, ClassNotFoundException {
+		
+		char[] chars = new char[2000];
+		Arrays.fill(chars, 'x');
+		String large = new String(chars);
+		Mockito.doReturn(large).when(mockServiceObject).subSequence(1, 11);
+		
+		ServiceInvoker invoker = new ServiceInvoker(rp, SERVICE_ID, serializer, mockServiceObject, 
+				methodMappings, worker, timer);
+		rp.registerService(SERVICE_ID, invoker);
+		
+		ByteChannel channel = getCommsChannel(serviceUri);
+		
+		for(int call = 0; call < 2; call++) {
+			ByteBuffer buffer = ByteBuffer.allocate(64);
+			buffer.put(VERSION);
+			for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+				buffer.put((byte)0);
+			}
+			buffer.put(CALL_WITH_RETURN);
+			buffer.putLong(123);
+			buffer.putLong(456);
+			buffer.putInt(789 + call);
+			buffer.putShort((short)1);
+			ByteBuf wrappedBuffer = Unpooled.wrappedBuffer(buffer);
+			serializer.serializeArgs(wrappedBuffer.writerIndex(wrappedBuffer.readerIndex()), new Object[] {1, 11});
+			buffer.position(buffer.position() + wrappedBuffer.writerIndex());
+			buffer.flip();
+			
+			sendData(channel, buffer);
+			
+			ByteBuffer returned = doRead(channel);
+			
+			assertEquals(SUCCESS_RESPONSE, returned.get());
+			assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+			assertEquals(789 + call, returned.getInt());
+			assertEquals(large, serializer.deserializeReturn(Unpooled.wrappedBuffer(returned)));
+			
+			// Only the first response outgrows its buffer, the second uses the new prediction
+			assertEquals(1, invoker.getResponseBufferReallocations());
+			assertEquals(1, rp.getResponseBufferReallocations(SERVICE_ID));
+		}
+		
+		assertEquals(0, rp.getResponseBufferReallocations(new UUID(1, 2)));
+	}
+
+	@Test
+	public void testBatchCall() throws Exception {
+		
+		ByteChannel channel = getCommsChannel(serviceUri);
+		
+		ByteBuf buf = Unpooled.buffer();
+		buf.writeByte(Protocol_V2.VERSION);
+		buf.writeMedium(0);
+		buf.writeByte(Protocol_V2.CALL_BATCH);
+		buf.writeLong(123);
+		buf.writeLong(456);
+		buf.writeInt(789);
+		buf.writeShort(4);
+		writeBatchEntry(buf, 1, 0, new Object[0]);
+		writeBatchEntry(buf, 2, 1, new Object[] {1, 11});
+		writeBatchEntry(buf, 3, 2, new Object[] {null, null});
+		writeBatchEntry(buf, 4, 9, new Object[0]);
+		
+		ByteBuffer buffer = buf.nioBuffer();
+		sendData(channel, buffer);
+		
+		ByteBuffer returned = doRead(channel, Protocol_V2.VERSION);
+		
+		assertEquals(Protocol_V2.BATCH_RESPONSE, returned.get());
+		assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+		assertEquals(789, returned.getInt());
+		assertEquals(4, returned.getShort());
+		
+		ByteBuf response = Unpooled.wrappedBuffer(returned);
+		
+		assertEquals(1, response.readInt());
+		assertEquals(SUCCESS_RESPONSE, response.readByte());
+		assertEquals(serviceObject.length(), serializer.deserializeReturn(response.readSlice(response.readInt())));
+		
+		assertEquals(2, response.readInt());
+		assertEquals(SUCCESS_RESPONSE, response.readByte());
+		assertEquals("ello World", serializer.deserializeReturn(response.readSlice(response.readInt())));
+		
+		// Methods with asynchronous arguments cannot be batched
+		assertEquals(3, response.readInt());
+		assertEquals(FAILURE_RESPONSE, response.readByte());
+		assertTrue(serializer.deserializeReturn(response.readSlice(response.readInt())) 
+				instanceof UnsupportedOperationException);
+		
+		assertEquals(4, response.readInt());
+		assertEquals(FAILURE_NO_METHOD, response.readByte());
+		assertEquals(2, response.readInt());
+		assertEquals(0, response.readUnsignedShort());
+		
+		assertEquals(0, response.readableBytes());
+	}
+
+	private void writeBatchEntry(ByteBuf buf, int callId, int method, Object[] args) throws IOException {
+		buf.writeInt(callId);
+		int lengthIndex = buf.writerIndex();
+		buf.writeInt(0);
+		buf.writeShort(method);
+		serializer.serializeArgs(buf, args);
+		buf.setInt(lengthIndex, buf.writerIndex() - lengthIndex - 4);
+	}
+
+	@Test
+	public void testBatchedCallCancelled() throws Exception {
+		
+		CountDownLatch latch = new CountDownLatch(1);
+		CharSequence serviceToUse = mock(CharSequence.class);
+		when(serviceToUse.length()).then(i -> {
+				latch.await();
+				return 5;
+			});
+		
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1.0d);
+		
+		ByteChannel channel = getCommsChannel(rp.registerService(SERVICE_ID, 
+				new ServiceInvoker(rp, SERVICE_ID, serializer, serviceToUse, methodMappings, worker, timer, 
+						limiter, WorkerScheduling.SHARED)).iterator().next());
+		
+		try {
+			ByteBuf buf = Unpooled.buffer();
+			buf.writeByte(Protocol_V2.VERSION);
+			buf.writeMedium(0);
+			buf.writeByte(Protocol_V2.CALL_BATCH);
+			buf.writeLong(123);
+			buf.writeLong(456);
+			buf.writeInt(789);
+			buf.writeShort(2);
+			writeBatchEntry(buf, 1, 0, new Object[0]);
+			writeBatchEntry(buf, 2, 1, new Object[] {1, 3});
+			sendData(channel, buf.nioBuffer());
+			
+			ByteBuffer cancel = ByteBuffer.allocate(64);
+			cancel.put(VERSION);
+			for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+				cancel.put((byte)0);
+			}
+			cancel.put(CANCEL);
+			cancel.putLong(123);
+			cancel.putLong(456);
+			cancel.putInt(2);
+			cancel.put((byte)1);
+			cancel.flip();
+			sendData(channel, cancel);
+			
+			// A rejected call shows that the cancellation has been processed
+			ByteBuffer buffer = ByteBuffer.allocate(64);
+			buffer.put(VERSION);
+			for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+				buffer.put((byte)0);
+			}
+			buffer.put(CALL_WITH_RETURN);
+			buffer.putLong(123);
+			buffer.putLong(456);
+			buffer.putInt(790);
+			buffer.putShort((short)0);
+			buffer.put((byte)0);
+			buffer.flip();
+			sendData(channel, buffer);
+			
+			ByteBuffer returned = doRead(channel);
+			assertEquals(FAILURE_SERVER_OVERLOADED, returned.get());
+		} finally {
+			latch.countDown();
+		}
+		
+		ByteBuffer returned = doRead(channel, Protocol_V2.VERSION);
+		
+		assertEquals(Protocol_V2.BATCH_RESPONSE, returned.get());
+		assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+		assertEquals(789, returned.getInt());
+		assertEquals(2, returned.getShort());
+		
+		ByteBuf response = Unpooled.wrappedBuffer(returned);
+		
+		assertEquals(1, response.readInt());
+		assertEquals(SUCCESS_RESPONSE, response.readByte());
+		assertEquals(5, serializer.deserializeReturn(response.readSlice(response.readInt())));
+		
+		// The cancelled call is never invoked
+		assertEquals(2, response.readInt());
+		assertEquals(FAILURE_RESPONSE, response.readByte());
+		assertTrue(serializer.deserializeReturn(response.readSlice(response.readInt())) 
+				instanceof CancellationException);
+		verify(serviceToUse, never()).subSequence(anyInt(), anyInt());
+	}
+
+	@Test
+	public void testCallRejectedAtConcurrencyLimit() throws Exception {
+		
+		CountDownLatch latch = new CountDownLatch(1);
+		CharSequence serviceToUse = mock(CharSequence.class);
+		when(serviceToUse.length()).then(i -> {
+				latch.await();
+				return 5;
+			});
+		
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1.0d);
+		
+		ByteChannel channel = getCommsChannel(rp.registerService(SERVICE_ID, 
+				new ServiceInvoker(rp, SERVICE_ID, serializer, serviceToUse, methodMappings, worker, timer, 
+						limiter, WorkerScheduling.SHARED)).iterator().next());
+		
+		try {
+			for(int callId : new int[] {789, 790}) {
+				ByteBuffer buffer = ByteBuffer.allocate(64);
+				buffer.put(VERSION);
+				for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+					buffer.put((byte)0);
+				}
+				buffer.put(CALL_WITH_RETURN);
+				buffer.putLong(123);
+				buffer.putLong(456);
+				buffer.putInt(callId);
+				buffer.putShort((short)0);
+				buffer.put((byte)0);
+				buffer.flip();
+				
+				sendData(channel, buffer);
+			}
+			
+			ByteBuffer returned = doRead(channel);
+			
+			assertEquals(FAILURE_SERVER_OVERLOADED, returned.get());
+			assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+			assertEquals(790, returned.getInt());
+			assertEquals(1, limiter.getRejectedCount());
+			assertEquals(1, limiter.getInFlight());
+		} finally {
+			latch.countDown();
+		}
+		
+		ByteBuffer returned = doRead(channel);
+		
+		assertEquals(SUCCESS_RESPONSE, returned.get());
+		assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+		assertEquals(789, returned.getInt());
+	}
+
+	@Test
+	public void testPermitReleasedWhenCallSetupFails() throws Exception {
+		
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1.0d);
+		ServiceInvoker invoker = new ServiceInvoker(rp, SERVICE_ID, serializer, serviceObject, methodMappings, 
+				worker, timer, limiter, WorkerScheduling.SHARED);
+		
+		// Looking up the serialization session fails after the permit has been taken
+		Channel channel = mock(Channel.class);
+		when(channel.hasAttr(Mockito.any())).thenThrow(new IllegalStateException("broken"));
+		
+		invoker.call(channel, Unpooled.buffer().writeShort(0).writeByte(0), 789);
+		
+		verify(channel).writeAndFlush(Mockito.argThat(o -> o instanceof ServerErrorMessageResponse), Mockito.any());
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(0, limiter.getRejectedCount());
+	}
+
+	@Test
+	public void testPermitReleasedWhenInvocationReturns() throws Exception {
+		
+		ServerTestService serviceToUse = mock(ServerTestService.class);
+		when(serviceToUse.concatenate(Mockito.any())).thenReturn(new Deferred<String>().getPromise());
+		when(serviceToUse.length()).thenReturn(5);
+		
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1.0d);
+		
+		ByteChannel channel = getCommsChannel(rp.registerService(SERVICE_ID, 
+				new ServiceInvoker(rp, SERVICE_ID, serializer, serviceToUse, methodMappings, worker, timer, 
+						limiter, WorkerScheduling.SHARED)).iterator().next());
+		
+		// The first call returns a promise which never resolves
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put(VERSION);
+		for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+			buffer.put((byte)0);
+		}
+		buffer.put(CALL_WITH_RETURN);
+		buffer.putLong(123);
+		buffer.putLong(456);
+		buffer.putInt(789);
+		buffer.putShort((short)5);
+		ByteBuf wrappedBuffer = Unpooled.wrappedBuffer(buffer);
+		serializer.serializeArgs(wrappedBuffer.writerIndex(wrappedBuffer.readerIndex()), new Object[] {null});
+		buffer.position(buffer.position() + wrappedBuffer.writerIndex());
+		buffer.flip();
+		sendData(channel, buffer);
+		
+		Mockito.verify(serviceToUse, timeout(1000)).concatenate(Mockito.any());
+		
+		// Waiting for the promise does not hold the only permit
+		buffer = ByteBuffer.allocate(64);
+		buffer.put(VERSION);
+		for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+			buffer.put((byte)0);
+		}
+		buffer.put(CALL_WITH_RETURN);
+		buffer.putLong(123);
+		buffer.putLong(456);
+		buffer.putInt(790);
+		buffer.putShort((short)0);
+		buffer.put((byte)0);
+		buffer.flip();
+		
+		long deadline = System.currentTimeMillis() + 1000;
+		while(limiter.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		sendData(channel, buffer);
+		
+		ByteBuffer returned = doRead(channel);
+		
+		assertEquals(SUCCESS_RESPONSE, returned.get());
+		assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+		assertEquals(790, returned.getInt());
+		assertEquals(0, limiter.getRejectedCount());
+	}
+
+	@Test
+	public void testSingleFlightCallsShareInvocation() throws Exception {
+		
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch latch = new CountDownLatch(1);
+		CharSequence serviceToUse = mock(CharSequence.class);
+		when(serviceToUse.length()).then(i -> {
+				started.countDown();
+				latch.await();
+				return 5;
+			});
+		
+		URI uri = rp.registerService(SERVICE_ID, 
+				new ServiceInvoker(rp, SERVICE_ID, serializer, serviceToUse, methodMappings, worker, timer, 
+						ConcurrencyLimiter.unlimited(), WorkerScheduling.SHARED, asList("length")))
+				.iterator().next();
+		
+		// Identical calls from two different clients
+		ByteChannel[] channels = {getCommsChannel(uri), getCommsChannel(uri)};
+		
+		try {
+			for(ByteChannel channel : channels) {
+				ByteBuffer buffer = ByteBuffer.allocate(64);
+				buffer.put(VERSION);
+				for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+					buffer.put((byte)0);
+				}
+				buffer.put(CALL_WITH_RETURN);
+				buffer.putLong(123);
+				buffer.putLong(456);
+				buffer.putInt(789);
+				buffer.putShort((short)0);
+				buffer.put((byte)0);
+				buffer.flip();
+				
+				sendData(channel, buffer);
+				assertTrue(started.await(1, SECONDS));
+			}
+			// Give the second call time to arrive
+			Thread.sleep(200);
+		} finally {
+			latch.countDown();
+		}
+		
+		for(ByteChannel channel : channels) {
+			ByteBuffer returned = doRead(channel);
+			
+			assertEquals(SUCCESS_RESPONSE, returned.get());
+			assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+			assertEquals(789, returned.getInt());
+			assertEquals(5, serializer.deserializeReturn(Unpooled.wrappedBuffer(returned)));
+		}
+		
+		Mockito.verify(serviceToUse, Mockito.times(1)).length();
+	}
+
+	@Test
+	public void testSingleFlightSessionCallsNotShared() throws Exception {
+		
+		CharSequence serviceToUse = mock(CharSequence.class);
+		when(serviceToUse.length()).thenReturn(5);
+		
+		URI uri = rp.registerService(SERVICE_ID, 
+				new ServiceInvoker(rp, SERVICE_ID, serializer, serviceToUse, methodMappings, worker, timer, 
+						ConcurrencyLimiter.unlimited(), WorkerScheduling.SHARED, asList("length")))
+				.iterator().next();
+		
+		// Identical bytes from two different clients, but each refers to its own session
+		ByteChannel[] channels = {getCommsChannel(uri), getCommsChannel(uri)};
+		
+		// Keep the worker busy so that both calls are waiting at the same time
+		CountDownLatch latch = new CountDownLatch(1);
+		worker.submit(() -> latch.await(5, SECONDS));
+		
+		try {
+			for(ByteChannel channel : channels) {
+				ByteBuffer buffer = ByteBuffer.allocate(64);
+				buffer.put((byte) (VERSION | 0x80));
+				for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+					buffer.put((byte)0);
+				}
+				buffer.put(CALL_WITH_RETURN);
+				buffer.putLong(123);
+				buffer.putLong(456);
+				buffer.putInt(789);
+				buffer.putShort((short)0);
+				buffer.put((byte)0);
+				// An empty session trailer
+				buffer.put((byte)0);
+				buffer.putShort((short)0);
+				buffer.putInt(3);
+				buffer.flip();
+				
+				sendData(channel, buffer);
+			}
+			// Give the second call time to arrive
+			Thread.sleep(200);
+		} finally {
+			latch.countDown();
+		}
+		
+		for(ByteChannel channel : channels) {
+			ByteBuffer returned = doRead(channel);
+			
+			assertEquals(SUCCESS_RESPONSE, returned.get());
+			assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+			assertEquals(789, returned.getInt());
+			assertEquals(5, serializer.deserializeReturn(Unpooled.wrappedBuffer(returned)));
+		}
+		
+		Mockito.verify(serviceToUse, Mockito.times(2)).length();
+	}
+
+	@Test
+	public void testSingleFlightCancelledByLastCaller() throws Exception {
+		
+		CharSequence serviceToUse = mock(CharSequence.class);
+		
+		URI uri = rp.registerService(SERVICE_ID, 
+				new ServiceInvoker(rp, SERVICE_ID, serializer, serviceToUse, methodMappings, worker, timer, 
+						ConcurrencyLimiter.unlimited(), WorkerScheduling.SHARED, asList("length")))
+				.iterator().next();
+		
+		// Identical calls from two different clients
+		ByteChannel[] channels = {getCommsChannel(uri), getCommsChannel(uri)};
+		int[] callIds = {789, 790};
+		
+		// Keep the worker busy so that the shared invocation has to wait
+		CountDownLatch latch = new CountDownLatch(1);
+		worker.submit(() -> latch.await(5, SECONDS));
+		
+		try {
+			for(int c = 0; c < channels.length; c++) {
+				ByteBuffer buffer = ByteBuffer.allocate(64);
+				buffer.put(VERSION);
+				for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+					buffer.put((byte)0);
+				}
+				buffer.put(CALL_WITH_RETURN);
+				buffer.putLong(123);
+				buffer.putLong(456);
+				buffer.putInt(callIds[c]);
+				buffer.putShort((short)0);
+				buffer.put((byte)0);
+				buffer.flip();
+				sendData(channels[c], buffer);
+			}
+			
+			// Both callers go away, so nobody is waiting for the invocation
+			for(int c = 0; c < channels.length; c++) {
+				ByteBuffer cancel = ByteBuffer.allocate(64);
+				cancel.put(VERSION);
+				for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+					cancel.put((byte)0);
+				}
+				cancel.put(CANCEL);
+				cancel.putLong(123);
+				cancel.putLong(456);
+				cancel.putInt(callIds[c]);
+				cancel.put((byte)1);
+				cancel.flip();
+				sendData(channels[c], cancel);
+			}
+			// Give the cancellations time to arrive
+			Thread.sleep(200);
+		} finally {
+			latch.countDown();
+		}
+		
+		worker.submit(() -> null).get(1, SECONDS);
+		Mockito.verify(serviceToUse, Mockito.never()).length();
+	}
+
 	public interface TestService {
 		Promise<Integer> length();
 	}
@@ -527,7 +1115,7 @@ public abstract class AbstractServerConnectionManagerTest extends AbstractLeakCh
 					
 				});
 		
-		serializer = Mockito.spy(SerializationType.FAST_BINARY.getFactory().create(hostBundle));
+		serializer = (SessionSerializer) Mockito.spy(SerializationType.FAST_BINARY.getFactory().create(hostBundle));
 		
 		methodMappings = new Method[1];
 		methodMappings[0] = testServiceClass.getMethod("length");
@@ -575,7 +1163,7 @@ public abstract class AbstractServerConnectionManagerTest extends AbstractLeakCh
 					
 				});
 		
-		serializer = Mockito.spy(SerializationType.FAST_BINARY.getFactory().create(hostBundle));
+		serializer = (SessionSerializer) Mockito.spy(SerializationType.FAST_BINARY.getFactory().create(hostBundle));
 		methodMappings = new Method[1];
 		methodMappings[0] = testServiceClass.getMethod("length");
 		
@@ -938,6 +1526,78 @@ public abstract class AbstractServerConnectionManagerTest extends AbstractLeakCh
 		doTestSimpleCallReturnsStreamEarlyCloseWithError((short)4);
 	}
 
+	@Test
+	public void testSimpleCallAcceptsPushStream() throws Exception {
+		
+		ByteChannel channel = getCommsChannel(serviceUri);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put(VERSION);
+		for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+			buffer.put((byte)0);
+		}
+		buffer.put(CALL_WITH_RETURN);
+		buffer.putLong(123);
+		buffer.putLong(456);
+		buffer.putInt(789);
+		buffer.putShort((short)5);
+		ByteBuf wrappedBuffer = Unpooled.wrappedBuffer(buffer);
+		serializer.serializeArgs(wrappedBuffer.writerIndex(wrappedBuffer.readerIndex()), new Object[] {null});
+		buffer.position(buffer.position() + wrappedBuffer.writerIndex());
+		buffer.flip();
+		
+		sendData(channel, buffer);
+		
+		// The service connects to the stream, so the server asks for data
+		ByteBuffer returned = doRead(channel, (byte) 2);
+		
+		assertEquals(Protocol_V2.SERVER_ASYNC_METHOD_PARAM_CREDIT, returned.get());
+		assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+		assertEquals(789, returned.getInt());
+		assertEquals(0, returned.get());
+		assertTrue(returned.getInt() > 0);
+		
+		for(Character c : TEST_STRING.toCharArray()) {
+			buffer = ByteBuffer.allocate(64);
+			buffer.put(Protocol_V2.VERSION);
+			for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+				buffer.put((byte)0);
+			}
+			buffer.put(Protocol_V2.ASYNC_METHOD_PARAM_DATA);
+			buffer.putLong(123);
+			buffer.putLong(456);
+			buffer.putInt(789);
+			buffer.put((byte) 0);
+			wrappedBuffer = Unpooled.wrappedBuffer(buffer);
+			serializer.serializeReturn(wrappedBuffer.writerIndex(wrappedBuffer.readerIndex()), c);
+			buffer.position(buffer.position() + wrappedBuffer.writerIndex());
+			buffer.flip();
+			
+			sendData(channel, buffer);
+		}
+		
+		buffer = ByteBuffer.allocate(64);
+		buffer.put(Protocol_V2.VERSION);
+		for(int i = 0; i < SIZE_WIDTH_IN_BYTES; i++) {
+			buffer.put((byte)0);
+		}
+		buffer.put(Protocol_V2.ASYNC_METHOD_PARAM_CLOSE);
+		buffer.putLong(123);
+		buffer.putLong(456);
+		buffer.putInt(789);
+		buffer.put((byte) 0);
+		buffer.flip();
+		
+		sendData(channel, buffer);
+		
+		returned = doRead(channel);
+		
+		assertEquals(SUCCESS_RESPONSE, returned.get());
+		assertEquals(SERVICE_ID, new UUID(returned.getLong(), returned.getLong()));
+		assertEquals(789, returned.getInt());
+		assertEquals(TEST_STRING, serializer.deserializeReturn(Unpooled.wrappedBuffer(returned)));
+	}
+	
 	private void checkData(ByteChannel channel, Character character) throws IOException, ClassNotFoundException {
 		ByteBuffer returned;
 		returned = doRead(channel, (byte) 2);
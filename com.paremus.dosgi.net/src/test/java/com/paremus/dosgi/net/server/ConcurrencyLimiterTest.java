@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void testRejectsAtLimit() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 2, 2, 2.0d);
+		
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(1, limiter.getRejectedCount());
+		
+		limiter.onSample(0, MILLISECONDS.toNanos(1));
+		
+		assertEquals(1, limiter.getInFlight());
+		assertTrue(limiter.tryAcquire());
+	}
+
+	@Test
+	public void testUnlimited() {
+		ConcurrencyLimiter limiter = ConcurrencyLimiter.unlimited();
+		
+		for(int i = 0; i < 10000; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		assertEquals(0, limiter.getRejectedCount());
+	}
+
+	@Test
+	public void testLimitGrowsWhenSaturatedAndLatencyStable() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 2.0d);
+		
+		for(int i = 0; i < 5; i++) {
+			saturate(limiter);
+			drain(limiter);
+		}
+		
+		assertTrue("Limit was " + limiter.getLimit(), limiter.getLimit() > 10);
+	}
+
+	@Test
+	public void testLimitDoesNotGrowWhenUnused() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 2.0d);
+		
+		for(int i = 0; i < 50; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.onSample(0, MILLISECONDS.toNanos(1));
+		}
+		
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void testLimitShrinksWhenLatencyIncreases() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 1, 100, 2.0d);
+		
+		for(int i = 0; i < 20; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.onSample(0, MILLISECONDS.toNanos(1));
+		}
+		
+		for(int i = 0; i < 20; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.onSample(0, MILLISECONDS.toNanos(50));
+		}
+		
+		assertTrue("Limit was " + limiter.getLimit(), limiter.getLimit() < 50);
+	}
+
+	@Test
+	public void testLatencyIsTrackedPerMethod() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 1, 100, 2.0d);
+		
+		for(int i = 0; i < 20; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.onSample(0, MILLISECONDS.toNanos(1));
+			assertTrue(limiter.tryAcquire());
+			limiter.onSample(7, MILLISECONDS.toNanos(50));
+		}
+		
+		assertEquals(50, limiter.getLimit());
+	}
+
+	@Test
+	public void testDroppedCallHalvesLimit() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 10, 100, 2.0d);
+		
+		assertTrue(limiter.tryAcquire());
+		limiter.onDropped();
+		assertEquals(25, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+		
+		assertTrue(limiter.tryAcquire());
+		limiter.onDropped();
+		assertEquals(12, limiter.getLimit());
+
+		assertTrue(limiter.tryAcquire());
+		limiter.onDropped();
+		assertEquals(10, limiter.getLimit());
+	}
+
+	private void saturate(ConcurrencyLimiter limiter) {
+		while(limiter.tryAcquire());
+	}
+
+	private void drain(ConcurrencyLimiter limiter) {
+		while(limiter.getInFlight() > 0) {
+			limiter.onSample(0, MILLISECONDS.toNanos(1));
+		}
+	}
+}
@@ -28,5 +28,7 @@ public interface ServerTestService extends CharSequence {
 	public PushStream<Character> streamOfCharacters(int failAfter);
 
 	public PushEventSource<Character> reusableStreamOfCharacters(int failAfter);
+	
+	public Promise<String> concatenate(PushStream<Character> characters);
 
 }
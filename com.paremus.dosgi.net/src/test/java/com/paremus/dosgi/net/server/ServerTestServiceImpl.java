@@ -93,6 +93,11 @@ public class ServerTestServiceImpl implements ServerTestService {
 		};
 	}
 
+	@Override
+	public Promise<String> concatenate(PushStream<Character> characters) {
+		return characters.map(String::valueOf).reduce("", String::concat);
+	}
+
 	private Character slow(Character c) {
 		try {
 			Thread.sleep(200);
@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.paremus.dosgi.net.serialize.spi.Serializer;
+import com.paremus.dosgi.net.wireformat.Protocol_V2;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamDataBatcherTest {
+
+	private static final UUID SERVICE_ID = UUID.randomUUID();
+	
+	@Mock
+	Serializer serializer;
+	
+	EmbeddedChannel channel;
+	
+	@Before
+	public void setUp() throws Exception {
+		channel = new EmbeddedChannel();
+		doAnswer(i -> i.<ByteBuf>getArgument(0).writeInt(i.<Integer>getArgument(1)))
+			.when(serializer).serializeReturn(any(), any());
+	}
+	
+	@After
+	public void tearDown() {
+		channel.finishAndReleaseAll();
+	}
+
+	@Test
+	public void testBatchSentAtEventLimit() throws Exception {
+		StreamDataBatcher batcher = new StreamDataBatcher(SERVICE_ID, 42, serializer, channel, 
+				new StreamBatching(3, 1024, 60000), StreamScheduler.get(channel).newQueue(f -> {}));
+		
+		batcher.add(1);
+		batcher.add(2);
+		assertNull(channel.readOutbound());
+		
+		batcher.add(3);
+		assertBatch(channel.readOutbound(), 1, 2, 3);
+		
+		batcher.add(4);
+		batcher.flush();
+		assertBatch(channel.readOutbound(), 4);
+		assertNull(channel.readOutbound());
+	}
+
+	@Test
+	public void testBatchSentAtByteLimit() throws Exception {
+		// Each event takes 8 bytes, and the batch starts with a 2 byte count
+		StreamDataBatcher batcher = new StreamDataBatcher(SERVICE_ID, 42, serializer, channel, 
+				new StreamBatching(100, 18, 60000), StreamScheduler.get(channel).newQueue(f -> {}));
+		
+		batcher.add(1);
+		assertNull(channel.readOutbound());
+		
+		batcher.add(2);
+		assertBatch(channel.readOutbound(), 1, 2);
+	}
+
+	@Test
+	public void testBatchSentAfterLinger() throws Exception {
+		StreamDataBatcher batcher = new StreamDataBatcher(SERVICE_ID, 42, serializer, channel, 
+				new StreamBatching(100, 1024, 10), StreamScheduler.get(channel).newQueue(f -> {}));
+		
+		batcher.add(1);
+		batcher.add(2);
+		channel.runScheduledPendingTasks();
+		assertNull(channel.readOutbound());
+		
+		Thread.sleep(50);
+		channel.runScheduledPendingTasks();
+		assertBatch(channel.readOutbound(), 1, 2);
+	}
+
+	private void assertBatch(Object message, int... events) throws Exception {
+		SharedResponse response = (SharedResponse) message;
+		ByteBuf buf = Unpooled.buffer();
+		response.write(buf, channel.newPromise());
+		
+		assertEquals(Protocol_V2.VERSION, buf.readByte());
+		assertEquals(buf.readableBytes() - 3, buf.readUnsignedMedium());
+		assertEquals(Protocol_V2.SERVER_DATA_BATCH_EVENT, buf.readByte());
+		assertEquals(SERVICE_ID, new UUID(buf.readLong(), buf.readLong()));
+		assertEquals(42, buf.readInt());
+		
+		assertEquals(events.length, buf.readUnsignedShort());
+		for(int event : events) {
+			assertEquals(4, buf.readInt());
+			assertEquals(event, buf.readInt());
+		}
+		assertEquals(0, buf.readableBytes());
+	}
+}
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.paremus.dosgi.net.server.StreamScheduler.StreamQueue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class StreamSchedulerTest {
+
+	EmbeddedChannel channel;
+	
+	StreamScheduler scheduler;
+	
+	@Before
+	public void setUp() {
+		channel = new EmbeddedChannel();
+		channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1024, 2048));
+		scheduler = StreamScheduler.get(channel);
+	}
+	
+	@After
+	public void tearDown() {
+		channel.finishAndReleaseAll();
+	}
+	
+	private void setWritable(boolean writable) {
+		channel.unsafe().outboundBuffer().setUserDefinedWritability(1, writable);
+	}
+	
+	private static ByteBuf message(int i) {
+		return Unpooled.buffer(4).writeInt(i);
+	}
+
+	@Test
+	public void testStreamsShareTheChannel() {
+		StreamQueue a = scheduler.newQueue(f -> {});
+		StreamQueue b = scheduler.newQueue(f -> {});
+		
+		setWritable(false);
+		for(int i = 0; i < 3; i++) {
+			a.data(message(i), 4);
+		}
+		b.data(message(10), 4);
+		b.terminal(message(11));
+		assertNull(channel.readOutbound());
+		
+		setWritable(true);
+		scheduler.drain();
+		
+		int[] expected = {0, 10, 1, 11, 2};
+		for(int i : expected) {
+			ByteBuf buf = channel.readOutbound();
+			assertEquals(i, buf.readInt());
+			buf.release();
+		}
+		assertNull(channel.readOutbound());
+	}
+
+	@Test
+	public void testBackPressureFromQueuedBytes() {
+		StreamQueue a = scheduler.newQueue(f -> {});
+		StreamQueue b = scheduler.newQueue(f -> {});
+		
+		setWritable(false);
+		// The sizes are larger than the messages so that they stay below the high water mark
+		assertEquals(0, a.data(message(1), 1024));
+		assertEquals(1, a.data(message(2), 1024));
+		assertEquals(1, a.data(message(3), 1024));
+		assertEquals(3, a.data(message(4), 1024));
+		
+		// Another stream is not slowed by the data queued for the first
+		assertEquals(0, b.data(message(5), 1024));
+		
+		assertEquals(-1, a.data(message(6), 64 * 2048));
+		
+		setWritable(true);
+		scheduler.drain();
+		assertEquals(0, a.backPressure());
+	}
+
+	@Test
+	public void testQueuedDataReleasedOnClose() {
+		StreamQueue a = scheduler.newQueue(f -> {});
+		
+		setWritable(false);
+		ByteBuf msg = message(1);
+		a.data(msg, 4);
+		
+		channel.close();
+		assertEquals(0, msg.refCnt());
+		assertEquals(-1, a.backPressure());
+	}
+}
@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * com.paremus.dosgi.net
+ * %%
+ * Copyright (C) 2016 - 2019 Paremus Ltd
+ * %%
+ * Licensed under the Fair Source License, Version 0.9 (the "License");
+ * 
+ * See the NOTICE.txt file distributed with this work for additional 
+ * information regarding copyright ownership. You may not use this file 
+ * except in compliance with the License. For usage restrictions see the 
+ * LICENSE.txt file distributed with this work
+ * #L%
+ */
+package com.paremus.dosgi.net.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutor;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WorkerSelectorTest {
+
+	private static final UUID SERVICE_ID = new UUID(123, 456);
+	
+	@Mock
+	Channel channelA;
+	@Mock
+	Channel channelB;
+	
+	DefaultEventExecutorGroup group;
+	
+	@Before
+	public void setUp() {
+		group = new DefaultEventExecutorGroup(4);
+	}
+	
+	@After
+	public void tearDown() throws InterruptedException {
+		group.shutdownGracefully(10, 100, TimeUnit.MILLISECONDS).await(1000);
+	}
+	
+	@Test
+	public void testSharedUsesAllWorkers() {
+		WorkerSelector selector = new WorkerSelector(group, WorkerScheduling.SHARED, SERVICE_ID);
+		
+		Set<EventExecutor> used = new HashSet<>();
+		for(int i = 0; i < 4; i++) {
+			used.add(selector.select(channelA));
+		}
+		assertEquals(4, used.size());
+	}
+
+	@Test
+	public void testOrderedIsStable() {
+		WorkerSelector selector = new WorkerSelector(group, WorkerScheduling.ORDERED, SERVICE_ID);
+		
+		EventExecutor executor = selector.select(channelA);
+		for(int i = 0; i < 10; i++) {
+			assertSame(executor, selector.select(channelA));
+		}
+	}
+
+	@Test
+	public void testChannelsAreSpread() {
+		WorkerSelector selector = new WorkerSelector(group, WorkerScheduling.ORDERED, SERVICE_ID);
+		
+		Set<EventExecutor> used = new HashSet<>();
+		for(int i = 0; i < 64; i++) {
+			used.add(selector.select(mock(Channel.class)));
+		}
+		assertTrue("Only used " + used.size() + " workers", used.size() > 1);
+	}
+
+	@Test
+	public void testAffineMovesAwayFromBusyWorker() throws Exception {
+		WorkerSelector affine = new WorkerSelector(group, WorkerScheduling.AFFINE, SERVICE_ID);
+		WorkerSelector ordered = new WorkerSelector(group, WorkerScheduling.ORDERED, SERVICE_ID);
+		
+		EventExecutor preferred = affine.select(channelA);
+		assertSame(preferred, ordered.select(channelA));
+		
+		CountDownLatch latch = new CountDownLatch(1);
+		try {
+			for(int i = 0; i < 10; i++) {
+				preferred.execute(() -> {
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			
+			assertNotSame(preferred, affine.select(channelA));
+			assertSame(preferred, ordered.select(channelA));
+		} finally {
+			latch.countDown();
+		}
+	}
+
+	@Test
+	public void testNoChannel() {
+		WorkerSelector selector = new WorkerSelector(group, WorkerScheduling.ORDERED, SERVICE_ID);
+		
+		Set<EventExecutor> used = new HashSet<>();
+		for(int i = 0; i < 4; i++) {
+			used.add(selector.select(null));
+		}
+		assertEquals(4, used.size());
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ Copyright 2008-2011 the original author or authors
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.freshvanilla.lang.misc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class AccessorTest {
+
+    static class Pojo {
+        boolean z;
+        byte b;
+        char c;
+        short s;
+        int i;
+        float f;
+        long j;
+        double d;
+        Object o;
+        final int fixed;
+
+        Pojo(int fixed) {
+            this.fixed = fixed;
+        }
+    }
+
+    @Test
+    public void testSafeAccessor() throws Exception {
+        checkAccessor(new SafeAccessor());
+    }
+
+    @Test
+    public void testUnsafeAccessor() throws Exception {
+        Unsafe unsafe;
+        try {
+            unsafe = new Unsafe();
+        }
+        catch (Throwable t) {
+            Assume.assumeNoException("sun.misc.Unsafe is not available", t);
+            return;
+        }
+        checkAccessor(unsafe);
+    }
+
+    @Test
+    public void testJava8Fallback() throws Exception {
+        Accessor fallback = new SafeAccessor();
+        assertSame(fallback, AccessUtils.withVarHandles(fallback, "org.freshvanilla.lang.misc.MissingAccessor"));
+    }
+
+    @Test
+    public void testVarHandleAccessor() throws Exception {
+        Accessor fallback = new SafeAccessor();
+        Accessor accessor = AccessUtils.withVarHandles(fallback, AccessUtils.VAR_HANDLE_ACCESSOR);
+        Assume.assumeTrue("The Java 9 classes are not on the class path", accessor != fallback);
+        checkAccessor(accessor);
+
+        assertTrue(accessor.getFieldAccessor(Pojo.class.getDeclaredField("i"))
+                .getClass().getSimpleName().startsWith("VarHandle"));
+        // VarHandles cannot write final fields, so the fallback is used
+        assertTrue(accessor.getFieldAccessor(Pojo.class.getDeclaredField("fixed"))
+                instanceof SafeIntFieldAccessor);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void checkAccessor(Accessor accessor) throws Exception {
+        Pojo pojo = new Pojo(1);
+
+        FieldAccessor fa = accessor.getFieldAccessor(field("z"));
+        fa.setField(pojo, Boolean.TRUE);
+        assertTrue(pojo.z);
+        assertEquals(Boolean.TRUE, fa.getField(pojo));
+        fa.setNum(pojo, 0);
+        assertFalse(fa.getBoolean(pojo));
+
+        fa = accessor.getFieldAccessor(field("b"));
+        fa.setNum(pojo, 7);
+        assertEquals(7, pojo.b);
+        assertEquals(Byte.valueOf((byte) 7), fa.getField(pojo));
+
+        fa = accessor.getFieldAccessor(field("c"));
+        fa.setField(pojo, 'x');
+        assertEquals('x', pojo.c);
+        assertEquals(Character.valueOf('x'), fa.getField(pojo));
+
+        fa = accessor.getFieldAccessor(field("s"));
+        fa.setNum(pojo, 300);
+        assertEquals(300, pojo.s);
+        assertEquals(300, fa.getNum(pojo));
+
+        fa = accessor.getFieldAccessor(field("i"));
+        fa.setField(pojo, 42);
+        assertEquals(42, pojo.i);
+        assertEquals(42, fa.getNum(pojo));
+        fa.setBoolean(pojo, true);
+        assertEquals(1, pojo.i);
+
+        fa = accessor.getFieldAccessor(field("f"));
+        fa.setDouble(pojo, 1.5);
+        assertEquals(1.5f, pojo.f, 0);
+        assertEquals(1.5, fa.getDouble(pojo), 0);
+
+        fa = accessor.getFieldAccessor(field("j"));
+        fa.setNum(pojo, Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, pojo.j);
+        assertEquals(Long.valueOf(Long.MAX_VALUE), fa.getField(pojo));
+
+        fa = accessor.getFieldAccessor(field("d"));
+        fa.setField(pojo, 2.25);
+        assertEquals(2.25, pojo.d, 0);
+        assertEquals(2.25, fa.getDouble(pojo), 0);
+
+        fa = accessor.getFieldAccessor(field("o"));
+        String value = "hello";
+        fa.setField(pojo, value);
+        assertSame(value, pojo.o);
+        assertSame(value, fa.getField(pojo));
+
+        fa = accessor.getFieldAccessor(field("fixed"));
+        assertEquals(1, fa.getNum(pojo));
+        fa.setNum(pojo, 2);
+        assertEquals(2, fa.getNum(pojo));
+    }
+
+    private static Field field(String name) throws NoSuchFieldException {
+        return Pojo.class.getDeclaredField(name);
+    }
+}